@@ -0,0 +1,329 @@
+package org.myrobotlab.arduino;
+
+import static org.myrobotlab.arduino.Msg.MAGIC_NUMBER_SEQ;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.myrobotlab.framework.TimerWheel;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Go-back-n send window for MrlComm frames. Instead of waiting for the ack of
+ * every msg up to size frames are on the wire, each with a sequence number
+ *
+ * <pre>
+ * MAGIC_NUMBER_SEQ|MSG_SIZE|SEQ|METHOD_NUMBER|PARAM0|PARAM1 ...
+ * </pre>
+ *
+ * MrlComm processes them in order only and acknowledges the last one it
+ * processed with publishSeqAck - acks are cumulative. If the oldest frame is
+ * not acknowledged within the timeout it and every frame after it are sent
+ * again.
+ *
+ * The first frame of a window and the first frame after giving up are sent
+ * plain - a plain frame restarts the sequence on the board.
+ *
+ * The window's monitor guards its state only - no write happens while it is
+ * held, so acks from the serial reader never wait on a write. Writes are kept
+ * in sequence order by writeLock, which is also what keeps a slot from being
+ * filled again while it is on its way out. The TimerWheel only notices a
+ * timeout - the retransmit runs on the executor.
+ */
+public class AckWindow {
+
+  public final static Logger log = LoggerFactory.getLogger(AckWindow.class);
+
+  /**
+   * must stay well below the 256 sequence numbers
+   */
+  public static final int MAX_SIZE = 32;
+
+  public interface FrameWriter {
+    void write(byte[] data, int len) throws Exception;
+  }
+
+  /**
+   * retransmits of windows created without an executor
+   */
+  static ExecutorService defaultExecutor = null;
+
+  final FrameWriter writer;
+  final Executor executor;
+  final Object writeLock = new Object();
+  final int size;
+  final byte[][] frames;
+  final int[] lengths;
+
+  /**
+   * slot of the oldest frame not acknowledged
+   */
+  int head = 0;
+  /**
+   * frames sent and not acknowledged
+   */
+  int count = 0;
+  /**
+   * seq of the next new frame
+   */
+  int nextSeq = 0;
+  /**
+   * next frame goes plain and the sequence restarts
+   */
+  boolean resync = true;
+  boolean closed = false;
+
+  int timeoutMs = 250;
+  int maxRetries = 5;
+  int retries = 0;
+  TimerWheel.Timeout timeout = null;
+  boolean retransmitting = false;
+  /**
+   * stale timeouts which could not be cancelled in time are ignored
+   */
+  int timerEpoch = 0;
+
+  long sent = 0;
+  long resent = 0;
+  long acked = 0;
+  long dropped = 0;
+
+  public AckWindow(FrameWriter writer, int size) {
+    this(writer, size, null);
+  }
+
+  /**
+   * @param executor
+   *          runs the retransmits - e.g. the thread which writes to the
+   *          serial port
+   */
+  public AckWindow(FrameWriter writer, int size, Executor executor) {
+    this.writer = writer;
+    this.size = Math.max(1, Math.min(size, MAX_SIZE));
+    this.executor = (executor != null) ? executor : getDefaultExecutor();
+    frames = new byte[this.size][Msg.MAX_MSG_SIZE + 3];
+    lengths = new int[this.size];
+  }
+
+  static synchronized ExecutorService getDefaultExecutor() {
+    if (defaultExecutor == null) {
+      defaultExecutor = newTxExecutor("ack_retransmit");
+    }
+    return defaultExecutor;
+  }
+
+  /**
+   * a single daemon thread for serial writes which must not run on the
+   * TimerWheel - it goes away when idle
+   */
+  static ExecutorService newTxExecutor(final String name) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * sends a plain frame - blocks while the window is full
+   *
+   * @param frame
+   *          MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0 ...
+   * @param len
+   *          bytes in frame
+   */
+  public void send(byte[] frame, int len) throws Exception {
+    while (true) {
+      synchronized (this) {
+        while (count == size && !closed) {
+          // retransmits and give ups are on the timer - this only waits for
+          // room
+          wait(timeoutMs);
+        }
+      }
+
+      synchronized (writeLock) {
+        byte[] out;
+        int outLen;
+        synchronized (this) {
+          if (count == size && !closed) {
+            // another sender took the room
+            continue;
+          }
+          if (closed || resync) {
+            out = frame;
+            outLen = len;
+            if (!closed) {
+              resync = false;
+              nextSeq = 0;
+            }
+          } else {
+            int slot = (head + count) % size;
+            out = frames[slot];
+            out[0] = (byte) MAGIC_NUMBER_SEQ;
+            out[1] = (byte) ((frame[1] & 0xFF) + 1);
+            out[2] = (byte) nextSeq;
+            System.arraycopy(frame, 2, out, 3, len - 2);
+            outLen = len + 1;
+            lengths[slot] = outLen;
+            nextSeq = (nextSeq + 1) & 0xFF;
+            ++count;
+            ++sent;
+            if (count == 1) {
+              arm();
+            }
+          }
+        }
+        writer.write(out, outLen);
+        return;
+      }
+    }
+  }
+
+  /**
+   * cumulative ack - every frame up to and including seq was processed
+   */
+  public synchronized void ack(int seq) {
+    int base = (nextSeq - count) & 0xFF;
+    int n = ((seq - base) & 0xFF) + 1;
+    if (n > count) {
+      // repeated ack or an ack of the last frame before a gap
+      return;
+    }
+    head = (head + n) % size;
+    count -= n;
+    acked += n;
+    retries = 0;
+    disarm();
+    if (count > 0) {
+      arm();
+    }
+    notifyAll();
+  }
+
+  void arm() {
+    final int epoch = ++timerEpoch;
+    timeout = TimerWheel.getInstance().schedule(new Runnable() {
+      @Override
+      public void run() {
+        expired(epoch);
+      }
+    }, timeoutMs, TimeUnit.MILLISECONDS);
+  }
+
+  void disarm() {
+    ++timerEpoch;
+    if (timeout != null) {
+      timeout.cancel();
+      timeout = null;
+    }
+  }
+
+  synchronized void expired(int epoch) {
+    if (epoch != timerEpoch || count == 0 || closed) {
+      return;
+    }
+    if (++retries > maxRetries) {
+      log.error("no ack for seq {} after {} retries - dropping {} frames", (nextSeq - count) & 0xFF, maxRetries, count);
+      dropped += count;
+      head = (head + count) % size;
+      count = 0;
+      retries = 0;
+      resync = true;
+      notifyAll();
+      return;
+    }
+    // go back n - not on the wheel's thread, a write can block
+    if (!retransmitting) {
+      retransmitting = true;
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          retransmit();
+        }
+      });
+    }
+    arm();
+  }
+
+  /**
+   * writes every frame not acknowledged yet
+   */
+  void retransmit() {
+    synchronized (writeLock) {
+      int first;
+      int n;
+      synchronized (this) {
+        retransmitting = false;
+        if (closed || count == 0) {
+          return;
+        }
+        first = head;
+        n = count;
+        resent += n;
+      }
+      // acks may free some of them meanwhile - the board acks repeats again
+      try {
+        for (int i = 0; i < n; ++i) {
+          int slot = (first + i) % size;
+          writer.write(frames[slot], lengths[slot]);
+        }
+      } catch (Exception e) {
+        log.error("retransmit threw", e);
+      }
+    }
+  }
+
+  /**
+   * stops retransmitting - waiting senders write plain frames
+   */
+  public synchronized void close() {
+    closed = true;
+    disarm();
+    count = 0;
+    notifyAll();
+  }
+
+  public void setTimeout(int timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public synchronized int getOutstanding() {
+    return count;
+  }
+
+  public synchronized long getSent() {
+    return sent;
+  }
+
+  public synchronized long getResent() {
+    return resent;
+  }
+
+  public synchronized long getDropped() {
+    return dropped;
+  }
+
+  public synchronized String toString() {
+    return String.format("window %d outstanding %d sent %d acked %d resent %d dropped %d", size, count, sent, acked, resent, dropped);
+  }
+
+}
@@ -25,7 +25,7 @@ public class ArduinoMsgGenerator {
 
   public transient final static Logger log = LoggerFactory.getLogger(ArduinoMsgGenerator.class);
 
-	static final Integer MRLCOMM_VERSION = 57;
+	static final Integer MRLCOMM_VERSION = 59;
 
   public void generateDefinitions() throws IOException {
     generateDefinitions(new File("src/resource/Arduino/generate/arduinoMsgs.schema"));
@@ -208,10 +208,10 @@ public class ArduinoMsgGenerator {
     fileSnr.put("%javaDeviceTypes%", javaDeviceTypes.toString());
 
     // FIXME - will move to MrlComm.h
-    String mrlComm_h = toString("src/resource/Arduino/MRLComm/MrlComm.h");
+    String mrlComm_h = toString("src/resource/Arduino/MrlComm/MrlComm.h");
     String top = mrlComm_h.substring(0, mrlComm_h.indexOf("<generatedCallBacks>") + "<generatedCallBacks>".length());
     String bottom = mrlComm_h.substring(mrlComm_h.indexOf("</generatedCallBacks>"));
-    FileOutputStream mrlComm_updated_h = new FileOutputStream("src/resource/Arduino/MRLComm/MrlComm.h");
+    FileOutputStream mrlComm_updated_h = new FileOutputStream("src/resource/Arduino/MrlComm/MrlComm.h");
     mrlComm_updated_h.write((top + "\n" + cppGeneratedCallBacks.toString() + "    // " + bottom).getBytes());
     mrlComm_updated_h.close();
 
@@ -246,11 +246,11 @@ public class ArduinoMsgGenerator {
     }
 
     // write out to files ..
-    FileOutputStream MsgH = new FileOutputStream("src/resource/Arduino/MRLComm/Msg.h");
-    FileOutputStream MsgCpp = new FileOutputStream("src/resource/Arduino/MRLComm/Msg.cpp");
+    FileOutputStream MsgH = new FileOutputStream("src/resource/Arduino/MrlComm/Msg.h");
+    FileOutputStream MsgCpp = new FileOutputStream("src/resource/Arduino/MrlComm/Msg.cpp");
     FileOutputStream MsgJava = new FileOutputStream("src/org/myrobotlab/arduino/Msg.java");
     FileOutputStream VirtualMsg = new FileOutputStream("src/org/myrobotlab/arduino/VirtualMsg.java");
-    FileOutputStream ArduinoMsgCodedH = new FileOutputStream("src/resource/Arduino/MRLComm/ArduinoMsgCodec.h");
+    FileOutputStream ArduinoMsgCodedH = new FileOutputStream("src/resource/Arduino/MrlComm/ArduinoMsgCodec.h");
 
     ArduinoMsgCodedH.write(arduinoMsgCodeTemplateH.getBytes());
     MsgH.write(idlToHpp.getBytes());
@@ -26,6 +26,8 @@ public class BoardInfo implements Serializable {
 	Integer sram;
 	Integer microsPerLoop;
 	Integer activePins;
+	// sequenced msgs the board can take before it acks - 1 is stop and wait
+	Integer ackWindow;
 	DeviceSummary[] deviceSummary; // deviceList with types
 	
 
@@ -87,6 +89,7 @@ public class BoardInfo implements Serializable {
 	public void reset() {
 		// boardId = -1;
 		version = null;
+		ackWindow = null;
 		// boardName = null;
 		// valid = false;
 	}
@@ -146,6 +149,14 @@ public class BoardInfo implements Serializable {
 		this.activePins = activePins;
 	}
 
+	public Integer getAckWindow() {
+		return ackWindow;
+	}
+
+	public void setAckWindow(Integer ackWindow) {
+		this.ackWindow = ackWindow;
+	}
+
 	public String toString() {
 		if (version != null) {
 		  /*
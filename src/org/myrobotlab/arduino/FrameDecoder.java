@@ -0,0 +1,134 @@
+package org.myrobotlab.arduino;
+
+import static org.myrobotlab.arduino.Msg.MAGIC_NUMBER;
+import static org.myrobotlab.arduino.Msg.MAX_MSG_SIZE;
+
+/**
+ * Reassembles MrlComm frames from the serial stream
+ *
+ * <pre>
+ * MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0|PARAM1 ...
+ * </pre>
+ *
+ * Bytes can be given one at a time or a whole read buffer at once - a frame
+ * can be split over any number of reads. The payload of a frame is copied
+ * straight out of the read buffer, there is no boxing and no per byte call.
+ * Complete frames are given to the FrameListener, ioCmd[0] is the method.
+ *
+ * Not thread safe - it is fed by the port's reading thread.
+ */
+public class FrameDecoder {
+
+  public interface FrameListener {
+    /**
+     * @param ioCmd
+     *          method and params - only valid during the call
+     * @param size
+     *          number of valid ints in ioCmd
+     */
+    void onFrame(int[] ioCmd, int size);
+
+    void onFrameError(String error);
+  }
+
+  final FrameListener listener;
+  final int[] ioCmd = new int[MAX_MSG_SIZE];
+  /**
+   * bytes of the current frame received so far - header included
+   */
+  int byteCount = 0;
+  int msgSize = 0;
+
+  long frames = 0;
+  long errors = 0;
+
+  public FrameDecoder(FrameListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * @param b
+   *          next byte of the stream 0-255
+   */
+  public void decode(int b) {
+    ++byteCount;
+    if (byteCount == 1) {
+      if (b != MAGIC_NUMBER) {
+        byteCount = 0;
+        error(String.format("bad magic number %d", b));
+      }
+    } else if (byteCount == 2) {
+      if (b > MAX_MSG_SIZE) {
+        byteCount = 0;
+        error(String.format("bad msg size %d", b));
+        return;
+      }
+      msgSize = b;
+      if (msgSize == 0) {
+        frame();
+      }
+    } else {
+      ioCmd[byteCount - 3] = b;
+      if (byteCount == 2 + msgSize) {
+        frame();
+      }
+    }
+  }
+
+  /**
+   * decodes a buffer from a bulk read
+   */
+  public void decode(byte[] data, int off, int len) {
+    int end = off + len;
+    int i = off;
+    while (i < end) {
+      if (byteCount < 2) {
+        decode(data[i++] & 0xff);
+        continue;
+      }
+      // in the payload - take as much of it as this buffer has
+      int pos = byteCount - 2;
+      int n = Math.min(msgSize - pos, end - i);
+      for (int j = 0; j < n; ++j) {
+        ioCmd[pos + j] = data[i + j] & 0xff;
+      }
+      byteCount += n;
+      i += n;
+      if (byteCount == 2 + msgSize) {
+        frame();
+      }
+    }
+  }
+
+  void frame() {
+    int size = msgSize;
+    // reset first - the listener may throw
+    byteCount = 0;
+    msgSize = 0;
+    ++frames;
+    listener.onFrame(ioCmd, size);
+  }
+
+  void error(String error) {
+    msgSize = 0;
+    ++errors;
+    listener.onFrameError(error);
+  }
+
+  /**
+   * drops a partial frame - e.g. after a reconnect
+   */
+  public void reset() {
+    byteCount = 0;
+    msgSize = 0;
+  }
+
+  public long getFrameCount() {
+    return frames;
+  }
+
+  public long getErrorCount() {
+    return errors;
+  }
+
+}
@@ -6,7 +6,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.myrobotlab.framework.TimerWheel;
 import org.myrobotlab.logging.Level;
 
 import org.myrobotlab.arduino.virtual.MrlComm;
@@ -35,6 +38,10 @@ import org.myrobotlab.arduino.virtual.MrlComm;
  The binary wire format of an Arduino is:
 
  MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0|PARAM1 ...
+
+ and with a send window (see AckWindow) frames are sequenced - MSG_SIZE counts the SEQ byte:
+
+ MAGIC_NUMBER_SEQ|MSG_SIZE|SEQ|METHOD_NUMBER|PARAM0|PARAM1 ...
  
  </pre>
 
@@ -63,7 +70,8 @@ public class Msg {
 
 	public static final int MAX_MSG_SIZE = 64;
 	public static final int MAGIC_NUMBER = 170; // 10101010
-	public static final int MRLCOMM_VERSION = 57;
+	public static final int MAGIC_NUMBER_SEQ = 171; // 10101011
+	public static final int MRLCOMM_VERSION = 59;
 	
 	// send buffer
   int sendBufferSize = 0;
@@ -75,6 +83,12 @@ public class Msg {
   int byteCount = 0;
   int msgSize = 0;
 
+  // sequenced frame receiving
+  boolean seqFrame = false;
+  // seq of the last frame read - -1 if it was a plain frame
+  int seq = -1;
+  int expectedSeq = 0;
+
 	// ------ device type mapping constants
 	int method = -1;
 	public boolean debug = false;
@@ -89,6 +103,33 @@ public class Msg {
 	  }
 	 
 	transient AckLock ackRecievedLock = new AckLock();
+
+	// windowed acks
+	transient volatile AckWindow ackWindow = null;
+	// writes which must not run on the TimerWheel thread - a serial write can
+	// block
+	transient final ExecutorService txExecutor = AckWindow.newTxExecutor("msg_tx");
+
+	// each frame is built here and goes to the serial in one write
+	boolean framing = false;
+	int frameSize = 0;
+	byte frame[] = new byte[MAX_MSG_SIZE + 2];
+
+	// coalescing - small frames are collected and written together
+	// after coalesceMs or when the buffer is full
+	boolean coalesce = false;
+	int coalesceMs = 2;
+	final Object txLock = new Object();
+	byte coalesceBuffer[] = new byte[256];
+	int coalesceSize = 0;
+	transient TimerWheel.Timeout coalesceTimeout = null;
+	// the timeout only hands the flush to txExecutor - the wheel never writes
+	transient final Runnable flusher = new Runnable() {
+	  @Override
+	  public void run() {
+	    flush();
+	  }
+	};
 	
 	// recording related
 	transient FileOutputStream record = null;
@@ -109,7 +150,7 @@ public class Msg {
 	public final static int PUBLISH_MRLCOMM_ERROR = 1;
 	// > getBoardInfo
 	public final static int GET_BOARD_INFO = 2;
-	// < publishBoardInfo/version/boardType/b16 microsPerLoop/b16 sram/activePins/[] deviceSummary
+	// < publishBoardInfo/version/boardType/b16 microsPerLoop/b16 sram/activePins/ackWindow/[] deviceSummary
 	public final static int PUBLISH_BOARD_INFO = 3;
 	// > enablePin/address/type/b16 rate
 	public final static int ENABLE_PIN = 4;
@@ -123,90 +164,94 @@ public class Msg {
 	public final static int ENABLE_ACK = 8;
 	// < publishAck/function
 	public final static int PUBLISH_ACK = 9;
+	// < publishSeqAck/seq
+	public final static int PUBLISH_SEQ_ACK = 10;
 	// > echo/f32 myFloat/myByte/f32 secondFloat
-	public final static int ECHO = 10;
+	public final static int ECHO = 11;
 	// < publishEcho/f32 myFloat/myByte/f32 secondFloat
-	public final static int PUBLISH_ECHO = 11;
+	public final static int PUBLISH_ECHO = 12;
 	// > customMsg/[] msg
-	public final static int CUSTOM_MSG = 12;
+	public final static int CUSTOM_MSG = 13;
 	// < publishCustomMsg/[] msg
-	public final static int PUBLISH_CUSTOM_MSG = 13;
+	public final static int PUBLISH_CUSTOM_MSG = 14;
 	// > deviceDetach/deviceId
-	public final static int DEVICE_DETACH = 14;
+	public final static int DEVICE_DETACH = 15;
 	// > i2cBusAttach/deviceId/i2cBus
-	public final static int I2C_BUS_ATTACH = 15;
+	public final static int I2C_BUS_ATTACH = 16;
 	// > i2cRead/deviceId/deviceAddress/size
-	public final static int I2C_READ = 16;
+	public final static int I2C_READ = 17;
 	// > i2cWrite/deviceId/deviceAddress/[] data
-	public final static int I2C_WRITE = 17;
+	public final static int I2C_WRITE = 18;
 	// > i2cWriteRead/deviceId/deviceAddress/readSize/writeValue
-	public final static int I2C_WRITE_READ = 18;
+	public final static int I2C_WRITE_READ = 19;
 	// < publishI2cData/deviceId/[] data
-	public final static int PUBLISH_I2C_DATA = 19;
+	public final static int PUBLISH_I2C_DATA = 20;
 	// > neoPixelAttach/deviceId/pin/b32 numPixels
-	public final static int NEO_PIXEL_ATTACH = 20;
+	public final static int NEO_PIXEL_ATTACH = 21;
 	// > neoPixelSetAnimation/deviceId/animation/red/green/blue/b16 speed
-	public final static int NEO_PIXEL_SET_ANIMATION = 21;
+	public final static int NEO_PIXEL_SET_ANIMATION = 22;
 	// > neoPixelWriteMatrix/deviceId/[] buffer
-	public final static int NEO_PIXEL_WRITE_MATRIX = 22;
+	public final static int NEO_PIXEL_WRITE_MATRIX = 23;
 	// > analogWrite/pin/value
-	public final static int ANALOG_WRITE = 23;
+	public final static int ANALOG_WRITE = 24;
 	// > digitalWrite/pin/value
-	public final static int DIGITAL_WRITE = 24;
+	public final static int DIGITAL_WRITE = 25;
 	// > disablePin/pin
-	public final static int DISABLE_PIN = 25;
+	public final static int DISABLE_PIN = 26;
 	// > disablePins
-	public final static int DISABLE_PINS = 26;
+	public final static int DISABLE_PINS = 27;
 	// > pinMode/pin/mode
-	public final static int PIN_MODE = 27;
+	public final static int PIN_MODE = 28;
 	// < publishDebug/str debugMsg
-	public final static int PUBLISH_DEBUG = 28;
+	public final static int PUBLISH_DEBUG = 29;
 	// < publishPinArray/[] data
-	public final static int PUBLISH_PIN_ARRAY = 29;
+	public final static int PUBLISH_PIN_ARRAY = 30;
 	// > setTrigger/pin/triggerValue
-	public final static int SET_TRIGGER = 30;
+	public final static int SET_TRIGGER = 31;
 	// > setDebounce/pin/delay
-	public final static int SET_DEBOUNCE = 31;
+	public final static int SET_DEBOUNCE = 32;
 	// > servoAttach/deviceId/pin/b16 initPos/b16 initVelocity/str name
-	public final static int SERVO_ATTACH = 32;
+	public final static int SERVO_ATTACH = 33;
 	// > servoAttachPin/deviceId/pin
-	public final static int SERVO_ATTACH_PIN = 33;
+	public final static int SERVO_ATTACH_PIN = 34;
 	// > servoDetachPin/deviceId
-	public final static int SERVO_DETACH_PIN = 34;
+	public final static int SERVO_DETACH_PIN = 35;
 	// > servoSetVelocity/deviceId/b16 velocity
-	public final static int SERVO_SET_VELOCITY = 35;
+	public final static int SERVO_SET_VELOCITY = 36;
 	// > servoSweepStart/deviceId/min/max/step
-	public final static int SERVO_SWEEP_START = 36;
+	public final static int SERVO_SWEEP_START = 37;
 	// > servoSweepStop/deviceId
-	public final static int SERVO_SWEEP_STOP = 37;
+	public final static int SERVO_SWEEP_STOP = 38;
 	// > servoMoveToMicroseconds/deviceId/b16 target
-	public final static int SERVO_MOVE_TO_MICROSECONDS = 38;
+	public final static int SERVO_MOVE_TO_MICROSECONDS = 39;
 	// > servoSetAcceleration/deviceId/b16 acceleration
-	public final static int SERVO_SET_ACCELERATION = 39;
+	public final static int SERVO_SET_ACCELERATION = 40;
+	// > servoSyncMoveTo/bool apply/[] moves
+	public final static int SERVO_SYNC_MOVE_TO = 41;
 	// < publishServoEvent/deviceId/eventType/b16 currentPos/b16 targetPos
-	public final static int PUBLISH_SERVO_EVENT = 40;
+	public final static int PUBLISH_SERVO_EVENT = 42;
 	// > serialAttach/deviceId/relayPin
-	public final static int SERIAL_ATTACH = 41;
+	public final static int SERIAL_ATTACH = 43;
 	// > serialRelay/deviceId/[] data
-	public final static int SERIAL_RELAY = 42;
+	public final static int SERIAL_RELAY = 44;
 	// < publishSerialData/deviceId/[] data
-	public final static int PUBLISH_SERIAL_DATA = 43;
+	public final static int PUBLISH_SERIAL_DATA = 45;
 	// > ultrasonicSensorAttach/deviceId/triggerPin/echoPin
-	public final static int ULTRASONIC_SENSOR_ATTACH = 44;
+	public final static int ULTRASONIC_SENSOR_ATTACH = 46;
 	// > ultrasonicSensorStartRanging/deviceId
-	public final static int ULTRASONIC_SENSOR_START_RANGING = 45;
+	public final static int ULTRASONIC_SENSOR_START_RANGING = 47;
 	// > ultrasonicSensorStopRanging/deviceId
-	public final static int ULTRASONIC_SENSOR_STOP_RANGING = 46;
+	public final static int ULTRASONIC_SENSOR_STOP_RANGING = 48;
 	// < publishUltrasonicSensorData/deviceId/b16 echoTime
-	public final static int PUBLISH_ULTRASONIC_SENSOR_DATA = 47;
+	public final static int PUBLISH_ULTRASONIC_SENSOR_DATA = 49;
 	// > setAref/b16 type
-	public final static int SET_AREF = 48;
+	public final static int SET_AREF = 50;
 	// > motorAttach/deviceId/type/[] pins
-	public final static int MOTOR_ATTACH = 49;
+	public final static int MOTOR_ATTACH = 51;
 	// > motorMove/deviceId/pwr
-	public final static int MOTOR_MOVE = 50;
+	public final static int MOTOR_MOVE = 52;
 	// > motorMoveTo/deviceId/pos
-	public final static int MOTOR_MOVE_TO = 51;
+	public final static int MOTOR_MOVE_TO = 53;
 
 
 /**
@@ -214,8 +259,9 @@ public class Msg {
  */
 	
 	// public void publishMRLCommError(String errorMsg/*str*/){}
-	// public void publishBoardInfo(Integer version/*byte*/, Integer boardType/*byte*/, Integer microsPerLoop/*b16*/, Integer sram/*b16*/, Integer activePins/*byte*/, int[] deviceSummary/*[]*/){}
+	// public void publishBoardInfo(Integer version/*byte*/, Integer boardType/*byte*/, Integer microsPerLoop/*b16*/, Integer sram/*b16*/, Integer activePins/*byte*/, Integer ackWindow/*byte*/, int[] deviceSummary/*[]*/){}
 	// public void publishAck(Integer function/*byte*/){}
+	// public void publishSeqAck(Integer seq/*byte*/){}
 	// public void publishEcho(Float myFloat/*f32*/, Integer myByte/*byte*/, Float secondFloat/*f32*/){}
 	// public void publishCustomMsg(int[] msg/*[]*/){}
 	// public void publishI2cData(Integer deviceId/*byte*/, int[] data/*[]*/){}
@@ -275,6 +321,17 @@ public class Msg {
 	public void processCommand(int[] ioCmd) {
 		int startPos = 0;
 		method = ioCmd[startPos];
+		// seq acks free the send window right here on the serial thread - an
+		// invoked publishSeqAck could be queued behind a sender waiting for it
+		AckWindow window = ackWindow;
+		if (method == PUBLISH_SEQ_ACK && window != null) {
+		  window.ack(ioCmd[startPos + 1]);
+		}
+		// pin reports go to the sample ring straight from the frame - the int[]
+		// and PinData path only runs if something still needs it
+		if (method == PUBLISH_PIN_ARRAY && arduino.onPinArray(ioCmd, startPos + 2, ioCmd[startPos + 1]) && record == null) {
+		  return;
+		}
 		switch (method) {
 		case PUBLISH_MRLCOMM_ERROR: {
 			String errorMsg = str(ioCmd, startPos+2, ioCmd[startPos+1]);
@@ -308,12 +365,14 @@ public class Msg {
 			startPos += 2; //b16
 			Integer activePins = ioCmd[startPos+1]; // bu8
 			startPos += 1;
+			Integer ackWindow = ioCmd[startPos+1]; // bu8
+			startPos += 1;
 			int[] deviceSummary = subArray(ioCmd, startPos+2, ioCmd[startPos+1]);
 			startPos += 1 + ioCmd[startPos+1];
 			if(invoke){
-				arduino.invoke("publishBoardInfo",  version,  boardType,  microsPerLoop,  sram,  activePins,  deviceSummary);
+				arduino.invoke("publishBoardInfo",  version,  boardType,  microsPerLoop,  sram,  activePins,  ackWindow,  deviceSummary);
 			} else { 
- 				arduino.publishBoardInfo( version,  boardType,  microsPerLoop,  sram,  activePins,  deviceSummary);
+ 				arduino.publishBoardInfo( version,  boardType,  microsPerLoop,  sram,  activePins,  ackWindow,  deviceSummary);
 			}
 			if(record != null){
 				rxBuffer.append("< publishBoardInfo");
@@ -328,6 +387,8 @@ public class Msg {
 				rxBuffer.append("/");
 				rxBuffer.append(activePins);
 				rxBuffer.append("/");
+				rxBuffer.append(ackWindow);
+				rxBuffer.append("/");
 				rxBuffer.append(Arrays.toString(deviceSummary));
 			rxBuffer.append("\n");
 			try{
@@ -359,6 +420,27 @@ public class Msg {
 
 			break;
 		}
+		case PUBLISH_SEQ_ACK: {
+			Integer seq = ioCmd[startPos+1]; // bu8
+			startPos += 1;
+			if(invoke){
+				arduino.invoke("publishSeqAck",  seq);
+			} else { 
+ 				arduino.publishSeqAck( seq);
+			}
+			if(record != null){
+				rxBuffer.append("< publishSeqAck");
+				rxBuffer.append("/");
+				rxBuffer.append(seq);
+			rxBuffer.append("\n");
+			try{
+				record.write(rxBuffer.toString().getBytes());
+				rxBuffer.setLength(0);
+			}catch(IOException e){}
+			}
+
+			break;
+		}
 		case PUBLISH_ECHO: {
 			Float myFloat = f32(ioCmd, startPos+1);
 			startPos += 4; //f32
@@ -568,18 +650,12 @@ public class Msg {
 
 	public synchronized void getBoardInfo() {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1); // size
 			write(GET_BOARD_INFO); // msgType = 2
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> getBoardInfo");
 				txBuffer.append("\n");
@@ -594,9 +670,7 @@ public class Msg {
 
 	public synchronized void enablePin(Integer address/*byte*/, Integer type/*byte*/, Integer rate/*b16*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 2); // size
 			write(ENABLE_PIN); // msgType = 4
@@ -604,11 +678,7 @@ public class Msg {
 			write(type);
 			writeb16(rate);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> enablePin");
 				txBuffer.append("/");
@@ -629,19 +699,13 @@ public class Msg {
 
 	public synchronized void setDebug(Boolean enabled/*bool*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
 			write(SET_DEBUG); // msgType = 5
 			writebool(enabled);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> setDebug");
 				txBuffer.append("/");
@@ -658,19 +722,13 @@ public class Msg {
 
 	public synchronized void setSerialRate(Integer rate/*b32*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 4); // size
 			write(SET_SERIAL_RATE); // msgType = 6
 			writeb32(rate);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> setSerialRate");
 				txBuffer.append("/");
@@ -687,18 +745,12 @@ public class Msg {
 
 	public synchronized void softReset() {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1); // size
 			write(SOFT_RESET); // msgType = 7
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> softReset");
 				txBuffer.append("\n");
@@ -713,19 +765,13 @@ public class Msg {
 
 	public synchronized void enableAck(Boolean enabled/*bool*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
 			write(ENABLE_ACK); // msgType = 8
 			writebool(enabled);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> enableAck");
 				txBuffer.append("/");
@@ -742,21 +788,15 @@ public class Msg {
 
 	public synchronized void echo(Float myFloat/*f32*/, Integer myByte/*byte*/, Float secondFloat/*f32*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 4 + 1 + 4); // size
-			write(ECHO); // msgType = 10
+			write(ECHO); // msgType = 11
 			writef32(myFloat);
 			write(myByte);
 			writef32(secondFloat);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> echo");
 				txBuffer.append("/");
@@ -777,19 +817,13 @@ public class Msg {
 
 	public synchronized void customMsg(int[] msg/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + (1 + msg.length)); // size
-			write(CUSTOM_MSG); // msgType = 12
+			write(CUSTOM_MSG); // msgType = 13
 			write(msg);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> customMsg");
 				txBuffer.append("/");
@@ -806,19 +840,13 @@ public class Msg {
 
 	public synchronized void deviceDetach(Integer deviceId/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
-			write(DEVICE_DETACH); // msgType = 14
+			write(DEVICE_DETACH); // msgType = 15
 			write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> deviceDetach");
 				txBuffer.append("/");
@@ -835,20 +863,14 @@ public class Msg {
 
 	public synchronized void i2cBusAttach(Integer deviceId/*byte*/, Integer i2cBus/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(I2C_BUS_ATTACH); // msgType = 15
+			write(I2C_BUS_ATTACH); // msgType = 16
 			write(deviceId);
 			write(i2cBus);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> i2cBusAttach");
 				txBuffer.append("/");
@@ -867,21 +889,15 @@ public class Msg {
 
 	public synchronized void i2cRead(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, Integer size/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 1); // size
-			write(I2C_READ); // msgType = 16
+			write(I2C_READ); // msgType = 17
 			write(deviceId);
 			write(deviceAddress);
 			write(size);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> i2cRead");
 				txBuffer.append("/");
@@ -902,21 +918,15 @@ public class Msg {
 
 	public synchronized void i2cWrite(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, int[] data/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + (1 + data.length)); // size
-			write(I2C_WRITE); // msgType = 17
+			write(I2C_WRITE); // msgType = 18
 			write(deviceId);
 			write(deviceAddress);
 			write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> i2cWrite");
 				txBuffer.append("/");
@@ -937,22 +947,16 @@ public class Msg {
 
 	public synchronized void i2cWriteRead(Integer deviceId/*byte*/, Integer deviceAddress/*byte*/, Integer readSize/*byte*/, Integer writeValue/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 1 + 1); // size
-			write(I2C_WRITE_READ); // msgType = 18
+			write(I2C_WRITE_READ); // msgType = 19
 			write(deviceId);
 			write(deviceAddress);
 			write(readSize);
 			write(writeValue);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> i2cWriteRead");
 				txBuffer.append("/");
@@ -975,21 +979,15 @@ public class Msg {
 
 	public synchronized void neoPixelAttach(Integer deviceId/*byte*/, Integer pin/*byte*/, Integer numPixels/*b32*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 4); // size
-			write(NEO_PIXEL_ATTACH); // msgType = 20
+			write(NEO_PIXEL_ATTACH); // msgType = 21
 			write(deviceId);
 			write(pin);
 			writeb32(numPixels);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> neoPixelAttach");
 				txBuffer.append("/");
@@ -1010,12 +1008,10 @@ public class Msg {
 
 	public synchronized void neoPixelSetAnimation(Integer deviceId/*byte*/, Integer animation/*byte*/, Integer red/*byte*/, Integer green/*byte*/, Integer blue/*byte*/, Integer speed/*b16*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 1 + 1 + 1 + 2); // size
-			write(NEO_PIXEL_SET_ANIMATION); // msgType = 21
+			write(NEO_PIXEL_SET_ANIMATION); // msgType = 22
 			write(deviceId);
 			write(animation);
 			write(red);
@@ -1023,11 +1019,7 @@ public class Msg {
 			write(blue);
 			writeb16(speed);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> neoPixelSetAnimation");
 				txBuffer.append("/");
@@ -1054,20 +1046,14 @@ public class Msg {
 
 	public synchronized void neoPixelWriteMatrix(Integer deviceId/*byte*/, int[] buffer/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + (1 + buffer.length)); // size
-			write(NEO_PIXEL_WRITE_MATRIX); // msgType = 22
+			write(NEO_PIXEL_WRITE_MATRIX); // msgType = 23
 			write(deviceId);
 			write(buffer);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> neoPixelWriteMatrix");
 				txBuffer.append("/");
@@ -1086,20 +1072,14 @@ public class Msg {
 
 	public synchronized void analogWrite(Integer pin/*byte*/, Integer value/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(ANALOG_WRITE); // msgType = 23
+			write(ANALOG_WRITE); // msgType = 24
 			write(pin);
 			write(value);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> analogWrite");
 				txBuffer.append("/");
@@ -1118,20 +1098,14 @@ public class Msg {
 
 	public synchronized void digitalWrite(Integer pin/*byte*/, Integer value/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(DIGITAL_WRITE); // msgType = 24
+			write(DIGITAL_WRITE); // msgType = 25
 			write(pin);
 			write(value);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> digitalWrite");
 				txBuffer.append("/");
@@ -1150,19 +1124,13 @@ public class Msg {
 
 	public synchronized void disablePin(Integer pin/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
-			write(DISABLE_PIN); // msgType = 25
+			write(DISABLE_PIN); // msgType = 26
 			write(pin);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> disablePin");
 				txBuffer.append("/");
@@ -1179,18 +1147,12 @@ public class Msg {
 
 	public synchronized void disablePins() {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1); // size
-			write(DISABLE_PINS); // msgType = 26
+			write(DISABLE_PINS); // msgType = 27
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> disablePins");
 				txBuffer.append("\n");
@@ -1205,20 +1167,14 @@ public class Msg {
 
 	public synchronized void pinMode(Integer pin/*byte*/, Integer mode/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(PIN_MODE); // msgType = 27
+			write(PIN_MODE); // msgType = 28
 			write(pin);
 			write(mode);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> pinMode");
 				txBuffer.append("/");
@@ -1237,20 +1193,14 @@ public class Msg {
 
 	public synchronized void setTrigger(Integer pin/*byte*/, Integer triggerValue/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(SET_TRIGGER); // msgType = 30
+			write(SET_TRIGGER); // msgType = 31
 			write(pin);
 			write(triggerValue);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> setTrigger");
 				txBuffer.append("/");
@@ -1269,20 +1219,14 @@ public class Msg {
 
 	public synchronized void setDebounce(Integer pin/*byte*/, Integer delay/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(SET_DEBOUNCE); // msgType = 31
+			write(SET_DEBOUNCE); // msgType = 32
 			write(pin);
 			write(delay);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> setDebounce");
 				txBuffer.append("/");
@@ -1301,23 +1245,17 @@ public class Msg {
 
 	public synchronized void servoAttach(Integer deviceId/*byte*/, Integer pin/*byte*/, Integer initPos/*b16*/, Integer initVelocity/*b16*/, String name/*str*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 2 + 2 + (1 + name.length())); // size
-			write(SERVO_ATTACH); // msgType = 32
+			write(SERVO_ATTACH); // msgType = 33
 			write(deviceId);
 			write(pin);
 			writeb16(initPos);
 			writeb16(initVelocity);
 			write(name);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> servoAttach");
 				txBuffer.append("/");
@@ -1342,20 +1280,14 @@ public class Msg {
 
 	public synchronized void servoAttachPin(Integer deviceId/*byte*/, Integer pin/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(SERVO_ATTACH_PIN); // msgType = 33
+			write(SERVO_ATTACH_PIN); // msgType = 34
 			write(deviceId);
 			write(pin);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> servoAttachPin");
 				txBuffer.append("/");
@@ -1374,19 +1306,13 @@ public class Msg {
 
 	public synchronized void servoDetachPin(Integer deviceId/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
-			write(SERVO_DETACH_PIN); // msgType = 34
+			write(SERVO_DETACH_PIN); // msgType = 35
 			write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> servoDetachPin");
 				txBuffer.append("/");
@@ -1403,20 +1329,14 @@ public class Msg {
 
 	public synchronized void servoSetVelocity(Integer deviceId/*byte*/, Integer velocity/*b16*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 2); // size
-			write(SERVO_SET_VELOCITY); // msgType = 35
+			write(SERVO_SET_VELOCITY); // msgType = 36
 			write(deviceId);
 			writeb16(velocity);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> servoSetVelocity");
 				txBuffer.append("/");
@@ -1435,22 +1355,16 @@ public class Msg {
 
 	public synchronized void servoSweepStart(Integer deviceId/*byte*/, Integer min/*byte*/, Integer max/*byte*/, Integer step/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 1 + 1); // size
-			write(SERVO_SWEEP_START); // msgType = 36
+			write(SERVO_SWEEP_START); // msgType = 37
 			write(deviceId);
 			write(min);
 			write(max);
 			write(step);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> servoSweepStart");
 				txBuffer.append("/");
@@ -1473,19 +1387,13 @@ public class Msg {
 
 	public synchronized void servoSweepStop(Integer deviceId/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
-			write(SERVO_SWEEP_STOP); // msgType = 37
+			write(SERVO_SWEEP_STOP); // msgType = 38
 			write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> servoSweepStop");
 				txBuffer.append("/");
@@ -1502,20 +1410,14 @@ public class Msg {
 
 	public synchronized void servoMoveToMicroseconds(Integer deviceId/*byte*/, Integer target/*b16*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 2); // size
-			write(SERVO_MOVE_TO_MICROSECONDS); // msgType = 38
+			write(SERVO_MOVE_TO_MICROSECONDS); // msgType = 39
 			write(deviceId);
 			writeb16(target);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> servoMoveToMicroseconds");
 				txBuffer.append("/");
@@ -1534,20 +1436,14 @@ public class Msg {
 
 	public synchronized void servoSetAcceleration(Integer deviceId/*byte*/, Integer acceleration/*b16*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 2); // size
-			write(SERVO_SET_ACCELERATION); // msgType = 39
+			write(SERVO_SET_ACCELERATION); // msgType = 40
 			write(deviceId);
 			writeb16(acceleration);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> servoSetAcceleration");
 				txBuffer.append("/");
@@ -1564,22 +1460,42 @@ public class Msg {
 	  }
 	}
 
+	public synchronized void servoSyncMoveTo(Boolean apply/*bool*/, int[] moves/*[]*/) {
+		try {
+		  beginFrame();
+			write(MAGIC_NUMBER);
+			write(1 + 1 + (1 + moves.length)); // size
+			write(SERVO_SYNC_MOVE_TO); // msgType = 41
+			writebool(apply);
+			write(moves);
+ 
+		  endFrame();
+			if(record != null){
+				txBuffer.append("> servoSyncMoveTo");
+				txBuffer.append("/");
+				txBuffer.append(apply);
+				txBuffer.append("/");
+				txBuffer.append(Arrays.toString(moves));
+				txBuffer.append("\n");
+				record.write(txBuffer.toString().getBytes());
+				txBuffer.setLength(0);
+			}
+
+	  } catch (Exception e) {
+	  			log.error("servoSyncMoveTo threw",e);
+	  }
+	}
+
 	public synchronized void serialAttach(Integer deviceId/*byte*/, Integer relayPin/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(SERIAL_ATTACH); // msgType = 41
+			write(SERIAL_ATTACH); // msgType = 43
 			write(deviceId);
 			write(relayPin);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> serialAttach");
 				txBuffer.append("/");
@@ -1598,20 +1514,14 @@ public class Msg {
 
 	public synchronized void serialRelay(Integer deviceId/*byte*/, int[] data/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + (1 + data.length)); // size
-			write(SERIAL_RELAY); // msgType = 42
+			write(SERIAL_RELAY); // msgType = 44
 			write(deviceId);
 			write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> serialRelay");
 				txBuffer.append("/");
@@ -1630,21 +1540,15 @@ public class Msg {
 
 	public synchronized void ultrasonicSensorAttach(Integer deviceId/*byte*/, Integer triggerPin/*byte*/, Integer echoPin/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 1); // size
-			write(ULTRASONIC_SENSOR_ATTACH); // msgType = 44
+			write(ULTRASONIC_SENSOR_ATTACH); // msgType = 46
 			write(deviceId);
 			write(triggerPin);
 			write(echoPin);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> ultrasonicSensorAttach");
 				txBuffer.append("/");
@@ -1665,19 +1569,13 @@ public class Msg {
 
 	public synchronized void ultrasonicSensorStartRanging(Integer deviceId/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
-			write(ULTRASONIC_SENSOR_START_RANGING); // msgType = 45
+			write(ULTRASONIC_SENSOR_START_RANGING); // msgType = 47
 			write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> ultrasonicSensorStartRanging");
 				txBuffer.append("/");
@@ -1694,19 +1592,13 @@ public class Msg {
 
 	public synchronized void ultrasonicSensorStopRanging(Integer deviceId/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
-			write(ULTRASONIC_SENSOR_STOP_RANGING); // msgType = 46
+			write(ULTRASONIC_SENSOR_STOP_RANGING); // msgType = 48
 			write(deviceId);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> ultrasonicSensorStopRanging");
 				txBuffer.append("/");
@@ -1723,19 +1615,13 @@ public class Msg {
 
 	public synchronized void setAref(Integer type/*b16*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 2); // size
-			write(SET_AREF); // msgType = 48
+			write(SET_AREF); // msgType = 50
 			writeb16(type);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> setAref");
 				txBuffer.append("/");
@@ -1752,21 +1638,15 @@ public class Msg {
 
 	public synchronized void motorAttach(Integer deviceId/*byte*/, Integer type/*byte*/, int[] pins/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + (1 + pins.length)); // size
-			write(MOTOR_ATTACH); // msgType = 49
+			write(MOTOR_ATTACH); // msgType = 51
 			write(deviceId);
 			write(type);
 			write(pins);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> motorAttach");
 				txBuffer.append("/");
@@ -1787,20 +1667,14 @@ public class Msg {
 
 	public synchronized void motorMove(Integer deviceId/*byte*/, Integer pwr/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(MOTOR_MOVE); // msgType = 50
+			write(MOTOR_MOVE); // msgType = 52
 			write(deviceId);
 			write(pwr);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> motorMove");
 				txBuffer.append("/");
@@ -1819,20 +1693,14 @@ public class Msg {
 
 	public synchronized void motorMoveTo(Integer deviceId/*byte*/, Integer pos/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1); // size
-			write(MOTOR_MOVE_TO); // msgType = 51
+			write(MOTOR_MOVE_TO); // msgType = 53
 			write(deviceId);
 			write(pos);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> motorMoveTo");
 				txBuffer.append("/");
@@ -1879,6 +1747,9 @@ public class Msg {
 		case PUBLISH_ACK:{
 			return "publishAck";
 		}
+		case PUBLISH_SEQ_ACK:{
+			return "publishSeqAck";
+		}
 		case ECHO:{
 			return "echo";
 		}
@@ -1969,6 +1840,9 @@ public class Msg {
 		case SERVO_SET_ACCELERATION:{
 			return "servoSetAcceleration";
 		}
+		case SERVO_SYNC_MOVE_TO:{
+			return "servoSyncMoveTo";
+		}
 		case PUBLISH_SERVO_EVENT:{
 			return "publishServoEvent";
 		}
@@ -2070,23 +1944,33 @@ public class Msg {
         //publishDebug("RX:" + String(newByte));
         ++byteCount;
         // checking first byte - beginning of message?
-        if (byteCount == 1 && newByte != VirtualMsg.MAGIC_NUMBER) {
+        if (byteCount == 1 && newByte != MAGIC_NUMBER && newByte != MAGIC_NUMBER_SEQ) {
           publishError(F("error serial"));
           // reset - try again
           byteCount = 0;
           // return false;
         }
+        if (byteCount == 1) {
+          seqFrame = (newByte == MAGIC_NUMBER_SEQ);
+        }
         if (byteCount == 2) {
           // get the size of message
           // todo check msg < 64 (MAX_MSG_SIZE)
-          if (newByte > 64) {
+          // a sequenced frame has the seq on top and can not be empty
+          if ((!seqFrame && newByte > MAX_MSG_SIZE) || (seqFrame && (newByte > MAX_MSG_SIZE + 1 || newByte == 0))) {
             // TODO - send error back
             byteCount = 0;
             continue; // GroG - I guess  we continue now vs return false on error conditions?
           }
           msgSize = newByte;
         }
-        if (byteCount > 2) {
+        if (byteCount > 2 && seqFrame) {
+          if (byteCount == 3) {
+            seq = newByte;
+          } else {
+            ioCmd[byteCount - 4] = newByte;
+          }
+        } else if (byteCount > 2) {
           // fill in msg data - (2) headbytes -1 (offset)
           ioCmd[byteCount - 3] = newByte;
         }
@@ -2094,6 +1978,9 @@ public class Msg {
         if (byteCount == 2 + msgSize) {
           // we've reach the end of the command, just return true .. we've got it
           byteCount = 0;
+          if (!seqFrame) {
+            seq = -1;
+          }
           return true;
         }
       }
@@ -2102,6 +1989,38 @@ public class Msg {
     return false;
   }
 
+  /**
+   * sequence check of the frame readMsg just read - true if it should be
+   * processed. Plain frames always are and restart the sequence at 0.
+   * Sequenced frames are only processed in order - a repeat or a frame after a
+   * gap is dropped, the sender goes back to the frame after getLastSeq()
+   */
+  public boolean acceptSeq() {
+    if (seq < 0) {
+      expectedSeq = 0;
+      return true;
+    }
+    if (seq != expectedSeq) {
+      return false;
+    }
+    expectedSeq = (expectedSeq + 1) & 0xFF;
+    return true;
+  }
+
+  /**
+   * @return seq of the last frame read or -1 if it was a plain frame
+   */
+  public int getSeq() {
+    return seq;
+  }
+
+  /**
+   * @return seq of the last sequenced frame which was processed
+   */
+  public int getLastSeq() {
+    return (expectedSeq - 1) & 0xFF;
+  }
+
   String F(String msg) {
     return msg;
   }
@@ -2116,14 +2035,19 @@ public class Msg {
 			log.error("writeByte overrun - should be  0 <= value <= 255 - value = {}", b8);
 		}
 
+		if (framing) {
+		  frame[frameSize++] = (byte) b8;
+		  return;
+		}
+
 		serial.write(b8 & 0xFF);
 	}
 
 	void writebool(boolean b1) throws Exception {
 		if (b1) {
-			serial.write(1);
+			write(1);
 		} else {
-			serial.write(0);
+			write(0);
 		}
 	}
 
@@ -2258,6 +2182,9 @@ public class Msg {
   public void enableAcks(boolean b){
     // disable local blocking
 	  ackEnabled = b;
+	  if (!b) {
+	    setAckWindow(0);
+	  }
 	  // if (!localOnly){
 	  // shutdown MrlComm from sending acks
 	  // below is a method only in Msg.java not in VirtualMsg.java
@@ -2286,6 +2213,131 @@ public class Msg {
     }
 	}
 	
+	/**
+	 * sets how many frames can be sent before the first one is acknowledged.
+	 * 1 or less is stop and wait - the receiver must support sequenced frames
+	 */
+	public void setAckWindow(int size) {
+	  AckWindow window = ackWindow;
+	  if (window != null) {
+	    window.close();
+	  }
+	  if (size > 1) {
+	    ackWindow = new AckWindow(new AckWindow.FrameWriter() {
+	      @Override
+	      public void write(byte[] data, int len) throws Exception {
+	        send(data, len, coalesce);
+	      }
+	    }, size, txExecutor);
+	  } else {
+	    ackWindow = null;
+	  }
+	}
+
+	public AckWindow getAckWindow() {
+	  return ackWindow;
+	}
+
+	/**
+	 * start of a frame - the writes go to the frame buffer. Without a send
+	 * window wait for the ack of the last frame first
+	 */
+	void beginFrame() {
+	  framing = true;
+	  frameSize = 0;
+	  if (ackEnabled && ackWindow == null) {
+	    waitForAck();
+	  }
+	}
+
+	/**
+	 * the frame is complete - give it to the window or write it
+	 */
+	void endFrame() throws Exception {
+	  framing = false;
+	  AckWindow window = ackWindow;
+	  if (ackEnabled && window != null) {
+	    // blocks while the window is full
+	    window.send(frame, frameSize);
+	  } else if (ackEnabled) {
+	    // stop and wait - the frame must go now
+	    send(frame, frameSize, false);
+	    // we just wrote - block threads sending
+	    // until they get an ack
+	    ackRecievedLock.acknowledged = false;
+	  } else {
+	    send(frame, frameSize, coalesce);
+	  }
+	}
+
+	/**
+	 * writes a frame - or adds it to the coalescing buffer. Frames already in
+	 * the buffer always go first.
+	 */
+	void send(byte[] data, int len, boolean later) throws Exception {
+	  synchronized (txLock) {
+	    if (!later || coalesceSize + len > coalesceBuffer.length) {
+	      flushTx();
+	    }
+	    if (!later) {
+	      serial.write(data, 0, len);
+	      return;
+	    }
+	    System.arraycopy(data, 0, coalesceBuffer, coalesceSize, len);
+	    coalesceSize += len;
+	    if (coalesceTimeout == null) {
+	      coalesceTimeout = TimerWheel.getInstance().schedule(new Runnable() {
+	        @Override
+	        public void run() {
+	          txExecutor.execute(flusher);
+	        }
+	      }, coalesceMs, TimeUnit.MILLISECONDS);
+	    }
+	  }
+	}
+
+	void flushTx() throws Exception {
+	  if (coalesceTimeout != null) {
+	    coalesceTimeout.cancel();
+	    coalesceTimeout = null;
+	  }
+	  if (coalesceSize > 0) {
+	    int len = coalesceSize;
+	    coalesceSize = 0;
+	    serial.write(coalesceBuffer, 0, len);
+	  }
+	}
+
+	/**
+	 * writes the coalesced frames now
+	 */
+	public void flush() {
+	  synchronized (txLock) {
+	    try {
+	      flushTx();
+	    } catch (Exception e) {
+	      log.error("flush threw", e);
+	    }
+	  }
+	}
+
+	/**
+	 * collect small frames and write them together - fewer writes and usb
+	 * packets for bursts of msgs, at most ms later. Not used for stop and wait
+	 * acks - every frame there has to go out before its ack can come back.
+	 */
+	public void setCoalesce(boolean b, int ms) {
+	  coalesceMs = ms;
+	  coalesce = b;
+	  if (!b) {
+	    flush();
+	  }
+	}
+
+	public boolean isCoalescing() {
+	  return coalesce;
+	}
+	
 	public void ackReceived(int function){
 	   synchronized (ackRecievedLock) {
 	      ackRecievedLock.acknowledged = true;
@@ -6,7 +6,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.myrobotlab.framework.TimerWheel;
 import org.myrobotlab.logging.Level;
 
 import org.myrobotlab.arduino.virtual.MrlComm;
@@ -35,6 +38,10 @@ import org.myrobotlab.arduino.virtual.MrlComm;
  The binary wire format of an MrlComm is:
 
  MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0|PARAM1 ...
+
+ and with a send window (see AckWindow) frames are sequenced - MSG_SIZE counts the SEQ byte:
+
+ MAGIC_NUMBER_SEQ|MSG_SIZE|SEQ|METHOD_NUMBER|PARAM0|PARAM1 ...
  
  </pre>
 
@@ -63,7 +70,8 @@ public class VirtualMsg {
 
 	public static final int MAX_MSG_SIZE = 64;
 	public static final int MAGIC_NUMBER = 170; // 10101010
-	public static final int MRLCOMM_VERSION = 57;
+	public static final int MAGIC_NUMBER_SEQ = 171; // 10101011
+	public static final int MRLCOMM_VERSION = 59;
 	
 	// send buffer
   int sendBufferSize = 0;
@@ -75,6 +83,12 @@ public class VirtualMsg {
   int byteCount = 0;
   int msgSize = 0;
 
+  // sequenced frame receiving
+  boolean seqFrame = false;
+  // seq of the last frame read - -1 if it was a plain frame
+  int seq = -1;
+  int expectedSeq = 0;
+
 	// ------ device type mapping constants
 	int method = -1;
 	public boolean debug = false;
@@ -89,6 +103,33 @@ public class VirtualMsg {
 	  }
 	 
 	transient AckLock ackRecievedLock = new AckLock();
+
+	// windowed acks
+	transient volatile AckWindow ackWindow = null;
+	// writes which must not run on the TimerWheel thread - a serial write can
+	// block
+	transient final ExecutorService txExecutor = AckWindow.newTxExecutor("msg_tx");
+
+	// each frame is built here and goes to the serial in one write
+	boolean framing = false;
+	int frameSize = 0;
+	byte frame[] = new byte[MAX_MSG_SIZE + 2];
+
+	// coalescing - small frames are collected and written together
+	// after coalesceMs or when the buffer is full
+	boolean coalesce = false;
+	int coalesceMs = 2;
+	final Object txLock = new Object();
+	byte coalesceBuffer[] = new byte[256];
+	int coalesceSize = 0;
+	transient TimerWheel.Timeout coalesceTimeout = null;
+	// the timeout only hands the flush to txExecutor - the wheel never writes
+	transient final Runnable flusher = new Runnable() {
+	  @Override
+	  public void run() {
+	    flush();
+	  }
+	};
 	
 	// recording related
 	transient FileOutputStream record = null;
@@ -109,7 +150,7 @@ public class VirtualMsg {
 	public final static int PUBLISH_MRLCOMM_ERROR = 1;
 	// > getBoardInfo
 	public final static int GET_BOARD_INFO = 2;
-	// < publishBoardInfo/version/boardType/b16 microsPerLoop/b16 sram/activePins/[] deviceSummary
+	// < publishBoardInfo/version/boardType/b16 microsPerLoop/b16 sram/activePins/ackWindow/[] deviceSummary
 	public final static int PUBLISH_BOARD_INFO = 3;
 	// > enablePin/address/type/b16 rate
 	public final static int ENABLE_PIN = 4;
@@ -123,90 +164,94 @@ public class VirtualMsg {
 	public final static int ENABLE_ACK = 8;
 	// < publishAck/function
 	public final static int PUBLISH_ACK = 9;
+	// < publishSeqAck/seq
+	public final static int PUBLISH_SEQ_ACK = 10;
 	// > echo/f32 myFloat/myByte/f32 secondFloat
-	public final static int ECHO = 10;
+	public final static int ECHO = 11;
 	// < publishEcho/f32 myFloat/myByte/f32 secondFloat
-	public final static int PUBLISH_ECHO = 11;
+	public final static int PUBLISH_ECHO = 12;
 	// > customMsg/[] msg
-	public final static int CUSTOM_MSG = 12;
+	public final static int CUSTOM_MSG = 13;
 	// < publishCustomMsg/[] msg
-	public final static int PUBLISH_CUSTOM_MSG = 13;
+	public final static int PUBLISH_CUSTOM_MSG = 14;
 	// > deviceDetach/deviceId
-	public final static int DEVICE_DETACH = 14;
+	public final static int DEVICE_DETACH = 15;
 	// > i2cBusAttach/deviceId/i2cBus
-	public final static int I2C_BUS_ATTACH = 15;
+	public final static int I2C_BUS_ATTACH = 16;
 	// > i2cRead/deviceId/deviceAddress/size
-	public final static int I2C_READ = 16;
+	public final static int I2C_READ = 17;
 	// > i2cWrite/deviceId/deviceAddress/[] data
-	public final static int I2C_WRITE = 17;
+	public final static int I2C_WRITE = 18;
 	// > i2cWriteRead/deviceId/deviceAddress/readSize/writeValue
-	public final static int I2C_WRITE_READ = 18;
+	public final static int I2C_WRITE_READ = 19;
 	// < publishI2cData/deviceId/[] data
-	public final static int PUBLISH_I2C_DATA = 19;
+	public final static int PUBLISH_I2C_DATA = 20;
 	// > neoPixelAttach/deviceId/pin/b32 numPixels
-	public final static int NEO_PIXEL_ATTACH = 20;
+	public final static int NEO_PIXEL_ATTACH = 21;
 	// > neoPixelSetAnimation/deviceId/animation/red/green/blue/b16 speed
-	public final static int NEO_PIXEL_SET_ANIMATION = 21;
+	public final static int NEO_PIXEL_SET_ANIMATION = 22;
 	// > neoPixelWriteMatrix/deviceId/[] buffer
-	public final static int NEO_PIXEL_WRITE_MATRIX = 22;
+	public final static int NEO_PIXEL_WRITE_MATRIX = 23;
 	// > analogWrite/pin/value
-	public final static int ANALOG_WRITE = 23;
+	public final static int ANALOG_WRITE = 24;
 	// > digitalWrite/pin/value
-	public final static int DIGITAL_WRITE = 24;
+	public final static int DIGITAL_WRITE = 25;
 	// > disablePin/pin
-	public final static int DISABLE_PIN = 25;
+	public final static int DISABLE_PIN = 26;
 	// > disablePins
-	public final static int DISABLE_PINS = 26;
+	public final static int DISABLE_PINS = 27;
 	// > pinMode/pin/mode
-	public final static int PIN_MODE = 27;
+	public final static int PIN_MODE = 28;
 	// < publishDebug/str debugMsg
-	public final static int PUBLISH_DEBUG = 28;
+	public final static int PUBLISH_DEBUG = 29;
 	// < publishPinArray/[] data
-	public final static int PUBLISH_PIN_ARRAY = 29;
+	public final static int PUBLISH_PIN_ARRAY = 30;
 	// > setTrigger/pin/triggerValue
-	public final static int SET_TRIGGER = 30;
+	public final static int SET_TRIGGER = 31;
 	// > setDebounce/pin/delay
-	public final static int SET_DEBOUNCE = 31;
+	public final static int SET_DEBOUNCE = 32;
 	// > servoAttach/deviceId/pin/b16 initPos/b16 initVelocity/str name
-	public final static int SERVO_ATTACH = 32;
+	public final static int SERVO_ATTACH = 33;
 	// > servoAttachPin/deviceId/pin
-	public final static int SERVO_ATTACH_PIN = 33;
+	public final static int SERVO_ATTACH_PIN = 34;
 	// > servoDetachPin/deviceId
-	public final static int SERVO_DETACH_PIN = 34;
+	public final static int SERVO_DETACH_PIN = 35;
 	// > servoSetVelocity/deviceId/b16 velocity
-	public final static int SERVO_SET_VELOCITY = 35;
+	public final static int SERVO_SET_VELOCITY = 36;
 	// > servoSweepStart/deviceId/min/max/step
-	public final static int SERVO_SWEEP_START = 36;
+	public final static int SERVO_SWEEP_START = 37;
 	// > servoSweepStop/deviceId
-	public final static int SERVO_SWEEP_STOP = 37;
+	public final static int SERVO_SWEEP_STOP = 38;
 	// > servoMoveToMicroseconds/deviceId/b16 target
-	public final static int SERVO_MOVE_TO_MICROSECONDS = 38;
+	public final static int SERVO_MOVE_TO_MICROSECONDS = 39;
 	// > servoSetAcceleration/deviceId/b16 acceleration
-	public final static int SERVO_SET_ACCELERATION = 39;
+	public final static int SERVO_SET_ACCELERATION = 40;
+	// > servoSyncMoveTo/bool apply/[] moves
+	public final static int SERVO_SYNC_MOVE_TO = 41;
 	// < publishServoEvent/deviceId/eventType/b16 currentPos/b16 targetPos
-	public final static int PUBLISH_SERVO_EVENT = 40;
+	public final static int PUBLISH_SERVO_EVENT = 42;
 	// > serialAttach/deviceId/relayPin
-	public final static int SERIAL_ATTACH = 41;
+	public final static int SERIAL_ATTACH = 43;
 	// > serialRelay/deviceId/[] data
-	public final static int SERIAL_RELAY = 42;
+	public final static int SERIAL_RELAY = 44;
 	// < publishSerialData/deviceId/[] data
-	public final static int PUBLISH_SERIAL_DATA = 43;
+	public final static int PUBLISH_SERIAL_DATA = 45;
 	// > ultrasonicSensorAttach/deviceId/triggerPin/echoPin
-	public final static int ULTRASONIC_SENSOR_ATTACH = 44;
+	public final static int ULTRASONIC_SENSOR_ATTACH = 46;
 	// > ultrasonicSensorStartRanging/deviceId
-	public final static int ULTRASONIC_SENSOR_START_RANGING = 45;
+	public final static int ULTRASONIC_SENSOR_START_RANGING = 47;
 	// > ultrasonicSensorStopRanging/deviceId
-	public final static int ULTRASONIC_SENSOR_STOP_RANGING = 46;
+	public final static int ULTRASONIC_SENSOR_STOP_RANGING = 48;
 	// < publishUltrasonicSensorData/deviceId/b16 echoTime
-	public final static int PUBLISH_ULTRASONIC_SENSOR_DATA = 47;
+	public final static int PUBLISH_ULTRASONIC_SENSOR_DATA = 49;
 	// > setAref/b16 type
-	public final static int SET_AREF = 48;
+	public final static int SET_AREF = 50;
 	// > motorAttach/deviceId/type/[] pins
-	public final static int MOTOR_ATTACH = 49;
+	public final static int MOTOR_ATTACH = 51;
 	// > motorMove/deviceId/pwr
-	public final static int MOTOR_MOVE = 50;
+	public final static int MOTOR_MOVE = 52;
 	// > motorMoveTo/deviceId/pos
-	public final static int MOTOR_MOVE_TO = 51;
+	public final static int MOTOR_MOVE_TO = 53;
 
 
 /**
@@ -244,6 +289,7 @@ public class VirtualMsg {
 	// public void servoSweepStop(Integer deviceId/*byte*/){}
 	// public void servoMoveToMicroseconds(Integer deviceId/*byte*/, Integer target/*b16*/){}
 	// public void servoSetAcceleration(Integer deviceId/*byte*/, Integer acceleration/*b16*/){}
+	// public void servoSyncMoveTo(Boolean apply/*bool*/, int[] moves/*[]*/){}
 	// public void serialAttach(Integer deviceId/*byte*/, Integer relayPin/*byte*/){}
 	// public void serialRelay(Integer deviceId/*byte*/, int[] data/*[]*/){}
 	// public void ultrasonicSensorAttach(Integer deviceId/*byte*/, Integer triggerPin/*byte*/, Integer echoPin/*byte*/){}
@@ -304,6 +350,17 @@ public class VirtualMsg {
 	public void processCommand(int[] ioCmd) {
 		int startPos = 0;
 		method = ioCmd[startPos];
+		// seq acks free the send window right here on the serial thread - an
+		// invoked publishSeqAck could be queued behind a sender waiting for it
+		AckWindow window = ackWindow;
+		if (method == PUBLISH_SEQ_ACK && window != null) {
+		  window.ack(ioCmd[startPos + 1]);
+		}
+		// pin reports go to the sample ring straight from the frame - the int[]
+		// and PinData path only runs if something still needs it
+		if (method == PUBLISH_PIN_ARRAY && arduino.onPinArray(ioCmd, startPos + 2, ioCmd[startPos + 1]) && record == null) {
+		  return;
+		}
 		switch (method) {
 		case GET_BOARD_INFO: {
 			if(invoke){
@@ -681,6 +738,18 @@ public class VirtualMsg {
 			}
 			break;
 		}
+		case SERVO_SYNC_MOVE_TO: {
+			Boolean apply = (ioCmd[startPos+1] == 0)?false:true;
+			startPos += 1;
+			int[] moves = subArray(ioCmd, startPos+2, ioCmd[startPos+1]);
+			startPos += 1 + ioCmd[startPos+1];
+			if(invoke){
+				arduino.invoke("servoSyncMoveTo",  apply,  moves);
+			} else { 
+ 				arduino.servoSyncMoveTo( apply,  moves);
+			}
+			break;
+		}
 		case SERIAL_ATTACH: {
 			Integer deviceId = ioCmd[startPos+1]; // bu8
 			startPos += 1;
@@ -796,19 +865,13 @@ public class VirtualMsg {
 
 	public synchronized void publishMRLCommError(String errorMsg/*str*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + (1 + errorMsg.length())); // size
 			write(PUBLISH_MRLCOMM_ERROR); // msgType = 1
 			write(errorMsg);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishMRLCommError");
 				txBuffer.append("/");
@@ -823,26 +886,21 @@ public class VirtualMsg {
 	  }
 	}
 
-	public synchronized void publishBoardInfo(Integer version/*byte*/, Integer boardType/*byte*/, Integer microsPerLoop/*b16*/, Integer sram/*b16*/, Integer activePins/*byte*/, int[] deviceSummary/*[]*/) {
+	public synchronized void publishBoardInfo(Integer version/*byte*/, Integer boardType/*byte*/, Integer microsPerLoop/*b16*/, Integer sram/*b16*/, Integer activePins/*byte*/, Integer ackWindow/*byte*/, int[] deviceSummary/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
-			write(1 + 1 + 1 + 2 + 2 + 1 + (1 + deviceSummary.length)); // size
+			write(1 + 1 + 1 + 2 + 2 + 1 + 1 + (1 + deviceSummary.length)); // size
 			write(PUBLISH_BOARD_INFO); // msgType = 3
 			write(version);
 			write(boardType);
 			writeb16(microsPerLoop);
 			writeb16(sram);
 			write(activePins);
+			write(ackWindow);
 			write(deviceSummary);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishBoardInfo");
 				txBuffer.append("/");
@@ -856,6 +914,8 @@ public class VirtualMsg {
 				txBuffer.append("/");
 				txBuffer.append(activePins);
 				txBuffer.append("/");
+				txBuffer.append(ackWindow);
+				txBuffer.append("/");
 				txBuffer.append(Arrays.toString(deviceSummary));
 				txBuffer.append("\n");
 				record.write(txBuffer.toString().getBytes());
@@ -869,19 +929,13 @@ public class VirtualMsg {
 
 	public synchronized void publishAck(Integer function/*byte*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1); // size
 			write(PUBLISH_ACK); // msgType = 9
 			write(function);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishAck");
 				txBuffer.append("/");
@@ -896,23 +950,40 @@ public class VirtualMsg {
 	  }
 	}
 
+	public synchronized void publishSeqAck(Integer seq/*byte*/) {
+		try {
+		  beginFrame();
+			write(MAGIC_NUMBER);
+			write(1 + 1); // size
+			write(PUBLISH_SEQ_ACK); // msgType = 10
+			write(seq);
+ 
+		  endFrame();
+			if(record != null){
+				txBuffer.append("> publishSeqAck");
+				txBuffer.append("/");
+				txBuffer.append(seq);
+				txBuffer.append("\n");
+				record.write(txBuffer.toString().getBytes());
+				txBuffer.setLength(0);
+			}
+
+	  } catch (Exception e) {
+	  			log.error("publishSeqAck threw",e);
+	  }
+	}
+
 	public synchronized void publishEcho(Float myFloat/*f32*/, Integer myByte/*byte*/, Float secondFloat/*f32*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 4 + 1 + 4); // size
-			write(PUBLISH_ECHO); // msgType = 11
+			write(PUBLISH_ECHO); // msgType = 12
 			writef32(myFloat);
 			write(myByte);
 			writef32(secondFloat);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishEcho");
 				txBuffer.append("/");
@@ -933,19 +1004,13 @@ public class VirtualMsg {
 
 	public synchronized void publishCustomMsg(int[] msg/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + (1 + msg.length)); // size
-			write(PUBLISH_CUSTOM_MSG); // msgType = 13
+			write(PUBLISH_CUSTOM_MSG); // msgType = 14
 			write(msg);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishCustomMsg");
 				txBuffer.append("/");
@@ -962,20 +1027,14 @@ public class VirtualMsg {
 
 	public synchronized void publishI2cData(Integer deviceId/*byte*/, int[] data/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + (1 + data.length)); // size
-			write(PUBLISH_I2C_DATA); // msgType = 19
+			write(PUBLISH_I2C_DATA); // msgType = 20
 			write(deviceId);
 			write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishI2cData");
 				txBuffer.append("/");
@@ -994,19 +1053,13 @@ public class VirtualMsg {
 
 	public synchronized void publishDebug(String debugMsg/*str*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + (1 + debugMsg.length())); // size
-			write(PUBLISH_DEBUG); // msgType = 28
+			write(PUBLISH_DEBUG); // msgType = 29
 			write(debugMsg);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishDebug");
 				txBuffer.append("/");
@@ -1023,19 +1076,13 @@ public class VirtualMsg {
 
 	public synchronized void publishPinArray(int[] data/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + (1 + data.length)); // size
-			write(PUBLISH_PIN_ARRAY); // msgType = 29
+			write(PUBLISH_PIN_ARRAY); // msgType = 30
 			write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishPinArray");
 				txBuffer.append("/");
@@ -1052,22 +1099,16 @@ public class VirtualMsg {
 
 	public synchronized void publishServoEvent(Integer deviceId/*byte*/, Integer eventType/*byte*/, Integer currentPos/*b16*/, Integer targetPos/*b16*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 1 + 2 + 2); // size
-			write(PUBLISH_SERVO_EVENT); // msgType = 40
+			write(PUBLISH_SERVO_EVENT); // msgType = 42
 			write(deviceId);
 			write(eventType);
 			writeb16(currentPos);
 			writeb16(targetPos);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishServoEvent");
 				txBuffer.append("/");
@@ -1090,20 +1131,14 @@ public class VirtualMsg {
 
 	public synchronized void publishSerialData(Integer deviceId/*byte*/, int[] data/*[]*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + (1 + data.length)); // size
-			write(PUBLISH_SERIAL_DATA); // msgType = 43
+			write(PUBLISH_SERIAL_DATA); // msgType = 45
 			write(deviceId);
 			write(data);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishSerialData");
 				txBuffer.append("/");
@@ -1122,20 +1157,14 @@ public class VirtualMsg {
 
 	public synchronized void publishUltrasonicSensorData(Integer deviceId/*byte*/, Integer echoTime/*b16*/) {
 		try {
-		  if (ackEnabled){
-		    waitForAck();
-		  }		  
+		  beginFrame();
 			write(MAGIC_NUMBER);
 			write(1 + 1 + 2); // size
-			write(PUBLISH_ULTRASONIC_SENSOR_DATA); // msgType = 47
+			write(PUBLISH_ULTRASONIC_SENSOR_DATA); // msgType = 49
 			write(deviceId);
 			writeb16(echoTime);
  
-     if (ackEnabled){
-       // we just wrote - block threads sending
-       // until they get an ack
-       ackRecievedLock.acknowledged = false;
-     }
+		  endFrame();
 			if(record != null){
 				txBuffer.append("> publishUltrasonicSensorData");
 				txBuffer.append("/");
@@ -1182,6 +1211,9 @@ public class VirtualMsg {
 		case PUBLISH_ACK:{
 			return "publishAck";
 		}
+		case PUBLISH_SEQ_ACK:{
+			return "publishSeqAck";
+		}
 		case ECHO:{
 			return "echo";
 		}
@@ -1272,6 +1304,9 @@ public class VirtualMsg {
 		case SERVO_SET_ACCELERATION:{
 			return "servoSetAcceleration";
 		}
+		case SERVO_SYNC_MOVE_TO:{
+			return "servoSyncMoveTo";
+		}
 		case PUBLISH_SERVO_EVENT:{
 			return "publishServoEvent";
 		}
@@ -1373,23 +1408,33 @@ public class VirtualMsg {
         //publishDebug("RX:" + String(newByte));
         ++byteCount;
         // checking first byte - beginning of message?
-        if (byteCount == 1 && newByte != VirtualMsg.MAGIC_NUMBER) {
+        if (byteCount == 1 && newByte != MAGIC_NUMBER && newByte != MAGIC_NUMBER_SEQ) {
           publishError(F("error serial"));
           // reset - try again
           byteCount = 0;
           // return false;
         }
+        if (byteCount == 1) {
+          seqFrame = (newByte == MAGIC_NUMBER_SEQ);
+        }
         if (byteCount == 2) {
           // get the size of message
           // todo check msg < 64 (MAX_MSG_SIZE)
-          if (newByte > 64) {
+          // a sequenced frame has the seq on top and can not be empty
+          if ((!seqFrame && newByte > MAX_MSG_SIZE) || (seqFrame && (newByte > MAX_MSG_SIZE + 1 || newByte == 0))) {
             // TODO - send error back
             byteCount = 0;
             continue; // GroG - I guess  we continue now vs return false on error conditions?
           }
           msgSize = newByte;
         }
-        if (byteCount > 2) {
+        if (byteCount > 2 && seqFrame) {
+          if (byteCount == 3) {
+            seq = newByte;
+          } else {
+            ioCmd[byteCount - 4] = newByte;
+          }
+        } else if (byteCount > 2) {
           // fill in msg data - (2) headbytes -1 (offset)
           ioCmd[byteCount - 3] = newByte;
         }
@@ -1397,6 +1442,9 @@ public class VirtualMsg {
         if (byteCount == 2 + msgSize) {
           // we've reach the end of the command, just return true .. we've got it
           byteCount = 0;
+          if (!seqFrame) {
+            seq = -1;
+          }
           return true;
         }
       }
@@ -1405,6 +1453,38 @@ public class VirtualMsg {
     return false;
   }
 
+  /**
+   * sequence check of the frame readMsg just read - true if it should be
+   * processed. Plain frames always are and restart the sequence at 0.
+   * Sequenced frames are only processed in order - a repeat or a frame after a
+   * gap is dropped, the sender goes back to the frame after getLastSeq()
+   */
+  public boolean acceptSeq() {
+    if (seq < 0) {
+      expectedSeq = 0;
+      return true;
+    }
+    if (seq != expectedSeq) {
+      return false;
+    }
+    expectedSeq = (expectedSeq + 1) & 0xFF;
+    return true;
+  }
+
+  /**
+   * @return seq of the last frame read or -1 if it was a plain frame
+   */
+  public int getSeq() {
+    return seq;
+  }
+
+  /**
+   * @return seq of the last sequenced frame which was processed
+   */
+  public int getLastSeq() {
+    return (expectedSeq - 1) & 0xFF;
+  }
+
   String F(String msg) {
     return msg;
   }
@@ -1419,14 +1499,19 @@ public class VirtualMsg {
 			log.error("writeByte overrun - should be  0 <= value <= 255 - value = {}", b8);
 		}
 
+		if (framing) {
+		  frame[frameSize++] = (byte) b8;
+		  return;
+		}
+
 		serial.write(b8 & 0xFF);
 	}
 
 	void writebool(boolean b1) throws Exception {
 		if (b1) {
-			serial.write(1);
+			write(1);
 		} else {
-			serial.write(0);
+			write(0);
 		}
 	}
 
@@ -1561,6 +1646,9 @@ public class VirtualMsg {
   public void enableAcks(boolean b){
     // disable local blocking
 	  ackEnabled = b;
+	  if (!b) {
+	    setAckWindow(0);
+	  }
 	  // if (!localOnly){
 	  // shutdown MrlComm from sending acks
 	  // below is a method only in Msg.java not in VirtualMsg.java
@@ -1589,6 +1677,131 @@ public class VirtualMsg {
     }
 	}
 	
+	/**
+	 * sets how many frames can be sent before the first one is acknowledged.
+	 * 1 or less is stop and wait - the receiver must support sequenced frames
+	 */
+	public void setAckWindow(int size) {
+	  AckWindow window = ackWindow;
+	  if (window != null) {
+	    window.close();
+	  }
+	  if (size > 1) {
+	    ackWindow = new AckWindow(new AckWindow.FrameWriter() {
+	      @Override
+	      public void write(byte[] data, int len) throws Exception {
+	        send(data, len, coalesce);
+	      }
+	    }, size, txExecutor);
+	  } else {
+	    ackWindow = null;
+	  }
+	}
+
+	public AckWindow getAckWindow() {
+	  return ackWindow;
+	}
+
+	/**
+	 * start of a frame - the writes go to the frame buffer. Without a send
+	 * window wait for the ack of the last frame first
+	 */
+	void beginFrame() {
+	  framing = true;
+	  frameSize = 0;
+	  if (ackEnabled && ackWindow == null) {
+	    waitForAck();
+	  }
+	}
+
+	/**
+	 * the frame is complete - give it to the window or write it
+	 */
+	void endFrame() throws Exception {
+	  framing = false;
+	  AckWindow window = ackWindow;
+	  if (ackEnabled && window != null) {
+	    // blocks while the window is full
+	    window.send(frame, frameSize);
+	  } else if (ackEnabled) {
+	    // stop and wait - the frame must go now
+	    send(frame, frameSize, false);
+	    // we just wrote - block threads sending
+	    // until they get an ack
+	    ackRecievedLock.acknowledged = false;
+	  } else {
+	    send(frame, frameSize, coalesce);
+	  }
+	}
+
+	/**
+	 * writes a frame - or adds it to the coalescing buffer. Frames already in
+	 * the buffer always go first.
+	 */
+	void send(byte[] data, int len, boolean later) throws Exception {
+	  synchronized (txLock) {
+	    if (!later || coalesceSize + len > coalesceBuffer.length) {
+	      flushTx();
+	    }
+	    if (!later) {
+	      serial.write(data, 0, len);
+	      return;
+	    }
+	    System.arraycopy(data, 0, coalesceBuffer, coalesceSize, len);
+	    coalesceSize += len;
+	    if (coalesceTimeout == null) {
+	      coalesceTimeout = TimerWheel.getInstance().schedule(new Runnable() {
+	        @Override
+	        public void run() {
+	          txExecutor.execute(flusher);
+	        }
+	      }, coalesceMs, TimeUnit.MILLISECONDS);
+	    }
+	  }
+	}
+
+	void flushTx() throws Exception {
+	  if (coalesceTimeout != null) {
+	    coalesceTimeout.cancel();
+	    coalesceTimeout = null;
+	  }
+	  if (coalesceSize > 0) {
+	    int len = coalesceSize;
+	    coalesceSize = 0;
+	    serial.write(coalesceBuffer, 0, len);
+	  }
+	}
+
+	/**
+	 * writes the coalesced frames now
+	 */
+	public void flush() {
+	  synchronized (txLock) {
+	    try {
+	      flushTx();
+	    } catch (Exception e) {
+	      log.error("flush threw", e);
+	    }
+	  }
+	}
+
+	/**
+	 * collect small frames and write them together - fewer writes and usb
+	 * packets for bursts of msgs, at most ms later. Not used for stop and wait
+	 * acks - every frame there has to go out before its ack can come back.
+	 */
+	public void setCoalesce(boolean b, int ms) {
+	  coalesceMs = ms;
+	  coalesce = b;
+	  if (!b) {
+	    flush();
+	  }
+	}
+
+	public boolean isCoalescing() {
+	  return coalesce;
+	}
+	
 	public void ackReceived(int function){
 	   synchronized (ackRecievedLock) {
 	      ackRecievedLock.acknowledged = true;
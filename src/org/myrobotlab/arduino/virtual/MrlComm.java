@@ -73,6 +73,9 @@ public class MrlComm {
 
   boolean ackEnabled = true;
 
+  // sequenced msgs the pc may send before the first is acknowledged
+  public static final int ACK_WINDOW = 4;
+
   // Device addDevice(Device device);
   // void update();
 
@@ -139,6 +142,8 @@ public class MrlComm {
 	//void servoMoveToMicroseconds( byte deviceId,  int target);
 	// > servoSetAcceleration/deviceId/b16 acceleration
 	//void servoSetAcceleration( byte deviceId,  int acceleration);
+	// > servoSyncMoveTo/bool apply/[] moves
+	//void servoSyncMoveTo( boolean apply,  byte movesSize, const byte*moves);
 	// > serialAttach/deviceId/relayPin
 	//void serialAttach( byte deviceId,  byte relayPin);
 	// > serialRelay/deviceId/[] data
@@ -391,8 +396,15 @@ public class MrlComm {
 
   public void processCommand() {
 
+    if (!msg.acceptSeq()) {
+      // repeat or gap in the sequence - the pc goes back to the one after
+      msg.publishSeqAck(msg.getLastSeq());
+      return;
+    }
     msg.processCommand();
-    if (ackEnabled) {
+    if (msg.getSeq() >= 0) {
+      msg.publishSeqAck(msg.getSeq());
+    } else if (ackEnabled) {
       msg.publishAck(msg.getMethod());
     }
   }
@@ -455,7 +467,7 @@ public class MrlComm {
 
     long now = micros();
     int load = (int)((now - lastBoardInfoUs)/loopCount);
-    msg.publishBoardInfo(MRLCOMM_VERSION, Arduino.BOARD_TYPE_ID_UNO, load, getFreeRam(), pinList.size(), deviceSummary);
+    msg.publishBoardInfo(MRLCOMM_VERSION, Arduino.BOARD_TYPE_ID_UNO, load, getFreeRam(), pinList.size(), ACK_WINDOW, deviceSummary);
     lastBoardInfoUs = now;
     loopCount = 0;
   }
@@ -633,6 +645,32 @@ public class MrlComm {
     servo.moveToMicroseconds(target);
   }
 
+  // > servoSyncMoveTo/bool apply/[] moves
+  public void servoSyncMoveTo(boolean apply, int[] moves) {
+    for (int i = 0; i + 4 < moves.length; i += 5) {
+      MrlServo servo = (MrlServo) getDevice(moves[i]);
+      if (servo != null) {
+        servo.stageMove(msg.b16(moves, i + 1), msg.b16(moves, i + 3));
+      }
+    }
+    if (apply) {
+      // all staged moves start before the next update
+      for (Device device : deviceList) {
+        if (device.type == VirtualMsg.DEVICE_TYPE_SERVO) {
+          ((MrlServo) device).applyMove();
+        }
+      }
+    }
+  }
+
+  /**
+   * VirtualMsg shares the Msg template - the board sends pin reports and
+   * never receives them
+   */
+  public boolean onPinArray(int[] ioCmd, int off, int len) {
+    return false;
+  }
+
   public void setDebug(boolean enabled) {
     msg.debug = enabled;
   }
@@ -32,6 +32,9 @@ public class MrlServo extends Device {
   public int sweepStep;
   public int acceleration;
   public long moveStart;
+  // move staged by servoSyncMoveTo - -1 is none
+  int syncPosUs = -1;
+  int syncVelocity;
 
   public MrlServo(int deviceId, VirtualArduino virtual) {
     super(deviceId, Msg.DEVICE_TYPE_SERVO, virtual);
@@ -178,6 +181,21 @@ void stopSweep() {
 void setVelocity(int velocity) {
   this.velocity = velocity;
 }
+
+// held until applyMove - so all servos of a sync move start on the same tick
+void stageMove(int posUs, int velocity) {
+  syncPosUs = posUs;
+  syncVelocity = velocity;
+}
+
+void applyMove() {
+  if (syncPosUs < 0) {
+    return;
+  }
+  setVelocity(syncVelocity);
+  moveToMicroseconds(syncPosUs);
+  syncPosUs = -1;
+}
  
 void setAcceleration(int acceleration) {
   this.acceleration = acceleration;
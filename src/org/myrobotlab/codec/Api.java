@@ -74,6 +74,12 @@ public abstract class Api {
     msg.method = "getApis"; // default
     msg.apiKey = ApiFactory.API_TYPE_SERVICE; // default
     
+    // query parameters (e.g. ?mimeType=) are not part of the api path
+    int query = uri.indexOf('?');
+    if (query != -1) {
+      uri = uri.substring(0, query);
+    }
+
     int pos = uri.indexOf("/api/");
     
     if (pos == -1) {   
@@ -153,6 +159,29 @@ public abstract class Api {
     return null;
   }
   
+  /**
+   * the codec a client asked for with a mimeType query parameter e.g.
+   * /api/messages?mimeType=application/x-mrl-binary - json if none or not
+   * supported
+   * 
+   * @param uri - inbound uri
+   * @return the mime type to respond with
+   */
+  static public String getMimeType(String uri) {
+    if (uri != null) {
+      int pos = uri.indexOf("mimeType=");
+      if (pos != -1 && uri.indexOf('?') != -1 && uri.indexOf('?') < pos) {
+        pos += "mimeType=".length();
+        int end = uri.indexOf('&', pos);
+        String mimeType = (end == -1) ? uri.substring(pos) : uri.substring(pos, end);
+        if (CodecFactory.isSupported(mimeType)) {
+          return mimeType;
+        }
+      }
+    }
+    return CodecUtils.MIME_TYPE_JSON;
+  }
+
   abstract public Object process(MessageSender sender, OutputStream out, Message msgFromUri, String data) throws Exception;
 
 }
@@ -169,8 +169,9 @@ public class ApiMessages extends Api {
       // Create msg from the return - and send it back
       // - is this correct ? should it be double encoded ?
       Message msg = Message.createMessage(sender, sender.getName(), "onLocalServices", new Object[]{retobj});
-      // apiKey == messages api uses JSON
-      Codec codec = CodecFactory.getCodec(CodecUtils.MIME_TYPE_JSON);
+      // apiKey == messages api uses JSON - unless the client negotiated
+      // another codec with ?mimeType= e.g. application/x-mrl-binary
+      Codec codec = CodecFactory.getCodec(Api.getMimeType(requestUri.uri));
       codec.encode(out, msg);
       
     }
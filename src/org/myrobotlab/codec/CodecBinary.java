@@ -0,0 +1,663 @@
+package org.myrobotlab.codec;
+
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Compact binary codec (MessagePack style) for messages between mrl
+ * processes. Every value is a one byte tag followed by its payload - integers
+ * are zigzag varints, floating point is raw IEEE bits, strings are length
+ * prefixed UTF-8 and primitive arrays (camera frames, point clouds, servo
+ * streams) are written as a single block instead of an element per value.
+ *
+ * A Message is written with a fixed schema - its fields in a fixed order
+ * without names. Types the codec does not know (service state, pojos) are
+ * embedded as json with their class name, so anything Gson can handle still
+ * goes through.
+ *
+ * Unlike json, the types of numbers survive the trip - an Integer comes back
+ * as an Integer, not a Double. So do the types of collections - ArrayList,
+ * HashSet and HashMap are written without a name and come back as ArrayList,
+ * HashSet and LinkedHashMap, any other collection with a public no-arg
+ * constructor (TreeMap, CopyOnWriteArrayList ...) is written with its class
+ * name and comes back as the same class. Collections which can't be created
+ * that way (unmodifiable views, Arrays.asList) come back as the default.
+ *
+ * Encoding goes into a per thread buffer which is reused, so encoding a message
+ * allocates nothing but the final write.
+ */
+public class CodecBinary extends Codec {
+
+  public final static Logger log = LoggerFactory.getLogger(CodecBinary.class);
+
+  final static byte NULL = 0;
+  final static byte TRUE = 1;
+  final static byte FALSE = 2;
+  final static byte INT = 3;
+  final static byte LONG = 4;
+  final static byte FLOAT = 5;
+  final static byte DOUBLE = 6;
+  final static byte SHORT = 7;
+  final static byte BYTE = 8;
+  final static byte CHAR = 9;
+  final static byte STRING = 10;
+  final static byte BYTES = 11;
+  final static byte INTS = 12;
+  final static byte LONGS = 13;
+  final static byte FLOATS = 14;
+  final static byte DOUBLES = 15;
+  final static byte ARRAY = 16;
+  final static byte TYPED_ARRAY = 17;
+  final static byte LIST = 18;
+  final static byte SET = 19;
+  final static byte MAP = 20;
+  final static byte MESSAGE = 21;
+  final static byte JSON = 22;
+  final static byte TYPED_COLLECTION = 23;
+  final static byte TYPED_MAP = 24;
+
+  /**
+   * a buffer which grew beyond this is not kept for the next encode
+   */
+  final static int MAX_RETAINED = 1024 * 1024;
+
+  final static ThreadLocal<Writer> writers = new ThreadLocal<Writer>() {
+    @Override
+    protected Writer initialValue() {
+      return new Writer();
+    }
+  };
+
+  final static CodecJson json = new CodecJson();
+
+  /**
+   * collection and map classes which can be created by name on the other
+   * side
+   */
+  final static ConcurrentHashMap<Class<?>, Boolean> constructible = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  /**
+   * growable output buffer
+   */
+  static final class Writer {
+    byte[] buf = new byte[4096];
+    int pos = 0;
+
+    void ensure(int n) {
+      if (pos + n > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+      }
+    }
+
+    void write(int b) {
+      ensure(1);
+      buf[pos++] = (byte) b;
+    }
+
+    void writeVarLong(long v) {
+      ensure(10);
+      while ((v & ~0x7FL) != 0) {
+        buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      buf[pos++] = (byte) v;
+    }
+
+    void writeZigZag(long v) {
+      writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    void writeFixed32(int v) {
+      ensure(4);
+      buf[pos++] = (byte) (v >>> 24);
+      buf[pos++] = (byte) (v >>> 16);
+      buf[pos++] = (byte) (v >>> 8);
+      buf[pos++] = (byte) v;
+    }
+
+    void writeFixed64(long v) {
+      writeFixed32((int) (v >>> 32));
+      writeFixed32((int) v);
+    }
+
+    void writeBytes(byte[] b, int off, int len) {
+      ensure(len);
+      System.arraycopy(b, off, buf, pos, len);
+      pos += len;
+    }
+
+    /**
+     * length + 1 (0 is null) then UTF-8 - ascii is copied straight into the
+     * buffer
+     */
+    void writeString(String s) {
+      if (s == null) {
+        write(0);
+        return;
+      }
+      int len = s.length();
+      int start = pos;
+      writeVarLong(len + 1);
+      ensure(len);
+      for (int i = 0; i < len; ++i) {
+        char c = s.charAt(i);
+        if (c >= 0x80) {
+          pos = start;
+          byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+          writeVarLong(utf8.length + 1);
+          writeBytes(utf8, 0, utf8.length);
+          return;
+        }
+        buf[pos++] = (byte) c;
+      }
+    }
+  }
+
+  /**
+   * reads values from a byte array
+   */
+  static final class Reader {
+    final byte[] buf;
+    int pos;
+    final int limit;
+
+    Reader(byte[] buf, int off, int len) {
+      this.buf = buf;
+      this.pos = off;
+      this.limit = off + len;
+    }
+
+    int read() {
+      if (pos >= limit) {
+        throw new IllegalArgumentException("binary message truncated");
+      }
+      return buf[pos++] & 0xFF;
+    }
+
+    long readVarLong() {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = read();
+        v |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return v;
+        }
+      }
+      throw new IllegalArgumentException("malformed varint");
+    }
+
+    long readZigZag() {
+      long v = readVarLong();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    int readFixed32() {
+      return (read() << 24) | (read() << 16) | (read() << 8) | read();
+    }
+
+    long readFixed64() {
+      return ((long) readFixed32() << 32) | (readFixed32() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return an element count - checked against what is left so a corrupt
+     *         frame can't make us allocate gigabytes
+     */
+    int readLength(int elementSize) {
+      long len = readVarLong();
+      if (len < 0 || len * elementSize > limit - pos) {
+        throw new IllegalArgumentException(String.format("bad length %d", len));
+      }
+      return (int) len;
+    }
+
+    String readString() {
+      long len = readVarLong();
+      if (len == 0) {
+        return null;
+      }
+      --len;
+      if (len > limit - pos) {
+        throw new IllegalArgumentException(String.format("bad string length %d", len));
+      }
+      String s = new String(buf, pos, (int) len, StandardCharsets.UTF_8);
+      pos += len;
+      return s;
+    }
+  }
+
+  /**
+   * encodes into the reusable buffer of this thread
+   *
+   * @param obj
+   *          the object (typically a Message)
+   * @return the buffer - valid until the next encode on this thread
+   */
+  static Writer encodeToBuffer(Object obj) throws Exception {
+    Writer w = writers.get();
+    if (w.buf.length > MAX_RETAINED) {
+      w = new Writer();
+      writers.set(w);
+    }
+    w.pos = 0;
+    writeValue(w, obj);
+    return w;
+  }
+
+  static public byte[] toBytes(Object obj) throws Exception {
+    Writer w = encodeToBuffer(obj);
+    return Arrays.copyOf(w.buf, w.pos);
+  }
+
+  static public Object fromBytes(byte[] data) throws Exception {
+    return fromBytes(data, 0, data.length);
+  }
+
+  static public Object fromBytes(byte[] data, int off, int len) throws Exception {
+    return readValue(new Reader(data, off, len));
+  }
+
+  static void writeValue(Writer w, Object o) throws Exception {
+    if (o == null) {
+      w.write(NULL);
+      return;
+    }
+    Class<?> c = o.getClass();
+    if (c == String.class) {
+      w.write(STRING);
+      w.writeString((String) o);
+    } else if (c == Integer.class) {
+      w.write(INT);
+      w.writeZigZag((Integer) o);
+    } else if (c == Double.class) {
+      w.write(DOUBLE);
+      w.writeFixed64(Double.doubleToRawLongBits((Double) o));
+    } else if (c == Boolean.class) {
+      w.write(((Boolean) o) ? TRUE : FALSE);
+    } else if (c == Long.class) {
+      w.write(LONG);
+      w.writeZigZag((Long) o);
+    } else if (c == Float.class) {
+      w.write(FLOAT);
+      w.writeFixed32(Float.floatToRawIntBits((Float) o));
+    } else if (c == Short.class) {
+      w.write(SHORT);
+      w.writeZigZag((Short) o);
+    } else if (c == Byte.class) {
+      w.write(BYTE);
+      w.write((Byte) o);
+    } else if (c == Character.class) {
+      w.write(CHAR);
+      w.writeVarLong((Character) o);
+    } else if (c == Message.class) {
+      w.write(MESSAGE);
+      writeMessage(w, (Message) o);
+    } else if (c == byte[].class) {
+      byte[] a = (byte[]) o;
+      w.write(BYTES);
+      w.writeVarLong(a.length);
+      w.writeBytes(a, 0, a.length);
+    } else if (c == int[].class) {
+      int[] a = (int[]) o;
+      w.write(INTS);
+      w.writeVarLong(a.length);
+      for (int i = 0; i < a.length; ++i) {
+        w.writeZigZag(a[i]);
+      }
+    } else if (c == long[].class) {
+      long[] a = (long[]) o;
+      w.write(LONGS);
+      w.writeVarLong(a.length);
+      for (int i = 0; i < a.length; ++i) {
+        w.writeZigZag(a[i]);
+      }
+    } else if (c == float[].class) {
+      float[] a = (float[]) o;
+      w.write(FLOATS);
+      w.writeVarLong(a.length);
+      w.ensure(a.length * 4);
+      for (int i = 0; i < a.length; ++i) {
+        w.writeFixed32(Float.floatToRawIntBits(a[i]));
+      }
+    } else if (c == double[].class) {
+      double[] a = (double[]) o;
+      w.write(DOUBLES);
+      w.writeVarLong(a.length);
+      w.ensure(a.length * 8);
+      for (int i = 0; i < a.length; ++i) {
+        w.writeFixed64(Double.doubleToRawLongBits(a[i]));
+      }
+    } else if (c == Object[].class) {
+      Object[] a = (Object[]) o;
+      w.write(ARRAY);
+      w.writeVarLong(a.length);
+      for (int i = 0; i < a.length; ++i) {
+        writeValue(w, a[i]);
+      }
+    } else if (c.isArray() && !c.getComponentType().isPrimitive()) {
+      int len = Array.getLength(o);
+      w.write(TYPED_ARRAY);
+      w.writeString(c.getComponentType().getName());
+      w.writeVarLong(len);
+      for (int i = 0; i < len; ++i) {
+        writeValue(w, Array.get(o, i));
+      }
+    } else if (o instanceof Collection && c != ArrayList.class && c != HashSet.class && isConstructible(c)) {
+      w.write(TYPED_COLLECTION);
+      w.writeString(c.getName());
+      Collection<?> collection = (Collection<?>) o;
+      w.writeVarLong(collection.size());
+      for (Object e : collection) {
+        writeValue(w, e);
+      }
+    } else if (o instanceof Map && c != HashMap.class && c != LinkedHashMap.class && isConstructible(c)) {
+      w.write(TYPED_MAP);
+      w.writeString(c.getName());
+      writeEntries(w, (Map<?, ?>) o);
+    } else if (o instanceof List) {
+      List<?> list = (List<?>) o;
+      w.write(LIST);
+      w.writeVarLong(list.size());
+      for (Object e : list) {
+        writeValue(w, e);
+      }
+    } else if (o instanceof Set) {
+      writeCollection(w, SET, (Set<?>) o);
+    } else if (o instanceof Map) {
+      w.write(MAP);
+      writeEntries(w, (Map<?, ?>) o);
+    } else {
+      // anything else - as json with its type
+      w.write(JSON);
+      w.writeString(c.getName());
+      w.writeString(CodecJson.encode(o));
+    }
+  }
+
+  static void writeEntries(Writer w, Map<?, ?> map) throws Exception {
+    w.writeVarLong(map.size());
+    for (Map.Entry<?, ?> e : map.entrySet()) {
+      writeValue(w, e.getKey());
+      writeValue(w, e.getValue());
+    }
+  }
+
+  /**
+   * @return true if c is public with a public no-arg constructor
+   */
+  static boolean isConstructible(Class<?> c) {
+    Boolean ret = constructible.get(c);
+    if (ret == null) {
+      ret = false;
+      if (Modifier.isPublic(c.getModifiers()) && !Modifier.isAbstract(c.getModifiers())) {
+        try {
+          c.getConstructor();
+          ret = true;
+        } catch (NoSuchMethodException e) {
+        }
+      }
+      constructible.put(c, ret);
+    }
+    return ret;
+  }
+
+  static void writeCollection(Writer w, byte tag, Collection<?> collection) throws Exception {
+    w.write(tag);
+    w.writeVarLong(collection.size());
+    for (Object e : collection) {
+      writeValue(w, e);
+    }
+  }
+
+  /**
+   * the Message schema - the order of the fields is the format
+   */
+  static void writeMessage(Writer w, Message msg) throws Exception {
+    w.writeZigZag(msg.msgId);
+    w.writeString(msg.uri);
+    w.writeString(msg.apiKey);
+    w.writeString(msg.name);
+    w.writeString(msg.sender);
+    w.writeString(msg.sendingMethod);
+    w.writeString(msg.status);
+    w.writeString(msg.msgType);
+    w.writeString(msg.method);
+    if (msg.historyList == null) {
+      w.write(NULL);
+    } else {
+      writeCollection(w, SET, msg.historyList);
+    }
+    writeValue(w, msg.security);
+    writeValue(w, msg.data);
+  }
+
+  @SuppressWarnings("unchecked")
+  static Message readMessage(Reader r) throws Exception {
+    Message msg = new Message();
+    msg.msgId = r.readZigZag();
+    msg.uri = r.readString();
+    msg.apiKey = r.readString();
+    msg.name = r.readString();
+    msg.sender = r.readString();
+    msg.sendingMethod = r.readString();
+    msg.status = r.readString();
+    msg.msgType = r.readString();
+    msg.method = r.readString();
+    msg.historyList = (HashSet<String>) readValue(r);
+    Object security = readValue(r);
+    if (security != null) {
+      msg.security = new HashMap<String, String>((Map<String, String>) security);
+    }
+    msg.data = (Object[]) readValue(r);
+    return msg;
+  }
+
+  static Object readValue(Reader r) throws Exception {
+    int tag = r.read();
+    switch (tag) {
+      case NULL:
+        return null;
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case INT:
+        return (int) r.readZigZag();
+      case LONG:
+        return r.readZigZag();
+      case FLOAT:
+        return Float.intBitsToFloat(r.readFixed32());
+      case DOUBLE:
+        return Double.longBitsToDouble(r.readFixed64());
+      case SHORT:
+        return (short) r.readZigZag();
+      case BYTE:
+        return (byte) r.read();
+      case CHAR:
+        return (char) r.readVarLong();
+      case STRING:
+        return r.readString();
+      case BYTES: {
+        int len = r.readLength(1);
+        byte[] a = Arrays.copyOfRange(r.buf, r.pos, r.pos + len);
+        r.pos += len;
+        return a;
+      }
+      case INTS: {
+        int[] a = new int[r.readLength(1)];
+        for (int i = 0; i < a.length; ++i) {
+          a[i] = (int) r.readZigZag();
+        }
+        return a;
+      }
+      case LONGS: {
+        long[] a = new long[r.readLength(1)];
+        for (int i = 0; i < a.length; ++i) {
+          a[i] = r.readZigZag();
+        }
+        return a;
+      }
+      case FLOATS: {
+        float[] a = new float[r.readLength(4)];
+        for (int i = 0; i < a.length; ++i) {
+          a[i] = Float.intBitsToFloat(r.readFixed32());
+        }
+        return a;
+      }
+      case DOUBLES: {
+        double[] a = new double[r.readLength(8)];
+        for (int i = 0; i < a.length; ++i) {
+          a[i] = Double.longBitsToDouble(r.readFixed64());
+        }
+        return a;
+      }
+      case ARRAY: {
+        Object[] a = new Object[r.readLength(1)];
+        for (int i = 0; i < a.length; ++i) {
+          a[i] = readValue(r);
+        }
+        return a;
+      }
+      case TYPED_ARRAY: {
+        Class<?> type = typeOf(r.readString());
+        int len = r.readLength(1);
+        Object a = Array.newInstance(type, len);
+        for (int i = 0; i < len; ++i) {
+          Array.set(a, i, readValue(r));
+        }
+        return a;
+      }
+      case LIST: {
+        int len = r.readLength(1);
+        ArrayList<Object> list = new ArrayList<Object>(len);
+        for (int i = 0; i < len; ++i) {
+          list.add(readValue(r));
+        }
+        return list;
+      }
+      case SET: {
+        int len = r.readLength(1);
+        HashSet<Object> set = new HashSet<Object>();
+        for (int i = 0; i < len; ++i) {
+          set.add(readValue(r));
+        }
+        return set;
+      }
+      case MAP: {
+        int len = r.readLength(2);
+        LinkedHashMap<Object, Object> map = new LinkedHashMap<Object, Object>();
+        for (int i = 0; i < len; ++i) {
+          Object key = readValue(r);
+          map.put(key, readValue(r));
+        }
+        return map;
+      }
+      case TYPED_COLLECTION: {
+        @SuppressWarnings("unchecked")
+        Collection<Object> collection = (Collection<Object>) newInstance(r.readString(), Collection.class);
+        int len = r.readLength(1);
+        for (int i = 0; i < len; ++i) {
+          collection.add(readValue(r));
+        }
+        return collection;
+      }
+      case TYPED_MAP: {
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> map = (Map<Object, Object>) newInstance(r.readString(), Map.class);
+        int len = r.readLength(2);
+        for (int i = 0; i < len; ++i) {
+          Object key = readValue(r);
+          map.put(key, readValue(r));
+        }
+        return map;
+      }
+      case MESSAGE:
+        return readMessage(r);
+      case JSON: {
+        Class<?> type = typeOf(r.readString());
+        return json.decode(r.readString(), type);
+      }
+      default:
+        throw new IllegalArgumentException(String.format("unknown binary tag %d at %d", tag, r.pos - 1));
+    }
+  }
+
+  /**
+   * resolves a class name from the wire without running its static
+   * initializer
+   */
+  static Class<?> typeOf(String name) throws ClassNotFoundException {
+    return Class.forName(name, false, CodecBinary.class.getClassLoader());
+  }
+
+  /**
+   * creates the collection or map of a TYPED_COLLECTION / TYPED_MAP - the
+   * name comes from the wire, nothing else is constructed
+   */
+  static Object newInstance(String name, Class<?> required) throws Exception {
+    Class<?> type = typeOf(name);
+    if (!required.isAssignableFrom(type)) {
+      throw new IllegalArgumentException(String.format("%s is not a %s", name, required.getSimpleName()));
+    }
+    return type.newInstance();
+  }
+
+  @Override
+  public void encode(OutputStream out, Object obj) throws Exception {
+    Writer w = encodeToBuffer(obj);
+    out.write(w.buf, 0, w.pos);
+  }
+
+  @Override
+  public Object[] decodeArray(Object data) throws Exception {
+    Object o = decode(data, Object[].class);
+    if (o instanceof Message) {
+      return ((Message) o).data;
+    }
+    return (Object[]) o;
+  }
+
+  /**
+   * @param data
+   *          byte[] of binary - a String is assumed to be json (e.g. from the
+   *          WebGui)
+   */
+  @Override
+  public Object decode(Object data, Class<?> type) throws Exception {
+    if (data == null) {
+      log.error("trying to decode null data");
+      return null;
+    }
+    if (data instanceof byte[]) {
+      return fromBytes((byte[]) data);
+    }
+    return json.decode(data, type);
+  }
+
+  @Override
+  public String getMimeType() {
+    return CodecUtils.MIME_TYPE_BINARY;
+  }
+
+  @Override
+  public String getKey() {
+    return "binary";
+  }
+
+}
@@ -3,16 +3,18 @@ package org.myrobotlab.codec;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CodecFactory {
 
   static final private HashMap<String, String> mimeTypeMap = new HashMap<String, String>();
-  static final private HashMap<String, Codec> codecMap = new HashMap<String, Codec>();
+  static final private ConcurrentHashMap<String, Codec> codecMap = new ConcurrentHashMap<String, Codec>();
   static private boolean initialized = false;
 
   static public synchronized void init() {
     if (!initialized) {
       mimeTypeMap.put("application/json", "org.myrobotlab.codec.CodecJson"); // vs application/mrl-json
+      mimeTypeMap.put(CodecUtils.MIME_TYPE_BINARY, "org.myrobotlab.codec.CodecBinary");
       initialized = true;
     }
 
@@ -23,22 +25,38 @@ public class CodecFactory {
     if (!initialized) {
       init();
     }
+    if (mimeType == null) {
+      mimeType = CodecUtils.MIME_TYPE_JSON;
+    }
+    // looked up for every message sent - no lock
+    Codec codec = codecMap.get(mimeType);
+    if (codec != null) {
+      return codec;
+    }
     String clazz = null;
     if (mimeTypeMap.containsKey(mimeType)) {
       clazz = mimeTypeMap.get(mimeType);
     } else {
-      clazz = CodecUtils.MIME_TYPE_JSON;
+      clazz = mimeTypeMap.get(CodecUtils.MIME_TYPE_JSON);
     }
 
-    if (codecMap.containsKey(mimeType)) {
-      return codecMap.get(mimeType);
-    } else {
-      Class<?> o = Class.forName(clazz);
-      Constructor<?> constructor = o.getConstructor();
-      Codec codec = (Codec) constructor.newInstance();
-      codecMap.put(mimeType, codec);
-      return codec;
+    Class<?> o = Class.forName(clazz);
+    Constructor<?> constructor = o.getConstructor();
+    codec = (Codec) constructor.newInstance();
+    codecMap.put(mimeType, codec);
+    return codec;
+  }
+
+  /**
+   * @param mimeType
+   *          a mime type
+   * @return true if a codec is registered for it
+   */
+  static public boolean isSupported(String mimeType) {
+    if (!initialized) {
+      init();
     }
+    return mimeType != null && mimeTypeMap.containsKey(mimeType);
   }
 
 }
@@ -57,6 +57,7 @@ public class CodecUtils {
   // public final static String MIME_TYPE_JSON = "application/json";
   // public final static String MIME_TYPE_MRL_JSON = "application/mrl-json";
   public final static String MIME_TYPE_JSON = "application/json";
+  public final static String MIME_TYPE_BINARY = "application/x-mrl-binary";
 
   // disableHtmlEscaping to prevent encoding or "=" -
   // private transient static Gson gson = new
@@ -0,0 +1,247 @@
+package org.myrobotlab.framework;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Per class table of invokable methods, built once (when the first service of
+ * a type registers) so the message hot path is a map lookup and a direct call
+ * instead of getMethod + reflective invoke.
+ *
+ * Methods are keyed by name - overloads are kept in an array and picked by
+ * checking the runtime types of the parameters against pre-boxed parameter
+ * types. No Class[] or key is allocated per message. An exact match wins, as
+ * it does for getMethod on the reflective path, otherwise the most specific
+ * method which takes the parameters. Anything the table can't resolve
+ * (primitive widening e.g. Integer to double, or overloads none of which is
+ * more specific than the others) is left to the reflective path in
+ * {@link Service#invokeOn(Object, String, Object...)}.
+ */
+public class DispatchTable {
+
+  public final static Logger log = LoggerFactory.getLogger(DispatchTable.class);
+
+  /**
+   * false sends every message down the reflective path - to compare the two
+   */
+  static volatile boolean enabled = true;
+
+  final static ConcurrentHashMap<Class<?>, DispatchTable> tables = new ConcurrentHashMap<Class<?>, DispatchTable>();
+
+  final static MethodType GENERIC = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+  final static Map<Class<?>, Class<?>> wrappers = new HashMap<Class<?>, Class<?>>();
+
+  static {
+    wrappers.put(boolean.class, Boolean.class);
+    wrappers.put(byte.class, Byte.class);
+    wrappers.put(char.class, Character.class);
+    wrappers.put(short.class, Short.class);
+    wrappers.put(int.class, Integer.class);
+    wrappers.put(long.class, Long.class);
+    wrappers.put(float.class, Float.class);
+    wrappers.put(double.class, Double.class);
+  }
+
+  /**
+   * a single resolved method
+   */
+  public static class Entry {
+    final Method method;
+    /**
+     * parameter types with primitives replaced by their wrappers - an argument
+     * is accepted if it is an instance of these
+     */
+    final Class<?>[] boxedTypes;
+    final boolean[] primitive;
+    /**
+     * (Object target, Object[] params)Object - null if the method could not
+     * be unreflected, in which case Method.invoke is used
+     */
+    final MethodHandle handle;
+
+    Entry(Method method) {
+      this.method = method;
+      Class<?>[] types = method.getParameterTypes();
+      boxedTypes = new Class<?>[types.length];
+      primitive = new boolean[types.length];
+      for (int i = 0; i < types.length; ++i) {
+        primitive[i] = types[i].isPrimitive();
+        boxedTypes[i] = (primitive[i]) ? wrappers.get(types[i]) : types[i];
+      }
+      handle = createHandle(method);
+    }
+
+    static MethodHandle createHandle(Method method) {
+      try {
+        if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+          method.setAccessible(true);
+        }
+        MethodHandle mh = MethodHandles.lookup().unreflect(method).asFixedArity();
+        if (Modifier.isStatic(method.getModifiers())) {
+          mh = MethodHandles.dropArguments(mh, 0, Object.class);
+        }
+        return mh.asSpreader(Object[].class, method.getParameterTypes().length).asType(GENERIC);
+      } catch (Exception e) {
+        log.debug("{} will be invoked reflectively - {}", method, e.getMessage());
+        return null;
+      }
+    }
+
+    /**
+     * @return 2 if every parameter is exactly the declared type, 1 if they
+     *         are assignable or need unboxing, 0 if this method can not take
+     *         the params
+     */
+    final int score(Object[] params) {
+      int length = (params == null) ? 0 : params.length;
+      if (length != boxedTypes.length) {
+        return 0;
+      }
+      int score = 2;
+      for (int i = 0; i < length; ++i) {
+        Object param = params[i];
+        if (param == null) {
+          if (primitive[i]) {
+            return 0;
+          }
+          score = 1;
+        } else if (primitive[i] || param.getClass() != boxedTypes[i]) {
+          if (!boxedTypes[i].isInstance(param)) {
+            return 0;
+          }
+          score = 1;
+        }
+      }
+      return score;
+    }
+
+    /**
+     * same contract as Method.invoke - whatever the method throws comes
+     * wrapped in an InvocationTargetException
+     */
+    public Object invoke(Object target, Object[] params) throws IllegalAccessException, InvocationTargetException {
+      if (handle == null) {
+        return method.invoke(target, params);
+      }
+      try {
+        return (Object) handle.invokeExact(target, params);
+      } catch (Throwable e) {
+        throw new InvocationTargetException(e);
+      }
+    }
+
+    /**
+     * @return true if every parameter of this method is assignable to the
+     *         parameter of other at the same position
+     */
+    final boolean isMoreSpecific(Entry other) {
+      for (int i = 0; i < boxedTypes.length; ++i) {
+        if (!other.boxedTypes[i].isAssignableFrom(boxedTypes[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    public Method getMethod() {
+      return method;
+    }
+  }
+
+  final Class<?> clazz;
+
+  final HashMap<String, Entry[]> methods = new HashMap<String, Entry[]>();
+
+  public static DispatchTable getInstance(Class<?> clazz) {
+    DispatchTable table = tables.get(clazz);
+    if (table == null) {
+      table = new DispatchTable(clazz);
+      DispatchTable existing = tables.putIfAbsent(clazz, table);
+      if (existing != null) {
+        table = existing;
+      }
+    }
+    return table;
+  }
+
+  DispatchTable(Class<?> clazz) {
+    this.clazz = clazz;
+    long start = System.currentTimeMillis();
+    HashMap<String, ArrayList<Entry>> build = new HashMap<String, ArrayList<Entry>>();
+    for (Method m : clazz.getMethods()) {
+      if (m.isBridge() || m.isSynthetic()) {
+        continue;
+      }
+      ArrayList<Entry> entries = build.get(m.getName());
+      if (entries == null) {
+        entries = new ArrayList<Entry>();
+        build.put(m.getName(), entries);
+      }
+      entries.add(new Entry(m));
+    }
+    for (Map.Entry<String, ArrayList<Entry>> e : build.entrySet()) {
+      methods.put(e.getKey(), e.getValue().toArray(new Entry[e.getValue().size()]));
+    }
+    log.debug("built dispatch table for {} - {} methods in {} ms", clazz.getSimpleName(), methods.size(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * finds the method to invoke - an exact parameter type match, else the most
+   * specific of the methods the parameters are assignable to
+   *
+   * @param method
+   *          name of the method
+   * @param params
+   *          the parameters which will be passed
+   * @return the entry or null if none can take these parameters without
+   *         conversion, or if none of those that can is the most specific
+   */
+  public Entry find(String method, Object[] params) {
+    if (!enabled) {
+      return null;
+    }
+    Entry[] entries = methods.get(method);
+    if (entries == null) {
+      return null;
+    }
+    Entry found = null;
+    for (int i = 0; i < entries.length; ++i) {
+      int score = entries[i].score(params);
+      if (score == 2) {
+        return entries[i];
+      }
+      if (score == 1 && (found == null || entries[i].isMoreSpecific(found))) {
+        found = entries[i];
+      }
+    }
+    if (found == null) {
+      return null;
+    }
+    // it must be more specific than every other candidate - and not the same
+    // e.g. moveTo(int, Object) and moveTo(Integer, Object) for (10, "fast")
+    for (int i = 0; i < entries.length; ++i) {
+      Entry e = entries[i];
+      if (e != found && e.score(params) != 0 && (!found.isMoreSpecific(e) || e.isMoreSpecific(found))) {
+        return null;
+      }
+    }
+    return found;
+  }
+
+  public boolean hasMethod(String method) {
+    return methods.containsKey(method);
+  }
+
+}
@@ -0,0 +1,200 @@
+package org.myrobotlab.framework;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Execution model for service inboxes and outboxes.
+ *
+ * THREAD - the original model, every inbox and outbox has its own OS thread
+ *
+ * POOL - queues are drained by a shared work-stealing pool. A queue is
+ * scheduled when a message arrives and only one worker drains it at a time, so
+ * each service still processes its messages in order. A drain handles at most
+ * BATCH messages before giving the worker back, so a flooded service can not
+ * starve the others. Drains are expected not to block, so the pool stays at
+ * one worker per core. Waits which do block must say so - Dispatcher.sleep
+ * (behind Service.sleep) and the future behind sendBlocking run as a
+ * ManagedBlocker, and the pool adds a worker only for as long as they wait.
+ *
+ * VIRTUAL - the original blocking loops, but on virtual threads (Java 21+).
+ * Falls back to THREAD on older JVMs.
+ *
+ * The mode is global and picked up when a service starts, see
+ * Runtime.setExecutionMode.
+ */
+public class Dispatcher implements Runnable {
+
+  public final static Logger log = LoggerFactory.getLogger(Dispatcher.class);
+
+  public enum Mode {
+    THREAD, POOL, VIRTUAL
+  }
+
+  /**
+   * something with a queue which can be drained a bit at a time
+   */
+  public interface Drainable {
+    /**
+     * process up to max queued messages without blocking
+     *
+     * @param max
+     *          max number of messages
+     * @return number processed
+     */
+    public int drain(int max);
+
+    public boolean isEmpty();
+  }
+
+  final static int BATCH = 64;
+
+  static volatile Mode mode = Mode.THREAD;
+
+  static ExecutorService pool = null;
+
+  static Method ofVirtual = null;
+
+  final String name;
+  final Drainable queue;
+  final AtomicBoolean scheduled = new AtomicBoolean(false);
+  volatile boolean released = false;
+
+  public Dispatcher(String name, Drainable queue) {
+    this.name = name;
+    this.queue = queue;
+  }
+
+  static public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * sets the execution mode for services started after this call
+   *
+   * @param newMode
+   *          THREAD | POOL | VIRTUAL
+   * @return the mode which will actually be used
+   */
+  static public Mode setMode(Mode newMode) {
+    if (newMode == Mode.VIRTUAL && getOfVirtual() == null) {
+      log.warn("virtual threads not supported by this jvm {} - using THREAD", System.getProperty("java.version"));
+      newMode = Mode.THREAD;
+    }
+    log.info("execution mode {}", newMode);
+    mode = newMode;
+    return mode;
+  }
+
+  static synchronized public ExecutorService getPool() {
+    if (pool == null) {
+      // async mode - FIFO scheduling of tasks which are never joined
+      pool = new ForkJoinPool(java.lang.Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+    return pool;
+  }
+
+  static synchronized Method getOfVirtual() {
+    if (ofVirtual == null) {
+      try {
+        ofVirtual = Thread.class.getMethod("ofVirtual");
+      } catch (Exception e) {
+        log.debug("no virtual threads");
+      }
+    }
+    return ofVirtual;
+  }
+
+  /**
+   * creates an unstarted thread - virtual in VIRTUAL mode
+   *
+   * @param r
+   *          the runnable
+   * @param name
+   *          thread name
+   * @return the thread
+   */
+  static public Thread newThread(Runnable r, String name) {
+    if (mode == Mode.VIRTUAL) {
+      try {
+        // Thread.ofVirtual().name(name).unstarted(r)
+        // through the public Thread.Builder interface - the implementing
+        // class is not accessible
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Object builder = getOfVirtual().invoke(null);
+        builder = builderClass.getMethod("name", String.class).invoke(builder, name);
+        return (Thread) builderClass.getMethod("unstarted", Runnable.class).invoke(builder, r);
+      } catch (Exception e) {
+        log.warn("could not create virtual thread {} - {}", name, e.getMessage());
+      }
+    }
+    return new Thread(r, name);
+  }
+
+  /**
+   * sleep which lets the pool compensate - on a pool worker another worker
+   * keeps the other services drained while this one sleeps
+   *
+   * @param millis
+   *          the time in milliseconds
+   * @throws InterruptedException
+   *           if interrupted
+   */
+  static public void sleep(final long millis) throws InterruptedException {
+    if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+      Thread.sleep(millis);
+      return;
+    }
+    final long deadline = System.currentTimeMillis() + millis;
+    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+      @Override
+      public boolean block() throws InterruptedException {
+        long left = deadline - System.currentTimeMillis();
+        if (left > 0) {
+          Thread.sleep(left);
+        }
+        return true;
+      }
+
+      @Override
+      public boolean isReleasable() {
+        return System.currentTimeMillis() >= deadline;
+      }
+    });
+  }
+
+  /**
+   * request a drain - cheap if one is already scheduled or running
+   */
+  public void schedule() {
+    if (!released && scheduled.compareAndSet(false, true)) {
+      getPool().execute(this);
+    }
+  }
+
+  public void release() {
+    released = true;
+  }
+
+  @Override
+  public void run() {
+    try {
+      queue.drain(BATCH);
+    } catch (Exception e) {
+      log.error("{} dispatch threw", name, e);
+    } finally {
+      scheduled.set(false);
+      // anything added while we were draining (or left over from the batch)
+      if (!queue.isEmpty()) {
+        schedule();
+      }
+    }
+  }
+
+}
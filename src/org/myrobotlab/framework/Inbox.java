@@ -25,11 +25,18 @@
 
 package org.myrobotlab.framework;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
+import org.myrobotlab.framework.interfaces.MessageQueue;
 import org.myrobotlab.logging.LoggerFactory;
 import org.slf4j.Logger;
 
@@ -40,14 +47,26 @@ public class Inbox implements Serializable {
   public final static Logger log = LoggerFactory.getLogger(Inbox.class.getCanonicalName());
 
   String name;
-  LinkedList<Message> msgBox = new LinkedList<Message>();
-  boolean isRunning = false;
+  /**
+   * the actual storage - defaults to the original LinkedList implementation,
+   * can be swapped for a lock-free ring with {@link #setQueue(MessageQueue)}
+   */
+  transient volatile MessageQueue msgBox;
   boolean bufferOverrun = false;
-  boolean blocking = false;
-  int maxQueue = 1024; // will need to adjust unit test if you change this
-  // value
+  /**
+   * set when the inbox is drained by the shared pool instead of a thread
+   */
+  transient volatile Dispatcher dispatcher = null;
+  /**
+   * pipeline metrics of the owning service - null if not instrumented
+   */
+  transient ServiceMetrics metrics = null;
 
-  HashMap<Long, Object[]> blockingList = new HashMap<Long, Object[]>();
+  /**
+   * msgId of a sent BLOCKING message to the future waiting for its RETURN -
+   * correlation table of sendAsync and sendBlocking
+   */
+  transient ConcurrentHashMap<Long, CompletableFuture<Object>> requests = new ConcurrentHashMap<Long, CompletableFuture<Object>>();
 
   public Inbox() {
     this("Inbox");
@@ -55,40 +74,65 @@ public class Inbox implements Serializable {
 
   public Inbox(String name) {
     this.name = name;
+    // will need to adjust unit test if you change the default size
+    msgBox = new LinkedMessageQueue(name);
   }
 
   public void add(Message msg) {
+    add(msg, true);
+  }
+
+  /**
+   * add without waiting for room - for threads which must not block, like
+   * the timer wheel running tasks
+   *
+   * @return false if the message was dropped
+   */
+  public boolean offer(Message msg) {
+    return add(msg, false);
+  }
+
+  boolean add(Message msg, boolean wait) {
     if ((msg.historyList.contains(name))) {
       log.error(String.format("* %s dumping duplicate message %s.%s msgid - %d %s", name, msg.name, msg.method, msg.msgId, msg.historyList));
-      return;
+      return false;
     }
 
     msg.historyList.add(name);
 
-    synchronized (msgBox) {
-      while (blocking && msgBox.size() == maxQueue) // queue "full"
-      {
-        try {
-          msgBox.wait();
-        } catch (InterruptedException ex) {
-          log.debug("inbox enque msg INTERRUPTED " + name);
-        }
-      }
+    // a return for sendAsync completes its future without being queued -
+    // a thread waiting in sendBlocking does not need the inbox to be drained
+    if (isPendingReturn(msg)) {
+      return true;
+    }
 
-      if (msgBox.size() > maxQueue) {
-        bufferOverrun = true;
-        log.warn(String.format("%s inbox BUFFER OVERRUN dumping msg size %d - %s", name, msgBox.size(), msg.method));
-      } else {
-        msgBox.addFirst(msg);
-        // Logging.logTime(String.format("inbox - %s size %d", name,
-        // msgBox.size()));
-        if (log.isDebugEnabled()) {
-          log.debug(String.format("%s.msgBox + 1 = %d", name, msgBox.size()));
-        }
-        msgBox.notifyAll(); // must own the lock
+    ServiceMetrics m = metrics;
+    if (m != null && ServiceMetrics.enabled) {
+      msg.enqueueTs = System.nanoTime();
+      m.received();
+    } else {
+      msg.enqueueTs = 0;
+    }
+
+    MessageQueue queue = msgBox;
+    boolean added = (wait) ? queue.add(msg) : queue.offer(msg);
+    if (!added) {
+      bufferOverrun = true;
+      if (m != null) {
+        m.dropped();
       }
     }
+    if (queue != msgBox) {
+      // setQueue swapped the queue while we added - it may have drained the
+      // old one before our message got there
+      transfer(queue, msgBox);
+    }
 
+    Dispatcher d = dispatcher;
+    if (d != null) {
+      d.schedule();
+    }
+    return added;
   }
 
   public void clear() {
@@ -130,45 +174,126 @@ public class Inbox implements Serializable {
 
     Message msg = null;
 
-    synchronized (msgBox) {
+    while (msg == null) { // while no messages && no messages that are
+      // blocking
 
-      while (msg == null) { // while no messages && no messages that are
-        // blocking
-        if (msgBox.size() == 0) {
-          // log.debug("Inbox WAITING " + name);
-          msgBox.wait(); // must own the lock
-        } else {
-          msg = msgBox.removeLast();
-          log.debug(String.format("%s.msgBox -1 %d", name, msgBox.size()));
-
-          // --- sendBlocking support begin --------------------
-          // TODO - possible safety check msg.status == Message.RETURN
-          // &&
-          if (blockingList.containsKey(msg.msgId)) {
-            Object[] returnContainer = blockingList.get(msg.msgId);
-            if (msg.data == null) // TODO - don't know if this is
-            // correct but this works for
-            // null data now
-            {
-              returnContainer[0] = null;
-            } else {
-              returnContainer[0] = msg.data[0]; // transferring
-              // return data !
-            }
-            synchronized (returnContainer) {
-              blockingList.remove(msg.msgId);
-              returnContainer.notify(); // addListener sender
-            }
-            msg = null; // do not invoke this msg - sendBlocking has
-            // been notified data returned
-          }
-          // --- sendBlocking support end --------------------
+      // null when the queue was swapped underneath us
+      msg = resolve(msgBox.take());
+      // a return queued before its request was registered
+      if (msg != null && isPendingReturn(msg)) {
+        msg = null;
+      }
+    }
+    return msg;
+  }
+
+  /**
+   * non-blocking version of getMsg - used when the inbox is drained by a
+   * shared pool instead of its own thread
+   * 
+   * @return the next message to invoke or null if there is none
+   */
+  public Message poll() {
+    Message msg = null;
+    while ((msg = msgBox.poll()) != null) {
+      msg = resolve(msg);
+      if (msg != null && !isPendingReturn(msg)) {
+        return msg;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * a message for a latestOnly listener stands in for the latest value
+   * published while it was queued
+   * 
+   * @return the message to invoke - null if there is nothing to do
+   */
+  Message resolve(Message msg) {
+    if (msg == null || msg.latest == null) {
+      return msg;
+    }
+    return msg.latest.getAndSet(null);
+  }
 
+  /**
+   * registers a request - the future is completed with the data of the RETURN
+   * message with the same msgId, or with a TimeoutException
+   * 
+   * @param msgId
+   *          id of the BLOCKING message about to be sent
+   * @param timeout
+   *          ms to wait for the return - null or 0 waits forever
+   * @return the future of the return value
+   */
+  public CompletableFuture<Object> expectReturn(final long msgId, Integer timeout) {
+    final CompletableFuture<Object> future = new CompletableFuture<Object>();
+    requests.put(msgId, future);
+    TimerWheel.Timeout timer = null;
+    if (timeout != null && timeout > 0) {
+      final int ms = timeout;
+      timer = TimerWheel.getInstance().schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (requests.remove(msgId, future)) {
+            complete(future, null, new TimeoutException(String.format("%s no return for msg %d in %d ms", name, msgId, ms)));
+          }
+        }
+      }, timeout, TimeUnit.MILLISECONDS);
+    }
+    final TimerWheel.Timeout t = timer;
+    future.whenComplete(new BiConsumer<Object, Throwable>() {
+      @Override
+      public void accept(Object ret, Throwable e) {
+        if (t != null) {
+          t.cancel();
         }
+        // e.g. cancelled by the caller
+        requests.remove(msgId, future);
       }
-      msgBox.notifyAll();
+    });
+    return future;
+  }
+
+  /**
+   * only a RETURN can complete a request - a message which happens to have the
+   * msgId of one must be invoked
+   */
+  boolean isPendingReturn(Message msg) {
+    return Message.RETURN.equals(msg.status) && !requests.isEmpty() && isBlockingReturn(msg);
+  }
+
+  /**
+   * completes the future of a sendAsync / sendBlocking request
+   * 
+   * @return true if msg was the return of a request - it must not be invoked
+   */
+  boolean isBlockingReturn(Message msg) {
+    CompletableFuture<Object> future = requests.remove(msg.msgId);
+    if (future == null) {
+      return false;
     }
-    return msg;
+    complete(future, (msg.data == null || msg.data.length == 0) ? null : msg.data[0], null);
+    return true;
+  }
+
+  /**
+   * completes a request on the common pool - the completing thread is another
+   * service's outbox, a comm thread or the timer, and callbacks of the caller
+   * must not stall it (or deadlock it with a sendBlocking of their own)
+   */
+  static void complete(final CompletableFuture<Object> future, final Object ret, final Throwable e) {
+    ForkJoinPool.commonPool().execute(new Runnable() {
+      @Override
+      public void run() {
+        if (e != null) {
+          future.completeExceptionally(e);
+        } else {
+          future.complete(ret);
+        }
+      }
+    });
   }
 
   public boolean isBufferOverrun() {
@@ -176,7 +301,52 @@ public class Inbox implements Serializable {
   }
 
   public void setBlocking(boolean toBlock) {
-    blocking = toBlock;
+    msgBox.setOverflowPolicy(toBlock ? OverflowPolicy.BLOCK : OverflowPolicy.DROP_NEWEST);
+  }
+
+  /**
+   * replaces the storage of this inbox - any queued messages are moved to the
+   * new queue and a service thread waiting on the old one is woken up
+   * 
+   * @param queue
+   *          the new queue
+   */
+  public void setQueue(MessageQueue queue) {
+    MessageQueue old = msgBox;
+    msgBox = queue;
+    // producers which still add to the old queue move their messages over
+    // themselves - see add
+    transfer(old, queue);
+    old.wakeup();
+    Dispatcher d = dispatcher;
+    if (d != null) {
+      d.schedule();
+    }
+  }
+
+  static void transfer(MessageQueue from, MessageQueue to) {
+    Message msg = null;
+    while ((msg = from.poll()) != null) {
+      to.add(msg);
+    }
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    msgBox = new LinkedMessageQueue(name);
+    requests = new ConcurrentHashMap<Long, CompletableFuture<Object>>();
+  }
+
+  public void setMetrics(ServiceMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public void setDispatcher(Dispatcher dispatcher) {
+    this.dispatcher = dispatcher;
+  }
+
+  public MessageQueue getQueue() {
+    return msgBox;
   }
 
   public int size() {
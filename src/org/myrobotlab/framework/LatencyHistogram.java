@@ -0,0 +1,138 @@
+package org.myrobotlab.framework;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size log-linear histogram of durations in nanoseconds (HDR style).
+ * Every power of two is split into 16 linear sub-buckets, so any recorded
+ * value is reported within ~6% - from nanoseconds up to ~18 minutes in 593
+ * counters. Recording is a few shifts and atomic increments, no locks and no
+ * allocation, so it can sit on the message hot path.
+ */
+public class LatencyHistogram {
+
+  final static int SUB_BITS = 4;
+  final static int SUB_COUNT = 1 << SUB_BITS;
+  /**
+   * values at or above 2^MAX_EXP ns (~18 minutes) go in the last bucket
+   */
+  final static int MAX_EXP = 40;
+  final static int BUCKETS = (MAX_EXP - SUB_BITS + 1) * SUB_COUNT + 1;
+
+  final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  final AtomicLong count = new AtomicLong();
+  final AtomicLong total = new AtomicLong();
+  final AtomicLong max = new AtomicLong();
+
+  /**
+   * a summary of the histogram in microseconds
+   */
+  public static class Summary {
+    public long count;
+    public double mean;
+    public double p50;
+    public double p90;
+    public double p99;
+    public double max;
+  }
+
+  static int index(long value) {
+    if (value < SUB_COUNT) {
+      return (value < 0) ? 0 : (int) value;
+    }
+    int exp = 63 - Long.numberOfLeadingZeros(value);
+    if (exp >= MAX_EXP) {
+      return BUCKETS - 1;
+    }
+    int shift = exp - SUB_BITS;
+    return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_COUNT - 1));
+  }
+
+  /**
+   * @return the largest value which falls in bucket i
+   */
+  static long highestValue(int i) {
+    if (i < SUB_COUNT) {
+      return i;
+    }
+    int shift = (i >> SUB_BITS) - 1;
+    long lowest = ((long) (SUB_COUNT + (i & (SUB_COUNT - 1)))) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  public void record(long nanos) {
+    counts.incrementAndGet(index(nanos));
+    count.incrementAndGet();
+    total.addAndGet(nanos);
+    long m = max.get();
+    while (nanos > m && !max.compareAndSet(m, nanos)) {
+      m = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getTotal() {
+    return total.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long c = count.get();
+    return (c == 0) ? 0 : (double) total.get() / c;
+  }
+
+  /**
+   * @param percentile
+   *          0 - 100
+   * @return the value (ns) which percentile % of the recorded values are at or
+   *         below
+   */
+  public long getValueAtPercentile(double percentile) {
+    // the counters are read while being written - count the buckets instead
+    // of trusting count
+    long c = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      c += counts.get(i);
+    }
+    if (c == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(c * percentile / 100.0));
+    long sum = 0;
+    for (int i = 0; i < BUCKETS; ++i) {
+      sum += counts.get(i);
+      if (sum >= target) {
+        return Math.min(highestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  public Summary getSummary() {
+    Summary s = new Summary();
+    s.count = getCount();
+    s.mean = getMean() / 1000.0;
+    s.p50 = getValueAtPercentile(50) / 1000.0;
+    s.p90 = getValueAtPercentile(90) / 1000.0;
+    s.p99 = getValueAtPercentile(99) / 1000.0;
+    s.max = getMax() / 1000.0;
+    return s;
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; ++i) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    total.set(0);
+    max.set(0);
+  }
+
+}
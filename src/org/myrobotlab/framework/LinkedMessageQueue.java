@@ -0,0 +1,173 @@
+package org.myrobotlab.framework;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+import org.myrobotlab.framework.interfaces.MessageQueue;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * The original Inbox queue - a LinkedList guarded by its own monitor with
+ * wait/notifyAll. Simple and fair, but every add and take contends on the same
+ * lock and wakes every waiting thread.
+ */
+public class LinkedMessageQueue implements MessageQueue {
+
+  public final static Logger log = LoggerFactory.getLogger(LinkedMessageQueue.class);
+
+  String name;
+  LinkedList<Message> msgBox = new LinkedList<Message>();
+  int maxQueue = 1024;
+  volatile OverflowPolicy policy = OverflowPolicy.DROP_NEWEST;
+  boolean wakeup = false;
+
+  public LinkedMessageQueue(String name) {
+    this.name = name;
+  }
+
+  public LinkedMessageQueue(String name, int maxQueue, OverflowPolicy policy) {
+    this.name = name;
+    this.maxQueue = maxQueue;
+    this.policy = policy;
+  }
+
+  @Override
+  public boolean add(Message msg) {
+    synchronized (msgBox) {
+      while (policy == OverflowPolicy.BLOCK && msgBox.size() >= maxQueue) // queue
+                                                                        // "full"
+      {
+        try {
+          msgBox.wait();
+        } catch (InterruptedException ex) {
+          log.debug("inbox enque msg INTERRUPTED " + name);
+        }
+      }
+
+      boolean dropped = false;
+      if (msgBox.size() > maxQueue) {
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+          msgBox.removeLast();
+          dropped = true;
+        } else if (policy == OverflowPolicy.COALESCE && coalesce(msg)) {
+          return true;
+        } else {
+          log.warn(String.format("%s inbox BUFFER OVERRUN dumping msg size %d - %s", name, msgBox.size(), msg.method));
+          return false;
+        }
+      } else if (policy == OverflowPolicy.COALESCE && coalesce(msg)) {
+        return true;
+      }
+
+      msgBox.addFirst(msg);
+      if (log.isDebugEnabled()) {
+        log.debug(String.format("%s.msgBox + 1 = %d", name, msgBox.size()));
+      }
+      msgBox.notifyAll(); // must own the lock
+      return !dropped;
+    }
+  }
+
+  @Override
+  public boolean offer(Message msg) {
+    synchronized (msgBox) {
+      if (policy == OverflowPolicy.BLOCK && msgBox.size() >= maxQueue) {
+        log.warn(String.format("%s inbox BUFFER OVERRUN dumping msg size %d - %s", name, msgBox.size(), msg.method));
+        return false;
+      }
+      return add(msg);
+    }
+  }
+
+  /**
+   * replaces a queued message with the same coalesce key - must own the lock
+   */
+  private boolean coalesce(Message msg) {
+    String key = msg.getCoalesceKey();
+    if (key == null) {
+      return false;
+    }
+    ListIterator<Message> it = msgBox.listIterator();
+    while (it.hasNext()) {
+      Message queued = it.next();
+      if (key.equals(queued.getCoalesceKey())) {
+        // the queued message may be shared with other inboxes - leave it be
+        it.set(msg);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Message take() throws InterruptedException {
+    synchronized (msgBox) {
+      while (msgBox.size() == 0) {
+        if (wakeup) {
+          wakeup = false;
+          return null;
+        }
+        msgBox.wait(); // must own the lock
+      }
+      Message msg = msgBox.removeLast();
+      if (log.isDebugEnabled()) {
+        log.debug(String.format("%s.msgBox -1 %d", name, msgBox.size()));
+      }
+      msgBox.notifyAll();
+      return msg;
+    }
+  }
+
+  @Override
+  public Message poll() {
+    synchronized (msgBox) {
+      if (msgBox.size() == 0) {
+        return null;
+      }
+      Message msg = msgBox.removeLast();
+      msgBox.notifyAll();
+      return msg;
+    }
+  }
+
+  @Override
+  public void wakeup() {
+    synchronized (msgBox) {
+      wakeup = true;
+      msgBox.notifyAll();
+    }
+  }
+
+  @Override
+  public int size() {
+    return msgBox.size();
+  }
+
+  @Override
+  public void clear() {
+    synchronized (msgBox) {
+      msgBox.clear();
+      msgBox.notifyAll();
+    }
+  }
+
+  @Override
+  public int getMaxQueue() {
+    return maxQueue;
+  }
+
+  @Override
+  public OverflowPolicy getOverflowPolicy() {
+    return policy;
+  }
+
+  @Override
+  public void setOverflowPolicy(OverflowPolicy policy) {
+    synchronized (msgBox) {
+      this.policy = policy;
+      msgBox.notifyAll();
+    }
+  }
+
+}
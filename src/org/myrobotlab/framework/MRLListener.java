@@ -27,7 +27,9 @@ package org.myrobotlab.framework;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.myrobotlab.framework.interfaces.ServiceInterface;
 import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
@@ -71,12 +73,52 @@ public final class MRLListener implements Serializable {
    */
   public String callbackMethod;
 
+  /**
+   * conflate - if the subscriber has not processed the previous message yet,
+   * a newer one replaces it instead of queuing behind it. Good for sensor
+   * streams and guis which only care about the current value.
+   */
+  public boolean latestOnly = false;
+
+  /**
+   * max messages per second delivered to this listener - 0 is unlimited
+   */
+  public double maxRate = 0;
+
+  /**
+   * latestOnly - the message waiting in the subscriber's inbox
+   */
+  transient AtomicReference<Message> latest = new AtomicReference<Message>();
+  transient volatile long latestTs = 0;
+
+  /**
+   * maxRate - the latest message waiting for its period and when the last one
+   * was delivered
+   */
+  transient AtomicReference<Message> deferred = new AtomicReference<Message>();
+  transient volatile long lastDelivery = 0;
+
+  /**
+   * local service this listener delivers to - resolved by the Outbox and
+   * re-resolved when the Runtime registry changes, null if the callback
+   * service is remote (or gone) and has to go through the
+   * CommunicationManager
+   */
+  transient volatile ServiceInterface target = null;
+  transient volatile long targetVersion = -1;
+
   public MRLListener(String topicMethod, String callbackName, String callbackMethod) {
     this.topicMethod = topicMethod;
     this.callbackMethod = callbackMethod;
     this.callbackName = callbackName;
   }
 
+  public MRLListener(String topicMethod, String callbackName, String callbackMethod, boolean latestOnly, double maxRate) {
+    this(topicMethod, callbackName, callbackMethod);
+    this.latestOnly = latestOnly;
+    this.maxRate = maxRate;
+  }
+
   final public boolean equals(final MRLListener other) {
     if (callbackName.equals(other.callbackName) && callbackMethod.equals(other.callbackMethod) && topicMethod.equals(other.topicMethod)) {
       return true;
@@ -97,6 +139,9 @@ public final class MRLListener implements Serializable {
 
   @Override
   public String toString() {
+    if (latestOnly || maxRate > 0) {
+      return String.format("%s -will activate-> %s.%s (latestOnly %b maxRate %.1f)", topicMethod, callbackName, callbackMethod, latestOnly, maxRate);
+    }
     return String.format("%s -will activate-> %s.%s", topicMethod, callbackName, callbackMethod);
   }
 
@@ -28,6 +28,7 @@ package org.myrobotlab.framework;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicReference;
 
 // FIXME - should 'only' have jvm imports - no other dependencies or simple interface references
 import org.myrobotlab.codec.CodecUtils;
@@ -110,6 +111,17 @@ public class Message implements Serializable {
    */
   public Object[] data;  
 
+  /**
+   * set when this message was delivered to a latestOnly listener - the inbox
+   * invokes whatever message is current in this slot instead
+   */
+  transient AtomicReference<Message> latest;
+
+  /**
+   * System.nanoTime() when the message was put in an inbox - 0 if unknown
+   */
+  transient long enqueueTs;
+
   public Message() {
     msgId = System.currentTimeMillis();
     name = new String(); // FIXME - allow NULL !
@@ -123,6 +135,24 @@ public class Message implements Serializable {
     set(other);
   }
 
+  /**
+   * lightweight copy used to fan a published message out to one more
+   * listener - the data array is shared, not copied, so payloads delivered to
+   * several subscribers must be treated as read-only
+   * 
+   * @param name
+   *          destination service
+   * @param method
+   *          destination method
+   * @return the new message
+   */
+  public Message forward(String name, String method) {
+    Message msg = new Message(this);
+    msg.name = name;
+    msg.method = method;
+    return msg;
+  }
+
   public Object[] getData() {
     return data;
   }
@@ -155,6 +185,20 @@ public class Message implements Serializable {
     this.name = name;
   }
 
+  /**
+   * key used by queues which only keep the latest value - messages from the
+   * same sender and method to the same destination method replace each other
+   * 
+   * @return the key or null if this message must never be coalesced (blocking
+   *         calls and their returns)
+   */
+  public String getCoalesceKey() {
+    if (status != null) {
+      return null;
+    }
+    return sender + "." + sendingMethod + "->" + name + "." + method;
+  }
+
   @Override
   public String toString() {
     return CodecUtils.getMsgKey(this);
@@ -25,14 +25,24 @@
 
 package org.myrobotlab.framework;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.myrobotlab.codec.CodecUtils;
 import org.myrobotlab.framework.interfaces.NameProvider;
+import org.myrobotlab.framework.interfaces.ServiceInterface;
 import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.service.Runtime;
 import org.myrobotlab.service.interfaces.CommunicationInterface;
 import org.slf4j.Logger;
 
@@ -61,9 +71,36 @@ public class Outbox implements Runnable, Serializable {
   int maxQueue = 1024;
   int initialThreadCount = 1;
   transient ArrayList<Thread> outboxThreadPool = new ArrayList<Thread>();
+  /**
+   * drains the outbox when running in the shared pool execution mode
+   */
+  transient volatile Dispatcher dispatcher = null;
 
+  /**
+   * topic method to listeners - modify only through addListener /
+   * removeListener so the delivery snapshot stays in sync
+   */
   public HashMap<String, ArrayList<MRLListener>> notifyList = new HashMap<String, ArrayList<MRLListener>>();
+  /**
+   * copy-on-write snapshot of notifyList used for delivery
+   */
+  transient volatile HashMap<String, MRLListener[]> routes = new HashMap<String, MRLListener[]>();
+
+  /**
+   * a latestOnly message waiting longer than this in a subscriber's inbox is
+   * assumed to have been dropped and is sent again
+   */
+  static final long STALE_LATEST_MS = 1000;
+
+  /**
+   * schedules the trailing delivery of rate limited listeners
+   */
+  static ScheduledExecutorService throttleTimer = null;
   CommunicationInterface comm = null;
+  /**
+   * pipeline metrics of the owning service - null if not instrumented
+   */
+  transient ServiceMetrics metrics = null;
 
   public Outbox(NameProvider myService) {
     this.myService = myService;
@@ -102,6 +139,11 @@ public class Outbox implements Runnable, Serializable {
       }
       msgBox.notifyAll(); // must own the lock
     }
+
+    Dispatcher d = dispatcher;
+    if (d != null) {
+      d.schedule();
+    }
   }
 
   public CommunicationInterface getCommunicationManager() {
@@ -136,50 +178,269 @@ public class Outbox implements Runnable, Serializable {
         msgBox.notifyAll();
       }
 
-      // RELAY OTHER SERVICE'S MSGS
-      // if the msg name is not my name - then
-      // relay it
-      // WARNING - broadcast apparently means name == ""
-      // why would a message with my name be in my outbox ??? - FIXME
-      // deprecate that logic
-      if (msg.name != null) { // commented out recently -> &&
-        // !myService.getName().equals(msg.name)
-        log.debug("{} configured to RELAY ", msg.getName());
-        comm.send(msg);
-        // recently added -
-        // if I'm relaying I'm not broadcasting...(i think)
-        continue;
+      process(msg);
+    } // while (isRunning)
+  }
+
+  /**
+   * relays or broadcasts a single message to its listeners
+   * 
+   * @param msg
+   *          the message
+   */
+  void process(Message msg) {
+    // RELAY OTHER SERVICE'S MSGS
+    // if the msg name is not my name - then
+    // relay it
+    // WARNING - broadcast apparently means name == ""
+    // why would a message with my name be in my outbox ??? - FIXME
+    // deprecate that logic
+    if (msg.name != null) { // commented out recently -> &&
+      // !myService.getName().equals(msg.name)
+      log.debug("{} configured to RELAY ", msg.getName());
+      comm.send(msg);
+      // recently added -
+      // if I'm relaying I'm not broadcasting...(i think)
+      return;
+    }
+
+    // BROADCASTS name=="" WILL DROP DOWN and be processed here
+    ServiceMetrics m = metrics;
+    long start = (m != null && ServiceMetrics.enabled) ? System.nanoTime() : 0;
+    HashMap<String, MRLListener[]> r = routes;
+    if (r.size() != 0) {
+      // get the value for the source method
+      MRLListener[] subList = r.get(msg.sendingMethod);
+      if (subList == null) {
+        log.debug(String.format("no static route for %s.%s ", msg.sender, msg.sendingMethod));
+        // This will cause issues in broadcasts
+        return;
       }
 
-      // BROADCASTS name=="" WILL DROP DOWN and be processed here
-      if (notifyList.size() != 0) {
-        // get the value for the source method
-        ArrayList<MRLListener> subList = notifyList.get(msg.sendingMethod);
-        if (subList == null) {
-          log.debug(String.format("no static route for %s.%s ", msg.sender, msg.sendingMethod));
-          // This will cause issues in broadcasts
-          continue;
+      int last = subList.length - 1;
+      for (int i = 0; i <= last; ++i) {
+        MRLListener listener = subList[i];
+        // must make new for internal queues otherwise you'll change the
+        // name on existing enqueued messages - the last listener can
+        // have the original
+        Message delivery = (i < last) ? msg.forward(listener.callbackName, listener.callbackMethod) : msg;
+        delivery.name = listener.callbackName;
+        delivery.method = listener.callbackMethod;
+
+        if (listener.maxRate > 0) {
+          throttle(listener, delivery);
+        } else {
+          deliver(listener, delivery);
         }
+      }
+      if (start != 0) {
+        m.published(System.nanoTime() - start);
+      }
+    } else {
+      if (log.isDebugEnabled()) {
+        log.debug(String.format("%s/%s(%s)", msg.getName(), msg.method, CodecUtils.getParameterSignature(msg.data) + " notifyList is empty"));
+      }
+    }
+  }
+
+  /**
+   * delivers at most maxRate messages per second to the listener - messages
+   * arriving too soon replace each other and the latest is delivered when the
+   * period is up, so the final value of a burst is never lost
+   */
+  void throttle(final MRLListener listener, Message delivery) {
+    long now = System.nanoTime();
+    long period = (long) (1000000000L / listener.maxRate);
+    long wait = listener.lastDelivery + period - now;
+    if (wait > 0) {
+      if (listener.deferred.getAndSet(delivery) == null) {
+        getThrottleTimer().schedule(new Runnable() {
+          @Override
+          public void run() {
+            Message latest = listener.deferred.getAndSet(null);
+            if (latest != null) {
+              listener.lastDelivery = System.nanoTime();
+              deliver(listener, latest);
+            }
+          }
+        }, wait, TimeUnit.NANOSECONDS);
+      }
+      return;
+    }
+    // anything deferred is older than this one
+    listener.deferred.set(null);
+    listener.lastDelivery = now;
+    deliver(listener, delivery);
+  }
 
-        for (int i = 0; i < subList.size(); ++i) {
-          MRLListener listener = subList.get(i);
-          msg.name = listener.callbackName;
-          msg.method = listener.callbackMethod;
-          comm.send(msg);
+  /**
+   * puts a message in the listener's inbox - for latestOnly listeners only
+   * one message is in the inbox at a time, newer values replace its payload
+   * until the subscriber takes it
+   */
+  void deliver(MRLListener listener, Message delivery) {
+    ServiceInterface target = getTarget(listener);
+    if (target == null) {
+      // remote - or gone, which the CommunicationManager will clean up
+      comm.send(delivery);
+      return;
+    }
 
-          // must make new for internal queues
-          // otherwise you'll change the name on
-          // existing enqueued messages
-          msg = new Message(msg);
-        }
-      } else {
-        if (log.isDebugEnabled()) {
-          log.debug(String.format("%s/%s(%s)", msg.getName(), msg.method, CodecUtils.getParameterSignature(msg.data) + " notifyList is empty"));
+    if (listener.latestOnly) {
+      delivery.latest = listener.latest;
+      Message pending = listener.latest.getAndSet(delivery);
+      long now = System.currentTimeMillis();
+      // a message is waiting in the subscriber's inbox - it will pick up
+      // this one instead, unless it was dropped by a full inbox
+      if (pending != null && now - listener.latestTs < STALE_LATEST_MS) {
+        return;
+      }
+      listener.latestTs = now;
+    }
+
+    // what the CommunicationManager counts for the messages it sends
+    ServiceMetrics m = metrics;
+    if (m != null && ServiceMetrics.enabled) {
+      m.sent(false);
+    }
+    target.in(delivery);
+  }
+
+  static synchronized ScheduledExecutorService getThrottleTimer() {
+    if (throttleTimer == null) {
+      throttleTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "outbox_throttle");
+          t.setDaemon(true);
+          return t;
         }
-        continue;
+      });
+    }
+    return throttleTimer;
+  }
+
+  /**
+   * the local service a listener delivers to - looked up once and cached on
+   * the listener until the Runtime registry changes
+   */
+  ServiceInterface getTarget(MRLListener listener) {
+    long version = Runtime.getRegistryVersion();
+    if (listener.targetVersion != version) {
+      ServiceInterface si = Runtime.getService(listener.callbackName);
+      listener.target = (si != null && si.isLocal()) ? si : null;
+      listener.targetVersion = version;
+    }
+    return listener.target;
+  }
+
+  /**
+   * adds a listener to the topic method - duplicates are ignored
+   * 
+   * @param listener
+   *          l
+   */
+  public synchronized void addListener(MRLListener listener) {
+    ArrayList<MRLListener> nes = notifyList.get(listener.topicMethod);
+    if (nes == null) {
+      nes = new ArrayList<MRLListener>();
+      notifyList.put(listener.topicMethod, nes);
+    }
+    for (int i = 0; i < nes.size(); ++i) {
+      MRLListener existing = nes.get(i);
+      if (existing.equals(listener)) {
+        log.debug(String.format("attempting to add duplicate MRLListener %s - updating delivery policy", listener));
+        existing.latestOnly = listener.latestOnly;
+        existing.maxRate = listener.maxRate;
+        return;
       }
+    }
+    // transient state is not restored when a listener arrives serialized
+    // from a remote subscriber
+    initDelivery(listener);
+    nes.add(listener);
+    rebuildRoutes();
+  }
 
-    } // while (isRunning)
+  static void initDelivery(MRLListener listener) {
+    if (listener.latest == null) {
+      listener.latest = new AtomicReference<Message>();
+    }
+    if (listener.deferred == null) {
+      listener.deferred = new AtomicReference<Message>();
+    }
+    listener.targetVersion = -1;
+  }
+
+  public synchronized void removeListener(String outMethod, String serviceName, String inMethod) {
+    ArrayList<MRLListener> nel = notifyList.get(outMethod);
+    if (nel == null) {
+      log.error(String.format("removeListener requested %s.%s to be removed - but does not exist", serviceName, outMethod));
+      return;
+    }
+    for (int i = nel.size() - 1; i >= 0; --i) {
+      if (nel.get(i).callbackName.compareTo(serviceName) == 0) {
+        nel.remove(i);
+        log.info(String.format("removeListener requested %s.%s to be removed", serviceName, outMethod));
+      }
+    }
+    rebuildRoutes();
+  }
+
+  /**
+   * lock free check if anything subscribed to the topic method - publishers
+   * can skip building data nobody gets
+   */
+  public boolean hasListeners(String topicMethod) {
+    return routes.containsKey(topicMethod);
+  }
+
+  public synchronized void removeAllListeners() {
+    notifyList.clear();
+    rebuildRoutes();
+  }
+
+  /**
+   * publishes a new snapshot of notifyList for delivery - the outbox threads
+   * never iterate a list which is being modified
+   */
+  void rebuildRoutes() {
+    HashMap<String, MRLListener[]> r = new HashMap<String, MRLListener[]>();
+    for (Map.Entry<String, ArrayList<MRLListener>> e : notifyList.entrySet()) {
+      if (e.getValue().size() > 0) {
+        r.put(e.getKey(), e.getValue().toArray(new MRLListener[e.getValue().size()]));
+      }
+    }
+    routes = r;
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    outboxThreadPool = new ArrayList<Thread>();
+    for (ArrayList<MRLListener> listeners : notifyList.values()) {
+      for (MRLListener listener : listeners) {
+        initDelivery(listener);
+      }
+    }
+    rebuildRoutes();
+  }
+
+  /**
+   * non-blocking removal of the oldest message
+   */
+  Message poll() {
+    synchronized (msgBox) {
+      if (msgBox.size() == 0) {
+        return null;
+      }
+      Message msg = msgBox.removeLast();
+      msgBox.notifyAll();
+      return msg;
+    }
+  }
+
+  public void setMetrics(ServiceMetrics metrics) {
+    this.metrics = metrics;
   }
 
   public void setCommunicationManager(CommunicationInterface c) {
@@ -191,8 +452,30 @@ public class Outbox implements Runnable, Serializable {
   }
 
   public void start() {
+    if (Dispatcher.getMode() == Dispatcher.Mode.POOL) {
+      isRunning = true;
+      dispatcher = new Dispatcher(myService.getName() + "_outbox", new Dispatcher.Drainable() {
+        @Override
+        public int drain(int max) {
+          int count = 0;
+          Message msg = null;
+          while (isRunning && count < max && (msg = poll()) != null) {
+            process(msg);
+            ++count;
+          }
+          return count;
+        }
+
+        @Override
+        public boolean isEmpty() {
+          return !isRunning || msgBox.size() == 0;
+        }
+      });
+      dispatcher.schedule();
+      return;
+    }
     for (int i = outboxThreadPool.size(); i < initialThreadCount; ++i) {
-      Thread t = new Thread(this, myService.getName() + "_outbox_" + i);
+      Thread t = Dispatcher.newThread(this, myService.getName() + "_outbox_" + i);
       outboxThreadPool.add(t);
       t.start();
     }
@@ -200,6 +483,10 @@ public class Outbox implements Runnable, Serializable {
 
   public void stop() {
     isRunning = false;
+    if (dispatcher != null) {
+      dispatcher.release();
+      dispatcher = null;
+    }
     for (int i = 0; i < outboxThreadPool.size(); ++i) {
       Thread t = outboxThreadPool.get(i);
       t.interrupt();
@@ -0,0 +1,24 @@
+package org.myrobotlab.framework;
+
+/**
+ * What a message queue does with a new message when it is full.
+ */
+public enum OverflowPolicy {
+  /**
+   * the adding thread waits until there is room
+   */
+  BLOCK,
+  /**
+   * the oldest queued message is dropped to make room
+   */
+  DROP_OLDEST,
+  /**
+   * the new message is dropped
+   */
+  DROP_NEWEST,
+  /**
+   * a queued message from the same sender to the same method is replaced by
+   * the newer one - only the latest value is delivered
+   */
+  COALESCE
+}
@@ -0,0 +1,295 @@
+package org.myrobotlab.framework;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.myrobotlab.framework.interfaces.MessageQueue;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Lock-free bounded ring buffer for a service inbox. Many producers, one
+ * consumer (the service thread). Slots carry a sequence number so producers
+ * claim a slot with a single CAS and never take a lock - the consumer parks
+ * only when the ring is empty and is unparked by the producer which fills it.
+ *
+ * The head can also be advanced by producers, which is how DROP_OLDEST makes
+ * room without involving the consumer.
+ *
+ * In COALESCE mode the ring holds a slot per coalesce key and the slot holds
+ * the latest message for that key - a new value replaces the pending one until
+ * the consumer picks it up, so a slow service only ever sees the latest sample.
+ * The producer which fills an empty slot is the one which queues it.
+ */
+public class RingMessageQueue implements MessageQueue {
+
+  public final static Logger log = LoggerFactory.getLogger(RingMessageQueue.class);
+
+  /**
+   * how long a producer parks between retries when the ring is full and the
+   * policy is BLOCK
+   */
+  final static long BLOCK_PARK_NS = 50000;
+
+  final String name;
+  final int capacity;
+  final int mask;
+  final AtomicReferenceArray<Object> buffer;
+  final AtomicLongArray sequence;
+  final AtomicLong head = new AtomicLong();
+  final AtomicLong tail = new AtomicLong();
+  final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+  final AtomicLong dropped = new AtomicLong();
+
+  volatile OverflowPolicy policy;
+  volatile Thread waiter = null;
+  volatile boolean wakeup = false;
+
+  /**
+   * the latest message of a coalesce key - queued while it holds one
+   */
+  static class Slot {
+    final AtomicReference<Message> latest = new AtomicReference<Message>();
+  }
+
+  public RingMessageQueue(String name) {
+    this(name, 1024, OverflowPolicy.DROP_NEWEST);
+  }
+
+  /**
+   * @param name
+   *          name used in overrun warnings
+   * @param maxQueue
+   *          capacity - rounded up to the next power of 2
+   * @param policy
+   *          what to do when full
+   */
+  public RingMessageQueue(String name, int maxQueue, OverflowPolicy policy) {
+    this.name = name;
+    int size = 2;
+    while (size < maxQueue) {
+      size <<= 1;
+    }
+    capacity = size;
+    mask = size - 1;
+    buffer = new AtomicReferenceArray<Object>(size);
+    sequence = new AtomicLongArray(size);
+    for (int i = 0; i < size; ++i) {
+      sequence.set(i, i);
+    }
+    this.policy = policy;
+  }
+
+  private boolean offerRaw(Object e) {
+    long pos = tail.get();
+    while (true) {
+      int index = (int) (pos & mask);
+      long dif = sequence.get(index) - pos;
+      if (dif == 0 && tail.compareAndSet(pos, pos + 1)) {
+        buffer.set(index, e);
+        sequence.set(index, pos + 1);
+        return true;
+      } else if (dif < 0) {
+        return false; // full
+      }
+      pos = tail.get();
+    }
+  }
+
+  private Object pollRaw() {
+    long pos = head.get();
+    while (true) {
+      int index = (int) (pos & mask);
+      long dif = sequence.get(index) - (pos + 1);
+      if (dif == 0 && head.compareAndSet(pos, pos + 1)) {
+        Object e = buffer.get(index);
+        buffer.set(index, null);
+        sequence.set(index, pos + capacity);
+        return e;
+      } else if (dif < 0) {
+        return null; // empty
+      }
+      pos = head.get();
+    }
+  }
+
+  private void signal() {
+    Thread w = waiter;
+    if (w != null) {
+      LockSupport.unpark(w);
+    }
+  }
+
+  private void overrun(Message msg) {
+    // a saturated queue drops at the rate of the producer - don't drown the
+    // log too
+    if (dropped.incrementAndGet() % 1000 == 1) {
+      log.warn(String.format("%s inbox BUFFER OVERRUN dumping msg size %d - %s (%d dropped)", name, size(), msg.method, dropped.get()));
+    }
+  }
+
+  @Override
+  public boolean add(Message msg) {
+    OverflowPolicy p = policy;
+
+    if (p == OverflowPolicy.COALESCE) {
+      String key = msg.getCoalesceKey();
+      if (key != null) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+          Slot s = new Slot();
+          slot = slots.putIfAbsent(key, s);
+          if (slot == null) {
+            slot = s;
+          }
+        }
+        if (slot.latest.getAndSet(msg) != null) {
+          // replaced a value the consumer has not picked up yet
+          return true;
+        }
+        if (offerRaw(slot)) {
+          signal();
+          return true;
+        }
+        // empty the slot again - whatever replaced msg meanwhile goes with it
+        // so the next producer queues the slot
+        slot.latest.set(null);
+        overrun(msg);
+        return false;
+      }
+    }
+
+    if (offerRaw(msg)) {
+      signal();
+      return true;
+    }
+
+    if (p == OverflowPolicy.BLOCK) {
+      while (!offerRaw(msg)) {
+        signal();
+        LockSupport.parkNanos(this, BLOCK_PARK_NS);
+      }
+      signal();
+      return true;
+    }
+
+    if (p == OverflowPolicy.DROP_OLDEST) {
+      do {
+        Object old = pollRaw();
+        if (old instanceof Slot) {
+          ((Slot) old).latest.set(null);
+        }
+      } while (!offerRaw(msg));
+      overrun(msg);
+      signal();
+      return false;
+    }
+
+    overrun(msg);
+    return false;
+  }
+
+  @Override
+  public boolean offer(Message msg) {
+    if (policy != OverflowPolicy.BLOCK) {
+      return add(msg);
+    }
+    if (offerRaw(msg)) {
+      signal();
+      return true;
+    }
+    overrun(msg);
+    return false;
+  }
+
+  @Override
+  public Message poll() {
+    Object o;
+    while ((o = pollRaw()) != null) {
+      if (o instanceof Message) {
+        return (Message) o;
+      }
+      // coalesced - the ring only holds the slot
+      Message msg = ((Slot) o).latest.getAndSet(null);
+      if (msg != null) {
+        return msg;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Message take() throws InterruptedException {
+    while (true) {
+      Message msg = poll();
+      if (msg != null) {
+        return msg;
+      }
+      if (wakeup) {
+        wakeup = false;
+        return null;
+      }
+      waiter = Thread.currentThread();
+      // re-check after publishing ourselves as the waiter - a producer
+      // which added before it could see us will not unpark
+      msg = poll();
+      if (msg != null) {
+        waiter = null;
+        return msg;
+      }
+      if (!wakeup) {
+        LockSupport.park(this);
+      }
+      waiter = null;
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  @Override
+  public void wakeup() {
+    wakeup = true;
+    signal();
+  }
+
+  @Override
+  public int size() {
+    long size = tail.get() - head.get();
+    return (size < 0) ? 0 : (int) size;
+  }
+
+  @Override
+  public void clear() {
+    Object o;
+    while ((o = pollRaw()) != null) {
+      if (o instanceof Slot) {
+        ((Slot) o).latest.set(null);
+      }
+    }
+  }
+
+  @Override
+  public int getMaxQueue() {
+    return capacity;
+  }
+
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  @Override
+  public OverflowPolicy getOverflowPolicy() {
+    return policy;
+  }
+
+  @Override
+  public void setOverflowPolicy(OverflowPolicy policy) {
+    this.policy = policy;
+  }
+
+}
@@ -33,6 +33,7 @@ import java.io.Serializable;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
@@ -52,6 +53,9 @@ import java.util.SimpleTimeZone;
 import java.util.Timer;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import org.myrobotlab.cache.LRUMethodCache;
 import org.myrobotlab.codec.CodecUtils;
@@ -160,12 +164,22 @@ public abstract class Service extends MessageService implements Runnable, Serial
 
   transient protected Inbox inbox = null;
 
+  /**
+   * drains the inbox when running in the shared pool execution mode
+   */
+  transient Dispatcher dispatcher = null;
+
+  /**
+   * queue, invoke and publish timings of this service
+   */
+  transient ServiceMetrics metrics = null;
+
   transient Timer timer = null;
 
   /**
-   * a more capable task handler
+   * a more capable task handler - tasks run on the Runtime wide timer wheel
    */
-  transient HashMap<String, Timer> tasks = new HashMap<String, Timer>();
+  transient ConcurrentHashMap<String, Task> tasks = new ConcurrentHashMap<String, Task>();
 
   protected boolean allowDisplay = true;
 
@@ -720,7 +734,7 @@ public abstract class Service extends MessageService implements Runnable, Serial
    */
   public static void sleep(int millis) {
     try {
-      Thread.sleep(millis);
+      Dispatcher.sleep(millis);
     } catch (InterruptedException e) {
     }
   }
@@ -787,22 +801,30 @@ public abstract class Service extends MessageService implements Runnable, Serial
     // re-implement but only create if there is a task!!
     this.inbox = new Inbox(name);
     this.outbox = new Outbox(this);
-    cm = new CommunicationManager(name);
+    CommunicationManager comm = new CommunicationManager(name);
+    cm = comm;
     this.outbox.setCommunicationManager(cm);
 
+    metrics = new ServiceMetrics(name);
+    inbox.setMetrics(metrics);
+    outbox.setMetrics(metrics);
+    comm.setMetrics(metrics);
+
     tsFormatter.setCalendar(cal);
     load();
+    // build (once per class) the method handles used to invoke messages
+    DispatchTable.getInstance(getClass());
     Runtime.register(this, null);
   }
 
   public void addListener(MRLListener listener) {
-    addListener(listener.topicMethod, listener.callbackName, listener.callbackMethod);
+    log.debug(String.format("adding addListener from %s.%s to %s.%s", this.getName(), listener.topicMethod, listener.callbackName, listener.callbackMethod));
+    outbox.addListener(listener);
   }
 
   /**
    * adds a MRL message listener to this service this is the result of a
-   * "subscribe" from a different service FIXME !! - implement with HashMap or
-   * HashSet .. WHY ArrayList ???
+   * "subscribe" from a different service
    * 
    * @param topicMethod
    *          - method when called, it's return will be sent to the
@@ -813,29 +835,26 @@ public abstract class Service extends MessageService implements Runnable, Serial
    *          - name of the method to send return data to
    */
   public void addListener(String topicMethod, String callbackName, String callbackMethod) {
-    MRLListener listener = new MRLListener(topicMethod, callbackName, callbackMethod);
-    if (outbox.notifyList.containsKey(listener.topicMethod.toString())) {
-      // iterate through all looking for duplicate
-      boolean found = false;
-      ArrayList<MRLListener> nes = outbox.notifyList.get(listener.topicMethod.toString());
-      for (int i = 0; i < nes.size(); ++i) {
-        MRLListener entry = nes.get(i);
-        if (entry.equals(listener)) {
-          log.debug(String.format("attempting to add duplicate MRLListener %s", listener));
-          found = true;
-          break;
-        }
-      }
-      if (!found) {
-        log.debug(String.format("adding addListener from %s.%s to %s.%s", this.getName(), listener.topicMethod, listener.callbackName, listener.callbackMethod));
-        nes.add(listener);
-      }
-    } else {
-      ArrayList<MRLListener> notifyList = new ArrayList<MRLListener>();
-      notifyList.add(listener);
-      log.debug(String.format("adding addListener from %s.%s to %s.%s", this.getName(), listener.topicMethod, listener.callbackName, listener.callbackMethod));
-      outbox.notifyList.put(listener.topicMethod.toString(), notifyList);
-    }
+    addListener(new MRLListener(topicMethod, callbackName, callbackMethod));
+  }
+
+  /**
+   * adds a listener with a delivery policy
+   * 
+   * @param topicMethod
+   *          t
+   * @param callbackName
+   *          c
+   * @param callbackMethod
+   *          m
+   * @param latestOnly
+   *          conflate - deliver only the latest value if the listener falls
+   *          behind
+   * @param maxRate
+   *          max messages per second - 0 is unlimited
+   */
+  public void addListener(String topicMethod, String callbackName, String callbackMethod, Boolean latestOnly, Double maxRate) {
+    addListener(new MRLListener(topicMethod, callbackName, callbackMethod, latestOnly, maxRate));
   }
 
   public void addTask(int intervalMs, String method) {
@@ -859,39 +878,42 @@ public abstract class Service extends MessageService implements Runnable, Serial
    * @param params the params to pass
    */
   public void addTask(String taskName, int intervalMs, int delay, String method, Object... params) {
-    if (tasks.containsKey(taskName)) {
+    Message msg = Message.createMessage(this, getName(), method, params);
+    Task task = new Task(this, taskName, intervalMs, msg);
+    if (tasks.putIfAbsent(taskName, task) != null) {
       log.warn(String.format("already have active task \"%s\"", taskName));
       return;
     }
-    Timer timer = new Timer(String.format("%s.timer", String.format("%s.%s", getName(), taskName)));
-    Message msg = Message.createMessage(this, getName(), method, params);
-    Task task = new Task(this, taskName, intervalMs, msg);
-    timer.schedule(task, delay);
-    tasks.put(taskName, timer);
+    task.start(delay);
   }
 
-  public HashMap<String, Timer> getTasks() {
+  public Map<String, Task> getTasks() {
     return tasks;
   }
 
+  /**
+   * how late the runs of each task were - a task which is always late by more
+   * than a few ms means the timer thread or this service is overloaded
+   * 
+   * @return task name to jitter in microseconds
+   */
+  public Map<String, LatencyHistogram.Summary> getTaskJitter() {
+    Map<String, LatencyHistogram.Summary> ret = new TreeMap<String, LatencyHistogram.Summary>();
+    for (Task task : tasks.values()) {
+      ret.put(task.getName(), task.getJitter());
+    }
+    return ret;
+  }
+
   public boolean containsTask(String taskName) {
     return tasks.containsKey(taskName);
   }
 
   public void purgeTask(String taskName) {
-    if (tasks.containsKey(taskName)) {
+    Task task = tasks.remove(taskName);
+    if (task != null) {
       log.info("remove task {}", taskName);
-      Timer timer = tasks.get(taskName);
-      if (timer != null) {
-        try {
-          timer.cancel();
-          timer.purge();
-          timer = null;
-          tasks.remove(taskName);
-        } catch (Exception e) {
-          log.info(e.getMessage());
-        }
-      }
+      task.cancel();
     } else {
       log.warn("purgeTask - task {} does not exist", taskName);
     }
@@ -899,19 +921,11 @@ public abstract class Service extends MessageService implements Runnable, Serial
 
   public void purgeTasks() {
     for (String taskName : tasks.keySet()) {
-      Timer timer = tasks.get(taskName);
-      if (timer != null) {
-        try {
-          timer.cancel();
-          timer.purge();
-          timer = null;
-          tasks.remove(taskName);
-        } catch (Exception e) {
-          log.info(e.getMessage());
-        }
+      Task task = tasks.remove(taskName);
+      if (task != null) {
+        task.cancel();
       }
     }
-    tasks.clear();
   }
 
   public boolean allowDisplay() {
@@ -1289,7 +1303,13 @@ public abstract class Service extends MessageService implements Runnable, Serial
     // if (security == null || security.isAuthorized(msg)) {
 
     // "local" invoke - you have a "real" reference
-    retobj = invokeOn(this, msg.method, msg.data);
+    if (metrics != null && ServiceMetrics.enabled) {
+      long start = System.nanoTime();
+      retobj = invokeOn(this, msg.method, msg.data);
+      metrics.invoked(msg.method, System.nanoTime() - start);
+    } else {
+      retobj = invokeOn(this, msg.method, msg.data);
+    }
     // }
 
     // retobject will be returned as another
@@ -1327,6 +1347,21 @@ public abstract class Service extends MessageService implements Runnable, Serial
     Class<?> c = null;
     Class<?>[] paramTypes = null;
 
+    // fast path - precompiled handle from the class's dispatch table
+    DispatchTable.Entry entry = DispatchTable.getInstance(obj.getClass()).find(method, params);
+    if (entry != null) {
+      try {
+        retobj = entry.invoke(obj, params);
+        // put return object onEvent
+        out(method, retobj);
+      } catch (InvocationTargetException e) {
+        log.error(String.format("%s", e.getClass().getSimpleName()), e);
+      } catch (IllegalAccessException e) {
+        log.error(String.format("%s", e.getClass().getSimpleName()), e);
+      }
+      return retobj;
+    }
+
     try {
       c = obj.getClass();
 
@@ -1529,6 +1564,25 @@ public abstract class Service extends MessageService implements Runnable, Serial
     return stats;
   }
 
+  /**
+   * queue depths, latency histograms and per method invoke times of this
+   * service - see Runtime.getServiceMetrics for all services
+   * 
+   * @return a snapshot of the current values
+   */
+  public ServiceMetrics.Snapshot getMetrics() {
+    if (metrics == null) {
+      return null;
+    }
+    return metrics.getSnapshot(inbox.size(), outbox.size());
+  }
+
+  public void resetMetrics() {
+    if (metrics != null) {
+      metrics.reset();
+    }
+  }
+
   /**
    * publishing point for the whole service the entire Service is published
    * @return the service
@@ -1598,23 +1652,12 @@ public abstract class Service extends MessageService implements Runnable, Serial
    * 
    */
   public void removeAllListeners() {
-    outbox.notifyList.clear();
+    outbox.removeAllListeners();
   }
 
   @Override
   public void removeListener(String outMethod, String serviceName, String inMethod) {
-    if (outbox.notifyList.containsKey(outMethod)) {
-      ArrayList<MRLListener> nel = outbox.notifyList.get(outMethod);
-      for (int i = 0; i < nel.size(); ++i) {
-        MRLListener target = nel.get(i);
-        if (target.callbackName.compareTo(serviceName) == 0) {
-          nel.remove(i);
-          log.info(String.format("removeListener requested %s.%s to be removed", serviceName, outMethod));
-        }
-      }
-    } else {
-      log.error(String.format("removeListener requested %s.%s to be removed - but does not exist", serviceName, outMethod));
-    }
+    outbox.removeListener(outMethod, serviceName, inMethod);
   }
 
   // ---------------- logging end ---------------------------
@@ -1658,47 +1701,7 @@ public abstract class Service extends MessageService implements Runnable, Serial
         // TODO should this declaration be outside the while loop? if
         // so, make sure to release prior to continue
         Message m = getMsg();
-
-        if (!preRoutingHook(m)) {
-          continue;
-        }
-
-        // nameless Runtime messages
-        if (m.name == null) {
-          // don't know if this is "correct"
-          // but we are substituting the Runtime name as soon as we
-          // see that its a null
-          // name message
-          m.name = Runtime.getInstance().getName();
-        }
-
-        // route if necessary
-        if (!m.getName().equals(this.getName())) // && RELAY
-        {
-          outbox.add(m); // RELAYING
-          continue; // sweet - that was a long time coming fix !
-        }
-
-        if (!preProcessHook(m)) {
-          // if preProcessHook returns false
-          // the message does not need to continue
-          // processing
-          continue;
-        }
-        // TODO should this declaration be outside the while loop?
-        Object ret = invoke(m);
-        if (Message.BLOCKING.equals(m.status)) {
-          // TODO should this declaration be outside the while loop?
-          // create new message reverse sender and name set to same
-          // msg id
-          Message msg = Message.createMessage(this, m.sender, m.method, ret);
-          msg.sender = this.getName();
-          msg.msgId = m.msgId;
-          // msg.status = Message.BLOCKING;
-          msg.status = Message.RETURN;
-
-          outbox.add(msg);
-        }
+        process(m);
       }
     } catch (InterruptedException edown) {
       info("shutting down");
@@ -1707,6 +1710,58 @@ public abstract class Service extends MessageService implements Runnable, Serial
     }
   }
 
+  /**
+   * routes or invokes a single message taken from the inbox - called from the
+   * service's own thread or from the shared dispatch pool
+   * 
+   * @param m
+   *          the message
+   */
+  final void process(Message m) {
+    if (m.enqueueTs != 0 && metrics != null) {
+      metrics.queued(System.nanoTime() - m.enqueueTs);
+    }
+
+    if (!preRoutingHook(m)) {
+      return;
+    }
+
+    // nameless Runtime messages
+    if (m.name == null) {
+      // don't know if this is "correct"
+      // but we are substituting the Runtime name as soon as we
+      // see that its a null
+      // name message
+      m.name = Runtime.getInstance().getName();
+    }
+
+    // route if necessary
+    if (!m.getName().equals(this.getName())) // && RELAY
+    {
+      outbox.add(m); // RELAYING
+      return; // sweet - that was a long time coming fix !
+    }
+
+    if (!preProcessHook(m)) {
+      // if preProcessHook returns false
+      // the message does not need to continue
+      // processing
+      return;
+    }
+    Object ret = invoke(m);
+    if (Message.BLOCKING.equals(m.status)) {
+      // create new message reverse sender and name set to same
+      // msg id
+      Message msg = Message.createMessage(this, m.sender, m.method, ret);
+      msg.sender = this.getName();
+      msg.msgId = m.msgId;
+      // msg.status = Message.BLOCKING;
+      msg.status = Message.RETURN;
+
+      outbox.add(msg);
+    }
+  }
+
   /**
    * method of serializing default will be simple xml to name file
    */
@@ -1812,23 +1867,60 @@ public abstract class Service extends MessageService implements Runnable, Serial
   }
   
   public Object sendBlocking(Message msg, Integer timeout) {
-    Object[] returnContainer = new Object[1];
-    /*
-     * if (inbox.blockingList.contains(msg.msgID)) { log.error("DUPLICATE"); }
-     */
-    inbox.blockingList.put(msg.msgId, returnContainer);
-
     try {
       // block until message comes back
-      synchronized (returnContainer) {
-        outbox.add(msg);
-        returnContainer.wait(timeout); // NEW !!! TIMEOUT !!!!
-      }
+      return sendAsync(msg, timeout).get();
     } catch (InterruptedException e) {
       log.error("interrupted", e);
+    } catch (ExecutionException e) {
+      log.info("sendBlocking {}.{} - {}", msg.name, msg.method, e.getCause().getMessage());
     }
+    return null;
+  }
 
-    return returnContainer[0];
+  /**
+   * sends a message and returns without waiting - the future completes with
+   * the return value of the invoked method, or with a TimeoutException.
+   * Nothing is blocked while waiting, so a script can have many queries in
+   * flight. Callbacks which are not ...Async run on a ForkJoinPool.commonPool
+   * thread, never on the thread which delivered the return e.g.
+   * 
+   * <pre>
+   * sendAsync("i01", "getResponse", text).thenAccept(...)
+   * </pre>
+   * 
+   * @param name
+   *          name of the service
+   * @param method
+   *          method to invoke
+   * @param data
+   *          parameters
+   * @return future of the return value - default 1 second timeout
+   */
+  public CompletableFuture<Object> sendAsync(String name, String method, Object... data) {
+    return sendAsync(name, 1000, method, data);
+  }
+
+  public CompletableFuture<Object> sendAsync(String name, Integer timeout, String method, Object... data) {
+    Message msg = Message.createMessage(this, name, method, data);
+    msg.sender = this.getName();
+    msg.status = Message.BLOCKING;
+    msg.msgId = Runtime.getUniqueID();
+
+    return sendAsync(msg, timeout);
+  }
+
+  /**
+   * @param msg
+   *          a BLOCKING message with a unique msgId
+   * @param timeout
+   *          ms to wait for the return - null or 0 waits forever
+   * @return future of the return value
+   */
+  public CompletableFuture<Object> sendAsync(Message msg, Integer timeout) {
+    CompletableFuture<Object> future = inbox.expectReturn(msg.msgId, timeout);
+    outbox.add(msg);
+    return future;
   }
   
 
@@ -1847,6 +1939,32 @@ public abstract class Service extends MessageService implements Runnable, Serial
     instanceId = uri;
   }
 
+  /**
+   * switches this service's inbox to the lock-free ring buffer - useful for
+   * services which receive high rate sensor data from many publishers
+   *
+   * @param policy
+   *          BLOCK | DROP_OLDEST | DROP_NEWEST | COALESCE
+   * @param maxQueue
+   *          capacity of the inbox
+   */
+  public void setMailbox(OverflowPolicy policy, int maxQueue) {
+    log.info("{} inbox now ring buffer {} policy {}", getName(), maxQueue, policy);
+    inbox.setQueue(new RingMessageQueue(getName(), maxQueue, policy));
+  }
+
+  public void setMailbox(String policy, Integer maxQueue) {
+    setMailbox(OverflowPolicy.valueOf(policy.toUpperCase()), maxQueue);
+  }
+
+  /**
+   * switches this service's inbox back to the original synchronized LinkedList
+   * queue
+   */
+  public void setMailboxDefault() {
+    inbox.setQueue(new LinkedMessageQueue(getName()));
+  }
+
   /**
    * rarely should this be used. Gateways use it to provide x-route natting
    * services by re-writing names with prefixes
@@ -1914,11 +2032,39 @@ public abstract class Service extends MessageService implements Runnable, Serial
     }
     if (!isRunning()) {
       outbox.start();
-      if (thisThread == null) {
-        thisThread = new Thread(this, name);
+      if (Dispatcher.getMode() == Dispatcher.Mode.POOL) {
+        // no thread of our own - the shared pool drains the inbox
+        isRunning = true;
+        dispatcher = new Dispatcher(name, new Dispatcher.Drainable() {
+          @Override
+          public int drain(int max) {
+            int count = 0;
+            Message m = null;
+            while (isRunning && count < max && (m = inbox.poll()) != null) {
+              try {
+                process(m);
+              } catch (Exception e) {
+                error(e);
+              }
+              ++count;
+            }
+            return count;
+          }
+
+          @Override
+          public boolean isEmpty() {
+            return !isRunning || inbox.size() == 0;
+          }
+        });
+        inbox.setDispatcher(dispatcher);
+        dispatcher.schedule();
+      } else {
+        if (thisThread == null) {
+          thisThread = Dispatcher.newThread(this, name);
+        }
+        thisThread.start();
+        isRunning = true;
       }
-      thisThread.start();
-      isRunning = true;
     } else {
       log.debug("startService request: service {} is already running", name);
     }
@@ -1945,6 +2091,11 @@ public abstract class Service extends MessageService implements Runnable, Serial
   public void stopService() {
     isRunning = false;
     outbox.stop();
+    if (dispatcher != null) {
+      dispatcher.release();
+      inbox.setDispatcher(null);
+      dispatcher = null;
+    }
     if (thisThread != null) {
       thisThread.interrupt();
     }
@@ -1969,6 +2120,27 @@ public abstract class Service extends MessageService implements Runnable, Serial
     cm.send(Message.createMessage(this, topicName, "addListener", listener));
   }
 
+  /**
+   * subscribe with a delivery policy - for high rate topics (servo events,
+   * orientation, pin arrays) where only the current value matters
+   * 
+   * @param topicName
+   *          publishing service
+   * @param topicMethod
+   *          publishing method
+   * @param latestOnly
+   *          if this service has not processed the previous message yet the
+   *          new one replaces it
+   * @param maxRate
+   *          max messages per second - 0 is unlimited
+   */
+  public void subscribe(String topicName, String topicMethod, boolean latestOnly, double maxRate) {
+    String callbackMethod = CodecUtils.getCallBackName(topicMethod);
+    log.info(String.format("subscribe [%s/%s ---> %s/%s] latestOnly %b maxRate %.1f", topicName, topicMethod, getName(), callbackMethod, latestOnly, maxRate));
+    MRLListener listener = new MRLListener(topicMethod, getName(), callbackMethod, latestOnly, maxRate);
+    cm.send(Message.createMessage(this, topicName, "addListener", listener));
+  }
+
   public void sendPeer(String peerKey, String method, Object... params) {
     cm.send(Message.createMessage(this, getPeerName(peerKey), method, params));
   }
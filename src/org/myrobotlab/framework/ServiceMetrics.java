@@ -0,0 +1,227 @@
+package org.myrobotlab.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message pipeline instrumentation of a single service - filled in by its
+ * Inbox, Outbox, CommunicationManager and Service.invoke.
+ *
+ * <pre>
+ * queue   - time a message waited in the inbox (enqueue to invoke)
+ * invoke  - time spent in the invoked methods, also counted per method
+ * fanOut  - time the outbox took to hand a publish to all of its listeners
+ * </pre>
+ *
+ * A service with a growing queue time and a busy invoke time is the
+ * bottleneck - its publishers are waiting on it. Everything is lock-free
+ * counters, but every message still pays for a few nanoTime calls and atomic
+ * increments - so it is off until switched on with
+ * {@link #setEnabled(boolean)} (or -metrics on the command line).
+ */
+public class ServiceMetrics {
+
+  static volatile boolean enabled = false;
+
+  final String name;
+
+  final LatencyHistogram queue = new LatencyHistogram();
+  final LatencyHistogram invoke = new LatencyHistogram();
+  final LatencyHistogram fanOut = new LatencyHistogram();
+
+  final AtomicLong received = new AtomicLong();
+  final AtomicLong dropped = new AtomicLong();
+  final AtomicLong published = new AtomicLong();
+  final AtomicLong sent = new AtomicLong();
+  final AtomicLong sentRemote = new AtomicLong();
+
+  final ConcurrentHashMap<String, MethodStats> methods = new ConcurrentHashMap<String, MethodStats>();
+
+  volatile long startTs = System.currentTimeMillis();
+  long lastTs = startTs;
+  long lastInvoked = 0;
+
+  /**
+   * invoke counters of a single method
+   */
+  static public class MethodStats {
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong total = new AtomicLong();
+    final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+      count.incrementAndGet();
+      total.addAndGet(nanos);
+      long m = max.get();
+      while (nanos > m && !max.compareAndSet(m, nanos)) {
+        m = max.get();
+      }
+    }
+  }
+
+  /**
+   * json friendly copy of the metrics - times are in microseconds
+   */
+  static public class Snapshot {
+    public String name;
+    public long ts;
+    public int inboxDepth;
+    public int outboxDepth;
+    public long received;
+    public long dropped;
+    public long published;
+    public long sent;
+    public long sentRemote;
+    /**
+     * messages invoked per second since the last snapshot
+     */
+    public double rate;
+    /**
+     * fraction of wall time spent in invoke since the last reset
+     */
+    public double busy;
+    public LatencyHistogram.Summary queue;
+    public LatencyHistogram.Summary invoke;
+    public LatencyHistogram.Summary fanOut;
+    public List<MethodSnapshot> methods = new ArrayList<MethodSnapshot>();
+  }
+
+  static public class MethodSnapshot {
+    public String method;
+    public long count;
+    public double mean;
+    public double max;
+    public double total;
+  }
+
+  public ServiceMetrics(String name) {
+    this.name = name;
+  }
+
+  static public boolean isEnabled() {
+    return enabled;
+  }
+
+  static public void setEnabled(boolean b) {
+    enabled = b;
+  }
+
+  public void received() {
+    received.incrementAndGet();
+  }
+
+  public void dropped() {
+    dropped.incrementAndGet();
+  }
+
+  public void queued(long nanos) {
+    queue.record(nanos);
+  }
+
+  public void invoked(String method, long nanos) {
+    invoke.record(nanos);
+    MethodStats stats = methods.get(method);
+    if (stats == null) {
+      stats = new MethodStats();
+      MethodStats existing = methods.putIfAbsent(method, stats);
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    stats.record(nanos);
+  }
+
+  public void published(long nanos) {
+    published.incrementAndGet();
+    fanOut.record(nanos);
+  }
+
+  public void sent(boolean remote) {
+    sent.incrementAndGet();
+    if (remote) {
+      sentRemote.incrementAndGet();
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param inboxDepth
+   *          current size of the inbox
+   * @param outboxDepth
+   *          current size of the outbox
+   * @return a copy of the current values
+   */
+  public Snapshot getSnapshot(int inboxDepth, int outboxDepth) {
+    Snapshot s = new Snapshot();
+    s.name = name;
+    s.ts = System.currentTimeMillis();
+    s.inboxDepth = inboxDepth;
+    s.outboxDepth = outboxDepth;
+    s.received = received.get();
+    s.dropped = dropped.get();
+    s.published = published.get();
+    s.sent = sent.get();
+    s.sentRemote = sentRemote.get();
+    s.queue = queue.getSummary();
+    s.invoke = invoke.getSummary();
+    s.fanOut = fanOut.getSummary();
+
+    synchronized (this) {
+      long interval = s.ts - lastTs;
+      if (interval > 0) {
+        s.rate = (s.invoke.count - lastInvoked) * 1000.0 / interval;
+      }
+      lastTs = s.ts;
+      lastInvoked = s.invoke.count;
+    }
+    long elapsed = s.ts - startTs;
+    if (elapsed > 0) {
+      s.busy = invoke.getTotal() / (elapsed * 1000000.0);
+    }
+
+    for (Map.Entry<String, MethodStats> e : methods.entrySet()) {
+      MethodStats stats = e.getValue();
+      MethodSnapshot m = new MethodSnapshot();
+      m.method = e.getKey();
+      m.count = stats.count.get();
+      m.total = stats.total.get() / 1000.0;
+      m.mean = (m.count == 0) ? 0 : m.total / m.count;
+      m.max = stats.max.get() / 1000.0;
+      s.methods.add(m);
+    }
+    // most expensive first
+    Collections.sort(s.methods, new Comparator<MethodSnapshot>() {
+      @Override
+      public int compare(MethodSnapshot o1, MethodSnapshot o2) {
+        return Double.compare(o2.total, o1.total);
+      }
+    });
+    return s;
+  }
+
+  public void reset() {
+    queue.reset();
+    invoke.reset();
+    fanOut.reset();
+    received.set(0);
+    dropped.set(0);
+    published.set(0);
+    sent.set(0);
+    sentRemote.set(0);
+    methods.clear();
+    synchronized (this) {
+      startTs = System.currentTimeMillis();
+      lastTs = startTs;
+      lastInvoked = 0;
+    }
+  }
+
+}
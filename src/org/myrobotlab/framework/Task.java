@@ -1,51 +1,116 @@
 package org.myrobotlab.framework;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
-public class Task extends TimerTask {
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * A (possibly repeating) message a service sends to itself. All tasks of all
+ * services run on the shared {@link TimerWheel} - a task only puts its message
+ * in the inbox, the service thread does the work.
+ *
+ * Repeating tasks run at a fixed rate against their original schedule, so
+ * timing errors do not add up. If a task falls more than an interval behind
+ * (e.g. the machine was suspended) it skips the missed runs instead of
+ * bursting. How late each run was is kept in a histogram - see getJitter.
+ */
+public class Task implements Runnable {
+
+  public final static Logger log = LoggerFactory.getLogger(Task.class);
 
   String taskName;
   Message msg;
   int interval = 0;
   Service myService;
 
-  // FIXME upgrade to ScheduledExecutorService
-  // http://howtodoinjava.com/2015/03/25/task-scheduling-with-executors-scheduledthreadpoolexecutor-example/
-  
+  transient volatile TimerWheel.Timeout timeout = null;
+  transient volatile boolean cancelled = false;
+  /**
+   * System.nanoTime() this run was due
+   */
+  long scheduled;
+  /**
+   * lateness of each run in ns
+   */
+  final LatencyHistogram jitter = new LatencyHistogram();
+  /**
+   * runs which found the inbox full
+   */
+  long dropped = 0;
+
   public Task(Service myService, String taskName, int interval, Message msg) {
     this.myService = myService;
     this.taskName = taskName;
     this.interval = interval;
     this.msg = msg;
   }
- 
-  public Task(Task s) {
-    this.msg = s.msg;
-    this.interval = s.interval;
-    this.taskName = s.taskName;
-    this.myService = s.myService;
+
+  /**
+   * schedules the first run
+   *
+   * @param delay
+   *          ms to the first run
+   */
+  public void start(int delay) {
+    scheduled = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+    timeout = TimerWheel.getInstance().schedule(this, delay, TimeUnit.MILLISECONDS);
+  }
+
+  public void cancel() {
+    cancelled = true;
+    TimerWheel.Timeout t = timeout;
+    if (t != null) {
+      t.cancel();
+    }
   }
 
   @Override
   public void run() {
-    // info("task %s running - next run %s", taskName,
-    // MathUtils.msToString(interval));
-    myService.getInbox().add(msg);
+    if (cancelled) {
+      return;
+    }
+    long now = System.nanoTime();
+    jitter.record(now - scheduled);
+
+    // a new message each run - the last one may still be in the inbox. The
+    // wheel runs every task of every service, it must not wait for a full
+    // inbox
+    if (!myService.getInbox().offer(new Message(msg))) {
+      if (dropped++ % 100 == 0) {
+        log.warn("{} task {} dropped {} runs - inbox full", myService.getName(), taskName, dropped);
+      }
+    }
 
     if (interval > 0) {
-      Task t = new Task(this);
-      // clear history list - becomes "new" message
-      t.msg.historyList.clear();
-      Timer timer = myService.tasks.get(taskName);
-      if (timer != null) {
-        // timer = new Timer(String.format("%s.timer", getName()));
-        try {
-          timer.schedule(t, interval);
-        } catch (IllegalStateException e) {
-        }
+      long period = TimeUnit.MILLISECONDS.toNanos(interval);
+      scheduled += period;
+      if (scheduled <= now) {
+        scheduled = now + period;
+      }
+      timeout = TimerWheel.getInstance().schedule(this, scheduled - now, TimeUnit.NANOSECONDS);
+      // purged while we were scheduling
+      if (cancelled) {
+        timeout.cancel();
       }
+    } else {
+      myService.tasks.remove(taskName, this);
     }
   }
 
+  public String getName() {
+    return taskName;
+  }
+
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * @return how late the runs of this task were - in microseconds
+   */
+  public LatencyHistogram.Summary getJitter() {
+    return jitter.getSummary();
+  }
+
 }
@@ -0,0 +1,277 @@
+package org.myrobotlab.framework;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Hashed timer wheel - a single thread which can keep track of a great many
+ * timeouts. Time is cut in ticks, a timeout is hashed into the slot of the
+ * tick it expires in (plus the number of whole turns of the wheel still to
+ * go), so scheduling and cancelling are O(1) and the thread only looks at one
+ * slot per tick. A timeout never fires early, and fires at most about one tick
+ * late.
+ *
+ * Scheduling and cancelling are lock-free and can be done from any thread.
+ * The tasks are run on the wheel thread, so they must be short - hand anything
+ * long to a service (e.g. put a message in its inbox). The thread parks when
+ * there is nothing scheduled.
+ */
+public class TimerWheel implements Runnable {
+
+  public final static Logger log = LoggerFactory.getLogger(TimerWheel.class);
+
+  final static int PENDING = 0;
+  final static int CANCELLED = 1;
+  final static int EXPIRED = 2;
+
+  /**
+   * the handle of a scheduled task
+   */
+  public static class Timeout {
+    final TimerWheel wheel;
+    final Runnable task;
+    /**
+     * nanos relative to the start of the wheel
+     */
+    final long deadline;
+    final AtomicInteger state = new AtomicInteger(PENDING);
+    long remainingRounds;
+
+    // slot list - only touched by the wheel thread
+    Timeout next;
+    Timeout prev;
+
+    Timeout(TimerWheel wheel, Runnable task, long deadline) {
+      this.wheel = wheel;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * @return false if the task already ran or was cancelled
+     */
+    public boolean cancel() {
+      if (!state.compareAndSet(PENDING, CANCELLED)) {
+        return false;
+      }
+      wheel.size.decrementAndGet();
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return state.get() == CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return state.get() == EXPIRED;
+    }
+
+    void expire() {
+      if (!state.compareAndSet(PENDING, EXPIRED)) {
+        return;
+      }
+      wheel.size.decrementAndGet();
+      try {
+        task.run();
+      } catch (Throwable t) {
+        log.error("{} timer task threw", wheel.name, t);
+      }
+    }
+  }
+
+  /**
+   * doubly linked list of the timeouts hashed to one tick
+   */
+  static class Slot {
+    Timeout head;
+    Timeout tail;
+
+    void add(Timeout t) {
+      if (head == null) {
+        head = tail = t;
+      } else {
+        tail.next = t;
+        t.prev = tail;
+        tail = t;
+      }
+    }
+
+    Timeout remove(Timeout t) {
+      Timeout next = t.next;
+      if (t.prev != null) {
+        t.prev.next = next;
+      }
+      if (t.next != null) {
+        t.next.prev = t.prev;
+      }
+      if (t == head) {
+        head = next;
+      }
+      if (t == tail) {
+        tail = t.prev;
+      }
+      t.prev = null;
+      t.next = null;
+      return next;
+    }
+
+    void expire() {
+      Timeout t = head;
+      while (t != null) {
+        if (t.isCancelled()) {
+          t = remove(t);
+        } else if (t.remainingRounds <= 0) {
+          Timeout next = remove(t);
+          t.expire();
+          t = next;
+        } else {
+          --t.remainingRounds;
+          t = t.next;
+        }
+      }
+    }
+  }
+
+  static TimerWheel instance = null;
+
+  final String name;
+  final long tickNanos;
+  final Slot[] wheel;
+  final int mask;
+  final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+  /**
+   * scheduled timeouts which have neither run nor been cancelled
+   */
+  final AtomicInteger size = new AtomicInteger();
+  final long startTime = System.nanoTime();
+  final Thread worker;
+  volatile boolean running = true;
+  long tick = 0;
+
+  /**
+   * @return the Runtime wide wheel - 1 ms ticks
+   */
+  static public synchronized TimerWheel getInstance() {
+    if (instance == null) {
+      instance = new TimerWheel("timer_wheel", 1, TimeUnit.MILLISECONDS, 512);
+    }
+    return instance;
+  }
+
+  /**
+   * @param name
+   *          name of the thread
+   * @param tick
+   *          duration of a tick - the resolution of the wheel
+   * @param unit
+   *          unit of tick
+   * @param slots
+   *          number of slots - rounded up to a power of 2
+   */
+  public TimerWheel(String name, long tick, TimeUnit unit, int slots) {
+    this.name = name;
+    this.tickNanos = unit.toNanos(tick);
+    int n = 1;
+    while (n < slots) {
+      n <<= 1;
+    }
+    wheel = new Slot[n];
+    for (int i = 0; i < n; ++i) {
+      wheel[i] = new Slot();
+    }
+    mask = n - 1;
+    worker = new Thread(this, name);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * runs task once after delay
+   *
+   * @param task
+   *          what to run - on the wheel thread
+   * @param delay
+   *          how long to wait
+   * @param unit
+   *          unit of delay
+   * @return handle to cancel the task
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - startTime;
+    Timeout t = new Timeout(this, task, deadline);
+    size.incrementAndGet();
+    added.add(t);
+    if (!running) {
+      log.warn("{} is stopped - task will not run", name);
+    }
+    LockSupport.unpark(worker);
+    return t;
+  }
+
+  /**
+   * @return number of timeouts waiting to run
+   */
+  public int size() {
+    return size.get();
+  }
+
+  public long getTickNanos() {
+    return tickNanos;
+  }
+
+  public void stop() {
+    running = false;
+    LockSupport.unpark(worker);
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      waitForNextTick();
+      if (!running) {
+        break;
+      }
+      transferAdded();
+      wheel[(int) (tick & mask)].expire();
+      ++tick;
+    }
+  }
+
+  void waitForNextTick() {
+    while (running) {
+      if (size.get() == 0 && added.isEmpty()) {
+        LockSupport.park(this);
+        // nothing was pending while we were parked - skip the ticks we
+        // slept through instead of walking empty slots
+        long now = System.nanoTime() - startTime;
+        tick = Math.max(tick, now / tickNanos);
+        continue;
+      }
+      long sleep = startTime + (tick + 1) * tickNanos - System.nanoTime();
+      if (sleep <= 0) {
+        return;
+      }
+      LockSupport.parkNanos(this, sleep);
+    }
+  }
+
+  void transferAdded() {
+    Timeout t = null;
+    while ((t = added.poll()) != null) {
+      if (t.isCancelled()) {
+        continue;
+      }
+      long calculated = t.deadline / tickNanos;
+      t.remainingRounds = (calculated - tick) / wheel.length;
+      // already late - run on this tick
+      long ticks = Math.max(calculated, tick);
+      wheel[(int) (ticks & mask)].add(t);
+    }
+  }
+
+}
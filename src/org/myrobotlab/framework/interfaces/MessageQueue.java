@@ -0,0 +1,65 @@
+package org.myrobotlab.framework.interfaces;
+
+import org.myrobotlab.framework.Message;
+import org.myrobotlab.framework.OverflowPolicy;
+
+/**
+ * The storage behind an Inbox. Many threads may add, but only the owning
+ * service's thread takes messages off the queue.
+ *
+ * @see org.myrobotlab.framework.Inbox
+ */
+public interface MessageQueue {
+
+  /**
+   * enqueue a message
+   *
+   * @param msg
+   *          the message
+   * @return false if the message (or an older one) was dropped because the
+   *         queue was full
+   */
+  public boolean add(Message msg);
+
+  /**
+   * enqueue a message without ever waiting - with the BLOCK policy a full
+   * queue drops it, otherwise the same as add
+   *
+   * @param msg
+   *          the message
+   * @return false if the message (or an older one) was dropped because the
+   *         queue was full
+   */
+  public boolean offer(Message msg);
+
+  /**
+   * blocks until a message is available
+   *
+   * @return the next message, or null if the consumer was woken by
+   *         {@link #wakeup()} without a message
+   * @throws InterruptedException
+   *           e
+   */
+  public Message take() throws InterruptedException;
+
+  /**
+   * @return the next message or null if the queue is empty
+   */
+  public Message poll();
+
+  /**
+   * wakes a consumer blocked in {@link #take()}
+   */
+  public void wakeup();
+
+  public int size();
+
+  public void clear();
+
+  public int getMaxQueue();
+
+  public OverflowPolicy getOverflowPolicy();
+
+  public void setOverflowPolicy(OverflowPolicy policy);
+
+}
@@ -1,5 +1,7 @@
 package org.myrobotlab.framework.interfaces;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.myrobotlab.framework.Message;
 
 public interface MessageSender extends NameProvider {
@@ -38,4 +40,10 @@ public interface MessageSender extends NameProvider {
   
   public Object sendBlocking(Message msg, Integer timeout);
 
+  public CompletableFuture<Object> sendAsync(String name, String method, Object... data);
+
+  public CompletableFuture<Object> sendAsync(String name, Integer timeout, String method, Object... data);
+
+  public CompletableFuture<Object> sendAsync(Message msg, Integer timeout);
+
 }
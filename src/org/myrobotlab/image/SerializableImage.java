@@ -35,8 +35,12 @@ import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.Iterator;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
 import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.imageio.stream.MemoryCacheImageOutputStream;
 
@@ -53,6 +57,11 @@ import org.slf4j.Logger;
  *         source the image info can come from a variety of sources converting
  *         between return types "should" cache the resultant type
  * 
+ *         Each representation is made at most once - the image when it is
+ *         first asked for and the jpg bytes once per quality - so all the
+ *         subscribers of a published image share the work. The getters are
+ *         synchronized, subscribers ask from their own threads.
+ * 
  */
 public class SerializableImage implements Serializable {
 
@@ -60,11 +69,33 @@ public class SerializableImage implements Serializable {
 
   private static final long serialVersionUID = 1L;
 
+  /**
+   * jpg quality of getBytes() - the ImageIO default
+   */
+  public static final float DEFAULT_QUALITY = 0.75f;
+
+  /**
+   * makes the image the first time it is asked for
+   */
+  public interface ImageSource {
+    BufferedImage getImage();
+  }
+
   /**
    * internal buffered image
    */
   transient private BufferedImage image;
 
+  /**
+   * the image until it is made - null after
+   */
+  transient private ImageSource imageSource;
+
+  /**
+   * quality bytes were encoded with - NaN if they came encoded
+   */
+  transient private float bytesQuality = Float.NaN;
+
   /**
    * jpg encoded byte buffer - TODO offer type png tff etc? TODO - consider
    * hashmap cache similar to the OpenCVData ???
@@ -133,57 +164,108 @@ public class SerializableImage implements Serializable {
     this.timestamp = System.currentTimeMillis();
   }
 
+  /**
+   * an image which is made when it is first asked for - nothing is converted
+   * if nobody looks at it
+   */
+  public SerializableImage(ImageSource imageSource, String source, int frameIndex) {
+    this.source = source;
+    this.imageSource = imageSource;
+    this.frameIndex = frameIndex;
+    this.timestamp = System.currentTimeMillis();
+  }
+
+  /**
+   * jpg encoded with an explicit quality
+   */
+  public static byte[] toJpg(BufferedImage image, float quality) throws IOException {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+    if (!writers.hasNext()) {
+      throw new IOException("no jpg writer");
+    }
+    ImageWriter writer = writers.next();
+    try {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(quality);
+      ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bos);
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(image, null, null), param);
+      out.close();
+      return bos.toByteArray();
+    } finally {
+      writer.dispose();
+    }
+  }
+
   public ByteBuffer getByteBuffer() {
     return buffer;
   }
 
+  /**
+   * @return the jpg bytes - encoded once and kept
+   */
   public byte[] getBytes() {
-    if (bytes != null) {
+    return getBytes(DEFAULT_QUALITY);
+  }
+
+  /**
+   * @return the jpg bytes at quality - encoded bytes which came with the image
+   *         are returned as they are, otherwise the last quality asked for is
+   *         kept
+   */
+  public synchronized byte[] getBytes(float quality) {
+    if (bytes != null && (Float.isNaN(bytesQuality) || bytesQuality == quality)) {
       return bytes;
     }
 
-    if (buffer != null) {
-      bytes = new byte[buffer.remaining()];
-      buffer.get(bytes);
+    if (bytes == null && buffer != null) {
+      // a view - the buffer stays readable for getByteBuffer
+      ByteBuffer view = buffer.duplicate();
+      bytes = new byte[view.remaining()];
+      view.get(bytes);
       return bytes;
     }
 
-    if (image != null) {
+    BufferedImage img = getImage();
+    if (img != null) {
       try {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ImageIO.write(image, "jpg", new MemoryCacheImageOutputStream(bos));
-        bytes = bos.toByteArray();
+        bytes = toJpg(img, quality);
+        bytesQuality = quality;
         return bytes;
       } catch (Exception e) {
         Logging.logError(e);
       }
     }
-    // TODO image --to--> bytes
     return null;
   }
 
   public int getHeight() {
-    return image.getHeight();
+    return getImage().getHeight();
   }
 
-  public BufferedImage getImage() {
+  public synchronized BufferedImage getImage() {
     if (image != null)
       return image;
 
+    if (imageSource != null) {
+      image = imageSource.getImage();
+      imageSource = null;
+      return image;
+    }
+
     try {
-      if (bytes != null) {
-        InputStream inputStream = new ByteArrayInputStream(bytes);
-        image = ImageIO.read(inputStream);
-        return image;
+      if (bytes == null && buffer != null) {
+        ByteBuffer view = buffer.duplicate();
+        bytes = new byte[view.remaining()];
+        view.get(bytes);
       }
 
-      if (buffer != null) {
-        // FIXME - this does not work (always) :(
-        // not thread safe
-        bytes = new byte[buffer.remaining()];
-        buffer.get(bytes);
+      if (bytes != null) {
         InputStream inputStream = new ByteArrayInputStream(bytes);
         image = ImageIO.read(inputStream);
+        return image;
       }
     } catch (Exception e) {
       Logging.logError(e);
@@ -201,7 +283,7 @@ public class SerializableImage implements Serializable {
   }
 
   public int getWidth() {
-    return image.getWidth();
+    return getImage().getWidth();
   }
 
   private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -209,8 +291,12 @@ public class SerializableImage implements Serializable {
     Logging.logTime("readObject");
   }
 
-  public void setImage(BufferedImage image) {
+  public synchronized void setImage(BufferedImage image) {
     this.image = image;
+    imageSource = null;
+    // the bytes were of the old image
+    bytes = null;
+    buffer = null;
   }
 
   public void setSource(String source) {
@@ -224,12 +310,17 @@ public class SerializableImage implements Serializable {
   // FIXME ??? use OpenCV cvEncode ???
   // FIXME !! PNG default ???
   private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-    ImageIO.write(image, "jpg", new MemoryCacheImageOutputStream(out));
+    // the same jpg every other consumer gets - not encoded again per stream
+    byte[] jpg = getBytes();
+    if (jpg == null) {
+      throw new IOException("no image to write");
+    }
+    out.write(jpg);
     Logging.logTime("writeObject");
   }
 
   public void writeToFile(String filename) {
-    writeToFile(image, filename);
+    writeToFile(getImage(), filename);
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,355 @@
+package org.myrobotlab.kinematics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.myrobotlab.framework.LatencyHistogram;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.service.interfaces.ServoController;
+import org.slf4j.Logger;
+
+/**
+ * Host side motion planning - one thread moves every planned axis instead of
+ * a sleeping thread per servo. Each move follows a MotionProfile, a group of
+ * axes can be planned to arrive together, and sweeps bounce between two
+ * positions until stopped.
+ *
+ * The thread ticks at a fixed period on absolute deadlines, so late ticks do
+ * not add up. Every tick all moving axes are written - the writes which go
+ * through the same ServoController are sent between servoSyncBegin and
+ * servoSyncEnd, so a controller which can batch them gets one update per
+ * tick. The lateness of every tick is kept in a LatencyHistogram.
+ *
+ * Axis writes run on the planner thread and must be short. The thread waits
+ * when nothing moves.
+ */
+public class MotionPlanner implements Runnable {
+
+  public final static Logger log = LoggerFactory.getLogger(MotionPlanner.class);
+
+  /**
+   * something the planner moves
+   */
+  public interface Axis {
+
+    String getName();
+
+    /**
+     * @return the controller writes go through - null if the axis is not
+     *         behind a ServoController
+     */
+    ServoController getController();
+
+    /**
+     * next position of the move - on the planner thread
+     */
+    void write(double pos);
+
+    /**
+     * the move got to its target - not called for a stopped move
+     */
+    void onArrived(double pos);
+  }
+
+  static class Move {
+    final Axis axis;
+    MotionProfile profile;
+    long startNanos;
+    double pos;
+
+    boolean sweep = false;
+    boolean oneWay = false;
+    double min;
+    double max;
+    double velocity;
+    double acceleration;
+
+    Move(Axis axis) {
+      this.axis = axis;
+    }
+  }
+
+  static MotionPlanner instance = null;
+
+  final String name;
+  final long periodNanos;
+  final Thread worker;
+  volatile boolean running = true;
+
+  /**
+   * guarded by this
+   */
+  final Map<Axis, Move> moves = new LinkedHashMap<Axis, Move>();
+  /**
+   * what the thread works on - replaced whenever moves changes
+   */
+  volatile Move[] active = new Move[0];
+
+  MotionProfile.Type profileType = MotionProfile.Type.SCURVE;
+
+  // only touched by the planner thread
+  final List<ServoController> controllers = new ArrayList<ServoController>();
+  final List<Move> arrived = new ArrayList<Move>();
+
+  final LatencyHistogram jitter = new LatencyHistogram();
+  long ticks = 0;
+
+  /**
+   * @return the Runtime wide planner - 20 ms ticks, the frame rate of a hobby
+   *         servo
+   */
+  static public synchronized MotionPlanner getInstance() {
+    if (instance == null) {
+      instance = new MotionPlanner("motion_planner", 20, TimeUnit.MILLISECONDS);
+    }
+    return instance;
+  }
+
+  public MotionPlanner(String name, long period, TimeUnit unit) {
+    this.name = name;
+    periodNanos = unit.toNanos(period);
+    worker = new Thread(this, name);
+    worker.setDaemon(true);
+    worker.setPriority(Thread.MAX_PRIORITY);
+    worker.start();
+  }
+
+  /**
+   * moves an axis within the limits - an axis which is moving already starts
+   * from where it is now
+   *
+   * @param axis
+   *          what to move
+   * @param from
+   *          position of the axis if it is not moving
+   * @param to
+   *          target
+   * @param velocity
+   *          units/s - &lt;= 0 for unlimited
+   * @param acceleration
+   *          units/s^2 - &lt;= 0 for unlimited
+   */
+  public void move(Axis axis, double from, double to, double velocity, double acceleration) {
+    moveGroup(new Axis[] { axis }, new double[] { from }, new double[] { to }, new double[] { velocity }, new double[] { acceleration });
+  }
+
+  /**
+   * moves a group of axes so they all arrive at the same time - the axis with
+   * the longest move sets the pace and the others slow down to match
+   */
+  public synchronized void moveGroup(Axis[] axes, double[] from, double[] to, double[] velocity, double[] acceleration) {
+    long now = System.nanoTime();
+    MotionProfile[] profiles = new MotionProfile[axes.length];
+    double duration = 0;
+    for (int i = 0; i < axes.length; ++i) {
+      profiles[i] = new MotionProfile(current(axes[i], from[i], now), to[i], velocity[i], acceleration[i], profileType);
+      duration = Math.max(duration, profiles[i].getDuration());
+    }
+    for (int i = 0; i < axes.length; ++i) {
+      MotionProfile profile = profiles[i];
+      if (profile.getDuration() < duration && profile.getStart() != profile.getTarget()) {
+        profile = new MotionProfile(profile.getStart(), to[i], velocity[i], acceleration[i], profileType, duration);
+      }
+      Move move = new Move(axes[i]);
+      move.profile = profile;
+      move.startNanos = now;
+      moves.put(axes[i], move);
+    }
+    changed();
+  }
+
+  /**
+   * bounces an axis between min and max until stopped - starts toward the
+   * nearer end
+   *
+   * @param oneWay
+   *          stop at the far end instead of bouncing
+   */
+  public synchronized void sweep(Axis axis, double from, double min, double max, double velocity, double acceleration, boolean oneWay) {
+    long now = System.nanoTime();
+    double start = current(axis, from, now);
+    Move move = new Move(axis);
+    move.sweep = true;
+    move.oneWay = oneWay;
+    move.min = min;
+    move.max = max;
+    move.velocity = velocity;
+    move.acceleration = acceleration;
+    double target = (oneWay || start - min > max - start) ? max : min;
+    move.profile = new MotionProfile(start, target, velocity, acceleration, profileType);
+    move.startNanos = now;
+    moves.put(axis, move);
+    changed();
+  }
+
+  /**
+   * stops an axis where it is
+   *
+   * @return true if it was moving
+   */
+  public synchronized boolean stop(Axis axis) {
+    if (moves.remove(axis) == null) {
+      return false;
+    }
+    changed();
+    return true;
+  }
+
+  public synchronized boolean isMoving(Axis axis) {
+    return moves.containsKey(axis);
+  }
+
+  /**
+   * position of a moving axis now, from otherwise
+   */
+  double current(Axis axis, double from, long now) {
+    Move move = moves.get(axis);
+    if (move == null) {
+      return from;
+    }
+    return move.profile.getPosition((now - move.startNanos) / 1e9);
+  }
+
+  void changed() {
+    active = moves.values().toArray(new Move[moves.size()]);
+    notifyAll();
+  }
+
+  @Override
+  public void run() {
+    long next = System.nanoTime();
+    while (running) {
+      try {
+        synchronized (this) {
+          while (running && moves.isEmpty()) {
+            wait();
+            next = System.nanoTime();
+          }
+        }
+      } catch (InterruptedException e) {
+        break;
+      }
+
+      next += periodNanos;
+      long now;
+      while ((now = System.nanoTime()) < next) {
+        LockSupport.parkNanos(this, next - now);
+      }
+      long late = now - next;
+      jitter.record(late);
+      if (late > periodNanos) {
+        // do not try to catch up on missed ticks
+        next = now;
+      }
+      tick(now);
+    }
+  }
+
+  void tick(long now) {
+    Move[] work = active;
+    ++ticks;
+
+    controllers.clear();
+    for (int i = 0; i < work.length; ++i) {
+      ServoController controller = work[i].axis.getController();
+      if (controller != null && !controllers.contains(controller)) {
+        controllers.add(controller);
+      }
+    }
+    for (int i = 0; i < controllers.size(); ++i) {
+      controllers.get(i).servoSyncBegin();
+    }
+
+    arrived.clear();
+    try {
+      for (int i = 0; i < work.length; ++i) {
+        Move move = work[i];
+        double t = (now - move.startNanos) / 1e9;
+        move.pos = move.profile.getPosition(t);
+        try {
+          move.axis.write(move.pos);
+        } catch (Exception e) {
+          log.error("{} write of {} threw - stopping it", name, move.axis.getName(), e);
+          stop(move.axis);
+          continue;
+        }
+        if (t >= move.profile.getDuration()) {
+          arrived.add(move);
+        }
+      }
+    } finally {
+      for (int i = 0; i < controllers.size(); ++i) {
+        try {
+          controllers.get(i).servoSyncEnd();
+        } catch (Exception e) {
+          log.error("{} servoSyncEnd threw", name, e);
+        }
+      }
+    }
+
+    for (int i = 0; i < arrived.size(); ++i) {
+      Move move = arrived.get(i);
+      if (!finished(move, now)) {
+        continue;
+      }
+      try {
+        move.axis.onArrived(move.pos);
+      } catch (Exception e) {
+        log.error("{} onArrived of {} threw", name, move.axis.getName(), e);
+      }
+    }
+  }
+
+  /**
+   * a move got to its target - sweeps turn around
+   *
+   * @return true if the axis stopped
+   */
+  synchronized boolean finished(Move move, long now) {
+    if (moves.get(move.axis) != move) {
+      // replaced or stopped meanwhile
+      return false;
+    }
+    if (move.sweep && !move.oneWay) {
+      double target = (move.profile.getTarget() == move.max) ? move.min : move.max;
+      move.profile = new MotionProfile(move.pos, target, move.velocity, move.acceleration, profileType);
+      move.startNanos = now;
+      return false;
+    }
+    moves.remove(move.axis);
+    changed();
+    return true;
+  }
+
+  public void setProfileType(MotionProfile.Type type) {
+    profileType = type;
+  }
+
+  /**
+   * @return lateness of the ticks
+   */
+  public LatencyHistogram getJitter() {
+    return jitter;
+  }
+
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  public long getTicks() {
+    return ticks;
+  }
+
+  public void stop() {
+    running = false;
+    synchronized (this) {
+      notifyAll();
+    }
+    LockSupport.unpark(worker);
+  }
+
+}
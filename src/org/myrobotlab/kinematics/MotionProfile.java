@@ -0,0 +1,182 @@
+package org.myrobotlab.kinematics;
+
+/**
+ * Velocity profile of a single axis move from start to target. The axis
+ * accelerates to a cruise velocity, cruises and decelerates to a stop at the
+ * target - a triangle instead of a trapezoid if the move is too short to
+ * reach the cruise velocity.
+ *
+ * A trapezoid ramps with constant acceleration. An S-curve ramps the velocity
+ * along half a cosine, so the acceleration itself starts and ends at 0 -
+ * smoother on gears and mounts for the same peak acceleration, slightly
+ * slower.
+ *
+ * Velocity &lt;= 0 means unlimited - the axis jumps to the target.
+ * Acceleration &lt;= 0 means unlimited - the axis starts at cruise velocity.
+ */
+public class MotionProfile {
+
+  public enum Type {
+    TRAPEZOID, SCURVE
+  }
+
+  final Type type;
+  final double start;
+  final double target;
+  /**
+   * 1 or -1
+   */
+  final double direction;
+  final double distance;
+  /**
+   * cruise velocity - units/s
+   */
+  final double velocity;
+  /**
+   * duration of the acceleration ramp (and of the deceleration ramp)
+   */
+  final double rampTime;
+  final double cruiseTime;
+  final double duration;
+
+  /**
+   * fastest move within the limits
+   *
+   * @param start
+   *          position now
+   * @param target
+   *          position at the end
+   * @param maxVelocity
+   *          units/s - &lt;= 0 for unlimited
+   * @param maxAcceleration
+   *          units/s^2 - peak acceleration for an S-curve, &lt;= 0 for
+   *          unlimited
+   * @param type
+   *          shape of the ramps
+   */
+  public MotionProfile(double start, double target, double maxVelocity, double maxAcceleration, Type type) {
+    this(start, target, maxVelocity, maxAcceleration, type, 0);
+  }
+
+  /**
+   * @param minDuration
+   *          seconds - the move is slowed down to take at least this long,
+   *          so a group of axes can arrive together
+   */
+  public MotionProfile(double start, double target, double maxVelocity, double maxAcceleration, Type type, double minDuration) {
+    this.type = type;
+    this.start = start;
+    this.target = target;
+    distance = Math.abs(target - start);
+    direction = (target < start) ? -1 : 1;
+
+    // the ramp of an S-curve covers as much ground as a trapezoid ramp of
+    // 2/pi of its peak acceleration
+    double a = (maxAcceleration <= 0) ? 0 : (type == Type.SCURVE) ? maxAcceleration * 2 / Math.PI : maxAcceleration;
+    double v = maxVelocity;
+
+    if (distance == 0 || (v <= 0 && minDuration <= 0)) {
+      velocity = 0;
+      rampTime = 0;
+      cruiseTime = 0;
+      duration = 0;
+      return;
+    }
+
+    if (v <= 0) {
+      v = Double.POSITIVE_INFINITY;
+    }
+    if (a > 0 && v * v > a * distance) {
+      // triangle - never reaches maxVelocity
+      v = Math.sqrt(a * distance);
+    }
+
+    double t = time(distance, v, a);
+    if (t < minDuration) {
+      // slowest cruise velocity which arrives in minDuration
+      if (a > 0) {
+        // minDuration = distance / v + v / a
+        double b = a * minDuration;
+        v = (b - Math.sqrt(Math.max(0, b * b - 4 * a * distance))) / 2;
+      } else {
+        v = distance / minDuration;
+      }
+    }
+
+    velocity = v;
+    rampTime = (a > 0) ? v / a : 0;
+    cruiseTime = Math.max(0, distance / v - rampTime);
+    duration = 2 * rampTime + cruiseTime;
+  }
+
+  /**
+   * duration of a move of distance with cruise velocity v and acceleration a
+   */
+  static double time(double distance, double v, double a) {
+    return (a > 0) ? distance / v + v / a : distance / v;
+  }
+
+  /**
+   * ground covered t seconds into a ramp from 0 to velocity
+   */
+  double ramp(double t) {
+    if (rampTime == 0) {
+      return 0;
+    }
+    if (type == Type.SCURVE) {
+      return velocity * (t / 2 - rampTime / (2 * Math.PI) * Math.sin(Math.PI * t / rampTime));
+    }
+    return velocity * t * t / (2 * rampTime);
+  }
+
+  /**
+   * @param t
+   *          seconds since the start of the move
+   * @return position at t
+   */
+  public double getPosition(double t) {
+    if (t >= duration) {
+      return target;
+    }
+    if (t <= 0) {
+      return start;
+    }
+    double s;
+    if (t < rampTime) {
+      s = ramp(t);
+    } else if (t < rampTime + cruiseTime) {
+      s = ramp(rampTime) + velocity * (t - rampTime);
+    } else {
+      s = distance - ramp(duration - t);
+    }
+    return start + direction * s;
+  }
+
+  /**
+   * @return seconds the move takes
+   */
+  public double getDuration() {
+    return duration;
+  }
+
+  public double getVelocity() {
+    return velocity;
+  }
+
+  public double getStart() {
+    return start;
+  }
+
+  public double getTarget() {
+    return target;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public String toString() {
+    return String.format("%s %.2f->%.2f velocity %.2f ramp %.3fs cruise %.3fs", type, start, target, velocity, rampTime, cruiseTime);
+  }
+
+}
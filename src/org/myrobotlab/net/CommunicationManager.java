@@ -6,6 +6,7 @@ import java.util.HashMap;
 
 import org.myrobotlab.codec.CodecUtils;
 import org.myrobotlab.framework.Message;
+import org.myrobotlab.framework.ServiceMetrics;
 import org.myrobotlab.framework.interfaces.NameProvider;
 import org.myrobotlab.framework.interfaces.ServiceInterface;
 import org.myrobotlab.logging.Level;
@@ -34,6 +35,11 @@ public class CommunicationManager implements Serializable, CommunicationInterfac
   public final static Logger log = LoggerFactory.getLogger(CommunicationManager.class);
   String name;
 
+  /**
+   * send counters of the owning service - null if not instrumented
+   */
+  transient ServiceMetrics metrics = null;
+
   /**
    * mrlToProtocolKey -
    */
@@ -76,6 +82,10 @@ public class CommunicationManager implements Serializable, CommunicationInterfac
     }
 
     URI host = sw.getInstanceId();
+    ServiceMetrics m = metrics;
+    if (m != null && ServiceMetrics.isEnabled()) {
+      m.sent(host != null);
+    }
     if (host == null) {
       // local message
       // log.info(String.format("local %s.%s->%s/%s.%s(%s)", msg.sender,
@@ -117,6 +127,10 @@ public class CommunicationManager implements Serializable, CommunicationInterfac
     return name;
   }
 
+  public void setMetrics(ServiceMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   static public int count(String data, char toCount) {
     int charCount = 0;
 
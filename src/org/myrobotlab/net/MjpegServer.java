@@ -2,15 +2,19 @@ package org.myrobotlab.net;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.myrobotlab.image.SerializableImage;
 import org.myrobotlab.logging.Level;
@@ -21,105 +25,193 @@ import org.slf4j.Logger;
 
 /**
  * @author GroG
- * 
+ *
  *         mjpeg server - allows multiple jpeg streams to be sent to multiple
  *         clients extends the most excellent NanoHTTPD server - multi-part mime
  *         was done with little parts borg'd in from -
  *         http://www.servlets.com/cos/
  *         http://www.damonkohler.com/2010/10/mjpeg-streaming-protocol.html
- * 
+ *
+ *         Each feed keeps only its latest frame. A frame is encoded once, its
+ *         part header and jpg are shared by all clients, and one thread writes
+ *         them to every client over non blocking channels with gathering
+ *         writes. A client still busy with an older frame skips the ones
+ *         published meanwhile and gets the latest next - a slow viewer neither
+ *         holds up the others nor makes frames pile up.
+ *
  */
 public class MjpegServer extends NanoHTTPD {
 
-  public class Connection {
-    boolean initialized = false;
-    Socket socket;
-    OutputStream os;
+  final static byte[] PREAMBLE = ("HTTP/1.0 200 OK\r\n" + "Server: YourServerName\r\n" + "Connection: close\r\n" + "Max-Age: 0\r\n" + "Expires: 0\r\n"
+      + "Cache-Control: no-cache, private\r\n" + "Pragma: no-cache\r\n" + "Content-Type: multipart/x-mixed-replace; " + "boundary=--BoundaryString\r\n\r\n")
+          .getBytes(StandardCharsets.US_ASCII);
 
-    public Connection(Socket socket) throws IOException {
-      this.socket = socket;
-      os = socket.getOutputStream();
+  final static byte[] TRAILER = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * longest the writer sleeps when nothing happens
+   */
+  final static long SELECT_TIMEOUT_MS = 500;
+
+  /**
+   * an encoded frame - read only, every client writes from its own view
+   */
+  public static class Frame {
+    final long sequence;
+    final int frameIndex;
+    final ByteBuffer header;
+    final ByteBuffer jpg;
+
+    Frame(long sequence, int frameIndex, byte[] jpg) {
+      this.sequence = sequence;
+      this.frameIndex = frameIndex;
+      header = ByteBuffer.wrap(String.format("--BoundaryString\r\nContent-type: image/jpg\r\nContent-Length: %d\r\n\r\n", jpg.length).getBytes(StandardCharsets.US_ASCII))
+          .asReadOnlyBuffer();
+      this.jpg = ByteBuffer.wrap(jpg).asReadOnlyBuffer();
     }
 
-    public void close() {
-      try {
-        socket.close();
-        socket = null;
-      } catch (IOException e) {
-      }
+    public long getSequence() {
+      return sequence;
     }
   }
 
-  public class VideoWebClient extends Thread {
-    String feed;
-    ArrayList<Connection> connections = new ArrayList<Connection>();
-    BlockingQueue<SerializableImage> videoFeed;
+  /**
+   * the latest frame of a video feed
+   */
+  public static class Feed {
+    final String name;
+    volatile Frame latest = null;
+    // only the publisher moves it
+    long sequence = 0;
+
+    Feed(String name) {
+      this.name = name;
+    }
 
-    VideoWebClient(BlockingQueue<SerializableImage> videoFeed, String feed, Socket socket) throws IOException {
-      // super(String.format("stream_%s:%s",
-      // socket.getInetAddress().getHostAddress(), socket.getPort()));
-      super(String.format("stream_%s", feed));
-      this.videoFeed = videoFeed;
+    public Frame getLatest() {
+      return latest;
+    }
+  }
+
+  /**
+   * a viewer of a feed - only the writer thread touches it
+   */
+  public class VideoWebClient {
+    final Feed feed;
+    final SocketChannel channel;
+    final String address;
+    SelectionKey key;
+    /**
+     * what is left to write of the current frame - the preamble first
+     */
+    ByteBuffer[] pending;
+    long sequence = 0;
+    long sent = 0;
+    long dropped = 0;
+
+    VideoWebClient(Feed feed, SocketChannel channel, String address) {
       this.feed = feed;
-      connections.add(new Connection(socket));
+      this.channel = channel;
+      this.address = address;
+      pending = new ByteBuffer[] { ByteBuffer.wrap(PREAMBLE) };
+    }
+
+    /**
+     * writes until the socket is full or the client has the latest frame
+     */
+    void write() throws IOException {
+      while (true) {
+        if (pending == null) {
+          Frame frame = feed.latest;
+          if (frame == null || frame.sequence == sequence) {
+            key.interestOps(0);
+            return;
+          }
+          if (sent > 0) {
+            dropped += frame.sequence - sequence - 1;
+          }
+          sequence = frame.sequence;
+          pending = new ByteBuffer[] { frame.header.duplicate(), frame.jpg.duplicate(), ByteBuffer.wrap(TRAILER) };
+        }
+        channel.write(pending);
+        if (pending[pending.length - 1].hasRemaining()) {
+          // the socket is full - the selector says when there is room
+          key.interestOps(SelectionKey.OP_WRITE);
+          return;
+        }
+        if (pending.length > 1) {
+          ++sent;
+        }
+        pending = null;
+      }
     }
 
-    // TODO - look into buffered output stream
+    void close() {
+      log.info("closing {} - {} frames sent {} dropped", address, sent, dropped);
+      try {
+        channel.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  /**
+   * writes every frame to every client - the only thread which touches them
+   */
+  class Writer implements Runnable {
     @Override
     public void run() {
+      ArrayList<VideoWebClient> clients = new ArrayList<VideoWebClient>();
       try {
-        while (true) {
-          SerializableImage frame = videoFeed.take();
-          // ++frameIndex;
-          // log.info("frame {}", frameIndex);
-          Logging.logTime(String.format("Mjpeg frameIndex %d %d", frame.frameIndex, System.currentTimeMillis()));
-          for (Iterator<Connection> iterator = connections.iterator(); iterator.hasNext();) {
-            Connection c = iterator.next();
+        while (running) {
+          selector.select(SELECT_TIMEOUT_MS);
+          selector.selectedKeys().clear();
 
+          VideoWebClient client;
+          while ((client = added.poll()) != null) {
             try {
-
-              if (!c.initialized) {
-                c.os.write(
-                    ("HTTP/1.0 200 OK\r\n" + "Server: YourServerName\r\n" + "Connection: close\r\n" + "Max-Age: 0\r\n" + "Expires: 0\r\n" + "Cache-Control: no-cache, private\r\n"
-                        + "Pragma: no-cache\r\n" + "Content-Type: multipart/x-mixed-replace; " + "boundary=--BoundaryString\r\n\r\n").getBytes());
-                c.initialized = true;
-              }
-
-              byte[] bytes = frame.getBytes();
-
-              // begin jpg
-              c.os.write(("--BoundaryString\r\n" + "Content-type: image/jpg\r\n" + "Content-Length: " + bytes.length + "\r\n\r\n").getBytes());
-              // write the jpg
-              c.os.write(bytes);
-
-              // end
-              c.os.write("\r\n\r\n".getBytes());
-
-              // flush or not to flush that is the question
-              c.os.flush();
-              Logging.logTime(String.format("Mjpeg frameIndex %d %d SENT", frame.frameIndex, System.currentTimeMillis()));
-            } catch (Exception e) {
-              Logging.logError(e);
-              log.info("removing socket");
-              iterator.remove();
-              c.close();
+              client.channel.configureBlocking(false);
+              client.key = client.channel.register(selector, 0, client);
+              clients.add(client);
+            } catch (IOException e) {
+              client.close();
             }
+          }
 
-          } // for each socket
+          // a write which makes no progress costs little - every client is
+          // given the chance whenever something happened
+          for (Iterator<VideoWebClient> it = clients.iterator(); it.hasNext();) {
+            client = it.next();
+            try {
+              client.write();
+            } catch (IOException e) {
+              it.remove();
+              client.close();
+            }
+          }
+          clientCount = clients.size();
         }
       } catch (Exception e) {
-        // FIXME remove socket from list - continue to run
         Logging.logError(e);
+      } finally {
+        for (VideoWebClient client : clients) {
+          client.close();
+        }
+        clientCount = 0;
       }
-
     }
   }
 
   public final static Logger log = LoggerFactory.getLogger(MjpegServer.class.getCanonicalName());
 
-  transient public HashMap<String, BlockingQueue<SerializableImage>> videoFeeds = new HashMap<String, BlockingQueue<SerializableImage>>();
+  transient public Map<String, Feed> feeds = new ConcurrentHashMap<String, Feed>();
+
+  transient final ConcurrentLinkedQueue<VideoWebClient> added = new ConcurrentLinkedQueue<VideoWebClient>();
 
-  transient public HashMap<String, VideoWebClient> clients = new HashMap<String, VideoWebClient>();
+  transient Selector selector;
+  transient Thread writer;
+  volatile boolean running = false;
+  volatile int clientCount = 0;
 
   public static void main(String[] args) {
     try {
@@ -138,6 +230,78 @@ public class MjpegServer extends NanoHTTPD {
     super(port);
   }
 
+  /**
+   * the new latest frame of a feed - encoded here once for all its clients
+   */
+  public void publish(String feed, SerializableImage image) {
+    byte[] jpg = image.getBytes();
+    if (jpg == null) {
+      return;
+    }
+    publish(feed, image.frameIndex, jpg);
+  }
+
+  public void publish(String feedName, int frameIndex, byte[] jpg) {
+    Feed feed = feeds.get(feedName);
+    if (feed == null) {
+      feed = new Feed(feedName);
+      feeds.put(feedName, feed);
+    }
+    feed.latest = new Frame(++feed.sequence, frameIndex, jpg);
+    Selector s = selector;
+    if (s != null) {
+      s.wakeup();
+    }
+  }
+
+  /**
+   * @return clients streaming
+   */
+  public int getClientCount() {
+    return clientCount;
+  }
+
+  @Override
+  public void start() throws IOException {
+    if (running) {
+      log.warn("server already started");
+      return;
+    }
+    selector = Selector.open();
+    running = true;
+    writer = new Thread(new Writer(), "mjpeg_writer");
+    writer.start();
+    super.start();
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    running = false;
+    if (selector != null) {
+      selector.wakeup();
+    }
+    if (writer != null) {
+      try {
+        writer.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    try {
+      if (selector != null) {
+        selector.close();
+      }
+    } catch (IOException e) {
+    }
+    VideoWebClient client;
+    while ((client = added.poll()) != null) {
+      client.close();
+    }
+    writer = null;
+    selector = null;
+  }
+
   @Override
   public Response serve(String uri, String method, Properties header, Properties parms, Socket socket) {
     log.info(method + " '" + uri + "' ");
@@ -165,33 +329,31 @@ public class MjpegServer extends NanoHTTPD {
       feed = uri.substring(pos0 + 1);
     }
 
-    if (!videoFeeds.containsKey(feed)) {
+    if (feed == null || !feeds.containsKey(feed)) {
       StringBuffer response = new StringBuffer(String.format("<html><body align=center>video feeds<br/>", feed));
-      for (Map.Entry<String, BlockingQueue<SerializableImage>> o : videoFeeds.entrySet()) {
-        // Map.Entry<String,SerializableImage> pairs = o;
-        // response.append(String.format("<a href=\"http://%\" >%s</a><br/>",
-        // o.getKey()));
-        response.append(String.format("<img src=\"%s\" /><br/>%s<br/>", o.getKey(), o.getKey()));
-        log.info(o.getKey());
+      for (String name : feeds.keySet()) {
+        response.append(String.format("<img src=\"%s\" /><br/>%s<br/>", name, name));
+        log.info(name);
       }
-      if (videoFeeds.size() == 0) {
+      if (feeds.size() == 0) {
         response.append("no video feed exist - try attaching a VideoSource to the VideoStreamer");
       }
       response.append("</body></html>");
       return new Response(HTTP_OK, MIME_HTML, response.toString());
-    } else {
-      try {
-        VideoWebClient client = new VideoWebClient(videoFeeds.get(feed), feed, socket);
-        client.start();
-        clients.put(feed, client);
-      } catch (IOException e1) {
-        Logging.logError(e1);
-      }
     }
-    // new Response(HTTP_OK, MIME_HTML, "<html><body>Redirected: <a href=\""
-    // + uri + "\">" + uri + "</a></body></html>");
 
-    return null; // serveFile(uri, header, new File("."), true);
+    SocketChannel channel = socket.getChannel();
+    if (channel == null) {
+      return new Response(HTTP_INTERNALERROR, MIME_PLAINTEXT, "no channel for socket");
+    }
+    // the writer thread owns the socket from here
+    added.add(new VideoWebClient(feeds.get(feed), channel, String.format("%s:%d", socket.getInetAddress().getHostAddress(), socket.getPort())));
+    Selector s = selector;
+    if (s != null) {
+      s.wakeup();
+    }
+
+    return null;
   }
 
 }
@@ -35,9 +35,11 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URLEncoder;
+import java.nio.channels.ServerSocketChannel;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -689,9 +691,20 @@ public class NanoHTTPD {
     }
   }
 
+  /**
+   * @return the port listened on - the one bound when started with port 0
+   */
+  public int getPort() {
+    return (serverSocket != null) ? serverSocket.getLocalPort() : myTcpPort;
+  }
+
   public void start() throws IOException {
     if (thread == null) {
-      serverSocket = new ServerSocket(myTcpPort);
+      // accepted through a channel - so a derived serve() which keeps the
+      // socket can use socket.getChannel() for non blocking writes
+      serverSocket = ServerSocketChannel.open().socket();
+      serverSocket.setReuseAddress(true);
+      serverSocket.bind(new InetSocketAddress(myTcpPort));
       thread = new Thread(new Runnable() {
         @Override
         public void run() {
@@ -9,6 +9,7 @@ import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.Iterator;
 
+import org.myrobotlab.codec.CodecBinary;
 import org.myrobotlab.codec.CodecUtils;
 import org.myrobotlab.framework.MRLListener;
 import org.myrobotlab.framework.Message;
@@ -33,6 +34,12 @@ public class TcpThread extends Thread {
 	ObjectInputStream in;
 	ObjectOutputStream out;
 	boolean isRunning = false;
+	/**
+	 * messages are written with CodecBinary instead of java serialization -
+	 * set when the RemoteAdapter is configured for it, or as soon as the
+	 * other end sends a binary message (so it can read them too)
+	 */
+	volatile boolean binary = false;
 	URI protocolKey;
 	URI uri; // mrl uri
 
@@ -43,6 +50,7 @@ public class TcpThread extends Thread {
 		super(String.format("%s:%s", service.getName(), uri));
 
 		this.myService = service;
+		this.binary = service.isBinary();
 		this.data = new Connection(service.getName(), uri);
 		if (socket == null) {
 			socket = new Socket(uri.getHost(), uri.getPort());
@@ -95,7 +103,13 @@ public class TcpThread extends Thread {
 				Object o = null;
 
 				o = in.readObject();
-				msg = (Message) o;
+				if (o instanceof byte[]) {
+					msg = (Message) CodecBinary.fromBytes((byte[]) o);
+					// the other end speaks binary - answer in kind
+					binary = true;
+				} else {
+					msg = (Message) o;
+				}
 				++data.rx;
 				// nice for debugging
 				if (msgLog != null) {
@@ -316,7 +330,11 @@ public class TcpThread extends Thread {
 			}
 			*/
 			
-			out.writeObject(msg);
+			if (binary) {
+				out.writeObject(CodecBinary.toBytes(msg));
+			} else {
+				out.writeObject(msg);
+			}
 			out.flush();
 			// MAKE NOTE !!! :
 			// a reset is necessary after every object !
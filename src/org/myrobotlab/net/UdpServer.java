@@ -8,6 +8,7 @@ import java.net.SocketException;
 import java.net.URI;
 import java.util.Iterator;
 
+import org.myrobotlab.codec.CodecBinary;
 import org.myrobotlab.framework.Message;
 import org.myrobotlab.framework.ServiceEnvironment;
 import org.myrobotlab.framework.interfaces.ServiceInterface;
@@ -77,7 +78,8 @@ public class UdpServer implements Runnable {
 				// FIXME - do we need o re-create???
 				ObjectInputStream o_in = new ObjectInputStream(b_in);
 				try {
-					Message msg = (Message) o_in.readObject();
+					Object o = o_in.readObject();
+					Message msg = (o instanceof byte[]) ? (Message) CodecBinary.fromBytes((byte[]) o) : (Message) o;
 					dgram.setLength(b.length); // must reset length field!
 					b_in.reset();
 
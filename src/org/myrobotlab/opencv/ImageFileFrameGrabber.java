@@ -1,5 +1,6 @@
 package org.myrobotlab.opencv;
 
+import static org.bytedeco.javacpp.opencv_core.cvCopy;
 import static org.bytedeco.javacpp.opencv_imgcodecs.cvLoadImage;
 
 import java.util.HashMap;
@@ -16,7 +17,9 @@ public class ImageFileFrameGrabber extends FrameGrabber {
   public final static Logger log = LoggerFactory.getLogger(ImageFileFrameGrabber.class.getCanonicalName());
 
   transient private IplImage image;
-  transient private IplImage lastImage;
+  // the frame handed out - the cached image is copied into it so filters can
+  // work on it in place
+  transient private IplImage frame;
   transient private HashMap<String, IplImage> cache = new HashMap<String, IplImage>();
   private int frameCounter = 0;
   public String path;
@@ -28,21 +31,22 @@ public class ImageFileFrameGrabber extends FrameGrabber {
 
   @Override
   public Frame grab() {
-    if (!cache.containsKey(path)) {
+    image = cache.get(path);
+    if (image == null) {
       image = cvLoadImage(path);
       cache.put(path, image);
-    } else {
-      image = cache.get(path).clone();
     }
 
     ++frameCounter;
 
-    if (frameCounter > 1) {
-      lastImage.release();
+    // one buffer for every frame of the same size instead of a clone and a
+    // release per frame
+    if (frame == null || frame.width() != image.width() || frame.height() != image.height() || frame.depth() != image.depth()
+        || frame.nChannels() != image.nChannels()) {
+      frame = IplImage.create(image.width(), image.height(), image.depth(), image.nChannels());
     }
-
-    lastImage = image;
-    return converter.convert(image);
+    cvCopy(image, frame);
+    return converter.convert(frame);
   }
 
   @Override
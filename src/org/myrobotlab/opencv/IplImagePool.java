@@ -0,0 +1,143 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.javacpp.opencv_core.cvCopy;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Reusable IplImages by width, height, depth and channels - instead of a new
+ * native image per frame and a JavaCPP deallocator to free it later.
+ *
+ * Images are borrowed through an OpenCVData, which gives them back when the
+ * last reference to the frame is released. An image which is never given back
+ * is still freed by its deallocator, so a frame which escaped to a subscriber
+ * only costs the reuse.
+ */
+public class IplImagePool {
+
+  public final static Logger log = LoggerFactory.getLogger(IplImagePool.class);
+
+  /**
+   * free images kept per size - a pipeline has a few frames in flight
+   */
+  int maxFree = 8;
+
+  final Map<Long, ArrayDeque<IplImage>> free = new HashMap<Long, ArrayDeque<IplImage>>();
+
+  long created = 0;
+  long reused = 0;
+  long returned = 0;
+  long discarded = 0;
+
+  static long key(int width, int height, int depth, int channels) {
+    // depth is IPL_DEPTH_* - bits per channel with the sign in the top bit
+    return ((long) (width & 0xfffff) << 44) | ((long) (height & 0xfffff) << 24) | ((long) (depth >>> 31) << 16) | ((depth & 0xff) << 8)
+        | (channels & 0xff);
+  }
+
+  public IplImage borrow(int width, int height, int depth, int channels) {
+    synchronized (this) {
+      ArrayDeque<IplImage> images = free.get(key(width, height, depth, channels));
+      if (images != null && !images.isEmpty()) {
+        ++reused;
+        return images.pop();
+      }
+      ++created;
+    }
+    return IplImage.create(width, height, depth, channels);
+  }
+
+  /**
+   * @return an image the size and type of like
+   */
+  public IplImage borrow(IplImage like) {
+    return borrow(like.width(), like.height(), like.depth(), like.nChannels());
+  }
+
+  /**
+   * @return a pooled copy of src
+   */
+  public IplImage copy(IplImage src) {
+    if (src.roi() != null) {
+      // only the region would be copied
+      return src.clone();
+    }
+    IplImage dst = borrow(src);
+    cvCopy(src, dst);
+    return dst;
+  }
+
+  /**
+   * an image nobody uses any more - kept for the next borrow of its size
+   */
+  public synchronized void giveBack(IplImage image) {
+    if (image.roi() != null) {
+      // a clone of a region - not like the others of its size
+      ++discarded;
+      return;
+    }
+    long key = key(image.width(), image.height(), image.depth(), image.nChannels());
+    ArrayDeque<IplImage> images = free.get(key);
+    if (images == null) {
+      images = new ArrayDeque<IplImage>();
+      free.put(key, images);
+    }
+    if (images.size() < maxFree) {
+      images.push(image);
+      ++returned;
+    } else {
+      // the deallocator frees it
+      ++discarded;
+    }
+  }
+
+  /**
+   * drops the free images - a size which is not used any more
+   */
+  public synchronized void clear() {
+    free.clear();
+  }
+
+  public synchronized void setMaxFree(int maxFree) {
+    this.maxFree = maxFree;
+  }
+
+  public synchronized long getCreated() {
+    return created;
+  }
+
+  public synchronized long getReused() {
+    return reused;
+  }
+
+  public synchronized long getReturned() {
+    return returned;
+  }
+
+  public synchronized long getDiscarded() {
+    return discarded;
+  }
+
+  /**
+   * @return free images in the pool
+   */
+  public synchronized int getFree() {
+    int count = 0;
+    for (ArrayDeque<IplImage> images : free.values()) {
+      count += images.size();
+    }
+    return count;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("created %d reused %d returned %d discarded %d free %d", created, reused, returned, discarded, getFree());
+  }
+
+}
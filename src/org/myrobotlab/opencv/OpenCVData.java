@@ -13,13 +13,16 @@ import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
 import org.bytedeco.javacpp.opencv_core.CvMat;
 import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.myrobotlab.image.SerializableImage;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.service.OpenCV;
@@ -81,10 +84,30 @@ public class OpenCVData implements Serializable {
 	HashMap<String, Object> serializable = new HashMap<String, Object>();
 	
 	/**
-	 * all non-serializable data including frames an IplImages
-	 * It will also contain a global source set of keys
+	 * all non-serializable data including frames an IplImages - of this frame
+	 * only, so frames in flight in a pipelined VideoProcessor do not overwrite
+	 * each other
 	 */
-	transient static final HashMap<String, Object> sources = new HashMap<String, Object>();
+	transient HashMap<String, Object> sources = new HashMap<String, Object>();
+
+	/**
+	 * where borrowed images come from and go back to - null borrows new ones
+	 */
+	transient IplImagePool pool = null;
+
+	/**
+	 * images of this frame borrowed from the pool - given back when the last
+	 * reference is released
+	 */
+	transient ArrayList<IplImage> owned = null;
+
+	transient AtomicInteger references = new AtomicInteger(1);
+
+	/**
+	 * the lazy SerializableImages handed out per filter - every subscriber of
+	 * this frame gets the same one, so it is converted and encoded once
+	 */
+	transient HashMap<String, SerializableImage> serializableImages = null;
 
 	// TODO add KEY_INPUT .. take away from OpenCV
 	public static final String KEY_DEPTH = "depth";
@@ -178,7 +201,14 @@ public class OpenCVData implements Serializable {
 	 * 
 	 * @return the image stored in the cv data
 	 */
-	public BufferedImage getBufferedImage(String filterName) {
+	public synchronized BufferedImage getBufferedImage(String filterName) {
+		return getBufferedImage(filterName, getImage(filterName));
+	}
+
+	/**
+	 * converts img - the image of filterName or a copy of it
+	 */
+	synchronized BufferedImage getBufferedImage(String filterName, IplImage img) {
 		String bufferedImageKey;
 
 		bufferedImageKey = String.format("%s.%s.%s", name, filterName, KEY_BUFFERED_IMAGE);
@@ -187,10 +217,6 @@ public class OpenCVData implements Serializable {
 			return (BufferedImage) serializable.get(bufferedImageKey);
 		} else {
 
-			String imgKey = String.format("%s.%s", name, filterName);
-
-			IplImage img = (IplImage) sources.get(imgKey);
-
 			BufferedImage image = OpenCV.IplImageToBufferedImage(img);
 
 			serializable.put(bufferedImageKey, image);
@@ -225,6 +251,41 @@ public class OpenCVData implements Serializable {
 		return getBufferedImage(displayFilterName);
 	}
 
+	/**
+	 * @return the display image of this frame - converted when it is first
+	 *         asked for
+	 */
+	public SerializableImage getDisplaySerializableImage() {
+		return getSerializableImage(displayFilterName);
+	}
+
+	/**
+	 * @return the image of a filter as a SerializableImage which converts the
+	 *         IplImage the first time it is asked for - the same one for all
+	 *         callers. It converts from an image of its own - a filter's output
+	 *         buffer is overwritten by the next frame, so one the frame does
+	 *         not own is copied. The copy lives as long as the frame, which
+	 *         converts it before it goes back to the pool.
+	 */
+	public synchronized SerializableImage getSerializableImage(final String filterName) {
+		if (serializableImages == null) {
+			serializableImages = new HashMap<String, SerializableImage>();
+		}
+		SerializableImage image = serializableImages.get(filterName);
+		if (image == null) {
+			IplImage img = getImage(filterName);
+			final IplImage source = (img == null || owns(img)) ? img : copy(img);
+			image = new SerializableImage(new SerializableImage.ImageSource() {
+				@Override
+				public BufferedImage getImage() {
+					return getBufferedImage(filterName, source);
+				}
+			}, filterName, frameIndex);
+			serializableImages.put(filterName, image);
+		}
+		return image;
+	}
+
 	public String getDisplayFilterName() {
 		return displayFilterName;
 	}
@@ -353,7 +414,7 @@ public class OpenCVData implements Serializable {
 	}
 
 	// FIXME FIXME FIXME - always push result back into data structure
-	public byte[] getJPGBytes(String filterName) {
+	public synchronized byte[] getJPGBytes(String filterName) {
 		String key = String.format("%s.%s.jpg.Bytes", name, filterName);
 		if (sources.containsKey(key)) {
 			return (byte[]) sources.get(key);
@@ -375,6 +436,13 @@ public class OpenCVData implements Serializable {
 		return (ArrayList<Point2Df>) sources.get(String.format("%s.points", selectedFilter));
 	}
 
+	/**
+	 * @return name of the service which made the frame
+	 */
+	public String getName() {
+		return name;
+	}
+
 	public String getSelectedFilterName() {
 		return selectedFilter;
 	}
@@ -385,6 +453,139 @@ public class OpenCVData implements Serializable {
 		return timestamp;
 	}
 
+	public int getFrameIndex() {
+		return frameIndex;
+	}
+
+	public void setPool(IplImagePool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * an image which lives as long as this frame - for a filter which needs a
+	 * new image per frame instead of one of its own
+	 */
+	public IplImage borrow(int width, int height, int depth, int channels) {
+		if (pool == null) {
+			return IplImage.create(width, height, depth, channels);
+		}
+		return own(pool.borrow(width, height, depth, channels));
+	}
+
+	/**
+	 * @return a copy of image which lives as long as this frame
+	 */
+	public IplImage copy(IplImage image) {
+		if (pool == null) {
+			return image.clone();
+		}
+		return own(pool.copy(image));
+	}
+
+	IplImage own(IplImage image) {
+		if (owned == null) {
+			owned = new ArrayList<IplImage>();
+		}
+		owned.add(image);
+		return image;
+	}
+
+	/**
+	 * @return true if image was borrowed by this frame
+	 */
+	public boolean owns(IplImage image) {
+		if (owned == null) {
+			return false;
+		}
+		for (int i = 0; i < owned.size(); ++i) {
+			if (owned.get(i) == image) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * one more holder of this frame - each has to release it
+	 */
+	public OpenCVData retain() {
+		references.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * the last release gives the borrowed images back to the pool - a frame
+	 * which is never released leaves them to the garbage collector
+	 */
+	public void release() {
+		if (references.decrementAndGet() != 0) {
+			return;
+		}
+		// images handed out lazily are converted now - the IplImages behind
+		// them are about to be reused
+		SerializableImage[] lazy = null;
+		synchronized (this) {
+			if (serializableImages != null) {
+				lazy = serializableImages.values().toArray(new SerializableImage[serializableImages.size()]);
+			}
+		}
+		if (lazy != null) {
+			for (int i = 0; i < lazy.length; ++i) {
+				lazy[i].getImage();
+			}
+		}
+		if (owned == null) {
+			return;
+		}
+		for (int i = 0; i < owned.size(); ++i) {
+			pool.giveBack(owned.get(i));
+		}
+		owned = null;
+	}
+
+	/**
+	 * a copy for holders which keep the frame as long as they like on other
+	 * threads - the publishOpenCVData subscribers and the blocking queue. Its
+	 * images are its own, so neither the pool nor the filters of later frames
+	 * change them, and its lazy images are converted from those. Everything
+	 * else is shared and must not be changed.
+	 */
+	public synchronized OpenCVData snapshot() {
+		OpenCVData ret = new OpenCVData(name, frameIndex);
+		ret.timestamp = timestamp;
+		ret.inputFilterName = inputFilterName;
+		ret.selectedFilter = selectedFilter;
+		ret.displayFilterName = displayFilterName;
+		ret.eyesDifference = eyesDifference;
+		ret.serializable.putAll(serializable);
+		// a filter which passes its image through puts it under two keys - it
+		// is copied once
+		IdentityHashMap<IplImage, IplImage> copies = new IdentityHashMap<IplImage, IplImage>();
+		for (Map.Entry<String, Object> e : sources.entrySet()) {
+			Object value = e.getValue();
+			if (value instanceof IplImage) {
+				IplImage copy = copies.get(value);
+				if (copy == null) {
+					copy = ((IplImage) value).clone();
+					copies.put((IplImage) value, copy);
+				}
+				value = copy;
+			}
+			ret.sources.put(e.getKey(), value);
+		}
+		return ret;
+	}
+
+	/**
+	 * the transient fields come back empty - a deserialized frame has no
+	 * images and nothing borrowed
+	 */
+	private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		sources = new HashMap<String, Object>();
+		references = new AtomicInteger(1);
+	}
+
 	public int getEyesDifference() {
 		return eyesDifference;
 	}
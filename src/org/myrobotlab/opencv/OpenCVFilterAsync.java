@@ -0,0 +1,334 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import static org.bytedeco.javacpp.opencv_core.cvCopy;
+import static org.bytedeco.javacpp.opencv_core.cvZero;
+import static org.bytedeco.javacpp.opencv_imgproc.CV_BGR2GRAY;
+import static org.bytedeco.javacpp.opencv_imgproc.CV_THRESH_BINARY;
+import static org.bytedeco.javacpp.opencv_imgproc.cvCvtColor;
+import static org.bytedeco.javacpp.opencv_imgproc.cvThreshold;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.myrobotlab.framework.LatencyHistogram;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Runs a slow filter - a recognizer, a classifier, OCR - on a thread of its
+ * own so the video loop does not wait for it. Each frame is copied to the
+ * worker, replacing the one waiting if the worker is still busy, so the worker
+ * always takes the most recent frame at its own rate.
+ *
+ * The results of the last frame the worker finished - bounding boxes, points,
+ * attributes, anything but images - are attached to every following frame
+ * under the filter's name until they are older than maxStaleness. The attribute
+ * "resultFrameIndex" tells which frame they came from. The wrapper takes the
+ * name of the filter it runs, so consumers find the results where they would
+ * without it. The result objects are shared by the frames they are attached
+ * to and must not be changed.
+ *
+ * The image passes through unchanged. Only the worker touches the filter - it
+ * also draws the filter's display of each result onto a blank overlay, and
+ * display() copies the last overlay onto the frames the result is attached
+ * to. Black drawing does not show.
+ */
+public class OpenCVFilterAsync extends OpenCVFilter implements Runnable {
+
+  private static final long serialVersionUID = 1L;
+
+  public final static Logger log = LoggerFactory.getLogger(OpenCVFilterAsync.class);
+
+  public static final String RESULT_FRAME_INDEX = "resultFrameIndex";
+
+  /**
+   * the filter run in the background
+   */
+  public final OpenCVFilter filter;
+
+  /**
+   * ms after the frame they came from that results stop being attached - 0
+   * attaches them however old
+   */
+  public long maxStaleness = 1000;
+
+  /**
+   * what the worker found in one frame
+   */
+  static class Result {
+    final int frameIndex;
+    final long timestamp;
+    final HashMap<String, Object> sources;
+
+    Result(int frameIndex, long timestamp, HashMap<String, Object> sources) {
+      this.frameIndex = frameIndex;
+      this.timestamp = timestamp;
+      this.sources = sources;
+    }
+  }
+
+  transient IplImagePool pool = new IplImagePool();
+  transient final Object lock = new Object();
+
+  // the frame waiting for the worker - guarded by lock
+  transient IplImage pending = null;
+  int pendingFrameIndex;
+  long pendingTimestamp;
+  String pendingName;
+
+  transient volatile Result latest = null;
+
+  // the overlay display() draws - guarded by overlayLock. The worker draws the
+  // next one into the back buffers and swaps.
+  transient final Object overlayLock = new Object();
+  transient IplImage overlay = null;
+  transient IplImage overlayMask = null;
+  transient IplImage backOverlay = null;
+  transient IplImage backMask = null;
+  // overlays are only drawn once something is displayed
+  transient volatile boolean displayed = false;
+
+  transient Thread worker = null;
+  transient volatile boolean running = false;
+
+  volatile long submitted = 0;
+  volatile long processed = 0;
+  volatile long skipped = 0;
+  transient LatencyHistogram timing = new LatencyHistogram();
+
+  public OpenCVFilterAsync(OpenCVFilter filter) {
+    super(filter.name, filter.sourceKey);
+    this.filter = filter;
+  }
+
+  @Override
+  public void setVideoProcessor(VideoProcessor vp) {
+    super.setVideoProcessor(vp);
+    filter.setVideoProcessor(vp);
+  }
+
+  @Override
+  public void imageChanged(IplImage image) {
+    // the worker's frames go through the filter's own preProcess
+  }
+
+  @Override
+  public IplImage process(IplImage image, OpenCVData data) {
+    submit(image, data);
+    attach(data);
+    return image;
+  }
+
+  /**
+   * the overlay of the last result - if the result is attached to this frame
+   */
+  @Override
+  public IplImage display(IplImage image, OpenCVData data) {
+    displayed = true;
+    if (data == null || !data.containsAttribute(RESULT_FRAME_INDEX)) {
+      return image;
+    }
+    synchronized (overlayLock) {
+      if (overlay != null && sameFormat(overlay, image)) {
+        cvCopy(overlay, image, overlayMask);
+      }
+    }
+    return image;
+  }
+
+  static boolean sameFormat(IplImage a, IplImage b) {
+    return a.width() == b.width() && a.height() == b.height() && a.depth() == b.depth() && a.nChannels() == b.nChannels();
+  }
+
+  /**
+   * the worker gets a copy - the latest replaces the one it did not take yet
+   */
+  void submit(IplImage image, OpenCVData data) {
+    synchronized (lock) {
+      if (!running) {
+        start();
+      }
+      if (pending != null) {
+        ++skipped;
+        if (sameFormat(pending, image) && image.roi() == null) {
+          cvCopy(image, pending);
+        } else {
+          pool.giveBack(pending);
+          pending = pool.copy(image);
+        }
+      } else {
+        pending = pool.copy(image);
+      }
+      pendingFrameIndex = data.getFrameIndex();
+      pendingTimestamp = data.getTimestamp();
+      pendingName = data.getName();
+      ++submitted;
+      lock.notify();
+    }
+  }
+
+  /**
+   * puts the latest results in data - if they are fresh enough
+   */
+  void attach(OpenCVData data) {
+    Result result = latest;
+    if (result == null) {
+      return;
+    }
+    if (maxStaleness > 0 && data.getTimestamp() - result.timestamp > maxStaleness) {
+      return;
+    }
+    data.putAll(result.sources);
+    data.setAttribute(RESULT_FRAME_INDEX, result.frameIndex);
+  }
+
+  void start() {
+    running = true;
+    worker = new Thread(this, String.format("%s_async", name));
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  @Override
+  public void run() {
+    log.info("{} async worker started", name);
+    try {
+      while (running) {
+        IplImage image;
+        OpenCVData work;
+        long timestamp;
+        synchronized (lock) {
+          while (pending == null) {
+            lock.wait();
+          }
+          image = pending;
+          pending = null;
+          work = new OpenCVData(pendingName, pendingFrameIndex);
+          timestamp = pendingTimestamp;
+        }
+
+        long start = System.nanoTime();
+        // the filter reads its image where the wrapper's is
+        filter.sourceKey = (sourceKey != null) ? sourceKey : VideoProcessor.INPUT_KEY;
+        work.setPool(pool);
+        work.setFilter(filter);
+        work.put(filter.sourceKey, image);
+        try {
+          filter.preProcess(work.getFrameIndex(), image, work);
+          filter.process(image, work);
+          if (displayed) {
+            drawOverlay(image, work);
+          }
+          latest = new Result(work.getFrameIndex(), timestamp, results(work));
+        } catch (InterruptedException e) {
+          throw e;
+        } catch (Exception e) {
+          log.error("{} async filter threw", name, e);
+        } finally {
+          work.release();
+          pool.giveBack(image);
+        }
+        timing.record(System.nanoTime() - start);
+        ++processed;
+      }
+    } catch (InterruptedException e) {
+    }
+    log.info("{} async worker stopped - {} frames submitted {} processed {} skipped", name, submitted, processed, skipped);
+  }
+
+  /**
+   * the filter's display of a result on black, and the mask of what it drew -
+   * swapped in for display() when done
+   */
+  void drawOverlay(IplImage image, OpenCVData work) {
+    if (image.depth() != IPL_DEPTH_8U || (image.nChannels() != 1 && image.nChannels() != 3)) {
+      return;
+    }
+    if (backOverlay == null || !sameFormat(backOverlay, image)) {
+      backOverlay = IplImage.create(image.width(), image.height(), image.depth(), image.nChannels());
+      backMask = IplImage.create(image.width(), image.height(), IPL_DEPTH_8U, 1);
+    }
+    cvZero(backOverlay);
+    filter.display(backOverlay, work);
+    if (backOverlay.nChannels() == 1) {
+      cvThreshold(backOverlay, backMask, 0, 255, CV_THRESH_BINARY);
+    } else {
+      cvCvtColor(backOverlay, backMask, CV_BGR2GRAY);
+      cvThreshold(backMask, backMask, 0, 255, CV_THRESH_BINARY);
+    }
+    synchronized (overlayLock) {
+      IplImage o = overlay;
+      IplImage m = overlayMask;
+      overlay = backOverlay;
+      overlayMask = backMask;
+      backOverlay = o;
+      backMask = m;
+    }
+  }
+
+  /**
+   * everything the filter left in the frame but images - those are the
+   * worker's and are used again
+   */
+  static HashMap<String, Object> results(OpenCVData work) {
+    HashMap<String, Object> ret = new HashMap<String, Object>();
+    for (Map.Entry<String, Object> e : work.sources.entrySet()) {
+      if (!(e.getValue() instanceof IplImage)) {
+        ret.put(e.getKey(), e.getValue());
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * stops the worker - called when the filter is removed
+   */
+  @Override
+  public void release() {
+    synchronized (lock) {
+      running = false;
+      if (worker != null) {
+        worker.interrupt();
+        worker = null;
+      }
+      if (pending != null) {
+        pool.giveBack(pending);
+        pending = null;
+      }
+    }
+    synchronized (overlayLock) {
+      overlay = null;
+      overlayMask = null;
+    }
+    filter.release();
+  }
+
+  public OpenCVFilter getFilter() {
+    return filter;
+  }
+
+  public long getSubmitted() {
+    return submitted;
+  }
+
+  public long getProcessed() {
+    return processed;
+  }
+
+  /**
+   * @return frames replaced by a newer one before the worker took them
+   */
+  public long getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * @return time the filter takes per frame on the worker - in microseconds
+   */
+  public LatencyHistogram.Summary getTiming() {
+    return timing.getSummary();
+  }
+
+}
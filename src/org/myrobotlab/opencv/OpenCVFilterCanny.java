@@ -77,10 +77,11 @@ public class OpenCVFilterCanny extends OpenCVFilter {
       inlines = cvCreateImage(cvGetSize(image), 8, 1);
     }
 
+    // cvCanny only reads its source - a gray image needs no copy
+    IplImage src = image;
     if (image.nChannels() == 3) {
       cvCvtColor(image, gray, CV_BGR2GRAY);
-    } else {
-      gray = image.clone();
+      src = gray;
     }
     /*
      * lowThreshold = 600.0; highThreshold = 1220.0; apertureSize = 5;
@@ -90,7 +91,7 @@ public class OpenCVFilterCanny extends OpenCVFilter {
     // apertureSize = 3;
     // log.warn(String.format("%f, %f, %d", lowThreshold, highThreshold,
     // apertureSize));
-    cvCanny(gray, inlines, lowThreshold, highThreshold, apertureSize);
+    cvCanny(src, inlines, lowThreshold, highThreshold, apertureSize);
 
     return inlines;
   }
@@ -27,7 +27,9 @@ public class OpenCVFilterDL4J extends OpenCVFilter implements Runnable {
   private CvFont font = cvFont(CV_FONT_HERSHEY_PLAIN);
   
   public Map<String, Double> lastResult = null; 
-  private IplImage lastImage = null;
+  // a copy - the frame's image goes back to the pool while the classifier
+  // thread still works on it
+  private volatile IplImage lastImage = null;
   
   public OpenCVFilterDL4J() {
     super();
@@ -70,7 +72,7 @@ public class OpenCVFilterDL4J extends OpenCVFilter implements Runnable {
       displayResult(image, lastResult);
     }
     // ok now we just need to update the image that the current thread is processing (if the current thread is idle i guess?)
-    lastImage = image;
+    lastImage = image.clone();
     return image;
   }
 
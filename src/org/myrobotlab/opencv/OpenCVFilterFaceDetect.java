@@ -45,18 +45,25 @@ package org.myrobotlab.opencv;
  import org.bytedeco.javacpp.opencv_core.CvSeq;
  import org.bytedeco.javacpp.opencv_core.IplImage;
  */
-import static org.bytedeco.javacpp.helper.opencv_objdetect.cvHaarDetectObjects;
 import static org.bytedeco.javacpp.opencv_core.cvClearMemStorage;
 import static org.bytedeco.javacpp.opencv_core.cvCreateMemStorage;
 import static org.bytedeco.javacpp.opencv_core.cvGetSeqElem;
 import static org.bytedeco.javacpp.opencv_core.cvLoad;
 import static org.bytedeco.javacpp.opencv_core.cvPoint;
+import static org.bytedeco.javacpp.opencv_core.cvRect;
+import static org.bytedeco.javacpp.opencv_core.cvResetImageROI;
+import static org.bytedeco.javacpp.opencv_core.cvSetImageROI;
+import static org.bytedeco.javacpp.opencv_core.cvSize;
+import static org.bytedeco.javacpp.opencv_imgproc.CV_GAUSSIAN_5x5;
 import static org.bytedeco.javacpp.opencv_imgproc.cvDrawRect;
+import static org.bytedeco.javacpp.opencv_imgproc.cvPyrDown;
 //import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_DO_CANNY_PRUNING;
 import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_FIND_BIGGEST_OBJECT;
 import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_DO_ROUGH_SEARCH;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.bytedeco.javacpp.Loader;
 import org.bytedeco.javacpp.opencv_core.CvMemStorage;
@@ -66,6 +73,7 @@ import org.bytedeco.javacpp.opencv_core.CvSeq;
 import org.bytedeco.javacpp.opencv_core.IplImage;
 import org.bytedeco.javacpp.opencv_objdetect;
 import org.bytedeco.javacpp.opencv_objdetect.CvHaarClassifierCascade;
+import org.myrobotlab.framework.LatencyHistogram;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.service.data.Rectangle;
 import org.slf4j.Logger;
@@ -103,6 +111,41 @@ public class OpenCVFilterFaceDetect extends OpenCVFilter {
 
   int x0, y0, x1, y1;
 
+  /**
+   * search only around the last face on most frames - the full frame every
+   * fullScanInterval frames and as soon as the face is lost
+   */
+  public boolean useRoi = true;
+
+  /**
+   * room searched around the last face - in face sizes on each side
+   */
+  public float roiPadding = 0.5f;
+
+  public int fullScanInterval = 15;
+
+  /**
+   * times the frame is halved with cvPyrDown before a full scan - 0 scans it
+   * as it is. Faces smaller than the cascade's 20 pixels times 2^levels are
+   * missed
+   */
+  public int pyramidLevels = 0;
+
+  /**
+   * a face in the ROI is looked for from this fraction of the last one's size
+   * up - the small scales, where most of the time goes, are skipped
+   */
+  public float roiMinSize = 0.7f;
+
+  // the last face in pixels of the full frame - valid while tracking
+  boolean tracking = false;
+  int faceX, faceY, faceWidth, faceHeight;
+  int framesSinceFullScan = 0;
+
+  // made when first used - a deserialized filter has none
+  transient LatencyHistogram fullScanTiming = null;
+  transient LatencyHistogram roiScanTiming = null;
+
   public OpenCVFilterFaceDetect() {
     super();
   }
@@ -174,47 +217,17 @@ public class OpenCVFilterFaceDetect extends OpenCVFilter {
     // Find whether the cascade is loaded, to find the faces. If yes, then:
     if (cascade != null) {
 
-      // CV_HAAR_DO_CANNY_PRUNING - causes flat regions (no lines) to be
-      // skipped
-      // CV_HAAR_SCALE_IMAGE
-      // CV_HAAR_FIND_BIGGEST_OBJECT - tells the detector to return the
-      // biggest - hence # of objects will be 1 or none
-      // CV_HAAR_DO_ROUGH_SEARCH
-
-      // faces = cvHaarDetectObjects(grayImage, classifier, storage, 1.1,
-      // 3, CV_HAAR_DO_ROUGH_SEARCH | CV_HAAR_FIND_BIGGEST_OBJECT);
-      // faces = cvHaarDetectObjects(grayImage, classifier_eyes, storage,
-      // 1.1, 3, CV_HAAR_DO_CANNY_PRUNING);
-      // performance change from here: https://github.com/bytedeco/javacv/issues/272
-      CvSeq faces = cvHaarDetectObjects(image, cascade, storage, 1.1, 1, CV_HAAR_DO_ROUGH_SEARCH | CV_HAAR_FIND_BIGGEST_OBJECT);
-      // CvSeq faces = cvHaarDetectObjects(image, cascade, storage, 1.1, 1, CV_HAAR_DO_CANNY_PRUNING | CV_HAAR_FIND_BIGGEST_OBJECT);
-      if (faces != null) {
-        ArrayList<Rectangle> bb = new ArrayList<Rectangle>();
-        faceCnt = faces.total();
-        // Loop the number of faces found.
-        for (i = 0; i < faces.total(); i++) {
-
-          CvRect r = new CvRect(cvGetSeqElem(faces, i));
-
-          Rectangle rect;
-          if (useFloatValues) {
-            rect = new Rectangle((float) r.x() / width, (float) r.y() / height, (float) r.width() / width, (float) r.height() / height);
-          } else {
-            rect = new Rectangle(r.x(), r.y(), r.width(), r.height());
-          }
-          bb.add(rect);
-
-          try {
-            // close resource
-            r.close();
-          } catch (Exception e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-          }
-        }
-
-        data.put(bb);
+      ArrayList<Rectangle> bb = new ArrayList<Rectangle>();
+      long start = System.nanoTime();
+      if (nextScanFull()) {
+        scanFull(image, data, bb);
+        getFullScanTiming().record(System.nanoTime() - start);
+      } else {
+        scanRoi(image, bb);
+        getRoiScanTiming().record(System.nanoTime() - start);
       }
+      faceCnt = bb.size();
+      data.put(bb);
     } else {
       log.info("Creating and loading new classifier instance {}", cascadeFile);
       cascade = new CvHaarClassifierCascade(cvLoad(String.format("%s/%s", cascadeDir, cascadeFile)));
@@ -270,4 +283,145 @@ public class OpenCVFilterFaceDetect extends OpenCVFilter {
     return image;
   }
 
+  /**
+   * decides the scan of this frame and counts it
+   *
+   * @return true for a full scan - with no face to look around or every
+   *         fullScanInterval frames, so new faces are found too
+   */
+  boolean nextScanFull() {
+    if (!useRoi || !tracking || framesSinceFullScan >= fullScanInterval) {
+      framesSinceFullScan = 0;
+      return true;
+    }
+    ++framesSinceFullScan;
+    return false;
+  }
+
+  /**
+   * the whole frame - halved pyramidLevels times first
+   */
+  void scanFull(IplImage image, OpenCVData data, ArrayList<Rectangle> bb) {
+    IplImage scan = image;
+    int scale = 1;
+    for (int level = 0; level < pyramidLevels; ++level) {
+      IplImage half = data.borrow((scan.width() + 1) / 2, (scan.height() + 1) / 2, scan.depth(), scan.nChannels());
+      cvPyrDown(scan, half, CV_GAUSSIAN_5x5);
+      scan = half;
+      scale *= 2;
+    }
+    detect(scan, 0, 0, scale, 0, bb);
+  }
+
+  /**
+   * the last face and roiPadding around it - a miss means the face is lost
+   * and the next frame gets a full scan
+   */
+  void scanRoi(IplImage image, ArrayList<Rectangle> bb) {
+    int padX = (int) (faceWidth * roiPadding);
+    int padY = (int) (faceHeight * roiPadding);
+    int x = Math.max(0, faceX - padX);
+    int y = Math.max(0, faceY - padY);
+    int w = Math.min(image.width(), faceX + faceWidth + padX) - x;
+    int h = Math.min(image.height(), faceY + faceHeight + padY) - y;
+    if (w <= 0 || h <= 0) {
+      tracking = false;
+      return;
+    }
+    cvSetImageROI(image, cvRect(x, y, w, h));
+    try {
+      detect(image, x, y, 1, (int) (Math.min(faceWidth, faceHeight) * roiMinSize), bb);
+    } finally {
+      cvResetImageROI(image);
+    }
+  }
+
+  /**
+   * runs the cascade and adds the faces in full frame coordinates - the first
+   * becomes the one tracked
+   */
+  void detect(IplImage image, int offsetX, int offsetY, int scale, int minSize, ArrayList<Rectangle> bb) {
+    tracking = false;
+    // CV_HAAR_DO_CANNY_PRUNING - causes flat regions (no lines) to be
+    // skipped
+    // CV_HAAR_SCALE_IMAGE
+    // CV_HAAR_FIND_BIGGEST_OBJECT - tells the detector to return the
+    // biggest - hence # of objects will be 1 or none
+    // CV_HAAR_DO_ROUGH_SEARCH
+
+    // faces = cvHaarDetectObjects(grayImage, classifier, storage, 1.1,
+    // 3, CV_HAAR_DO_ROUGH_SEARCH | CV_HAAR_FIND_BIGGEST_OBJECT);
+    // faces = cvHaarDetectObjects(grayImage, classifier_eyes, storage,
+    // 1.1, 3, CV_HAAR_DO_CANNY_PRUNING);
+    // performance change from here: https://github.com/bytedeco/javacv/issues/272
+    // CvSeq faces = cvHaarDetectObjects(image, cascade, storage, 1.1, 1, CV_HAAR_DO_CANNY_PRUNING | CV_HAAR_FIND_BIGGEST_OBJECT);
+    CvSeq faces = opencv_objdetect.cvHaarDetectObjects(image, cascade, storage, 1.1, 1, CV_HAAR_DO_ROUGH_SEARCH | CV_HAAR_FIND_BIGGEST_OBJECT,
+        cvSize(minSize, minSize), cvSize(0, 0));
+    if (faces == null) {
+      return;
+    }
+    // Loop the number of faces found.
+    for (i = 0; i < faces.total(); i++) {
+
+      CvRect r = new CvRect(cvGetSeqElem(faces, i));
+      int x = offsetX + r.x() * scale;
+      int y = offsetY + r.y() * scale;
+      int w = r.width() * scale;
+      int h = r.height() * scale;
+
+      if (!tracking) {
+        faceX = x;
+        faceY = y;
+        faceWidth = w;
+        faceHeight = h;
+        tracking = true;
+      }
+
+      Rectangle rect;
+      if (useFloatValues) {
+        rect = new Rectangle((float) x / width, (float) y / height, (float) w / width, (float) h / height);
+      } else {
+        rect = new Rectangle(x, y, w, h);
+      }
+      bb.add(rect);
+
+      try {
+        // close resource
+        r.close();
+      } catch (Exception e) {
+        // TODO Auto-generated catch block
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * time per detection of full frame scans and ROI scans - in microseconds
+   */
+  public Map<String, LatencyHistogram.Summary> getDetectionTimings() {
+    Map<String, LatencyHistogram.Summary> ret = new LinkedHashMap<String, LatencyHistogram.Summary>();
+    ret.put("full", getFullScanTiming().getSummary());
+    ret.put("roi", getRoiScanTiming().getSummary());
+    return ret;
+  }
+
+  public void resetDetectionTimings() {
+    getFullScanTiming().reset();
+    getRoiScanTiming().reset();
+  }
+
+  synchronized LatencyHistogram getFullScanTiming() {
+    if (fullScanTiming == null) {
+      fullScanTiming = new LatencyHistogram();
+    }
+    return fullScanTiming;
+  }
+
+  synchronized LatencyHistogram getRoiScanTiming() {
+    if (roiScanTiming == null) {
+      roiScanTiming = new LatencyHistogram();
+    }
+    return roiScanTiming;
+  }
+
 }
@@ -27,6 +27,7 @@ package org.myrobotlab.opencv;
 
 import static org.bytedeco.javacpp.helper.opencv_imgproc.cvFindContours;
 import static org.bytedeco.javacpp.opencv_core.cvClearMemStorage;
+import static org.bytedeco.javacpp.opencv_core.cvCopy;
 import static org.bytedeco.javacpp.opencv_core.cvCreateImage;
 import static org.bytedeco.javacpp.opencv_core.cvCreateMemStorage;
 //import static org.bytedeco.javacpp.opencv_core.cvDrawRect;
@@ -176,10 +177,12 @@ public class OpenCVFilterFindContours extends OpenCVFilter {
   public IplImage process(IplImage image, OpenCVData data) {
 
     // FIXME 3 channel search ???
+    // cvFindContours changes its source - a gray image is copied into grey
+    // instead of a clone per frame
     if (image.nChannels() == 3) {
       cvCvtColor(image, grey, CV_BGR2GRAY);
     } else {
-      grey = image.clone();
+      cvCopy(image, grey);
     }
 
     cvFindContours(grey, storage, contourPointer, Loader.sizeof(CvContour.class), 0, CV_CHAIN_APPROX_SIMPLE);
@@ -26,12 +26,9 @@
 // http://stackoverflow.com/questions/11515072/how-to-identify-optimal-parameters-for-cvcanny-for-polygon-approximation
 package org.myrobotlab.opencv;
 
-import static org.bytedeco.javacpp.opencv_imgproc.resize;
+import static org.bytedeco.javacpp.opencv_imgproc.cvResize;
 
 import org.bytedeco.javacpp.opencv_core.IplImage;
-import org.bytedeco.javacpp.opencv_core.Mat;
-import org.bytedeco.javacpp.opencv_core.Size;
-import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.myrobotlab.logging.LoggerFactory;
 import org.slf4j.Logger;
 
@@ -39,14 +36,8 @@ public class OpenCVFilterResize extends OpenCVFilter {
 
   private static final long serialVersionUID = 1L;
 
-  transient IplImage resized;
-
   private int destWidth = 480;
   private int destHeight = 640;
-  // TODO: why the heck do we need to convert back and forth, and is this
-  // effecient?!?!
-  private OpenCVFrameConverter.ToMat converterToMat = new OpenCVFrameConverter.ToMat();
-  private OpenCVFrameConverter.ToIplImage converterToIpl = new OpenCVFrameConverter.ToIplImage();
 
   public final static Logger log = LoggerFactory.getLogger(OpenCVFilterResize.class.getCanonicalName());
 
@@ -60,24 +51,17 @@ public class OpenCVFilterResize extends OpenCVFilter {
 
   @Override
   public void imageChanged(IplImage image) {
-    resized = IplImage.createCompatible(image);
-  }
-
-  private Mat resizeImage(Mat img, int w, int h) {
-    // TODO: move this to a base class.
-    Mat resizedMat = new Mat();
-    // IplImage resizedImage = IplImage.create(modelSizeX, modelSizeY,
-    // img.depth(), img.channels());
-    Size sz = new Size(w, h);
-    resize(img, resizedMat, sz);
-    return resizedMat;
   }
 
+  /**
+   * resized straight into an image borrowed by the frame - no Mat conversions
+   * and no new native image per frame
+   */
   @Override
   public IplImage process(IplImage image, OpenCVData data) {
-    Mat resizedMat = converterToMat.convertToMat(converterToIpl.convert(image));
-    Mat res = resizeImage(resizedMat, destWidth, destHeight);
-    return converterToMat.convertToIplImage(converterToIpl.convert(res));
+    IplImage resized = data.borrow(destWidth, destHeight, image.depth(), image.nChannels());
+    cvResize(image, resized);
+    return resized;
   }
 
   public int getDestWidth() {
@@ -27,7 +27,9 @@ public class OpenCVFilterTesseract extends OpenCVFilter implements Runnable {
   private CvFont font = cvFont(CV_FONT_HERSHEY_PLAIN);
   
   public String lastResult = null; 
-  private IplImage lastImage = null;
+  // a copy - the frame's image goes back to the pool while the classifier
+  // thread still works on it
+  private volatile IplImage lastImage = null;
   
   public OpenCVFilterTesseract() {
     super();
@@ -56,7 +58,7 @@ public class OpenCVFilterTesseract extends OpenCVFilter implements Runnable {
       displayResult(image, lastResult);
     }
     // ok now we just need to update the image that the current thread is processing (if the current thread is idle i guess?)
-    lastImage = image;
+    lastImage = image.clone();
     return image;
   }
 
@@ -0,0 +1,245 @@
+package org.myrobotlab.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.myrobotlab.framework.LatencyHistogram;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Stages of a VideoProcessor on their own threads - each stage takes frames
+ * from a bounded queue, does its work and hands them to the next. Every stage
+ * is a single thread so frames come out in the order they went in, and the
+ * frame rate approaches the one of the slowest stage instead of the sum of
+ * them all.
+ *
+ * When a queue is full the stage's DropPolicy decides - wait for room, drop
+ * the oldest frame waiting or drop the new one. Dropped frames are released.
+ * The last stage owns the frames it gets and releases them itself.
+ */
+public class VideoPipeline {
+
+  public final static Logger log = LoggerFactory.getLogger(VideoPipeline.class);
+
+  public enum DropPolicy {
+    /**
+     * the previous stage waits - nothing is lost
+     */
+    BLOCK,
+    /**
+     * the frame waiting longest is dropped - the stage works on the freshest
+     */
+    DROP_OLDEST,
+    /**
+     * the new frame is dropped
+     */
+    DROP_NEWEST
+  }
+
+  /**
+   * the work of a stage
+   */
+  public interface Work {
+    /**
+     * @return false to drop the frame here
+     */
+    boolean process(OpenCVData data) throws Exception;
+  }
+
+  public static class Stage implements Runnable {
+    final String name;
+    final Work work;
+    final DropPolicy policy;
+    final BlockingQueue<OpenCVData> queue;
+    final LatencyHistogram timing;
+    Stage next = null;
+    VideoPipeline pipeline;
+    Thread thread = null;
+
+    volatile long processed = 0;
+    volatile long dropped = 0;
+
+    Stage(String name, Work work, DropPolicy policy, int depth, LatencyHistogram timing) {
+      this.name = name;
+      this.work = work;
+      this.policy = policy;
+      this.timing = timing;
+      queue = new ArrayBlockingQueue<OpenCVData>(depth);
+    }
+
+    /**
+     * from the thread of the previous stage
+     */
+    void offer(OpenCVData data) throws InterruptedException {
+      switch (policy) {
+        case BLOCK:
+          queue.put(data);
+          break;
+        case DROP_OLDEST:
+          while (!queue.offer(data)) {
+            OpenCVData oldest = queue.poll();
+            if (oldest != null) {
+              drop(oldest);
+            }
+          }
+          break;
+        case DROP_NEWEST:
+          if (!queue.offer(data)) {
+            drop(data);
+          }
+          break;
+      }
+    }
+
+    /**
+     * a dropped frame gives its images back
+     */
+    void drop(OpenCVData data) {
+      ++dropped;
+      data.release();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (pipeline.running) {
+          OpenCVData data = queue.take();
+          long start = System.nanoTime();
+          boolean passed;
+          try {
+            passed = work.process(data);
+          } catch (InterruptedException e) {
+            drop(data);
+            throw e;
+          } catch (Exception e) {
+            log.error("{} stage {} threw - dropping frame", pipeline.name, name, e);
+            drop(data);
+            continue;
+          }
+          timing.record(System.nanoTime() - start);
+          ++processed;
+          if (!passed) {
+            drop(data);
+          } else if (next != null) {
+            try {
+              next.offer(data);
+            } catch (InterruptedException e) {
+              // stopped while waiting for room - the frame never got queued
+              drop(data);
+              throw e;
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+      }
+      log.info("{} stage {} stopped - {} frames {} dropped", pipeline.name, name, processed, dropped);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public DropPolicy getPolicy() {
+      return policy;
+    }
+
+    public long getProcessed() {
+      return processed;
+    }
+
+    public long getDropped() {
+      return dropped;
+    }
+
+    /**
+     * @return frames waiting
+     */
+    public int getBacklog() {
+      return queue.size();
+    }
+  }
+
+  final String name;
+  final List<Stage> stages = new ArrayList<Stage>();
+  volatile boolean running = false;
+
+  public VideoPipeline(String name) {
+    this.name = name;
+  }
+
+  /**
+   * adds a stage after the last one
+   *
+   * @param depth
+   *          frames which can wait for the stage
+   * @param timing
+   *          where the time the stage takes per frame goes
+   */
+  public Stage add(String stageName, Work work, DropPolicy policy, int depth, LatencyHistogram timing) {
+    Stage stage = new Stage(stageName, work, policy, depth, timing);
+    stage.pipeline = this;
+    if (stages.size() > 0) {
+      stages.get(stages.size() - 1).next = stage;
+    }
+    stages.add(stage);
+    return stage;
+  }
+
+  public void start() {
+    running = true;
+    for (Stage stage : stages) {
+      stage.thread = new Thread(stage, String.format("%s.%s", name, stage.name));
+      stage.thread.start();
+    }
+  }
+
+  /**
+   * puts a frame in the first stage - subject to its DropPolicy
+   */
+  public void submit(OpenCVData data) throws InterruptedException {
+    if (stages.size() > 0) {
+      stages.get(0).offer(data);
+    }
+  }
+
+  /**
+   * stops all stages and waits for them - frames in flight and frames still
+   * waiting in the queues are dropped, so their images go back to the pool
+   */
+  public void stop() {
+    running = false;
+    for (Stage stage : stages) {
+      if (stage.thread != null) {
+        stage.thread.interrupt();
+      }
+    }
+    for (Stage stage : stages) {
+      try {
+        if (stage.thread != null && stage.thread != Thread.currentThread()) {
+          stage.thread.join(1000);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    for (Stage stage : stages) {
+      OpenCVData data;
+      while ((data = stage.queue.poll()) != null) {
+        stage.drop(data);
+      }
+    }
+  }
+
+  public List<Stage> getStages() {
+    return stages;
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+}
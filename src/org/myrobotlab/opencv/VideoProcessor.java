@@ -18,6 +18,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SimpleTimeZone;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.bytedeco.javacpp.opencv_core.CvPoint;
@@ -31,9 +32,9 @@ import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.bytedeco.javacv.OpenCVFrameRecorder;
 import org.bytedeco.javacv.OpenKinectFrameGrabber;
 import org.myrobotlab.framework.Instantiator;
+import org.myrobotlab.framework.LatencyHistogram;
 import org.myrobotlab.framework.Platform;
 import org.myrobotlab.framework.Service;
-import org.myrobotlab.image.SerializableImage;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.service.OpenCV;
@@ -136,6 +137,32 @@ public class VideoProcessor implements Runnable, Serializable {
 	 * default source
 	 */
 	String lastSourceKey;
+
+	public static final String GRAB_STAGE = "grab";
+	public static final String DISPLAY_STAGE = "display";
+	public static final String PUBLISH_STAGE = "publish";
+
+	/**
+	 * grab on the video thread, every filter, display conversion and
+	 * publishing on their own - see VideoPipeline
+	 */
+	volatile boolean pipelined = false;
+	int pipelineDepth = 2;
+	transient VideoPipeline pipeline = null;
+	transient volatile boolean rebuildPipeline = false;
+	transient Map<String, VideoPipeline.DropPolicy> dropPolicies = new ConcurrentHashMap<String, VideoPipeline.DropPolicy>();
+	transient Map<String, String> stageGroups = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * images frames borrow instead of allocating - given back when a frame is
+	 * released after publishing
+	 */
+	transient IplImagePool pool = new IplImagePool();
+
+	/**
+	 * time per frame of each stage
+	 */
+	transient Map<String, LatencyHistogram> timings = new LinkedHashMap<String, LatencyHistogram>();
 	
 
 	public static String getDefaultFrameGrabberType() {
@@ -201,6 +228,19 @@ public class VideoProcessor implements Runnable, Serializable {
 		}
 	}
 
+	/**
+	 * adds a filter which runs on its own thread - the video loop attaches its
+	 * latest results instead of waiting for them
+	 */
+	public OpenCVFilter addFilterAsync(String name, String filterType) {
+		if (filters.containsKey(name)) {
+			return filters.get(name);
+		}
+		String type = String.format("org.myrobotlab.opencv.OpenCVFilter%s", filterType);
+		OpenCVFilter filter = (OpenCVFilter) Instantiator.getNewInstance(type, name);
+		return addFilter(new OpenCVFilterAsync(filter));
+	}
+
 	public OpenCVFilter getFilter(String name) {
 		if (filters.containsKey(name)) {
 			return filters.get(name);
@@ -378,218 +418,50 @@ public class VideoProcessor implements Runnable, Serializable {
 
 		log.info("beginning capture");
 
-		// keys
-		// String inputKey = String.format("%s.%s", boundServiceName,
-		// INPUT_KEY);
-		// String displayKey = String.format("%s.%s.%s", boundServiceName,
-		// INPUT_KEY, OpenCVData.KEY_DISPLAY);
-
-		// String inputFilterName = INPUT_KEY;
-
 		while (opencv.capturing) {
 			try {
 
-				++frameIndex;
-				if (Logging.performanceTiming)
-					Logging.logTime("start");
-
-				frame = grabber.grab();				
-
-				if (Logging.performanceTiming)
-					Logging.logTime(String.format("post-grab %d", frameIndex));
-
-				// log.info(String.format("frame %d", frameIndex));
+				// read once - a switch takes effect at a frame boundary
+				boolean pipelined = this.pipelined;
 
-				if (minDelay > 0) {
-					Service.sleep(minDelay);
+				long start = System.nanoTime();
+				OpenCVData frameData = grab(pipelined);
+				if (frameData == null) {
+					continue;
 				}
+				timing(GRAB_STAGE).record(System.nanoTime() - start);
 
-				if (frame == null) {
-					warn("frame is null");
-					continue;
+				if (!opencv.capturing) {
+					break;
 				}
-				
-				// TODO - option to accumulate? - e.g. don't new
-				data = new OpenCVData(boundServiceName, frameIndex);
-
-				// set the source key of the big map of all sources to
-				// reference our new frame - the key is {serviceName}.input
-				data.put(INPUT_KEY, converter.convert(frame));
-
-				/*
-				 * if (getDepth && grabber.getClass() ==
-				 * OpenKinectFrameGrabber.class) { sources.put(boundServiceName,
-				 * OpenCV.SOURCE_KINECT_DEPTH, ((OpenKinectFrameGrabber)
-				 * grabber).grabDepth()); }
-				 */
-				
-				
-				if (grabber.getClass() == OpenKinectFrameGrabber.class) {
-          OpenKinectFrameGrabber kinect = (OpenKinectFrameGrabber)grabber;
-          data.put(OpenCV.SOURCE_KINECT_DEPTH, kinect.grabDepth());
-        }
-
-				if (Logging.performanceTiming)
-					Logging.logTime("pre-synchronized-filter");
-
-				if (opencv.capturing) {
-
-					/**
-					 * add or remove filters depending on the requests of the
-					 * queues
-					 */
-
-					// process filter add requests
-					if (addFilterQueue.size() > 0) {
-						for (int i = 0; i < addFilterQueue.size(); ++i) {
-							OpenCVFilter f = addFilterQueue.get(i);
-							if (f == null) {
-								continue;
-							}
-							if (f.sourceKey == null) {
-								f.sourceKey = lastSourceKey;
-								data.put(f.name); 
-							}
-							filters.put(f.name, f);
-							lastSourceKey = f.name;
-						}
-						addFilterQueue.clear();
-						opencv.broadcastState(); // filters have changed
-					}
 
-					// process filter remove requests
-					if (removeFilterQueue.size() > 0) {
-						for (int i = 0; i < removeFilterQueue.size(); ++i) {
-							String name = removeFilterQueue.get(i);
-							if (name == null) {
-								continue;
-							}
-							if (filters.containsKey(name)) {
-								filters.remove(name);
-								lastSourceKey=INPUT_KEY;
-							}
-						}
-						removeFilterQueue.clear();
-						opencv.broadcastState(); // filters have changed
-					}
+				boolean changed = updateFilters(frameData);
 
-					// process each filter
-					for (String filterName : filters.keySet()) {
-						OpenCVFilter filter = filters.get(filterName);
-						if (Logging.performanceTiming)
-							Logging.logTime(String.format("pre set-filter %s", filter.name));
-						// set the selected filter
-						data.setFilter(filter);
-
-						// get the source image this filter is chained to
-						// should be safe and correct if operating in this
-						// service
-						// pipeline to another service needs to use data not
-						// sources
-						IplImage image = data.get(filter.sourceKey);
-						if (image == null) {
-							warn(String.format("%s has no image - waiting", filter.sourceKey));
-							continue;
-						}
-
-						// pre process handles image size & channel changes
-						filter.preProcess(frameIndex, image, data);
-						if (Logging.performanceTiming)
-							Logging.logTime(String.format("preProcess-filter %s", filter.name));
-
-						image = filter.process(image, data);
-
-						if (Logging.performanceTiming)
-							Logging.logTime(String.format("process-filter %s", filter.name));
-
-						// process the image - push into source as new output
-						// other pipelines will pull it off the from the sources
-						data.put(filter.name, image);
-
-						// no display || merge display || fork display
-						// currently there is no "display" in sources
-						// i've got a user selection to display a particular
-						// filter
-
-						if (publishDisplay && displayFilterName != null && displayFilterName.equals(filter.name)) {
-							data.setDisplayFilterName(displayFilterName);
-
-							// The fact that I'm in a filter loop
-							// and there is a display to publish means
-							// i've got to process a filter's display
-							// TODO - would be to have a set of displays if it's
-							// needed
-							// if displayFilter == null but we are told to
-							// display - then display INPUT
-
-							filter.display(image, data);
-
-							// if display frame
-							if (showFrameNumbers || showTimestamp) {
-
-								frameTitle.setLength(0);
-
-								if (showFrameNumbers) {
-									frameTitle.append("frame ");
-									frameTitle.append(frameIndex);
-									frameTitle.append(" ");
-								}
-
-								if (showTimestamp) {
-									frameTitle.append(System.currentTimeMillis());
-								}
-								// log.info("Adding text: " +
-								// frameTitle.toString());
-								cvPutText(image, frameTitle.toString(), cvPoint(20, 20), font, CvScalar.BLACK);
-								for (Overlay overlay : overlays.values()) {
-									// log.info("Overlay text:" + overlay.text);
-									cvPutText(image, overlay.text, overlay.pos, overlay.font, overlay.color);
-								}
-							}
-
-						} // end of display processing
-
-					} // for each filter
-
-				} // if (capturing)
-				if (Logging.performanceTiming)
-					Logging.logTime("filters done");
-
-				// copy key references from sources to data
-				// the references will presist and so will the data
-				// for as long as the OpenCVData structure exists
-				// Sources will contain new references to new data
-				// next iteration
-				// data.putAll(sources.getData()); not needed :)
-
-				// has to be 2 tests for publishDisplay
-				// one inside the filter loop - to set the display to a new
-				// filter
-				// and this one to publish - if it is left "unset" then the
-				// input becomes the
-				// display filter
-				if (publishDisplay) {
-					SerializableImage display = new SerializableImage(data.getDisplayBufferedImage(),
-							data.getDisplayFilterName(), frameIndex);
-					opencv.invoke("publishDisplay", display);
+				if (pipelined) {
+					if (pipeline == null || changed || rebuildPipeline) {
+						stopPipeline();
+						pipeline = buildPipeline();
+					}
+					pipeline.submit(frameData);
+					continue;
+				} else if (pipeline != null) {
+					stopPipeline();
 				}
 
-				// publish accumulated data
-				if (publishOpenCVData) {
-					opencv.invoke("publishOpenCVData", data);
+				// process each filter
+				for (OpenCVFilter filter : filters.values()) {
+					start = System.nanoTime();
+					processFilter(filter, frameData, false);
+					timing(filter.name).record(System.nanoTime() - start);
 				}
 
-				// this has to be before record as
-				// record uses the queue - this has the "issue" if
-				// the consumer does not pickup-it will get stale
-				if (blockingData.size() == 0) {
-					blockingData.add(data);
-				}
+				start = System.nanoTime();
+				display(frameData);
+				timing(DISPLAY_STAGE).record(System.nanoTime() - start);
 
-				if (recordOutput) {
-					// TODO - add input, filter, & display
-					record(data);
-				}
+				start = System.nanoTime();
+				publish(frameData);
+				timing(PUBLISH_STAGE).record(System.nanoTime() - start);
 
 			} catch (Exception e) {
 				Logging.logError(e);
@@ -597,10 +469,10 @@ public class VideoProcessor implements Runnable, Serializable {
 				stop();
 			}
 
-			if (Logging.performanceTiming)
-				Logging.logTime("finished pass");
 		} // while capturing
 
+		stopPipeline();
+
 		try {
 			grabber.release();
 			grabber = null;
@@ -609,6 +481,385 @@ public class VideoProcessor implements Runnable, Serializable {
 		}
 	}
 
+	/**
+	 * grabs the next frame into a new OpenCVData
+	 * 
+	 * @param copy
+	 *          the grabber fills the same buffer again with the next frame -
+	 *          frames in flight in a pipeline need their own copy
+	 * @return null if the grabber had no frame
+	 */
+	OpenCVData grab(boolean copy) throws Exception {
+		++frameIndex;
+
+		frame = grabber.grab();
+
+		if (minDelay > 0) {
+			Service.sleep(minDelay);
+		}
+
+		if (frame == null) {
+			warn("frame is null");
+			return null;
+		}
+
+		// TODO - option to accumulate? - e.g. don't new
+		data = new OpenCVData(boundServiceName, frameIndex);
+		data.setPool(pool);
+
+		// set the source key of the big map of all sources to
+		// reference our new frame - the key is {serviceName}.input
+		IplImage input = converter.convert(frame);
+		data.put(INPUT_KEY, copy ? data.copy(input) : input);
+
+		if (grabber.getClass() == OpenKinectFrameGrabber.class) {
+			OpenKinectFrameGrabber kinect = (OpenKinectFrameGrabber) grabber;
+			IplImage depth = kinect.grabDepth();
+			data.put(OpenCV.SOURCE_KINECT_DEPTH, (copy && depth != null) ? data.copy(depth) : depth);
+		}
+
+		return data;
+	}
+
+	/**
+	 * add or remove filters depending on the requests of the queues - on the
+	 * video thread
+	 * 
+	 * @return true if the filters changed
+	 */
+	boolean updateFilters(OpenCVData data) {
+		boolean changed = false;
+
+		// process filter add requests
+		if (addFilterQueue.size() > 0) {
+			for (int i = 0; i < addFilterQueue.size(); ++i) {
+				OpenCVFilter f = addFilterQueue.get(i);
+				if (f == null) {
+					continue;
+				}
+				if (f.sourceKey == null) {
+					f.sourceKey = lastSourceKey;
+					data.put(f.name);
+				}
+				filters.put(f.name, f);
+				lastSourceKey = f.name;
+			}
+			addFilterQueue.clear();
+			changed = true;
+		}
+
+		// process filter remove requests
+		if (removeFilterQueue.size() > 0) {
+			// a stage may still be in the process() of a filter about to be
+			// released - the pipeline is rebuilt on the next frame anyway
+			stopPipeline();
+			for (int i = 0; i < removeFilterQueue.size(); ++i) {
+				String name = removeFilterQueue.get(i);
+				if (name == null) {
+					continue;
+				}
+				if (filters.containsKey(name)) {
+					// a filter with a thread of its own stops it
+					filters.remove(name).release();
+					lastSourceKey = INPUT_KEY;
+				}
+			}
+			removeFilterQueue.clear();
+			changed = true;
+		}
+
+		if (changed) {
+			opencv.broadcastState(); // filters have changed
+		}
+		return changed;
+	}
+
+	/**
+	 * runs a filter on the image of its source key and puts the result under
+	 * its name
+	 * 
+	 * @param copy
+	 *          filters keep their output buffers from frame to frame - a frame
+	 *          moving on to the next stage of a pipeline needs its own copy
+	 */
+	void processFilter(OpenCVFilter filter, OpenCVData data, boolean copy) throws InterruptedException {
+		// set the selected filter
+		data.setFilter(filter);
+
+		// get the source image this filter is chained to
+		// should be safe and correct if operating in this
+		// service
+		// pipeline to another service needs to use data not
+		// sources
+		IplImage image = data.get(filter.sourceKey);
+		if (image == null) {
+			warn(String.format("%s has no image - waiting", filter.sourceKey));
+			return;
+		}
+
+		// pre process handles image size & channel changes
+		filter.preProcess(data.getFrameIndex(), image, data);
+
+		IplImage output = filter.process(image, data);
+		if (copy && output != null && output != image && !data.owns(output)) {
+			output = data.copy(output);
+		}
+
+		// process the image - push into source as new output
+		// other pipelines will pull it off the from the sources
+		data.put(filter.name, output);
+
+		// no display || merge display || fork display
+		// currently there is no "display" in sources
+		// i've got a user selection to display a particular
+		// filter
+
+		if (publishDisplay && displayFilterName != null && displayFilterName.equals(filter.name)) {
+			data.setDisplayFilterName(displayFilterName);
+
+			// The fact that I'm in a filter loop
+			// and there is a display to publish means
+			// i've got to process a filter's display
+			// TODO - would be to have a set of displays if it's
+			// needed
+			// if displayFilter == null but we are told to
+			// display - then display INPUT
+
+			filter.display(output, data);
+
+			// if display frame
+			if (showFrameNumbers || showTimestamp) {
+
+				frameTitle.setLength(0);
+
+				if (showFrameNumbers) {
+					frameTitle.append("frame ");
+					frameTitle.append(data.getFrameIndex());
+					frameTitle.append(" ");
+				}
+
+				if (showTimestamp) {
+					frameTitle.append(System.currentTimeMillis());
+				}
+				cvPutText(output, frameTitle.toString(), cvPoint(20, 20), font, CvScalar.BLACK);
+				for (Overlay overlay : overlays.values()) {
+					cvPutText(output, overlay.text, overlay.pos, overlay.font, overlay.color);
+				}
+			}
+
+		} // end of display processing
+	}
+
+	/**
+	 * has to be 2 tests for publishDisplay one inside the filter loop - to set
+	 * the display to a new filter and this one to publish - if it is left
+	 * "unset" then the input becomes the display filter
+	 */
+	void display(OpenCVData data) {
+		// converted when the first subscriber asks for it, or when the frame is
+		// released - and only once for all of them
+		if (publishDisplay && opencv.getOutbox().hasListeners("publishDisplay")) {
+			opencv.invoke("publishDisplay", data.getDisplaySerializableImage());
+		}
+	}
+
+	/**
+	 * the last stage of a frame - the subscribers and the blocking queue keep
+	 * what they get for as long as they like, so they get a snapshot and the
+	 * images of the frame always go back to the pool
+	 */
+	void publish(OpenCVData data) {
+		// publish accumulated data
+		if (publishOpenCVData) {
+			opencv.invoke("publishOpenCVData", opencv.getOutbox().hasListeners("publishOpenCVData") ? data.snapshot() : data);
+		}
+
+		// this has to be before record as
+		// record uses the queue - this has the "issue" if
+		// the consumer does not pickup-it will get stale
+		if (blockingData.size() == 0) {
+			blockingData.add(data.snapshot());
+		}
+
+		if (recordOutput) {
+			// TODO - add input, filter, & display
+			record(data);
+		}
+
+		data.release();
+	}
+
+	public IplImagePool getPool() {
+		return pool;
+	}
+
+	/**
+	 * a stage per filter - or per group of adjacent filters in the same stage
+	 * group - then display and publishing
+	 */
+	VideoPipeline buildPipeline() {
+		rebuildPipeline = false;
+		VideoPipeline p = new VideoPipeline(String.format("%s_pipeline", opencv.getName()));
+
+		String groupName = null;
+		List<OpenCVFilter> group = new ArrayList<OpenCVFilter>();
+		for (OpenCVFilter filter : filters.values()) {
+			String g = stageGroups.get(filter.name);
+			if (g == null || !g.equals(groupName)) {
+				addFilterStage(p, groupName, group);
+				group = new ArrayList<OpenCVFilter>();
+				groupName = (g == null) ? filter.name : g;
+			}
+			group.add(filter);
+		}
+		addFilterStage(p, groupName, group);
+
+		addStage(p, DISPLAY_STAGE, new VideoPipeline.Work() {
+			@Override
+			public boolean process(OpenCVData data) {
+				display(data);
+				return true;
+			}
+		});
+
+		addStage(p, PUBLISH_STAGE, new VideoPipeline.Work() {
+			@Override
+			public boolean process(OpenCVData data) {
+				publish(data);
+				return true;
+			}
+		});
+
+		p.start();
+		log.info("{} pipelined - {} stages", opencv.getName(), p.getStages().size());
+		return p;
+	}
+
+	void addFilterStage(VideoPipeline p, String stageName, final List<OpenCVFilter> group) {
+		if (group.isEmpty()) {
+			return;
+		}
+		addStage(p, stageName, new VideoPipeline.Work() {
+			@Override
+			public boolean process(OpenCVData data) throws InterruptedException {
+				for (int i = 0; i < group.size(); ++i) {
+					processFilter(group.get(i), data, true);
+				}
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * frames from a live source are not worth waiting for - by default the
+	 * first stage drops the oldest, the others block
+	 */
+	void addStage(VideoPipeline p, String stageName, VideoPipeline.Work work) {
+		VideoPipeline.DropPolicy policy = dropPolicies.get(stageName);
+		if (policy == null) {
+			policy = (p.getStages().isEmpty() && isLive()) ? VideoPipeline.DropPolicy.DROP_OLDEST : VideoPipeline.DropPolicy.BLOCK;
+		}
+		p.add(stageName, work, policy, pipelineDepth, timing(stageName));
+	}
+
+	boolean isLive() {
+		return OpenCV.INPUT_SOURCE_CAMERA.equals(inputSource) || OpenCV.INPUT_SOURCE_NETWORK.equals(inputSource)
+				|| OpenCV.INPUT_SOURCE_PIPELINE.equals(inputSource);
+	}
+
+	void stopPipeline() {
+		if (pipeline != null) {
+			pipeline.stop();
+			pipeline = null;
+		}
+	}
+
+	/**
+	 * @return time per frame of a stage - created on first use
+	 */
+	LatencyHistogram timing(String stageName) {
+		synchronized (timings) {
+			LatencyHistogram h = timings.get(stageName);
+			if (h == null) {
+				h = new LatencyHistogram();
+				timings.put(stageName, h);
+			}
+			return h;
+		}
+	}
+
+	/**
+	 * @return time per frame of grabbing, each filter (or stage when
+	 *         pipelined), display and publishing - in us
+	 */
+	public Map<String, LatencyHistogram.Summary> getStageTimings() {
+		Map<String, LatencyHistogram.Summary> ret = new LinkedHashMap<String, LatencyHistogram.Summary>();
+		synchronized (timings) {
+			for (Map.Entry<String, LatencyHistogram> e : timings.entrySet()) {
+				ret.put(e.getKey(), e.getValue().getSummary());
+			}
+		}
+		return ret;
+	}
+
+	public void resetStageTimings() {
+		synchronized (timings) {
+			timings.clear();
+		}
+	}
+
+	/**
+	 * @param b
+	 *          true runs each filter, the display conversion and publishing on
+	 *          their own threads - switched by the video thread at the next
+	 *          frame
+	 */
+	public void setPipelined(boolean b) {
+		pipelined = b;
+	}
+
+	public boolean isPipelined() {
+		return pipelined;
+	}
+
+	/**
+	 * @param depth
+	 *          frames which can wait for a stage
+	 */
+	public void setPipelineDepth(int depth) {
+		pipelineDepth = Math.max(1, depth);
+		rebuildPipeline = true;
+	}
+
+	/**
+	 * @param stageName
+	 *          a filter, a stage group, "display" or "publish"
+	 */
+	public void setDropPolicy(String stageName, VideoPipeline.DropPolicy policy) {
+		dropPolicies.put(stageName, policy);
+		rebuildPipeline = true;
+	}
+
+	/**
+	 * adjacent filters in the same group share a stage - cheap filters are not
+	 * worth a thread and a copy of their image each
+	 */
+	public void setStageGroup(String filterName, String group) {
+		if (group == null) {
+			stageGroups.remove(filterName);
+		} else {
+			stageGroups.put(filterName, group);
+		}
+		rebuildPipeline = true;
+	}
+
+	/**
+	 * @return the running pipeline - null if not pipelined
+	 */
+	public VideoPipeline getPipeline() {
+		return pipeline;
+	}
+
 	public void setMinDelay(int minDelay) {
 		this.minDelay = minDelay;
 	}
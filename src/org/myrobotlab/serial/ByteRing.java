@@ -0,0 +1,342 @@
+package org.myrobotlab.serial;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer single consumer ring of bytes - the wire of a virtual port.
+ * One thread writes and one thread reads without locks and without a boxed
+ * Integer per byte. A blocking call spins a little, then parks the waiting
+ * side until the other side unparks it. Bulk calls copy at most two runs with
+ * System.arraycopy.
+ *
+ * Only one thread may write and only one may read at a time - PortQueue and
+ * Serial serialize their writers.
+ */
+public class ByteRing {
+
+  final byte[] buffer;
+  final int mask;
+
+  /**
+   * next position to write - only the writer moves it
+   */
+  volatile long head = 0;
+  /**
+   * next position to read - only the reader moves it
+   */
+  volatile long tail = 0;
+
+  // writer's copy of tail - saves a volatile read per write
+  long tailCache = 0;
+
+  volatile Thread waitingReader = null;
+  volatile Thread waitingWriter = null;
+
+  /**
+   * times a waiting side looks again before it parks - a byte at a time the
+   * other side is usually back sooner than a park and unpark would take
+   */
+  final static int SPINS = 256;
+
+  /**
+   * @param capacity
+   *          rounded up to a power of 2
+   */
+  public ByteRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    buffer = new byte[size];
+    mask = size - 1;
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  public int size() {
+    return (int) (head - tail);
+  }
+
+  public boolean isEmpty() {
+    return head == tail;
+  }
+
+  /**
+   * room for the writer - reads tail only when the cached one says it is full
+   */
+  int free(int wanted) {
+    int free = buffer.length - (int) (head - tailCache);
+    if (free < wanted) {
+      tailCache = tail;
+      free = buffer.length - (int) (head - tailCache);
+    }
+    return free;
+  }
+
+  /**
+   * writes a byte if there is room
+   *
+   * @return false if the ring is full
+   */
+  public boolean offer(int b) {
+    if (free(1) == 0) {
+      return false;
+    }
+    long h = head;
+    buffer[(int) h & mask] = (byte) b;
+    head = h + 1;
+    wakeReader();
+    return true;
+  }
+
+  /**
+   * writes as much of data as there is room for
+   *
+   * @return bytes written
+   */
+  public int offer(byte[] data, int off, int len) {
+    int count = Math.min(len, free(len));
+    if (count == 0) {
+      return 0;
+    }
+    long h = head;
+    int pos = (int) h & mask;
+    int first = Math.min(count, buffer.length - pos);
+    System.arraycopy(data, off, buffer, pos, first);
+    System.arraycopy(data, off + first, buffer, 0, count - first);
+    head = h + count;
+    wakeReader();
+    return count;
+  }
+
+  /**
+   * writes a byte - waits for room
+   */
+  public void put(int b) throws InterruptedException {
+    while (!offer(b)) {
+      awaitRoom();
+    }
+  }
+
+  /**
+   * writes all of data - waits for room as often as it needs to
+   */
+  public void put(byte[] data, int off, int len) throws InterruptedException {
+    while (len > 0) {
+      int count = offer(data, off, len);
+      off += count;
+      len -= count;
+      if (len > 0) {
+        awaitRoom();
+      }
+    }
+  }
+
+  /**
+   * writes as much of data as room is made for within the timeout
+   *
+   * @return bytes written - less than len if the reader did not make room in
+   *         time
+   */
+  public int offer(byte[] data, int off, int len, long timeout, TimeUnit unit) throws InterruptedException {
+    int written = offer(data, off, len);
+    if (written == len || timeout <= 0) {
+      return written;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (written < len) {
+      if (!awaitRoom(deadline)) {
+        break;
+      }
+      written += offer(data, off + written, len - written);
+    }
+    return written;
+  }
+
+  /**
+   * @return next byte 0-255 or -1 if the ring is empty
+   */
+  public int poll() {
+    long t = tail;
+    if (t == head) {
+      return -1;
+    }
+    int b = buffer[(int) t & mask] & 0xff;
+    tail = t + 1;
+    wakeWriter();
+    return b;
+  }
+
+  /**
+   * @return next byte 0-255 or -1 if nothing came within the timeout
+   */
+  public int poll(long timeout, TimeUnit unit) throws InterruptedException {
+    int b = poll();
+    if (b >= 0) {
+      return b;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while ((b = poll()) < 0) {
+      if (!awaitData(deadline)) {
+        return -1;
+      }
+    }
+    return b;
+  }
+
+  /**
+   * @return next byte 0-255 - waits for it
+   */
+  public int take() throws InterruptedException {
+    int b;
+    while ((b = poll()) < 0) {
+      awaitData(0);
+    }
+    return b;
+  }
+
+  /**
+   * reads what is in the ring without waiting, up to len bytes
+   *
+   * @return bytes read
+   */
+  public int poll(byte[] data, int off, int len) {
+    long t = tail;
+    int count = (int) Math.min(len, head - t);
+    if (count == 0) {
+      return 0;
+    }
+    int pos = (int) t & mask;
+    int first = Math.min(count, buffer.length - pos);
+    System.arraycopy(buffer, pos, data, off, first);
+    System.arraycopy(buffer, 0, data, off + first, count - first);
+    tail = t + count;
+    wakeWriter();
+    return count;
+  }
+
+  /**
+   * waits for the first byte and takes what else is there, up to len bytes -
+   * like a read of a stream
+   *
+   * @return bytes read
+   */
+  public int take(byte[] data, int off, int len) throws InterruptedException {
+    if (len == 0) {
+      return 0;
+    }
+    int count;
+    while ((count = poll(data, off, len)) == 0) {
+      awaitData(0);
+    }
+    return count;
+  }
+
+  /**
+   * drops what is in the ring - reader side
+   */
+  public void clear() {
+    tail = head;
+    wakeWriter();
+  }
+
+  /**
+   * parks the reader until there is data
+   *
+   * @param deadline
+   *          System.nanoTime() to give up at - 0 waits for ever
+   * @return false if the deadline passed
+   */
+  boolean awaitData(long deadline) throws InterruptedException {
+    for (int i = 0; i < SPINS; ++i) {
+      if (head != tail) {
+        return true;
+      }
+      if ((i & 0x1f) == 0x1f) {
+        Thread.yield();
+      }
+    }
+    waitingReader = Thread.currentThread();
+    try {
+      // head is read after waitingReader is published - a writer which moved
+      // head before sees the reader and unparks it
+      while (head == tail) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (deadline == 0) {
+          LockSupport.park(this);
+        } else {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          LockSupport.parkNanos(this, remaining);
+        }
+      }
+      return true;
+    } finally {
+      waitingReader = null;
+    }
+  }
+
+  /**
+   * parks the writer until there is room
+   */
+  void awaitRoom() throws InterruptedException {
+    awaitRoom(0);
+  }
+
+  /**
+   * parks the writer until there is room
+   *
+   * @param deadline
+   *          System.nanoTime() to give up at - 0 waits for ever
+   * @return false if the deadline passed
+   */
+  boolean awaitRoom(long deadline) throws InterruptedException {
+    for (int i = 0; i < SPINS; ++i) {
+      if (head - tail != buffer.length) {
+        return true;
+      }
+      if ((i & 0x1f) == 0x1f) {
+        Thread.yield();
+      }
+    }
+    waitingWriter = Thread.currentThread();
+    try {
+      while (head - tail == buffer.length) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (deadline == 0) {
+          LockSupport.park(this);
+        } else {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            return false;
+          }
+          LockSupport.parkNanos(this, remaining);
+        }
+      }
+      return true;
+    } finally {
+      waitingWriter = null;
+    }
+  }
+
+  void wakeReader() {
+    Thread t = waitingReader;
+    if (t != null) {
+      LockSupport.unpark(t);
+    }
+  }
+
+  void wakeWriter() {
+    Thread t = waitingWriter;
+    if (t != null) {
+      LockSupport.unpark(t);
+    }
+  }
+
+}
@@ -36,6 +36,12 @@ public abstract class Port implements Runnable, SerialControl {
   // thread related
   transient Thread readingThread = null;
   boolean listening = false;
+  /**
+   * read into a buffer and call onBytes - or call onByte for each byte
+   */
+  boolean bulkRead = true;
+
+  final static int READ_BUFFER_SIZE = 1024;
 
   QueueStats stats = new QueueStats();
 
@@ -136,6 +142,39 @@ public abstract class Port implements Runnable, SerialControl {
 
   abstract public int read() throws Exception;
 
+  /**
+   * bulk read - blocks for the first byte, then takes as many more as are
+   * available without blocking, up to data.length. Ports which can should
+   * override this - by default it reads a single byte.
+   * 
+   * @param data
+   *          buffer to fill
+   * @return number of bytes read or -1 at the end of the stream
+   * @throws Exception
+   *           e
+   */
+  public int read(byte[] data) throws Exception {
+    int b = read();
+    if (b < 0) {
+      return -1;
+    }
+    data[0] = (byte) b;
+    return 1;
+  }
+
+  /**
+   * @param b
+   *          true (default) reads into a buffer and gives it to the listeners'
+   *          onBytes, false reads and gives them one byte at a time
+   */
+  public void setBulkRead(boolean b) {
+    bulkRead = b;
+  }
+
+  public boolean isBulkRead() {
+    return bulkRead;
+  }
+
   /**
    * reads from Ports input stream and puts it on the Serials main RX line - to
    * be published and buffered
@@ -154,29 +193,25 @@ public abstract class Port implements Runnable, SerialControl {
     Integer newByte = -1;
     try {
       // opened.countDown();
-      // TODO - if (Queue) while take()
-      // normal streams are processed here - rxtx is abnormal
-      while (listening && ((newByte = read()) > -1)) { // "real" java byte
-        // 255 / -1 will
-        // kill this
-    	// log.info(String.format("%d",newByte));
-        for (String key : listeners.keySet()) {
-          listeners.get(key).onByte(newByte);
-          // log.info(String.format("%d",newByte));
+      if (bulkRead) {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int count = 0;
+        while (listening && ((count = read(buffer)) > -1)) {
+          for (SerialDataListener listener : listeners.values()) {
+            listener.onBytes(buffer, 0, count);
+          }
+          updateStats(count);
         }
-        ++stats.total;
-        if (stats.total % stats.interval == 0) {
-
-          stats.ts = System.currentTimeMillis();
-          stats.delta = stats.ts - stats.lastTS;
-          stats.lineSpeed = (8 * stats.interval) / stats.delta;
-          for (String key : listeners.keySet()) {
-            listeners.get(key).updateStats(stats);
+      } else {
+        // normal streams are processed here - rxtx is abnormal
+        while (listening && ((newByte = read()) > -1)) { // "real" java byte
+          // 255 / -1 will
+          // kill this
+          for (SerialDataListener listener : listeners.values()) {
+            listener.onByte(newByte);
           }
-          // publishQueueStats(stats);
-          stats.lastTS = stats.ts;
+          updateStats(1);
         }
-        // log.info(String.format("%d",newByte));
       }
       log.info(String.format("%s no longer listening - last byte %d ", portName, newByte));
     } catch (InterruptedException x) {
@@ -195,6 +230,28 @@ public abstract class Port implements Runnable, SerialControl {
     }
   }
 
+  /**
+   * counts rx bytes and reports the line speed to the listeners every
+   * stats.interval bytes
+   */
+  void updateStats(int count) {
+    int before = stats.total;
+    stats.total += count;
+    if (stats.interval <= 0 || stats.total / stats.interval == before / stats.interval) {
+      return;
+    }
+    stats.ts = System.currentTimeMillis();
+    stats.delta = stats.ts - stats.lastTS;
+    if (stats.delta > 0) {
+      stats.lineSpeed = (8 * stats.interval) / stats.delta;
+    }
+    for (SerialDataListener listener : listeners.values()) {
+      listener.updateStats(stats);
+    }
+    // publishQueueStats(stats);
+    stats.lastTS = stats.ts;
+  }
+
   /**
    * "real" serial function stubbed out in the abstract class in case the serial
    * implementation does not actually implement this method e.g. (bluetooth,
@@ -222,6 +279,16 @@ public abstract class Port implements Runnable, SerialControl {
   
   abstract public void write(int[] data) throws Exception;
 
+  /**
+   * writes a whole frame - ports which can do it in one system call override
+   * this
+   */
+  public void write(byte[] data, int off, int len) throws Exception {
+    for (int i = off; i < off + len; ++i) {
+      write(data[i] & 0xff);
+    }
+  }
+
   public boolean setParams(int rate, int dataBits, int stopBits, int parity) throws Exception {
     // TODO Auto-generated method stub
     return false;
@@ -3,6 +3,7 @@ package org.myrobotlab.serial;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.myrobotlab.logging.LoggerFactory;
@@ -141,6 +142,18 @@ public class PortJSSC extends Port implements SerialControl, SerialPortEventList
 		return data;
 	}
 
+	@Override
+	public int read(byte[] data) throws Exception {
+		// block for at least 1 byte - take all that's in the driver's buffer
+		int count = Math.min(Math.max(port.getInputBufferBytesCount(), 1), data.length);
+		byte[] b = port.readBytes(count);
+		System.arraycopy(b, 0, data, 0, count);
+		if (debug && debugRX) {
+			log.info("Read : {} bytes", count);
+		}
+		return count;
+	}
+
 	@Override
 	public void setDTR(boolean state) {
 		try {
@@ -195,6 +208,15 @@ public class PortJSSC extends Port implements SerialControl, SerialPortEventList
 		port.writeIntArray(data);
 	}
 
+	@Override
+	public void write(byte[] data, int off, int len) throws Exception {
+		if (off == 0 && len == data.length) {
+			port.writeBytes(data);
+		} else {
+			port.writeBytes(Arrays.copyOfRange(data, off, off + len));
+		}
+	}
+
 	@Override
 	public boolean isHardware() {
 		return true;
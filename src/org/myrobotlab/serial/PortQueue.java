@@ -3,7 +3,7 @@ package org.myrobotlab.serial;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.myrobotlab.logging.LoggerFactory;
 import org.slf4j.Logger;
@@ -16,20 +16,40 @@ import org.slf4j.Logger;
  *         which did was not supported for by rxtx would not be able to use the
  *         Serial service or ports.
  * 
+ *         A virtual port - reads from one ByteRing and writes to another. Two
+ *         of them on the same pair of rings, crossed, are a virtual cable.
  * 
  */
 public class PortQueue extends Port {
 
   public final static Logger log = LoggerFactory.getLogger(PortQueue.class);
 
-  private BlockingQueue<Integer> in;
-  private BlockingQueue<Integer> out;
+  /**
+   * default size of the rings of a virtual cable
+   */
+  public final static int RING_SIZE = 64 * 1024;
+
+  /**
+   * longest a write waits for the other end to make room - after that the
+   * rest is dropped
+   */
+  public final static long WRITE_TIMEOUT_MS = 500;
+
+  private ByteRing in;
+  private ByteRing out;
+
+  /**
+   * set while the other end does not read - writes drop what does not fit
+   * without waiting until it reads again
+   */
+  private volatile boolean overrun = false;
+  private long dropped = 0;
 
   public PortQueue(String portName) {
     super(portName);
   }
 
-  public PortQueue(String portName, BlockingQueue<Integer> in, BlockingQueue<Integer> out) {
+  public PortQueue(String portName, ByteRing in, ByteRing out) {
     super(portName);
     this.in = in;
     this.out = out;
@@ -51,26 +71,65 @@ public class PortQueue extends Port {
     return in.take();
   }
 
+  @Override
+  public int read(byte[] data) throws IOException, InterruptedException {
+    return in.take(data, 0, data.length);
+  }
+
   public boolean setParams(int rate, int databits, int stopbits, int parity) {
 
     log.debug(String.format("setSerialPortParams %d %d %d %d", rate, databits, stopbits, parity));
     return true;
   }
 
+  // the ring takes one writer - writes are serialized here
+
   @Override
-  public void write(int data) throws IOException {
-    out.add(data);
-    // WOW - PipedOutputStream auto flushes about 1 time every second :P
-    // we force flushing here !
+  public void write(int data) throws IOException, InterruptedException {
+    write(new byte[] { (byte) data }, 0, 1);
+  }
+
+  public void write(int[] data) throws IOException, InterruptedException {
+    byte[] bytes = new byte[data.length];
+    for (int i = 0; i < data.length; i++) {
+      bytes[i] = (byte) data[i];
+    }
+    write(bytes, 0, bytes.length);
   }
-  
-  public void write(int[] data) throws IOException {
-    // TODO: is there a more effecient way to do this?
-    for (int i = 0; i < data.length ; i++) {
-      write(data[i]);
+
+  /**
+   * waits at most WRITE_TIMEOUT_MS for room - a virtual cable nobody reads
+   * must not hang the writer, which may hold its caller's locks
+   */
+  @Override
+  synchronized public void write(byte[] data, int off, int len) throws IOException, InterruptedException {
+    int written = out.offer(data, off, len, overrun ? 0 : WRITE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    if (written < len) {
+      dropped += len - written;
+      if (!overrun) {
+        overrun = true;
+        log.warn("{} overrun - the other end does not read, dropping writes", getName());
+      }
+    } else if (overrun) {
+      overrun = false;
+      log.info("{} other end reads again - {} bytes dropped", getName(), dropped);
     }
   }
 
+  /**
+   * @return true while writes are dropped because the other end does not read
+   */
+  public boolean isOverrun() {
+    return overrun;
+  }
+
+  /**
+   * @return bytes dropped by writes which found no room
+   */
+  synchronized public long getDropped() {
+    return dropped;
+  }
+
   @Override
   public boolean isHardware() {
     return false;
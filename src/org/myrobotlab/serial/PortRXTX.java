@@ -238,6 +238,11 @@ public class PortRXTX extends Port implements SerialControl, SerialPortEventList
     }
   }
 
+  @Override
+  public void write(byte[] data, int off, int len) throws IOException {
+    out.write(data, off, len);
+  }
+
   @Override
   public boolean isHardware() {
     return true;
@@ -0,0 +1,171 @@
+package org.myrobotlab.serial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Plays the RX side of a SerialCapture back as if it came from a board - at
+ * the original timing, scaled, or as fast as the listeners can take it. The
+ * end of the capture is the end of the stream, the port thread stops there.
+ *
+ * What is written to the port goes nowhere - it is only counted, so a service
+ * can run against a capture of a field problem or a decode benchmark without
+ * hardware.
+ */
+public class PortReplay extends Port {
+
+  public final static Logger log = LoggerFactory.getLogger(PortReplay.class);
+
+  final String filename;
+  SerialCapture.Reader reader = null;
+
+  /**
+   * 1 replays at the captured timing, 2 twice as fast - 0 as fast as possible
+   */
+  double speed = 1.0;
+
+  // current rx record
+  int pos = 0;
+  int len = 0;
+  long replayStart = 0;
+
+  long rxBytes = 0;
+  long txBytes = 0;
+  volatile boolean done = false;
+
+  public PortReplay(String portName, String filename) {
+    super(portName);
+    this.filename = filename;
+  }
+
+  public PortReplay(String portName, String filename, double speed) {
+    this(portName, filename);
+    this.speed = speed;
+  }
+
+  @Override
+  public void open() throws IOException {
+    reader = new SerialCapture.Reader(filename);
+    replayStart = System.nanoTime();
+    super.open();
+  }
+
+  @Override
+  public void close() {
+    super.close();
+    try {
+      if (reader != null) {
+        reader.close();
+      }
+    } catch (IOException e) {
+      log.error("closing {} threw", filename, e);
+    }
+  }
+
+  /**
+   * moves to the next rx record and waits for its time
+   *
+   * @return false at the end of the capture
+   */
+  boolean nextRecord() throws InterruptedException {
+    while (pos == len) {
+      if (!reader.next()) {
+        if (!done) {
+          done = true;
+          log.info("replay of {} done - {} bytes", filename, rxBytes);
+        }
+        return false;
+      }
+      if (reader.getDirection() != SerialCapture.RX) {
+        continue;
+      }
+      pos = 0;
+      len = reader.getLength();
+      if (speed > 0) {
+        long due = replayStart + (long) (reader.getNanos() / speed);
+        long now;
+        while ((now = System.nanoTime()) < due) {
+          LockSupport.parkNanos(this, due - now);
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int read() throws Exception {
+    if (!nextRecord()) {
+      return -1;
+    }
+    ++rxBytes;
+    return reader.getData()[pos++] & 0xff;
+  }
+
+  /**
+   * a record at a time - as the bytes came in one read on the capturing side
+   */
+  @Override
+  public int read(byte[] data) throws Exception {
+    if (!nextRecord()) {
+      return -1;
+    }
+    int count = Math.min(data.length, len - pos);
+    System.arraycopy(reader.getData(), pos, data, 0, count);
+    pos += count;
+    rxBytes += count;
+    return count;
+  }
+
+  @Override
+  public void write(int b) throws Exception {
+    ++txBytes;
+  }
+
+  @Override
+  public void write(int[] data) throws Exception {
+    txBytes += data.length;
+  }
+
+  @Override
+  public void write(byte[] data, int off, int len) throws Exception {
+    txBytes += len;
+  }
+
+  public void setSpeed(double speed) {
+    this.speed = speed;
+  }
+
+  public long getRxBytes() {
+    return rxBytes;
+  }
+
+  public long getTxBytes() {
+    return txBytes;
+  }
+
+  /**
+   * @return true once the whole capture was played
+   */
+  public boolean isDone() {
+    return done;
+  }
+
+  @Override
+  public List<String> getPortNames() {
+    return new ArrayList<String>();
+  }
+
+  @Override
+  public boolean isHardware() {
+    return false;
+  }
+
+}
@@ -60,11 +60,20 @@ public class PortStream extends Port {
     return in.read();
   }
 
-  // WORTHLESS INPUTSTREAM FUNCTION !! -- because if the size of the buffer
-  // is ever bigger than the read and no end of stream has occurred
-  // it will block forever :P
+  // InputStream.read(byte[]) of some streams blocks until the whole buffer is
+  // full :P - so only block for the first byte and take what is available
+  @Override
   public int read(byte[] data) throws IOException {
-    return in.read(data);
+    int b = in.read();
+    if (b < 0) {
+      return -1;
+    }
+    data[0] = (byte) b;
+    int count = Math.min(in.available(), data.length - 1);
+    if (count > 0) {
+      count = in.read(data, 1, count);
+    }
+    return 1 + Math.max(count, 0);
   }
 
   public void setInputStream(InputStream in) {
@@ -95,6 +104,12 @@ public class PortStream extends Port {
     }
   }
 
+  @Override
+  public void write(byte[] data, int off, int len) throws IOException {
+    out.write(data, off, len);
+    out.flush();
+  }
+
   @Override
   public boolean isHardware() {
     return false;
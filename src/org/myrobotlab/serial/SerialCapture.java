@@ -0,0 +1,222 @@
+package org.myrobotlab.serial;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * Binary capture of serial traffic - a memory mapped append log of
+ * timestamped records, cheap enough to leave on at full line speed.
+ *
+ * <pre>
+ * header  MAGIC(8)|START_MILLIS(8)|END(8)
+ * record  NANOS(8)|DIRECTION(1)|LENGTH(2)|DATA(LENGTH)
+ * </pre>
+ *
+ * NANOS is relative to the start of the capture, END is the offset after the
+ * last complete record - it is updated with every record, so a capture of a
+ * process which died can still be read. The file grows by SEGMENT_SIZE
+ * mappings and is cut to END when closed.
+ *
+ * Read a capture with a Reader - PortReplay plays one back.
+ */
+public class SerialCapture implements Closeable {
+
+  public final static Logger log = LoggerFactory.getLogger(SerialCapture.class);
+
+  public static final long MAGIC = 0x4D524C4341503031L; // MRLCAP01
+  public static final int HEADER_SIZE = 24;
+  public static final int RECORD_HEADER_SIZE = 11;
+  public static final int MAX_RECORD = 0xFFFF;
+  public static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  public static final int RX = 0;
+  public static final int TX = 1;
+
+  final String filename;
+  final RandomAccessFile file;
+  final FileChannel channel;
+  final long startNanos = System.nanoTime();
+  final MappedByteBuffer header;
+  MappedByteBuffer buffer;
+  /**
+   * file offset of buffer position 0
+   */
+  long base = 0;
+  long end = HEADER_SIZE;
+  long records = 0;
+  boolean closed = false;
+
+  public SerialCapture(String filename) throws IOException {
+    this.filename = filename;
+    file = new RandomAccessFile(filename, "rw");
+    file.setLength(0);
+    channel = file.getChannel();
+    header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+    header.putLong(0, MAGIC);
+    header.putLong(8, System.currentTimeMillis());
+    header.putLong(16, end);
+    map(0);
+  }
+
+  void map(long offset) throws IOException {
+    base = offset;
+    buffer = channel.map(MapMode.READ_WRITE, base, SEGMENT_SIZE);
+    buffer.position((int) (end - base));
+  }
+
+  public void rx(byte[] data, int off, int len) throws IOException {
+    write(RX, data, off, len);
+  }
+
+  public void tx(byte[] data, int off, int len) throws IOException {
+    write(TX, data, off, len);
+  }
+
+  /**
+   * single byte writes - only the byte at a time paths use it
+   */
+  public void write(int direction, int b) throws IOException {
+    write(direction, new byte[] { (byte) b }, 0, 1);
+  }
+
+  public synchronized void write(int direction, byte[] data, int off, int len) throws IOException {
+    if (closed) {
+      return;
+    }
+    long nanos = System.nanoTime() - startNanos;
+    while (len > 0) {
+      int n = Math.min(len, MAX_RECORD);
+      if (buffer.remaining() < RECORD_HEADER_SIZE + n) {
+        map(end);
+      }
+      buffer.putLong(nanos);
+      buffer.put((byte) direction);
+      buffer.putShort((short) n);
+      buffer.put(data, off, n);
+      end += RECORD_HEADER_SIZE + n;
+      off += n;
+      len -= n;
+      ++records;
+    }
+    header.putLong(16, end);
+  }
+
+  public synchronized long getRecords() {
+    return records;
+  }
+
+  /**
+   * @return bytes in the capture
+   */
+  public synchronized long getSize() {
+    return end;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    buffer.force();
+    header.force();
+    buffer = null;
+    try {
+      // can fail while the mapping is not collected (windows) - END in the
+      // header still marks the end
+      file.setLength(end);
+    } catch (IOException e) {
+      log.info("could not cut {} to {} bytes", filename, end);
+    }
+    channel.close();
+    file.close();
+  }
+
+  /**
+   * reads the records of a capture in order
+   */
+  public static class Reader implements Closeable {
+    final RandomAccessFile file;
+    final MappedByteBuffer buffer;
+    final long startMillis;
+    final long end;
+
+    long nanos;
+    int direction;
+    int length;
+    final byte[] data = new byte[MAX_RECORD];
+
+    public Reader(String filename) throws IOException {
+      file = new RandomAccessFile(filename, "r");
+      FileChannel channel = file.getChannel();
+      // a capture is mapped whole - they are not expected to get past 2GB
+      buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getLong() != MAGIC) {
+        file.close();
+        throw new IOException(String.format("%s is not a serial capture", filename));
+      }
+      startMillis = buffer.getLong();
+      end = Math.min(buffer.getLong(), channel.size());
+    }
+
+    /**
+     * @return false at the end of the capture
+     */
+    public boolean next() {
+      if (buffer.position() + RECORD_HEADER_SIZE > end) {
+        return false;
+      }
+      nanos = buffer.getLong();
+      direction = buffer.get();
+      length = buffer.getShort() & 0xFFFF;
+      if (buffer.position() + length > end) {
+        return false;
+      }
+      buffer.get(data, 0, length);
+      return true;
+    }
+
+    /**
+     * @return nanos from the start of the capture of the current record
+     */
+    public long getNanos() {
+      return nanos;
+    }
+
+    public int getDirection() {
+      return direction;
+    }
+
+    /**
+     * @return data of the current record - reused by next()
+     */
+    public byte[] getData() {
+      return data;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public long getStartMillis() {
+      return startMillis;
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+
+}
@@ -20,6 +20,7 @@ import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.interfaces.Attachable;
 import org.myrobotlab.framework.interfaces.ServiceInterface;
+import org.myrobotlab.kinematics.MotionPlanner;
 import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.LoggingFactory;
@@ -44,94 +45,42 @@ import org.slf4j.Logger;
 public class Adafruit16CServoDriver extends Service implements I2CControl, ServoController, MotorController {
 
   /**
-   * SpeedControl, calculates the next position at regular intervals to make the
-   * servo move at the desired speed
+   * SpeedControl, the MotionPlanner calculates the next position at regular
+   * intervals to make the servo move at the desired speed
    * 
    */
-  public class SpeedControl extends Thread {
+  public class SpeedControl implements MotionPlanner.Axis {
 
-    volatile ServoData servoData;
-    String name;
-    long now;
-    long lastExecution;
-    long deltaTime;
+    final ServoData servoData;
+    final String name;
 
     public SpeedControl(String name) {
-      super(String.format("%s.SpeedControl", name));
-      servoData = servoMap.get(name);
-      servoData.isMoving = true;
-
       this.name = name;
+      servoData = servoMap.get(name);
     }
 
     @Override
-    public void run() {
+    public String getName() {
+      return String.format("%s.SpeedControl", name);
+    }
 
-      log.info(String.format("Speed control started for %s", name));
-      servoData = servoMap.get(name);
-      log.debug(String.format("Moving from %s to %s at %s degrees/second", servoData.currentOutput, servoData.targetOutput, servoData.velocity));
-      publishServoEvent(servoData.servo,2, servoData.currentOutput);
-      try {
-        lastExecution = System.currentTimeMillis();
-        double _velocity;
-        if (servoData.acceleration == -1) {
-          _velocity = servoData.velocity;
-        } else {
-          _velocity = 0;
-        }
-        while (servoData.isMoving && servoData.isEnergized) {
-          now = System.currentTimeMillis();
-          deltaTime = now - lastExecution;
-          if (servoData.acceleration != -1) {
-            _velocity = _velocity + (servoData.acceleration * deltaTime * 0.001);
-            if (_velocity > servoData.velocity) {
-              _velocity = servoData.velocity;
-            }
-          }
+    @Override
+    public ServoController getController() {
+      return Adafruit16CServoDriver.this;
+    }
 
-          if (servoData.currentOutput < servoData.targetOutput) { // Move
-            // in
-            // positive
-            // direction
-            servoData.currentOutput += (_velocity * deltaTime) * 0.001;
-            if (servoData.currentOutput >= servoData.targetOutput) {
-              servoData.currentOutput = servoData.targetOutput;
-              servoData.isMoving = false;
-            }
-          } else if (servoData.currentOutput > servoData.targetOutput) { // Move
-            // in
-            // negative
-            // direction
-            servoData.currentOutput -= (_velocity * deltaTime * 0.001);
-            if (servoData.currentOutput <= servoData.targetOutput) {
-              servoData.currentOutput = servoData.targetOutput;
-              servoData.isMoving = false;
-            }
-          } else {
-            // We have reached the position so shutdown the thread
-            servoData.isMoving = false;
-            log.debug("This line should not repeat");
-          }
-          int pulseWidthOff = SERVOMIN + (int) (servoData.currentOutput * (int) ((float) SERVOMAX - (float) SERVOMIN) / (float) (180));
-          setServo(servoData.pin, pulseWidthOff);
-          //publishServoEvent(servoData.servo,2, servoData.currentOutput);
-          // Sleep 100ms before sending next position
-          lastExecution = now;
-          log.info(String.format("Sent %s using a %s tick at velocity %s", servoData.currentOutput, deltaTime, _velocity));
-          Thread.sleep(50);
-        }
-        publishServoEvent(servoData.servo,1,servoData.currentOutput);
-        log.info(String.format("publishServoEvent :  %s , event %s, currentOutput %s",servoData.servo.getName(),1,servoData.currentOutput));
-        log.info("Shuting down SpeedControl");
+    @Override
+    public void write(double pos) {
+      servoData.currentOutput = pos;
+      int pulseWidthOff = SERVOMIN + (int) (pos * (int) ((float) SERVOMAX - (float) SERVOMIN) / (float) (180));
+      setServo(servoData.pin, pulseWidthOff);
+    }
 
-      } catch (Exception e) {
-        servoData.isMoving = false;
-        if (e instanceof InterruptedException) {
-          log.debug("Shuting down SpeedControl");
-        } else {
-          log.error("speed control threw", e);
-        }
-      }
+    @Override
+    public void onArrived(double pos) {
+      servoData.isMoving = false;
+      publishServoEvent(servoData.servo, 1, pos);
+      log.info(String.format("publishServoEvent :  %s , event %s, currentOutput %s", servoData.servo.getName(), 1, pos));
     }
 
   }
@@ -175,6 +124,36 @@ public class Adafruit16CServoDriver extends Service implements I2CControl, Servo
   int pwmFreq;
   boolean pwmFreqSet = false;
 
+  public static final int CHANNELS = 16;
+
+  /**
+   * channel register bytes in one i2c write through an Arduino - the Wire
+   * buffer holds 32 bytes including the register address
+   */
+  public static final int ARDUINO_MAX_BURST = 28;
+
+  /**
+   * frame mode - setPWM only updates the frame, the changed channels are sent
+   * frameRate times a second in auto-increment bursts
+   */
+  boolean frameMode = false;
+  int frameRate = 50;
+
+  transient int[] frameOn = new int[CHANNELS];
+  transient int[] frameOff = new int[CHANNELS];
+  /**
+   * channels changed since the last flush - a bit per channel
+   */
+  transient int dirty = 0;
+  /**
+   * channels whose registers are in the frame - a burst can run across them
+   */
+  transient int known = 0;
+  /**
+   * servoSyncBegin depth - setPWM goes to the frame until the end
+   */
+  transient int syncDepth = 0;
+
   // List of possible addresses. Used by the GUI.
   public List<String> deviceAddressList = Arrays.asList("0x40", "0x41", "0x42", "0x43", "0x44", "0x45", "0x46", "0x47", "0x48", "0x49", "0x4A", "0x4B", "0x4C", "0x4D", "0x4E",
       "0x4F", "0x50", "0x51", "0x52", "0x53", "0x54", "0x55", "0x56", "0x57", "0x58", "0x59", "0x5A", "0x5B", "0x5C", "0x5D", "0x5E", "0x5F");
@@ -246,7 +225,7 @@ public class Adafruit16CServoDriver extends Service implements I2CControl, Servo
      */
     private static final long serialVersionUID = 1L;
     int pin;
-    SpeedControl speedcontrol;
+    transient SpeedControl speedcontrol;
     double velocity = -1;
     double acceleration = -1;
     boolean isMoving = false;
@@ -307,6 +286,18 @@ public class Adafruit16CServoDriver extends Service implements I2CControl, Servo
    * 
    */
   public void setPWM(Integer pin, Integer pulseWidthOn, Integer pulseWidthOff) {
+    if (pin >= 0 && pin < CHANNELS) {
+      synchronized (this) {
+        frameOn[pin] = pulseWidthOn;
+        frameOff[pin] = pulseWidthOff;
+        known |= 1 << pin;
+        if (frameMode || syncDepth > 0) {
+          dirty |= 1 << pin;
+          return;
+        }
+        dirty &= ~(1 << pin);
+      }
+    }
 
     byte[] buffer = { (byte) (PCA9685_LED0_ON_L + (pin * 4)), (byte) (pulseWidthOn & 0xff), (byte) (pulseWidthOn >> 8), (byte) (pulseWidthOff & 0xff),
         (byte) (pulseWidthOff >> 8) };
@@ -314,6 +305,106 @@ public class Adafruit16CServoDriver extends Service implements I2CControl, Servo
     controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), buffer, buffer.length);
   }
 
+  /**
+   * sends the channels changed since the last flush - each run of channels
+   * goes in one auto-increment write from its LEDn_ON_L to its last LEDn_OFF_H
+   */
+  public void flushFrame() {
+    List<byte[]> bursts = new ArrayList<byte[]>();
+    synchronized (this) {
+      if (dirty == 0) {
+        return;
+      }
+      int maxChannels = getMaxBurst() / 4;
+      int ch = 0;
+      while (ch < CHANNELS) {
+        if ((dirty & (1 << ch)) == 0) {
+          ++ch;
+          continue;
+        }
+        // unchanged channels in between are sent again rather than starting
+        // another write
+        int end = ch;
+        for (int i = ch + 1; i < CHANNELS && i - ch < maxChannels && (known & (1 << i)) != 0; ++i) {
+          if ((dirty & (1 << i)) != 0) {
+            end = i;
+          }
+        }
+        byte[] buffer = new byte[1 + (end - ch + 1) * 4];
+        buffer[0] = (byte) (PCA9685_LED0_ON_L + (ch * 4));
+        for (int i = ch; i <= end; ++i) {
+          int pos = 1 + (i - ch) * 4;
+          buffer[pos] = (byte) (frameOn[i] & 0xff);
+          buffer[pos + 1] = (byte) (frameOn[i] >> 8);
+          buffer[pos + 2] = (byte) (frameOff[i] & 0xff);
+          buffer[pos + 3] = (byte) (frameOff[i] >> 8);
+        }
+        bursts.add(buffer);
+        ch = end + 1;
+      }
+      dirty = 0;
+    }
+    if (!pwmFreqSet) {
+      // sets auto-increment too
+      setPWMFreq(0, defaultPwmFreq);
+    }
+    for (byte[] buffer : bursts) {
+      log.debug("burst of {} channels from register {}", (buffer.length - 1) / 4, buffer[0]);
+      controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), buffer, buffer.length);
+    }
+  }
+
+  /**
+   * register bytes the i2c controller can take in one write
+   */
+  int getMaxBurst() {
+    return (controller instanceof Arduino) ? ARDUINO_MAX_BURST : CHANNELS * 4;
+  }
+
+  /**
+   * in frame mode setPWM and the servo moves only update the frame and the
+   * changed channels are sent frameRate times a second in bursts - a 16 servo
+   * update costs one or a few bus transactions instead of sixteen
+   */
+  public void setFrameMode(boolean enable) {
+    purgeTask("flushFrame");
+    frameMode = enable;
+    if (enable) {
+      addTask("flushFrame", 1000 / frameRate, 0, "flushFrame");
+    } else {
+      flushFrame();
+    }
+  }
+
+  public void setFrameRate(int hz) {
+    frameRate = Math.max(1, Math.min(hz, 1000));
+    if (frameMode) {
+      setFrameMode(true);
+    }
+  }
+
+  public boolean isFrameMode() {
+    return frameMode;
+  }
+
+  /**
+   * moves until servoSyncEnd are sent together in bursts
+   */
+  @Override
+  public synchronized void servoSyncBegin() {
+    ++syncDepth;
+  }
+
+  @Override
+  public void servoSyncEnd() {
+    synchronized (this) {
+      if (syncDepth == 0 || --syncDepth > 0) {
+        return;
+      }
+    }
+    flushFrame();
+  }
+
   /*
    * Set the PWM frequency i.e. the frequency between positive pulses.
    * 
@@ -381,6 +472,10 @@ public class Adafruit16CServoDriver extends Service implements I2CControl, Servo
 
     byte[] buffer = { (byte) (PCA9685_ALL_LED_OFF_H), (byte) PCA9685_TURN_ALL_LED_OFF };
     log.info(String.format("Writing shutdown command to %s", this.getName()));
+    synchronized (this) {
+      dirty = 0;
+      known = 0;
+    }
     controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), buffer, buffer.length);
   }
 
@@ -434,11 +529,16 @@ public class Adafruit16CServoDriver extends Service implements I2CControl, Servo
       } else {
         log.debug(String.format("Ada move at velocity %s degrees/s", servoData.velocity));
         servoData.targetOutput = servo.getTargetOutput();
-        // Start a thread to handle the speed for this servo
-        if (servoData.isMoving == false) {
+        // the motion planner moves it from where it is - a new target while
+        // moving just changes course
+        if (servoData.speedcontrol == null) {
           servoData.speedcontrol = new SpeedControl(servo.getName());
-          servoData.speedcontrol.start();
         }
+        if (servoData.isMoving == false) {
+          servoData.isMoving = true;
+          publishServoEvent(servo, 2, servoData.currentOutput);
+        }
+        MotionPlanner.getInstance().move(servoData.speedcontrol, servoData.currentOutput, servoData.targetOutput, servoData.velocity, servoData.acceleration);
       }
     }
   }
@@ -455,10 +555,8 @@ public class Adafruit16CServoDriver extends Service implements I2CControl, Servo
     int pulseWidthOff = (int) (uS * 0.45) - 300;
     // since pulseWidthOff can be larger than > 256 it needs to be
     // sent as 2 bytes
-    log.debug(String.format("servoWriteMicroseconds %s deviceAddress x%02X pin %s pulse %d", servo.getName(), deviceAddress, pin, pulseWidthOff));
-
-    byte[] buffer = { (byte) (PCA9685_LED0_OFF_L + (pin * 4)), (byte) (pulseWidthOff & 0xff), (byte) (pulseWidthOff >> 8) };
-    controller.i2cWrite(this, Integer.parseInt(deviceBus), Integer.decode(deviceAddress), buffer, buffer.length);
+    log.debug(String.format("servoWriteMicroseconds %s deviceAddress %s pin %s pulse %d", servo.getName(), deviceAddress, pin, pulseWidthOff));
+    setServo(pin, pulseWidthOff);
   }
 
   public String publishAttachedDevice(String deviceName) {
@@ -482,6 +580,10 @@ public class Adafruit16CServoDriver extends Service implements I2CControl, Servo
   @Override
   public void servoDetachPin(ServoControl servo) {
     ServoData servoData = servoMap.get(servo.getName());
+    if (servoData.speedcontrol != null) {
+      MotionPlanner.getInstance().stop(servoData.speedcontrol);
+      servoData.isMoving = false;
+    }
     setPWM(servoData.pin, 4096, 0);
     servoData.isEnergized = false;
 
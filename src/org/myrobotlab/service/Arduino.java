@@ -1,7 +1,5 @@
 package org.myrobotlab.service;
 
-import static org.myrobotlab.arduino.Msg.MAGIC_NUMBER;
-import static org.myrobotlab.arduino.Msg.MAX_MSG_SIZE;
 import static org.myrobotlab.arduino.Msg.MRLCOMM_VERSION;
 
 import java.io.ByteArrayInputStream;
@@ -12,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -24,6 +23,7 @@ import org.myrobotlab.arduino.ArduinoUtils;
 import org.myrobotlab.arduino.BoardInfo;
 import org.myrobotlab.arduino.BoardType;
 import org.myrobotlab.arduino.DeviceSummary;
+import org.myrobotlab.arduino.FrameDecoder;
 import org.myrobotlab.arduino.Msg;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
@@ -39,6 +39,7 @@ import org.myrobotlab.math.Mapper;
 import org.myrobotlab.service.data.DeviceMapping;
 import org.myrobotlab.service.data.Pin;
 import org.myrobotlab.service.data.PinData;
+import org.myrobotlab.service.data.PinSampleBuffer;
 import org.myrobotlab.service.data.SerialRelayData;
 import org.myrobotlab.service.interfaces.I2CBusControl;
 import org.myrobotlab.service.interfaces.I2CBusController;
@@ -52,6 +53,7 @@ import org.myrobotlab.service.interfaces.PinArrayControl;
 import org.myrobotlab.service.interfaces.PinArrayListener;
 import org.myrobotlab.service.interfaces.PinDefinition;
 import org.myrobotlab.service.interfaces.PinListener;
+import org.myrobotlab.service.interfaces.PinSampleListener;
 import org.myrobotlab.service.interfaces.PortConnector;
 import org.myrobotlab.service.interfaces.PortListener;
 import org.myrobotlab.service.interfaces.PortPublisher;
@@ -179,8 +181,6 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
   String board;
   String aref;
 
-  int byteCount;
-
   public transient int controllerAttachAs = MRL_IO_NOT_DEFINED;
   /**
    * id reference of sensor, key is the MrlComm device id
@@ -201,6 +201,37 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
 
   boolean boardInfoEnabled = true;
 
+  /**
+   * msgs which may be sent before the first is acknowledged - the board's own
+   * limit from boardInfo wins, 1 is stop and wait
+   */
+  int ackWindow = 8;
+
+  /**
+   * moves in one servoSyncMoveTo msg - 5 bytes each
+   */
+  public static final int SYNC_MOVES_PER_MSG = 12;
+
+  /**
+   * the moves a thread holds back between servoSyncBegin and servoSyncEnd -
+   * moves of other threads are not part of its batch
+   */
+  static class SyncBatch {
+    int depth = 0;
+    /**
+     * deviceId to {deviceId, us, velocity} - the last move of a servo wins
+     */
+    Map<Integer, int[]> moves = new LinkedHashMap<Integer, int[]>();
+  }
+
+  transient ThreadLocal<SyncBatch> syncBatch = new ThreadLocal<SyncBatch>();
+
+  /**
+   * the msgs of one batch go out together - the last one starts every staged
+   * servo, so batches of two threads must not interleave
+   */
+  transient Object syncLock = new Object();
+
   I2CBus i2cBus = null;
 
   volatile byte[] i2cData = new byte[64];
@@ -215,16 +246,58 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
 
   Map<String, I2CDeviceMap> i2cDevices = new ConcurrentHashMap<String, I2CDeviceMap>();
 
-  transient int[] ioCmd = new int[MAX_MSG_SIZE];
+  /**
+   * reassembles the MrlComm frames coming from the board
+   */
+  transient FrameDecoder decoder = new FrameDecoder(new FrameDecoder.FrameListener() {
+    @Override
+    public void onFrame(int[] ioCmd, int size) {
+      try {
+        msg.processCommand(ioCmd);
+      } catch (Exception e) {
+        ++error_mrl_to_arduino_rx_cnt;
+        error("msg structure violation %d", error_mrl_to_arduino_rx_cnt);
+        log.warn("msg_structure violation size {} buffer {}", size, Arrays.copyOf(ioCmd, size));
+        Logging.logError(e);
+      }
+    }
 
-  public transient Msg msg;
+    @Override
+    public void onFrameError(String error) {
+      warn("Arduino->MRL error - %s - %d rx errors", error, ++error_arduino_to_mrl_rx_cnt);
+    }
+  });
 
-  int msgSize;
+  public transient Msg msg;
 
   Integer nextDeviceId = 0;
   int numAck = 0;
   transient Map<String, PinArrayListener> pinArrayListeners = new ConcurrentHashMap<String, PinArrayListener>();
 
+  public static final int PIN_SAMPLE_CAPACITY = 4096;
+
+  /**
+   * every pin report is written here as primitive samples - filtered per pin
+   * by enablePin(address, rate, deadband, downsample)
+   */
+  transient PinSampleBuffer pinSamples = new PinSampleBuffer(PIN_SAMPLE_CAPACITY);
+
+  /**
+   * copy on write - delivery on the serial thread iterates without an
+   * iterator
+   */
+  transient volatile PinSampleListener[] pinSampleListeners = new PinSampleListener[0];
+
+  /**
+   * samples per delivery to the PinSampleListeners - 0 delivers every report
+   */
+  int pinSampleBatch = 0;
+
+  /**
+   * number of the first sample not delivered yet
+   */
+  transient long pinSampleFrom = 0;
+
   /**
    * address index of pinList
    */
@@ -303,6 +376,27 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     pinArrayListeners.put(listener.getName(), listener);
   }
 
+  /**
+   * attach a listener for batches of pin samples - no PinData objects are
+   * created for it
+   */
+  public synchronized void attach(PinSampleListener listener) {
+    for (PinSampleListener l : pinSampleListeners) {
+      if (l == listener) {
+        return;
+      }
+    }
+    PinSampleListener[] listeners = Arrays.copyOf(pinSampleListeners, pinSampleListeners.length + 1);
+    listeners[listeners.length - 1] = listener;
+    pinSampleListeners = listeners;
+  }
+
+  public synchronized void detach(PinSampleListener listener) {
+    List<PinSampleListener> listeners = new ArrayList<PinSampleListener>(Arrays.asList(pinSampleListeners));
+    listeners.remove(listener);
+    pinSampleListeners = listeners.toArray(new PinSampleListener[listeners.size()]);
+  }
+
   /**
    * attach a pin listener who listens to a specific pin
    */
@@ -505,6 +599,9 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
       }
 
       msg.enableAcks(true);
+      if (version != null && version.equals(MRLCOMM_VERSION)) {
+        setAckWindow(ackWindow);
+      }
 
     } catch (Exception e) {
       log.error("serial open threw", e);
@@ -644,6 +741,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
   // > disablePin/pin
   public void disablePin(Integer address) {
     msg.disablePin(address);
+    pinSamples.clearFilter(address);
     PinDefinition pinDef = pinIndex.get(address);
     invoke("publishPinDefinition", pinDef);
   }
@@ -679,6 +777,33 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     msg.enableAcks(enabled);
   }
 
+  /**
+   * sets how many msgs can be sent before the first one is acknowledged, limited
+   * by what the board reported in boardInfo. 1 or less is stop and wait.
+   */
+  public void setAckWindow(int size) {
+    ackWindow = size;
+    Integer boardWindow = boardInfo.getAckWindow();
+    if (msg == null || boardWindow == null) {
+      return;
+    }
+    int window = Math.min(size, boardWindow);
+    msg.setAckWindow(window);
+    log.info("{} ack window {}", getName(), window);
+  }
+
+  public int getAckWindow() {
+    return ackWindow;
+  }
+
+  /**
+   * collect msgs sent within a couple of ms and write them to the port
+   * together - fewer, fuller usb packets for bursts like gestures
+   */
+  public void setCoalesce(boolean b) {
+    msg.setCoalesce(b, 2);
+  }
+
   // msg
   // > enableBoardInfo/bool enabled
   public void enableBoardInfo(Boolean enabled) {
@@ -730,6 +855,28 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     invoke("publishPinDefinition", pin); // broadcast pin change
   }
 
+  /**
+   * start polling reads of selected pin and filter its samples on the host
+   *
+   * @param address
+   *          pin
+   * @param rate
+   *          polling rate of MrlComm - null for the default
+   * @param deadband
+   *          samples which changed by this or less are dropped - 0 or null
+   *          for none
+   * @param downsample
+   *          only every n-th sample is kept - 0, 1 or null for all
+   */
+  public void enablePin(Integer address, Integer rate, Integer deadband, Integer downsample) {
+    if (address == null) {
+      error("enablePin needs a pin address");
+      return;
+    }
+    pinSamples.setFilter(address, (deadband == null) ? 0 : deadband, (downsample == null) ? 0 : downsample);
+    enablePin(address, (rate == null) ? 0 : rate);
+  }
+
   // > getBoardInfo
   public BoardInfo getBoardInfo() {
     // msg.getBoardInfo(); do not do this -
@@ -1193,98 +1340,27 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
    * Other services may use the same technique or subscribe to a Serial's
    * publishByte method
    *
-   * it might be worthwhile to look in optimizing reads into arrays vs single
-   * byte processing .. but maybe there would be no gain
-   *
+   * the port thread uses onBytes - this is the per byte path for everything
+   * else (e.g. SerialRelay)
    */
-
-  // FIXME - onByte(int[] data)
   @Override
   public Integer onByte(Integer newByte) {
-    try {
-      /**
-       * Archtype InputStream read - rxtxLib does not have this straightforward
-       * design, but the details of how it behaves is is handled in the Serial
-       * service and we are given a unified interface
-       *
-       * The "read()" is data taken from a blocking queue in the Serial service.
-       * If we want to support blocking functions in Arduino then we'll
-       * "publish" to our local queues
-       */
-      // TODO: consider reading more than 1 byte at a time ,and make this
-      // callback onBytes or something like that.
-
-      ++byteCount;
-      if (log.isDebugEnabled()) {
-        log.info("onByte {} \tbyteCount \t{}", newByte, byteCount);
-      }
-      if (byteCount == 1) {
-        if (newByte != MAGIC_NUMBER) {
-          byteCount = 0;
-          msgSize = 0;
-          Arrays.fill(ioCmd, 0); // FIXME - optimize - remove
-          warn(String.format("Arduino->MRL error - bad magic number %d - %d rx errors", newByte, ++error_arduino_to_mrl_rx_cnt));
-          // dump.setLength(0);
-        }
-        return newByte;
-      } else if (byteCount == 2) {
-        // get the size of message
-        if (newByte > 64) {
-          byteCount = 0;
-          msgSize = 0;
-          error(String.format("Arduino->MRL error %d rx sz errors", ++error_arduino_to_mrl_rx_cnt));
-          return newByte;
-        }
-        msgSize = newByte.intValue();
-        // dump.append(String.format("MSG|SZ %d", msgSize));
-      } else if (byteCount > 2) {
-        // remove header - fill msg data - (2) headbytes -1
-        // (offset)
-        // dump.append(String.format("|P%d %d", byteCount,
-        // newByte));
-        ioCmd[byteCount - 3] = newByte.intValue();
-      } else {
-        // the case where byteCount is negative?! not got.
-        error(String.format("Arduino->MRL error %d rx negsz errors", ++error_arduino_to_mrl_rx_cnt));
-        return newByte;
-      }
-      if (byteCount == 2 + msgSize) {
-        // we've received a full message
-
-        msg.processCommand(ioCmd);
-
-        // Our 'first' getBoardInfo may not receive a acknowledgement
-        // so this should be disabled until boadInfo is valid
-
-        /**
-         * acking is done in Msg ! if (boardInfo.isValid() && ackEnabled) {
-         * synchronized (ackRecievedLock) { try { long ts =
-         * System.currentTimeMillis(); log.info( "***** starting wait *****");
-         * ackRecievedLock.wait(10000); log.info("***** waited {} ms *****",
-         * (System.currentTimeMillis() - ts)); } catch (InterruptedException e)
-         * {// don't care} }
-         * 
-         * if (!ackRecievedLock.acknowledged) { log.error( "Ack not received :
-         * {} {}", Msg.methodToString(ioCmd[0]), numAck); } } }
-         ***/
-
-        // clean up memory/buffers
-        msgSize = 0;
-        byteCount = 0;
-        Arrays.fill(ioCmd, 0); // optimize remove
-      }
-    } catch (Exception e) {
-      ++error_mrl_to_arduino_rx_cnt;
-      error("msg structure violation %d", error_mrl_to_arduino_rx_cnt);
-      log.warn("msg_structure violation byteCount {} buffer {}", byteCount, Arrays.copyOf(ioCmd, byteCount));
-      // try again (clean up memory buffer)
-      msgSize = 0;
-      byteCount = 0;
-      Logging.logError(e);
+    if (log.isDebugEnabled()) {
+      log.debug("onByte {}", newByte);
     }
+    decoder.decode(newByte & 0xff);
     return newByte;
   }
 
+  /**
+   * bulk callback from the port's reading thread - frames are decoded straight
+   * out of the read buffer
+   */
+  @Override
+  public void onBytes(byte[] data, int off, int len) {
+    decoder.decode(data, off, len);
+  }
+
   @Override
   public void onConnect(String portName) {
     info("%s connected to %s", getName(), portName);
@@ -1300,6 +1376,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
   @Override
   public void onDisconnect(String portName) {
     info("%s disconnected from %s", getName(), portName);
+    decoder.reset();
     enableAck(false);
     enableBoardInfo(false);
     boardInfo.reset();
@@ -1352,6 +1429,14 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     heartbeat = true;
   }
 
+  // < publishSeqAck/seq
+  public void publishSeqAck(Integer seq/* byte */) {
+    // the send window already has it - see Msg.processCommand
+    log.debug("Seq ack received: {}", seq);
+    numAck++;
+    heartbeat = true;
+  }
+
   /*
    * No longer needed .. Arduino service controls device list - MrlComm does not
    * public String publishAttachedDevice(int deviceId, String deviceName) {
@@ -1371,10 +1456,10 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
    * return deviceName; }
    */
 
-  // < publishBoardInfo/version/boardType/b16 microsPerLoop/b16 sram/[]
+  // < publishBoardInfo/version/boardType/b16 microsPerLoop/b16 sram/activePins/ackWindow/[]
   // deviceSummary
   public BoardInfo publishBoardInfo(Integer version/* byte */, Integer boardType/* byte */, Integer microsPerLoop/* b16 */, Integer sram/* b16 */, Integer activePins,
-      int[] deviceSummary/* [] */) {
+      Integer ackWindow/* byte */, int[] deviceSummary/* [] */) {
     long now = System.currentTimeMillis();
 
     log.debug("Version return by Arduino: {}", boardInfo.getVersion());
@@ -1390,6 +1475,7 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     boardInfo.setMicrosPerLoop(microsPerLoop);
     boardInfo.setSram(sram);
     boardInfo.setActivePins(activePins);
+    boardInfo.setAckWindow(ackWindow);
     boardInfo.setDeviceSummary(arrayToDeviceSummary(deviceSummary));
     boardInfo.heartbeatMs = now - boardInfoRequestTs;
 
@@ -1476,6 +1562,54 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     return pinData;
   }
 
+  /**
+   * pin report straight from the Msg frame - samples go to the ring and the
+   * PinSampleListeners without allocating
+   *
+   * @return false if PinData listeners or publishPinArray subscribers still
+   *         need the report
+   */
+  public boolean onPinArray(int[] ioCmd, int off, int len) {
+    long now = System.currentTimeMillis();
+    for (int i = off; i + 2 < off + len; i += 3) {
+      pinSamples.offer(ioCmd[i], ((ioCmd[i + 1] & 0xFF) << 8) | (ioCmd[i + 2] & 0xFF), now);
+    }
+    deliverPinSamples();
+    return pinArrayListeners.isEmpty() && pinListeners.isEmpty() && !outbox.hasListeners("publishPinArray");
+  }
+
+  void deliverPinSamples() {
+    long head = pinSamples.getHead();
+    if (head - pinSampleFrom == 0 || head - pinSampleFrom < pinSampleBatch) {
+      return;
+    }
+    // listeners which fell a whole ring behind lose the oldest
+    long from = Math.max(pinSampleFrom, pinSamples.getTail());
+    int count = (int) (head - from);
+    pinSampleFrom = head;
+    PinSampleListener[] listeners = pinSampleListeners;
+    for (int i = 0; i < listeners.length; ++i) {
+      try {
+        listeners[i].onPinSamples(pinSamples, from, count);
+      } catch (Exception e) {
+        log.error("onPinSamples {} threw", listeners[i].getName(), e);
+      }
+    }
+  }
+
+  public PinSampleBuffer getPinSamples() {
+    return pinSamples;
+  }
+
+  /**
+   * @param samples
+   *          samples per delivery to the PinSampleListeners - 0 delivers every
+   *          report
+   */
+  public void setPinSampleBatch(int samples) {
+    pinSampleBatch = Math.max(0, Math.min(samples, pinSamples.getCapacity()));
+  }
+
   // < publishPinArray/[] data
   public PinData[] publishPinArray(int[] data) {
     log.debug("publishPinArray {}", data);
@@ -1746,10 +1880,63 @@ public class Arduino extends Service implements Microcontroller, PinArrayControl
     // getTargetOutput ALWAYS ALWAYS Degrees !
     // so we convert to microseconds
     int us = degreeToMicroseconds(servo.getTargetOutput());
+    SyncBatch batch = syncBatch.get();
+    if (batch != null) {
+      batch.moves.put(deviceId, new int[] { deviceId, us, (int) servo.getVelocity() });
+      return;
+    }
     log.info("servoMoveToMicroseconds servo {} id {} {}->{} us", servo.getName(), deviceId, servo.getPos(), us);
     msg.servoMoveToMicroseconds(deviceId, us);
   }
 
+  @Override
+  public void servoSyncBegin() {
+    SyncBatch batch = syncBatch.get();
+    if (batch == null) {
+      batch = new SyncBatch();
+      syncBatch.set(batch);
+    }
+    ++batch.depth;
+  }
+
+  /**
+   * sends the moves this thread held back - the board stages all but the last
+   * msg and starts every staged servo with the last one
+   */
+  @Override
+  // > servoSyncMoveTo/bool apply/[] moves
+  public void servoSyncEnd() {
+    SyncBatch batch = syncBatch.get();
+    if (batch == null || --batch.depth > 0) {
+      return;
+    }
+    syncBatch.remove();
+    if (batch.moves.isEmpty()) {
+      return;
+    }
+    List<int[]> moves = new ArrayList<int[]>(batch.moves.values());
+    log.info("servoSyncMoveTo {} servos", moves.size());
+    synchronized (syncLock) {
+      sendSyncMoves(moves);
+    }
+  }
+
+  void sendSyncMoves(List<int[]> moves) {
+    for (int i = 0; i < moves.size(); i += SYNC_MOVES_PER_MSG) {
+      int n = Math.min(SYNC_MOVES_PER_MSG, moves.size() - i);
+      int[] data = new int[n * 5];
+      for (int j = 0; j < n; ++j) {
+        int[] move = moves.get(i + j);
+        data[j * 5] = move[0];
+        data[j * 5 + 1] = (move[1] >> 8) & 0xFF;
+        data[j * 5 + 2] = move[1] & 0xFF;
+        data[j * 5 + 3] = (move[2] >> 8) & 0xFF;
+        data[j * 5 + 4] = move[2] & 0xFF;
+      }
+      msg.servoSyncMoveTo(i + n == moves.size(), data);
+    }
+  }
+
   /**
    * On standard servos a parameter value of 1000 is fully counter-clockwise,
    * 2000 is fully clockwise, and 1500 is in the middle.
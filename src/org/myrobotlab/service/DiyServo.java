@@ -34,6 +34,7 @@ import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.interfaces.NameProvider;
 import org.myrobotlab.framework.interfaces.ServiceInterface;
+import org.myrobotlab.kinematics.MotionPlanner;
 import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
@@ -78,45 +79,32 @@ import org.slf4j.Logger;
 public class DiyServo extends Service implements ServoControl, PinListener {
 
   /**
-   * Sweeper - thread used to sweep motor back and forth
-   * 
+   * Sweeper - moved back and forth by the MotionPlanner, the PID loop of the
+   * MotorUpdater follows
    */
-  public class Sweeper extends Thread {
+  public class Sweeper implements MotionPlanner.Axis {
 
-    public Sweeper(String name) {
-      super(String.format("%s.sweeper", name));
+    @Override
+    public String getName() {
+      return String.format("%s.sweeper", DiyServo.this.getName());
     }
 
     @Override
-    public void run() {
-
-      double sweepMin = 0.0;
-      double sweepMax = 0.0;
-      // start in the middle
-      double sweepPos = mapper.getMinX() + (mapper.getMaxX() - mapper.getMinX()) / 2;
-      isSweeping = true;
-
-      try {
-        while (isSweeping) {
-
-          // set our range to be inside 'real' min & max input
-          sweepMin = mapper.getMinX() + 1;
-          sweepMax = mapper.getMaxX() - 1;
-
-          // if pos is too small or too big flip direction
-          if (sweepPos >= sweepMax || sweepPos <= sweepMin) {
-            sweepStep = sweepStep * -1;
-          }
+    public ServoController getController() {
+      // the motor is driven by the MotorUpdater - nothing to batch
+      return null;
+    }
 
-          sweepPos += sweepStep;
-          moveTo(sweepPos);
-          Thread.sleep(sweepDelay);
-        }
-      } catch (Exception e) {
-        isSweeping = false;
-      }
+    @Override
+    public void write(double pos) {
+      moveTo(pos);
     }
 
+    @Override
+    public void onArrived(double pos) {
+      isSweeping = false;
+      broadcastState();
+    }
   }
 
   /**
@@ -277,7 +265,7 @@ public class DiyServo extends Service implements ServoControl, PinListener {
   double sweepStep = 1.0;
   boolean sweepOneWay = false;
   double lastPos;
-  transient Thread sweeper = null;
+  transient Sweeper sweeper = null;
 
   /**
    * feedback of both incremental position and stops. would allow blocking
@@ -622,7 +610,10 @@ public class DiyServo extends Service implements ServoControl, PinListener {
   @Override
   public void stop() {
     isSweeping = false;
-    sweeper = null;
+    if (sweeper != null) {
+      MotionPlanner.getInstance().stop(sweeper);
+      sweeper = null;
+    }
     // TODO Replace with internal logic for motor and PID
     // getController().servoSweepStop(this);
     broadcastState();
@@ -656,8 +647,12 @@ public class DiyServo extends Service implements ServoControl, PinListener {
       stop();
     }
 
-    sweeper = new Sweeper(getName());
-    sweeper.start();
+    // set our range to be inside 'real' min & max input - sweepStep input
+    // every sweepDelay ms, starting in the middle
+    sweeper = new Sweeper();
+    double velocity = Math.abs(sweepStep) * 1000 / Math.max(1, sweepDelay);
+    double middle = mapper.getMinX() + (mapper.getMaxX() - mapper.getMinX()) / 2;
+    MotionPlanner.getInstance().sweep(sweeper, middle, mapper.getMinX() + 1, mapper.getMaxX() - 1, velocity, 0, oneWay);
 
     isSweeping = true;
     broadcastState();
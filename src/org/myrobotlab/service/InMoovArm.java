@@ -3,6 +3,7 @@ package org.myrobotlab.service;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
@@ -11,6 +12,7 @@ import org.myrobotlab.kinematics.DHRobotArm;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.math.MathUtils;
 import org.myrobotlab.service.interfaces.IKJointAngleListener;
+import org.myrobotlab.service.interfaces.ServoController;
 import org.slf4j.Logger;
 
 /**
@@ -229,10 +231,15 @@ public class InMoovArm extends Service implements IKJointAngleListener {
     if (log.isDebugEnabled()) {
       log.debug(String.format("%s moveTo %d %d %d %d", getName(), bicep, rotate, shoulder, omoplate));
     }
-    this.bicep.moveTo(bicep);
-    this.rotate.moveTo(rotate);
-    this.shoulder.moveTo(shoulder);
-    this.omoplate.moveTo(omoplate);
+    Set<ServoController> sync = Servo.syncBegin(this.bicep, this.rotate, this.shoulder, this.omoplate);
+    try {
+      this.bicep.moveTo(bicep);
+      this.rotate.moveTo(rotate);
+      this.shoulder.moveTo(shoulder);
+      this.omoplate.moveTo(omoplate);
+    } finally {
+      Servo.syncEnd(sync);
+    }
   }
 
   public void moveToBlocking(double bicep, double rotate, double shoulder, double omoplate) {
@@ -1,5 +1,7 @@
 package org.myrobotlab.service;
 
+import java.util.Set;
+
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.logging.Level;
@@ -9,6 +11,7 @@ import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.service.data.LeapData;
 import org.myrobotlab.service.data.LeapHand;
 import org.myrobotlab.service.interfaces.LeapDataListener;
+import org.myrobotlab.service.interfaces.ServoController;
 import org.slf4j.Logger;
 
 /**
@@ -318,13 +321,18 @@ public class InMoovHand extends Service implements LeapDataListener {
     if (log.isDebugEnabled()) {
       log.debug(String.format("%s.moveTo %d %d %d %d %d %d", getName(), thumb, index, majeure, ringFinger, pinky, wrist));
     }
-    this.thumb.moveTo(thumb);
-    this.index.moveTo(index);
-    this.majeure.moveTo(majeure);
-    this.ringFinger.moveTo(ringFinger);
-    this.pinky.moveTo(pinky);
-    if (wrist != null)
-      this.wrist.moveTo(wrist);
+    Set<ServoController> sync = Servo.syncBegin(this.thumb, this.index, this.majeure, this.ringFinger, this.pinky, this.wrist);
+    try {
+      this.thumb.moveTo(thumb);
+      this.index.moveTo(index);
+      this.majeure.moveTo(majeure);
+      this.ringFinger.moveTo(ringFinger);
+      this.pinky.moveTo(pinky);
+      if (wrist != null)
+        this.wrist.moveTo(wrist);
+    } finally {
+      Servo.syncEnd(sync);
+    }
   }
   
   public void moveToBlocking(double thumb, double index, double majeure, double ringFinger, double pinky) {
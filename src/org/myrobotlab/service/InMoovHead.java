@@ -1,8 +1,11 @@
 package org.myrobotlab.service;
 
+import java.util.Set;
+
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.service.interfaces.ServoController;
 import org.slf4j.Logger;
 
 /**
@@ -228,18 +231,23 @@ public class InMoovHead extends Service {
     if (log.isDebugEnabled()) {
       log.debug(String.format("head.moveTo %d %d %d %d %d %d", neck, rothead, eyeX, eyeY, jaw, rollNeck));
     }
+    Set<ServoController> sync = Servo.syncBegin(this.rothead, this.neck, this.eyeX, this.eyeY, this.jaw, this.rollNeck);
+    try {
       if (rothead != null)
-    this.rothead.moveTo(rothead);
-    if (neck != null)
-      this.neck.moveTo(neck);
-    if (eyeX != null)
-      this.eyeX.moveTo(eyeX);
-    if (eyeY != null)
-      this.eyeY.moveTo(eyeY);
-    if (jaw != null)
-      this.jaw.moveTo(jaw);
-    if (rollNeck != null)
+        this.rothead.moveTo(rothead);
+      if (neck != null)
+        this.neck.moveTo(neck);
+      if (eyeX != null)
+        this.eyeX.moveTo(eyeX);
+      if (eyeY != null)
+        this.eyeY.moveTo(eyeY);
+      if (jaw != null)
+        this.jaw.moveTo(jaw);
+      if (rollNeck != null)
         this.rollNeck.moveTo(rollNeck);
+    } finally {
+      Servo.syncEnd(sync);
+    }
   }
   
   public void moveToBlocking(double neck, double rothead) {
@@ -1,11 +1,14 @@
 package org.myrobotlab.service;
 
+import java.util.Set;
+
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.service.interfaces.ServoController;
 import org.slf4j.Logger;
 
 /**
@@ -192,10 +195,14 @@ public class InMoovTorso extends Service {
     if (log.isDebugEnabled()) {
       log.debug(String.format("%s moveTo %d %d %d", getName(), topStom, midStom, lowStom));
     }
-    this.topStom.moveTo(topStom);
-    this.midStom.moveTo(midStom);
-    this.lowStom.moveTo(lowStom);
-
+    Set<ServoController> sync = Servo.syncBegin(this.topStom, this.midStom, this.lowStom);
+    try {
+      this.topStom.moveTo(topStom);
+      this.midStom.moveTo(midStom);
+      this.lowStom.moveTo(lowStom);
+    } finally {
+      Servo.syncEnd(sync);
+    }
   }
   
   public void moveToBlocking(Double topStom, Double midStom, Double lowStom) {
@@ -44,6 +44,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.bytedeco.javacpp.opencv_core.CvPoint;
@@ -54,6 +55,7 @@ import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.myrobotlab.framework.LatencyHistogram;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.image.ColoredPoint;
@@ -66,10 +68,12 @@ import org.myrobotlab.opencv.BlockingQueueGrabber;
 import org.myrobotlab.opencv.FilterWrapper;
 import org.myrobotlab.opencv.OpenCVData;
 import org.myrobotlab.opencv.OpenCVFilter;
+import org.myrobotlab.opencv.OpenCVFilterAsync;
 import org.myrobotlab.opencv.OpenCVFilterFaceDetect;
 import org.myrobotlab.opencv.OpenCVFilterFaceDetect2;
 import org.myrobotlab.opencv.OpenCVFilterTesseract;
 import org.myrobotlab.opencv.OpenCVFilterOverlay;
+import org.myrobotlab.opencv.VideoPipeline;
 import org.myrobotlab.opencv.VideoProcessor;
 import org.myrobotlab.reflection.Reflector;
 import org.myrobotlab.service.abstracts.AbstractVideoSource;
@@ -424,6 +428,27 @@ public class OpenCV extends AbstractVideoSource {
     return filter;
   }
 
+  /**
+   * adds a filter which runs on a thread of its own at its own rate - the
+   * video keeps its frame rate and frames get the filter's latest results
+   */
+  public OpenCVFilter addFilterAsync(String name, String filterType) {
+    return videoProcessor.addFilterAsync(name, filterType);
+  }
+
+  /**
+   * ms after which the results of an async filter are no longer attached to
+   * frames
+   */
+  public void setAsyncMaxStaleness(String name, long ms) {
+    OpenCVFilter filter = videoProcessor.getFilter(name);
+    if (filter instanceof OpenCVFilterAsync) {
+      ((OpenCVFilterAsync) filter).maxStaleness = ms;
+    } else {
+      error("%s is not an async filter", name);
+    }
+  }
+
   // FIXME - rename removeFilters
   public void removeFilters() {
     videoProcessor.removeFilters();
@@ -672,6 +697,29 @@ public class OpenCV extends AbstractVideoSource {
     videoProcessor.setMinDelay(time);
   }
 
+  /*
+   * grab, each filter, display conversion and publishing on their own threads -
+   * the frame rate is bound by the slowest of them instead of their sum
+   */
+  public void setPipelined(boolean b) {
+    videoProcessor.setPipelined(b);
+  }
+
+  public void setStageDropPolicy(String stage, String policy) {
+    videoProcessor.setDropPolicy(stage, VideoPipeline.DropPolicy.valueOf(policy.toUpperCase()));
+  }
+
+  public void setStageGroup(String filterName, String group) {
+    videoProcessor.setStageGroup(filterName, group);
+  }
+
+  /*
+   * time per frame of each stage in us
+   */
+  public Map<String, LatencyHistogram.Summary> getStageTimings() {
+    return videoProcessor.getStageTimings();
+  }
+
   public String setRecordingSource(String source) {
     videoProcessor.recordingSource = source;
     return source;
@@ -47,6 +47,8 @@ import org.atmosphere.wasync.Event;
 import org.atmosphere.wasync.Function;
 import org.atmosphere.wasync.Request;
 import org.atmosphere.wasync.RequestBuilder;
+import org.myrobotlab.codec.CodecBinary;
+import org.myrobotlab.codec.CodecUtils;
 import org.myrobotlab.framework.Message;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceType;
@@ -96,6 +98,13 @@ public class RemoteAdapter extends Service implements Gateway {
 	private Integer udpPort;
 	private Integer tcpPort;
 
+	/**
+	 * how messages are written on the wire - null is java serialization,
+	 * CodecUtils.MIME_TYPE_BINARY is CodecBinary, which is smaller and much
+	 * cheaper to encode. Incoming messages are accepted in either form.
+	 */
+	private String mimeType = null;
+
 	boolean isListening = false;
 	boolean isScanning = false;
 
@@ -221,6 +230,10 @@ public class RemoteAdapter extends Service implements Gateway {
 		return udpPort;
 	}
 
+	public String getMimeType() {
+		return mimeType;
+	}
+
 	public boolean isListening() {
 		return isListening;
 	}
@@ -313,7 +326,11 @@ public class RemoteAdapter extends Service implements Gateway {
 			DatagramSocket s = new DatagramSocket();
 			ByteArrayOutputStream b_out = new ByteArrayOutputStream();
 			ObjectOutputStream o_out = new ObjectOutputStream(b_out);
-			o_out.writeObject(msg);
+			if (isBinary()) {
+				o_out.writeObject(CodecBinary.toBytes(msg));
+			} else {
+				o_out.writeObject(msg);
+			}
 			o_out.flush();
 			b_out.flush();
 			byte[] b = b_out.toByteArray();
@@ -347,6 +364,19 @@ public class RemoteAdapter extends Service implements Gateway {
 		this.udpPort = udpPort;
 	}
 
+	/**
+	 * @param mimeType
+	 *            CodecUtils.MIME_TYPE_BINARY or null for java serialization -
+	 *            applies to connections made after this call
+	 */
+	public void setMimeType(String mimeType) {
+		this.mimeType = mimeType;
+	}
+
+	public boolean isBinary() {
+		return CodecUtils.MIME_TYPE_BINARY.equals(mimeType);
+	}
+
 	public void startListening() {
 		startListening(6767);
 	}
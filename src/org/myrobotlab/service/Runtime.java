@@ -19,6 +19,8 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -31,12 +33,16 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.myrobotlab.cmdline.CmdLine;
 import org.myrobotlab.codec.ApiFactory;
 import org.myrobotlab.codec.ApiFactory.ApiDescription;
 import org.myrobotlab.codec.CodecJson;
 import org.myrobotlab.codec.CodecUtils;
+import org.myrobotlab.framework.Dispatcher;
 import org.myrobotlab.framework.FileMsgScanner;
 import org.myrobotlab.framework.Instantiator;
 import org.myrobotlab.framework.MRLListener;
@@ -46,6 +52,7 @@ import org.myrobotlab.framework.MethodEntry;
 import org.myrobotlab.framework.Platform;
 import org.myrobotlab.framework.Service;
 import org.myrobotlab.framework.ServiceEnvironment;
+import org.myrobotlab.framework.ServiceMetrics;
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.Status;
 import org.myrobotlab.framework.SystemResources;
@@ -107,9 +114,23 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
 
   /**
    * a registry of all services regardless of which environment they came from -
-   * each must have a unique name
+   * each must have a unique name. Sorted and lock-free for readers - every
+   * message delivered looks up its service here, so lookups must not wait on
+   * services being created or released (which are still serialized)
    */
-  static private final TreeMap<String, ServiceInterface> registry = new TreeMap<String, ServiceInterface>();
+  static private final ConcurrentSkipListMap<String, ServiceInterface> registry = new ConcurrentSkipListMap<String, ServiceInterface>();
+
+  /**
+   * interface to the registered services which implement it (directly), kept
+   * up to date by register and release for getServicesFromInterface
+   */
+  static private final ConcurrentHashMap<Class<?>, ConcurrentSkipListMap<String, ServiceInterface>> interfaceIndex = new ConcurrentHashMap<Class<?>, ConcurrentSkipListMap<String, ServiceInterface>>();
+
+  /**
+   * incremented on every register and release - lets cached references to
+   * services (e.g. outbox listener targets) know when to re-resolve
+   */
+  static private volatile long registryVersion = 0;
 
   /**
    * map to hide methods we are not interested in
@@ -165,7 +186,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
 
   SystemResources resources = new SystemResources();
 
-  private static long uniqueID = new Random(System.currentTimeMillis()).nextLong();
+  private static final AtomicLong uniqueID = new AtomicLong(new Random(System.currentTimeMillis()).nextLong());
 
   public final static Logger log = LoggerFactory.getLogger(Runtime.class);
 
@@ -868,6 +889,10 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     return pid;
   }
 
+  public static long getRegistryVersion() {
+    return registryVersion;
+  }
+
   public static Map<String, ServiceInterface> getRegistry() {
     return registry;// FIXME should return copy
   }
@@ -883,11 +908,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     if (name == null || name.length() == 0) {
       return Runtime.getInstance();
     }
-    if (!registry.containsKey(name)) {
-      return null;
-    } else {
-      return registry.get(name);
-    }
+    return registry.get(name);
   }
 
   public static ServiceEnvironment getEnvironment(URI url) {
@@ -945,30 +966,58 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
   /*
    * @return services which match
    */
-  public static synchronized ArrayList<ServiceInterface> getServicesFromInterface(Class<?> interfaze) {
-    ArrayList<ServiceInterface> ret = new ArrayList<ServiceInterface>();
+  public static ArrayList<ServiceInterface> getServicesFromInterface(Class<?> interfaze) {
+    ConcurrentSkipListMap<String, ServiceInterface> services = interfaceIndex.get(interfaze);
+    if (services == null) {
+      return new ArrayList<ServiceInterface>();
+    }
+    return new ArrayList<ServiceInterface>(services.values());
+  }
 
-    Iterator<String> it = registry.keySet().iterator();
-    String serviceName;
-    ServiceInterface sw;
-    Class<?> c;
-    Class<?>[] interfaces;
-    Class<?> m;
-    while (it.hasNext()) {
-      serviceName = it.next();
-      sw = registry.get(serviceName);
-      c = sw.getClass();
-      interfaces = c.getInterfaces();
-      for (int i = 0; i < interfaces.length; ++i) {
-        m = interfaces[i];
-
-        if (m.equals(interfaze)) {
-          ret.add(sw);
+  /**
+   * puts a service in the registry and the interface index - replaces a
+   * service with the same name
+   */
+  static synchronized private void putRegistry(ServiceInterface s) {
+    ServiceInterface old = registry.put(s.getName(), s);
+    if (old != null && old.getClass() != s.getClass()) {
+      removeIndex(old);
+    }
+    for (Class<?> interfaze : s.getClass().getInterfaces()) {
+      ConcurrentSkipListMap<String, ServiceInterface> services = interfaceIndex.get(interfaze);
+      if (services == null) {
+        services = new ConcurrentSkipListMap<String, ServiceInterface>();
+        ConcurrentSkipListMap<String, ServiceInterface> existing = interfaceIndex.putIfAbsent(interfaze, services);
+        if (existing != null) {
+          services = existing;
         }
       }
+      services.put(s.getName(), s);
     }
+    ++registryVersion;
+  }
 
-    return ret;
+  static synchronized private void removeRegistry(String name) {
+    ServiceInterface s = registry.remove(name);
+    if (s != null) {
+      removeIndex(s);
+    }
+    ++registryVersion;
+  }
+
+  static synchronized private void clearRegistry() {
+    registry.clear();
+    interfaceIndex.clear();
+    ++registryVersion;
+  }
+
+  static private void removeIndex(ServiceInterface s) {
+    for (Class<?> interfaze : s.getClass().getInterfaces()) {
+      ConcurrentSkipListMap<String, ServiceInterface> services = interfaceIndex.get(interfaze);
+      if (services != null) {
+        services.remove(s.getName(), s);
+      }
+    }
   }
 
   static public Set<Thread> getThreads() {
@@ -1011,9 +1060,8 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
    *
    * @return a unique id
    */
-  public static final synchronized long getUniqueID() {
-    ++uniqueID;
-    return uniqueID;
+  public static final long getUniqueID() {
+    return uniqueID.incrementAndGet();
   }
 
   public static String getUptime() {
@@ -1201,6 +1249,14 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
 
       logging.setLevel(cmdline.getSafeArgument("-logLevel", 0, "INFO"));
 
+      if (cmdline.containsKey("-executionMode")) {
+        setExecutionMode(cmdline.getArgument("-executionMode", 0));
+      }
+
+      if (cmdline.containsKey("-metrics")) {
+        setMetricsEnabled(true);
+      }
+
       if (cmdline.containsKey("-id")) {
         customId = cmdline.getArgument("-id", 0);
       }
@@ -1299,6 +1355,8 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     System.out.println("-logToConsole                              # redirects logging to console");
     System.out.println("-logLevel <DEBUG | INFO | WARNING | ERROR> # log level");
     System.out.println("-service <name1 Type1 name2 Type2 ...>     # create and start list of services, e.g. -service gui SwingGui");
+    System.out.println("-executionMode <THREAD | POOL | VIRTUAL>   # thread per inbox/outbox, shared pool or virtual threads");
+    System.out.println("-metrics                                   # measure queue, invoke and publish times of all services");
     // System.out.println("example:");
     // String helpString = "java
     // -Djava.library.path=./libraries/native/x86.32.windows
@@ -1325,7 +1383,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
 
   public void onState(ServiceInterface updatedService) {
     log.info("runtime updating registry info for remote service {}", updatedService.getName());
-    registry.put(updatedService.getName(), updatedService);
+    putRegistry(updatedService);
     ServiceEnvironment se = environments.get(updatedService.getInstanceId());
     if (se != null) {
       se.serviceDirectory.put(updatedService.getName(), updatedService);
@@ -1397,7 +1455,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     se.serviceDirectory.put(name, s);
     // WARNING - SHOULDN'T THIS BE DONE FIRST AVOID DEADLOCK / RACE
     // CONDITION ????
-    registry.put(name, s); // FIXME FIXME FIXME FIXME !!!!!!
+    putRegistry(s); // FIXME FIXME FIXME FIXME !!!!!!
     // pre-pend
     // URI if not NULL !!!
     if (runtime != null) {
@@ -1444,7 +1502,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     rt.invoke("released", sw);
 
     // remove from registry
-    registry.remove(name);
+    removeRegistry(name);
 
     // remove from environments
     ServiceEnvironment se = environments.get(sw.getInstanceId());
@@ -1546,7 +1604,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     environments.clear();
 
     log.info("clearing registry");
-    registry.clear();
+    clearRegistry();
 
     // exit () ?
   }
@@ -2200,6 +2258,80 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     return level;
   }
 
+  /**
+   * How service inboxes and outboxes are run - THREAD (a thread each), POOL
+   * (drained by a shared work-stealing pool, still in order per service) or
+   * VIRTUAL (a virtual thread each, Java 21+). Applies to services started
+   * after the call, so it is best set on the command line with -executionMode
+   * 
+   * @param mode
+   *          THREAD | POOL | VIRTUAL
+   * @return the mode in effect
+   */
+  static public String setExecutionMode(String mode) {
+    return Dispatcher.setMode(Dispatcher.Mode.valueOf(mode.toUpperCase())).toString();
+  }
+
+  static public String getExecutionMode() {
+    return Dispatcher.getMode().toString();
+  }
+
+  /**
+   * message pipeline metrics of all local services - queue depths, time spent
+   * waiting in the inbox, invoke and publish times. The busiest service (the
+   * largest fraction of time spent invoking) is first - when the robot starts
+   * to lag it is usually the one at the top with a growing queue time.
+   * 
+   * @return a snapshot per service
+   */
+  static public List<ServiceMetrics.Snapshot> getServiceMetrics() {
+    List<ServiceMetrics.Snapshot> ret = new ArrayList<ServiceMetrics.Snapshot>();
+    for (ServiceInterface si : getServices()) {
+      if (si instanceof Service) {
+        ServiceMetrics.Snapshot s = ((Service) si).getMetrics();
+        if (s != null) {
+          ret.add(s);
+        }
+      }
+    }
+    Collections.sort(ret, new Comparator<ServiceMetrics.Snapshot>() {
+      @Override
+      public int compare(ServiceMetrics.Snapshot o1, ServiceMetrics.Snapshot o2) {
+        return Double.compare(o2.busy, o1.busy);
+      }
+    });
+    return ret;
+  }
+
+  static public ServiceMetrics.Snapshot getServiceMetrics(String name) {
+    ServiceInterface si = getService(name);
+    if (si instanceof Service) {
+      return ((Service) si).getMetrics();
+    }
+    log.error("{} is not a local service - no metrics", name);
+    return null;
+  }
+
+  static public void resetServiceMetrics() {
+    for (ServiceInterface si : getServices()) {
+      if (si instanceof Service) {
+        ((Service) si).resetMetrics();
+      }
+    }
+  }
+
+  /**
+   * switches the timing of messages on or off for all services - off by
+   * default, the counters are cheap but not free
+   * 
+   * @param b
+   *          true to measure
+   */
+  static public void setMetricsEnabled(boolean b) {
+    log.info("metrics {}", (b) ? "enabled" : "disabled");
+    ServiceMetrics.setEnabled(b);
+  }
+
   static public String getLogLevel() {
     Logging logging = LoggingFactory.getInstance();
     return logging.getLevel();
@@ -2257,10 +2389,7 @@ public class Runtime extends Service implements MessageListener, RepoInstallList
     Set<String> keys = se.serviceDirectory.keySet();
     for (String name : keys) {
       ServiceInterface si = getService(name);
-      ArrayList<String> nlks = si.getNotifyListKeySet();
-      for (int i = 0; i < nlks.size(); ++i) {
-        si.getOutbox().notifyList.clear();
-      }
+      si.getOutbox().removeAllListeners();
     }
   }
 
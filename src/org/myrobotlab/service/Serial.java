@@ -14,9 +14,6 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 import org.myrobotlab.framework.Platform;
 import org.myrobotlab.framework.Service;
@@ -28,12 +25,14 @@ import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
 import org.myrobotlab.serial.Port;
+import org.myrobotlab.serial.ByteRing;
 import org.myrobotlab.serial.PortQueue;
+import org.myrobotlab.serial.PortReplay;
 import org.myrobotlab.serial.PortStream;
+import org.myrobotlab.serial.SerialCapture;
 import org.myrobotlab.serial.SerialControl;
 import org.myrobotlab.service.interfaces.PortConnector;
 import org.myrobotlab.service.interfaces.PortPublisher;
-import org.myrobotlab.service.interfaces.QueueSource;
 import org.myrobotlab.service.interfaces.RecordControl;
 import org.myrobotlab.service.interfaces.SerialDataListener;
 import org.myrobotlab.service.interfaces.SerialDevice;
@@ -45,7 +44,7 @@ import org.slf4j.Logger;
  *
  */
 public class Serial extends Service 
-		implements SerialControl, QueueSource, SerialDataListener, RecordControl, SerialDevice, PortPublisher, PortConnector {
+		implements SerialControl, SerialDataListener, RecordControl, SerialDevice, PortPublisher, PortConnector {
 
 	/**
 	 * general read timeout - 0 is infinite &gt; 0 is number of milliseconds to
@@ -97,9 +96,14 @@ public class Serial extends Service
 	int BUFFER_SIZE = 1024;
 
 	/**
-	 * blocking queue for blocking rx read requests
+	 * ring for blocking rx read requests - every port thread writes to it and
+	 * any thread may read or clear it, so all of them go through rxLock. A
+	 * reader waits on rxLock, which lets writers and clear() in meanwhile.
 	 */
-	transient BlockingQueue<Integer> blockingRX = new LinkedBlockingQueue<Integer>();
+	transient ByteRing blockingRX = new ByteRing(BUFFER_SIZE);
+	transient final Object rxLock = new Object();
+	// readers waiting on rxLock - guarded by it
+	transient int rxWaiting = 0;
 
 	/**
 	 * our set of ports we have access to. This is a shared resource between ALL
@@ -156,6 +160,11 @@ public class Serial extends Service
 	transient OutputStream recordRx = null;
 	transient OutputStream recordTx = null;
 
+	/**
+	 * binary capture of all rx and tx - see capture(filename)
+	 */
+	transient volatile SerialCapture capture = null;
+
 	static List<String> formats = null;
 	static String format = "hex";
 
@@ -289,7 +298,9 @@ public class Serial extends Service
 	 * clears the rx buffer
 	 */
 	public void clear() {
-		blockingRX.clear();
+		synchronized (rxLock) {
+			blockingRX.clear();
+		}
 	}
 
 	/**
@@ -528,8 +539,8 @@ public class Serial extends Service
 	}
 
 	public PortQueue createVirtualPort(String name) {
-		BlockingQueue<Integer> rx = new LinkedBlockingQueue<Integer>();
-		BlockingQueue<Integer> tx = new LinkedBlockingQueue<Integer>();
+		ByteRing rx = new ByteRing(PortQueue.RING_SIZE);
+		ByteRing tx = new ByteRing(PortQueue.RING_SIZE);
 		PortQueue portQueue = new PortQueue(name, rx, tx);
 		ports.put(name, portQueue);
 		return portQueue;
@@ -545,8 +556,8 @@ public class Serial extends Service
 
 	static public Serial connectVirtualUart(Serial uart, String myPort, String uartPort) throws IOException {
 
-		BlockingQueue<Integer> left = new LinkedBlockingQueue<Integer>();
-		BlockingQueue<Integer> right = new LinkedBlockingQueue<Integer>();
+		ByteRing left = new ByteRing(PortQueue.RING_SIZE);
+		ByteRing right = new ByteRing(PortQueue.RING_SIZE);
 
 		// add our virtual port
 		PortQueue vPort = new PortQueue(myPort, left, right);
@@ -673,8 +684,10 @@ public class Serial extends Service
 		return null;
 	}
 
-	@Override
-	public BlockingQueue<?> getQueue() {
+	/**
+	 * @return the rx buffer blocking reads take from - hold rxLock to use it
+	 */
+	public ByteRing getRxBuffer() {
 		return blockingRX;
 	}
 
@@ -702,14 +715,39 @@ public class Serial extends Service
 	 */
 	@Override
 	public final Integer onByte(Integer newByte) throws IOException {
+		SerialCapture c = capture;
+		if (c != null) {
+			c.write(SerialCapture.RX, newByte);
+		}
+		return rx(newByte);
+	}
+
+	/**
+	 * bulk rx from the port thread - captured as one record
+	 */
+	@Override
+	public void onBytes(byte[] data, int off, int len) throws IOException {
+		SerialCapture c = capture;
+		if (c != null) {
+			c.rx(data, off, len);
+		}
+		for (int i = off; i < off + len; ++i) {
+			rx(data[i] & 0xff);
+		}
+	}
+
+	Integer rx(Integer newByte) throws IOException {
 		newByte = newByte & 0xff;
 		++rxCount;
 
 		// publish the rx byte !
 		invoke("publishRX", newByte);
 
-		if (blockingRX.size() < BUFFER_SIZE) {
-			blockingRX.add(newByte);
+		// overrun data is dropped when nobody reads
+		synchronized (rxLock) {
+			if (blockingRX.offer(newByte) && rxWaiting > 0) {
+				rxLock.notifyAll();
+			}
 		}
 
 		if (recordRx != null) {
@@ -770,6 +808,14 @@ public class Serial extends Service
 		return data;
 	}
 
+	/**
+	 * a whole buffer written with write(byte[], int, int) - published once
+	 * instead of a publishTX per byte
+	 */
+	public byte[] publishBytesTX(byte[] data) {
+		return data;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -778,12 +824,8 @@ public class Serial extends Service
 	@Override
 	public int read() throws IOException, InterruptedException {
 
-		if (timeoutMS == null) {
-			return blockingRX.take();
-		}
-
-		Integer newByte = blockingRX.poll(timeoutMS, TimeUnit.MILLISECONDS);
-		if (newByte == null) {
+		int newByte = takeRx();
+		if (newByte < 0) {
 			String error = String.format("%d ms timeout was reached - no data", timeoutMS);
 			error(error);
 			throw new IOException(error);
@@ -792,6 +834,32 @@ public class Serial extends Service
 		return newByte;
 	}
 
+	/**
+	 * next byte for a blocking read - waits for ever if timeoutMS is null
+	 *
+	 * @return the byte or -1 if nothing came within timeoutMS
+	 */
+	int takeRx() throws InterruptedException {
+		Integer timeout = timeoutMS;
+		long deadline = (timeout == null) ? 0 : System.currentTimeMillis() + timeout;
+		synchronized (rxLock) {
+			int b;
+			while ((b = blockingRX.poll()) < 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (timeout != null && remaining <= 0) {
+					return -1;
+				}
+				++rxWaiting;
+				try {
+					rxLock.wait((timeout == null) ? 0 : remaining);
+				} finally {
+					--rxWaiting;
+				}
+			}
+			return b;
+		}
+	}
+
 	public int read(byte[] data) throws IOException, InterruptedException {
 		for (int i = 0; i < data.length; ++i) {
 			data[i] = (byte) read();
@@ -811,14 +879,10 @@ public class Serial extends Service
 	public byte[] read(int length) throws InterruptedException {
 		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
 		int count = 0;
-		Integer newByte = null;
+		int newByte;
 		while (count < length) {
-			if (timeoutMS == null) {
-				newByte = blockingRX.take();
-			} else {
-				newByte = blockingRX.poll(timeoutMS, TimeUnit.MILLISECONDS);
-			}
-			if (newByte == null) {
+			newByte = takeRx();
+			if (newByte < 0) {
 				if (count == 0) {
 					error("got nothing!");
 					return null;
@@ -827,7 +891,7 @@ public class Serial extends Service
 					break;
 				}
 			}
-			bytes.write(newByte.intValue() & 0xff);
+			bytes.write(newByte & 0xff);
 			++count;
 		}
 		return bytes.toByteArray();
@@ -835,14 +899,10 @@ public class Serial extends Service
 
 	public int read(int[] data) throws InterruptedException {
 		int count = 0;
-		Integer newByte = null;
+		int newByte;
 		while (count < data.length) {
-			if (timeoutMS == null) {
-				newByte = blockingRX.take();
-			} else {
-				newByte = blockingRX.poll(timeoutMS, TimeUnit.MILLISECONDS);
-			}
-			if (newByte == null) {
+			newByte = takeRx();
+			if (newByte < 0) {
 				error("expecting %d bytes got %d", data.length, count);
 				return count;
 			}
@@ -858,18 +918,14 @@ public class Serial extends Service
 
 	public byte[] readLine(char deliminater) throws InterruptedException {
 		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-		Integer newByte = null;
-		while (newByte == null || newByte != deliminater) {
-			if (timeoutMS == null) {
-				newByte = blockingRX.take();
-			} else {
-				newByte = blockingRX.poll(timeoutMS, TimeUnit.MILLISECONDS);
-			}
-			if (newByte == null) {
+		int newByte = -1;
+		while (newByte != deliminater) {
+			newByte = takeRx();
+			if (newByte < 0) {
 				info("non blocking got nothing");
 				return bytes.toByteArray();
 			}
-			bytes.write(newByte.intValue() & 0xff);
+			bytes.write(newByte & 0xff);
 		}
 		return bytes.toByteArray();
 	}
@@ -906,6 +962,48 @@ public class Serial extends Service
 		return null;
 	}
 
+	/**
+	 * starts a binary capture of all bytes through this serial service - a
+	 * timestamped memory mapped log which connectReplay can play back
+	 */
+	public void capture(String filename) throws IOException {
+		stopCapture();
+		capture = new SerialCapture(filename);
+		info("capturing to %s", filename);
+	}
+
+	public void stopCapture() {
+		SerialCapture c = capture;
+		capture = null;
+		if (c != null) {
+			try {
+				c.close();
+				info("captured %d records %d bytes to %s", c.getRecords(), c.getSize(), c.getFilename());
+			} catch (IOException e) {
+				log.error("closing capture threw", e);
+			}
+		}
+	}
+
+	public boolean isCapturing() {
+		return capture != null;
+	}
+
+	/**
+	 * connects to a capture instead of a port - its rx is played back to the
+	 * listeners
+	 * 
+	 * @param filename
+	 *            capture file
+	 * @param speed
+	 *            1 for the captured timing, 0 as fast as possible
+	 */
+	public PortReplay connectReplay(String filename, double speed) throws IOException {
+		PortReplay replay = new PortReplay(filename, filename, speed);
+		connectPort(replay, null);
+		return replay;
+	}
+
 	public void record() throws FileNotFoundException {
 		recordRx = new FileOutputStream(String.format("%s.rx.%s", getName(), Serial.format));
 		recordTx = new FileOutputStream(String.format("%s.tx.%s", getName(), Serial.format));
@@ -1020,6 +1118,7 @@ public class Serial extends Service
 		{
 		disconnect();
 		stopRecording();
+		stopCapture();
 		}
 	}
 
@@ -1036,9 +1135,64 @@ public class Serial extends Service
 	 */
 	@Override
 	public void write(byte[] data) throws Exception {
-		for (int i = 0; i < data.length; ++i) {
-			write(data[i] & 0xff); // recently removed - & 0xFF
+		write(data, 0, data.length);
+	}
+
+	/**
+	 * one write per port for the whole buffer - a frame from Msg goes out in a
+	 * single system call instead of one per byte
+	 */
+	@Override
+	synchronized public void write(byte[] data, int off, int len) throws Exception {
+
+		if (connectedPorts.size() == 0) {
+			error("can not write to a closed port!");
+			return;
+		}
+
+		for (String portName : connectedPorts.keySet()) {
+			Port writePort = connectedPorts.get(portName);
+			writePort.write(data, off, len);
 		}
+
+		SerialCapture c = capture;
+		if (c != null) {
+			c.tx(data, off, len);
+		}
+
+		txCount += len;
+
+		// main line TX - one publish for the buffer, and the copy only when
+		// somebody listens
+		if (outbox.hasListeners("publishBytesTX")) {
+			invoke("publishBytesTX", Arrays.copyOfRange(data, off, off + len));
+		}
+		// older subscribers still get it byte by byte
+		if (outbox.hasListeners("publishTX")) {
+			for (int i = off; i < off + len; ++i) {
+				invoke("publishTX", data[i] & 0xff);
+			}
+		}
+
+		if (recordTx != null) {
+			recordTx.write(hex(data, off, len));
+		}
+	}
+
+	final static byte[] HEX = "0123456789ABCDEF".getBytes();
+
+	/**
+	 * " %02X" for each byte - built once for the buffer
+	 */
+	static byte[] hex(byte[] data, int off, int len) {
+		byte[] ret = new byte[len * 3];
+		for (int i = 0; i < len; ++i) {
+			int b = data[off + i] & 0xff;
+			ret[i * 3] = ' ';
+			ret[i * 3 + 1] = HEX[b >> 4];
+			ret[i * 3 + 2] = HEX[b & 0x0f];
+		}
+		return ret;
 	}
 
 	// TODO: remove this method use write(int[] b) instead
@@ -1054,6 +1208,11 @@ public class Serial extends Service
 			writePort.write(b);
 		}
 
+		SerialCapture c = capture;
+		if (c != null) {
+			c.write(SerialCapture.TX, b);
+		}
+
 		// main line TX
 		invoke("publishTX", b);
 
@@ -1083,6 +1242,15 @@ public class Serial extends Service
 				recordTx.write(data[i]);
 			}
 		}
+
+		SerialCapture c = capture;
+		if (c != null) {
+			byte[] bytes = new byte[data.length];
+			for (int i = 0; i < data.length; ++i) {
+				bytes[i] = (byte) data[i];
+			}
+			c.tx(bytes, 0, bytes.length);
+		}
 	}
 
 	// ============= write methods begin ====================
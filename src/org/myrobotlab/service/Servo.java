@@ -41,6 +41,7 @@ import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.framework.interfaces.Attachable;
 import org.myrobotlab.framework.interfaces.NameProvider;
 import org.myrobotlab.framework.interfaces.ServiceInterface;
+import org.myrobotlab.kinematics.MotionPlanner;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.math.Mapper;
@@ -76,53 +77,33 @@ import org.myrobotlab.logging.LoggingFactory;
 public class Servo extends Service implements ServoControl {
 
   /**
-   * Sweeper - TODO - should be implemented in the arduino code for smoother
-   * function
-   * 
-   * 
+   * Sweeper - sweeping works on input, the MotionPlanner is the "controller"
+   * (this is input) and input sweeps back and forth - the servo parameters
+   * know what to do for output
    */
-  public class Sweeper extends Thread {
+  public class Sweeper implements MotionPlanner.Axis {
 
-    public Sweeper(String name) {
-      super(String.format("%s.sweeper", name));
+    @Override
+    public String getName() {
+      return String.format("%s.sweeper", Servo.this.getName());
     }
 
-    /**
-     * Sweeping works on input, a thread is used as the "controller" (this is
-     * input) and input sweeps back and forth - the servo parameters know what
-     * to do for output
-     */
-
     @Override
-    public void run() {
-
-      double sweepMin = 0.0;
-      double sweepMax = 0.0;
-      // start in the middle
-      double sweepPos = mapper.getMinX() + (mapper.getMaxX() - mapper.getMinX()) / 2;
-      isSweeping = true;
-
-      try {
-        while (isSweeping) {
-
-          // set our range to be inside 'real' min & max input
-          sweepMin = mapper.getMinX() + 1;
-          sweepMax = mapper.getMaxX() - 1;
-
-          // if pos is too small or too big flip direction
-          if (sweepPos >= sweepMax || sweepPos <= sweepMin) {
-            sweepStep = sweepStep * -1;
-          }
+    public ServoController getController() {
+      return controller;
+    }
 
-          sweepPos += sweepStep;
-          moveTo(sweepPos);
-          Thread.sleep(sweepDelay);
-        }
-      } catch (Exception e) {
-        isSweeping = false;
-      }
+    @Override
+    public void write(double pos) {
+      moveTo(pos);
     }
 
+    @Override
+    public void onArrived(double pos) {
+      // one way sweeps end here
+      isSweeping = false;
+      broadcastState();
+    }
   }
 
   private static final long serialVersionUID = 1L;
@@ -224,7 +205,7 @@ public class Servo extends Service implements ServoControl {
   // TODO - computer implemented speed control (non-sweep)
   boolean speedControlOnUC = false;
 
-  transient Thread sweeper = null;
+  transient Sweeper sweeper = null;
 
   /**
    * feedback of both incremental position and stops. would allow blocking
@@ -412,6 +393,30 @@ public class Servo extends Service implements ServoControl {
     return controller;
   }
 
+  /**
+   * starts a synchronized move on the controllers of servos - moveTo calls
+   * until syncEnd start together
+   *
+   * @param servos
+   *          servos of the move - null entries are skipped
+   * @return the controllers to give to syncEnd
+   */
+  static public Set<ServoController> syncBegin(Servo... servos) {
+    Set<ServoController> controllers = new HashSet<ServoController>();
+    for (Servo servo : servos) {
+      if (servo != null && servo.controller != null && controllers.add(servo.controller)) {
+        servo.controller.servoSyncBegin();
+      }
+    }
+    return controllers;
+  }
+
+  static public void syncEnd(Set<ServoController> controllers) {
+    for (ServoController controller : controllers) {
+      controller.servoSyncEnd();
+    }
+  }
+
   public long getLastActivityTime() {
     return lastActivityTime;
   }
@@ -708,7 +713,10 @@ public class Servo extends Service implements ServoControl {
   @Override
   public void stop() {
     isSweeping = false;
-    sweeper = null;
+    if (sweeper != null) {
+      MotionPlanner.getInstance().stop(sweeper);
+      sweeper = null;
+    }
     controller.servoSweepStop(this);
     broadcastState();
   }
@@ -749,8 +757,12 @@ public class Servo extends Service implements ServoControl {
         stop();
       }
 
-      sweeper = new Sweeper(getName());
-      sweeper.start();
+      // set our range to be inside 'real' min & max input - sweepStep input
+      // every sweepDelay ms, starting in the middle
+      sweeper = new Sweeper();
+      double velocity = Math.abs(sweepStep) * 1000 / Math.max(1, sweepDelay);
+      double middle = mapper.getMinX() + (mapper.getMaxX() - mapper.getMinX()) / 2;
+      MotionPlanner.getInstance().sweep(sweeper, middle, mapper.getMinX() + 1, mapper.getMaxX() - 1, velocity, acceleration, oneWay);
     }
 
     isSweeping = true;
@@ -10,6 +10,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
@@ -24,6 +25,7 @@ import org.myrobotlab.logging.Level;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.logging.Logging;
 import org.myrobotlab.logging.LoggingFactory;
+import org.myrobotlab.service.interfaces.ServoController;
 import org.myrobotlab.swing.widget.ServoOrchestratorGUI_middlemiddle_panel;
 import org.slf4j.Logger;
 
@@ -412,11 +414,17 @@ public class ServoOrchestrator extends Service {
   }
 
   public void play_searchblocks(int pos) {
-    for (int i = 0; i < sizey; i++) {
-      ServoOrchestratorGUI_middlemiddle_panel panels11 = sogui_ref.middlemiddle_ref.panels[pos - 1][i];
-      if (panels11 != null) {
-        play_playblock(i, panels11);
+    // the servos of one step start together
+    Set<ServoController> sync = Servo.syncBegin(servos);
+    try {
+      for (int i = 0; i < sizey; i++) {
+        ServoOrchestratorGUI_middlemiddle_panel panels11 = sogui_ref.middlemiddle_ref.panels[pos - 1][i];
+        if (panels11 != null) {
+          play_playblock(i, panels11);
+        }
       }
+    } finally {
+      Servo.syncEnd(sync);
     }
   }
 
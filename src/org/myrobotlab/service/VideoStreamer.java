@@ -1,8 +1,6 @@
 package org.myrobotlab.service;
 
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import org.myrobotlab.framework.ServiceType;
 import org.myrobotlab.image.SerializableImage;
@@ -76,15 +74,8 @@ public class VideoStreamer extends AbstractVideoSink /*extends Service implement
      * if (mergeSteams) { si.setSource("output"); }
      */
 
-    if (!server.videoFeeds.containsKey(si.getSource())) {
-      server.videoFeeds.put(si.getSource(), new LinkedBlockingQueue<SerializableImage>());
-    }
-
-    BlockingQueue<SerializableImage> buffer = server.videoFeeds.get(si.getSource());
-    // if its backed up over 10 frames we are dumping it
-    if (buffer.size() < 1) {
-      buffer.add(si);
-    }
+    // replaces the feed's latest frame - clients which are behind skip to it
+    server.publish(si.getSource(), si);
   }
 
   @Override
@@ -586,9 +586,14 @@ public class WebGui extends Service implements AuthorizationProvider, Gateway, H
       if (!r.isSuspended()) {
         r.suspend();
       }
-      response.addHeader("Content-Type", CodecUtils.MIME_TYPE_JSON);
+      // the query carries the codec negotiation e.g. ?mimeType=application/x-mrl-binary
+      String uri = request.getRequestURI();
+      if (request.getQueryString() != null) {
+        uri = String.format("%s?%s", uri, request.getQueryString());
+      }
+      response.addHeader("Content-Type", Api.getMimeType(uri));
 
-      api.process(this, out, r.getRequest().getRequestURI(), request.body().asString());
+      api.process(this, out, uri, request.body().asString());
 
       /*
        * // FIXME - GET or POST should work - so this "should" be unnecessary ..
@@ -0,0 +1,162 @@
+package org.myrobotlab.service.data;
+
+/**
+ * Ring of pin samples kept in primitive arrays - an address, value and
+ * timestamp per sample and nothing allocated after construction. Samples are
+ * numbered by a running count, the newest capacity of them can be read with
+ * getAddress(n), getValue(n) and getTimestamp(n).
+ *
+ * There is one writer. A reader on another thread which read sample n has to
+ * check n &gt;= getTail() afterwards - the writer may have overwritten it.
+ *
+ * Optional filters per pin drop samples before they are written - a deadband
+ * drops values which changed by deadband or less since the last kept value
+ * of the pin, downsampling keeps every n-th sample of the pin.
+ */
+public class PinSampleBuffer {
+
+  /**
+   * pin addresses are a byte on the wire
+   */
+  public static final int MAX_PINS = 256;
+
+  final int capacity;
+  final int mask;
+  final int[] addresses;
+  final int[] values;
+  final long[] timestamps;
+
+  /**
+   * number of the next sample - samples ever written
+   */
+  volatile long head = 0;
+
+  final int[] deadband = new int[MAX_PINS];
+  final int[] downsample = new int[MAX_PINS];
+  final int[] downsampleCount = new int[MAX_PINS];
+  final int[] lastValue = new int[MAX_PINS];
+  final boolean[] hasLastValue = new boolean[MAX_PINS];
+
+  long dropped = 0;
+
+  /**
+   * @param capacity
+   *          samples kept - rounded up to a power of 2
+   */
+  public PinSampleBuffer(int capacity) {
+    int c = 1;
+    while (c < capacity) {
+      c <<= 1;
+    }
+    this.capacity = c;
+    mask = c - 1;
+    addresses = new int[c];
+    values = new int[c];
+    timestamps = new long[c];
+  }
+
+  /**
+   * filters and writes a sample
+   *
+   * @return false if a filter of the pin dropped it
+   */
+  public boolean offer(int address, int value, long timestamp) {
+    int a = address & (MAX_PINS - 1);
+    if (downsample[a] > 1) {
+      int c = downsampleCount[a];
+      downsampleCount[a] = (c + 1) % downsample[a];
+      if (c != 0) {
+        ++dropped;
+        return false;
+      }
+    }
+    if (deadband[a] > 0) {
+      if (hasLastValue[a] && Math.abs(value - lastValue[a]) <= deadband[a]) {
+        ++dropped;
+        return false;
+      }
+      lastValue[a] = value;
+      hasLastValue[a] = true;
+    }
+    add(address, value, timestamp);
+    return true;
+  }
+
+  /**
+   * writes a sample without filtering - overwrites the oldest when full
+   */
+  public void add(int address, int value, long timestamp) {
+    long n = head;
+    int i = (int) n & mask;
+    addresses[i] = address;
+    values[i] = value;
+    timestamps[i] = timestamp;
+    head = n + 1;
+  }
+
+  /**
+   * @param address
+   *          pin
+   * @param deadband
+   *          value changes up to this are dropped - 0 for none
+   * @param downsample
+   *          keep every n-th sample - 0 or 1 for all
+   */
+  public void setFilter(int address, int deadband, int downsample) {
+    int a = address & (MAX_PINS - 1);
+    this.deadband[a] = Math.max(0, deadband);
+    this.downsample[a] = Math.max(0, downsample);
+    downsampleCount[a] = 0;
+    hasLastValue[a] = false;
+  }
+
+  public void clearFilter(int address) {
+    setFilter(address, 0, 0);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return number of the next sample to be written
+   */
+  public long getHead() {
+    return head;
+  }
+
+  /**
+   * @return number of the oldest sample which can still be read
+   */
+  public long getTail() {
+    return Math.max(0, head - capacity);
+  }
+
+  public int size() {
+    return (int) Math.min(head, capacity);
+  }
+
+  public int getAddress(long n) {
+    return addresses[(int) n & mask];
+  }
+
+  public int getValue(long n) {
+    return values[(int) n & mask];
+  }
+
+  public long getTimestamp(long n) {
+    return timestamps[(int) n & mask];
+  }
+
+  /**
+   * @return samples the filters dropped
+   */
+  public long getDropped() {
+    return dropped;
+  }
+
+  public String toString() {
+    return String.format("samples %d capacity %d dropped %d", head, capacity, dropped);
+  }
+
+}
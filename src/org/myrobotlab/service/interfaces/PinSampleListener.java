@@ -0,0 +1,16 @@
+package org.myrobotlab.service.interfaces;
+
+import org.myrobotlab.service.data.PinSampleBuffer;
+
+/**
+ * batched pin samples without PinData objects - called on the thread which
+ * received them
+ */
+public interface PinSampleListener extends Listener {
+
+	/**
+	 * samples from to from + count - 1 of the buffer are new. They stay
+	 * readable until the buffer wraps, so copy what is needed later.
+	 */
+	public void onPinSamples(PinSampleBuffer samples, long from, int count);
+}
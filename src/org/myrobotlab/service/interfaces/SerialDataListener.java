@@ -32,6 +32,17 @@ import org.myrobotlab.framework.interfaces.NameProvider;
 public interface SerialDataListener extends NameProvider, QueueReporter, PortListener {
 
   // FIXME - Integer object because no method cache
-  // FIXME - byte[] onBytes(byte[] bytes)
   public Integer onByte(Integer b) throws IOException;
+
+  /**
+   * bulk callback from a port's reading thread - data[off] to data[off+len-1]
+   * were read in one go. The buffer is reused after the call returns.
+   * Listeners which can consume a buffer at once should override this - by
+   * default each byte goes to onByte.
+   */
+  default public void onBytes(byte[] data, int off, int len) throws IOException {
+    for (int i = off; i < off + len; ++i) {
+      onByte(data[i] & 0xff);
+    }
+  }
 }
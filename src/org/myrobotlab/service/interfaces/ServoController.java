@@ -72,6 +72,17 @@ public interface ServoController extends Attachable {
 
 	void servoSetAcceleration(ServoControl servo);
 
+	/**
+	 * servoMoveTo calls until servoSyncEnd are held back and sent together, so
+	 * all of the servos start on the same update of the controller. Begin and
+	 * end nest. Controllers which can not do it move each servo right away.
+	 */
+	default void servoSyncBegin() {
+	}
+
+	default void servoSyncEnd() {
+	}
+
 	/**
 	 * @param sensorPin
 	 * @param i
@@ -700,7 +700,8 @@ public class OpenCVGui extends ServiceGui implements ListSelectionListener, Vide
 		if (cframe != null) {
 			cframe.showImage(converter.convert(data.getImage()));
 		} else {
-			video0.displayFrame(new SerializableImage(data.getDisplayBufferedImage(), data.getDisplayFilterName()));
+			// the same image publishDisplay subscribers get - converted once
+			video0.displayFrame(data.getDisplaySerializableImage());
 		}
 	}
 
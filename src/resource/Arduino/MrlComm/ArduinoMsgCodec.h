@@ -9,9 +9,13 @@
  * 							src\resource\Arduino\generate\ArduinoMsgCodec.template.h
  */
 
-#define MRLCOMM_VERSION			57
+#define MRLCOMM_VERSION			59
 #define MAGIC_NUMBER            170 // 10101010
+#define MAGIC_NUMBER_SEQ        171 // 10101011
 #define MAX_MSG_SIZE			64
+// sequenced frames the pc may send before the first is acknowledged
+// a few small msgs - the serial rx buffer is only 64 bytes
+#define ACK_WINDOW				4
 
 #define DEVICE_TYPE_UNKNOWN		0
 #define DEVICE_TYPE_ARDUINO		1
@@ -28,7 +32,7 @@
 #define PUBLISH_MRLCOMM_ERROR 1
 // > getBoardInfo
 #define GET_BOARD_INFO 2
-// < publishBoardInfo/version/boardType/b16 microsPerLoop/b16 sram/activePins/[] deviceSummary
+// < publishBoardInfo/version/boardType/b16 microsPerLoop/b16 sram/activePins/ackWindow/[] deviceSummary
 #define PUBLISH_BOARD_INFO 3
 // > enablePin/address/type/b16 rate
 #define ENABLE_PIN 4
@@ -42,90 +46,94 @@
 #define ENABLE_ACK 8
 // < publishAck/function
 #define PUBLISH_ACK 9
+// < publishSeqAck/seq
+#define PUBLISH_SEQ_ACK 10
 // > echo/f32 myFloat/myByte/f32 secondFloat
-#define ECHO 10
+#define ECHO 11
 // < publishEcho/f32 myFloat/myByte/f32 secondFloat
-#define PUBLISH_ECHO 11
+#define PUBLISH_ECHO 12
 // > customMsg/[] msg
-#define CUSTOM_MSG 12
+#define CUSTOM_MSG 13
 // < publishCustomMsg/[] msg
-#define PUBLISH_CUSTOM_MSG 13
+#define PUBLISH_CUSTOM_MSG 14
 // > deviceDetach/deviceId
-#define DEVICE_DETACH 14
+#define DEVICE_DETACH 15
 // > i2cBusAttach/deviceId/i2cBus
-#define I2C_BUS_ATTACH 15
+#define I2C_BUS_ATTACH 16
 // > i2cRead/deviceId/deviceAddress/size
-#define I2C_READ 16
+#define I2C_READ 17
 // > i2cWrite/deviceId/deviceAddress/[] data
-#define I2C_WRITE 17
+#define I2C_WRITE 18
 // > i2cWriteRead/deviceId/deviceAddress/readSize/writeValue
-#define I2C_WRITE_READ 18
+#define I2C_WRITE_READ 19
 // < publishI2cData/deviceId/[] data
-#define PUBLISH_I2C_DATA 19
+#define PUBLISH_I2C_DATA 20
 // > neoPixelAttach/deviceId/pin/b32 numPixels
-#define NEO_PIXEL_ATTACH 20
+#define NEO_PIXEL_ATTACH 21
 // > neoPixelSetAnimation/deviceId/animation/red/green/blue/b16 speed
-#define NEO_PIXEL_SET_ANIMATION 21
+#define NEO_PIXEL_SET_ANIMATION 22
 // > neoPixelWriteMatrix/deviceId/[] buffer
-#define NEO_PIXEL_WRITE_MATRIX 22
+#define NEO_PIXEL_WRITE_MATRIX 23
 // > analogWrite/pin/value
-#define ANALOG_WRITE 23
+#define ANALOG_WRITE 24
 // > digitalWrite/pin/value
-#define DIGITAL_WRITE 24
+#define DIGITAL_WRITE 25
 // > disablePin/pin
-#define DISABLE_PIN 25
+#define DISABLE_PIN 26
 // > disablePins
-#define DISABLE_PINS 26
+#define DISABLE_PINS 27
 // > pinMode/pin/mode
-#define PIN_MODE 27
+#define PIN_MODE 28
 // < publishDebug/str debugMsg
-#define PUBLISH_DEBUG 28
+#define PUBLISH_DEBUG 29
 // < publishPinArray/[] data
-#define PUBLISH_PIN_ARRAY 29
+#define PUBLISH_PIN_ARRAY 30
 // > setTrigger/pin/triggerValue
-#define SET_TRIGGER 30
+#define SET_TRIGGER 31
 // > setDebounce/pin/delay
-#define SET_DEBOUNCE 31
+#define SET_DEBOUNCE 32
 // > servoAttach/deviceId/pin/b16 initPos/b16 initVelocity/str name
-#define SERVO_ATTACH 32
+#define SERVO_ATTACH 33
 // > servoAttachPin/deviceId/pin
-#define SERVO_ATTACH_PIN 33
+#define SERVO_ATTACH_PIN 34
 // > servoDetachPin/deviceId
-#define SERVO_DETACH_PIN 34
+#define SERVO_DETACH_PIN 35
 // > servoSetVelocity/deviceId/b16 velocity
-#define SERVO_SET_VELOCITY 35
+#define SERVO_SET_VELOCITY 36
 // > servoSweepStart/deviceId/min/max/step
-#define SERVO_SWEEP_START 36
+#define SERVO_SWEEP_START 37
 // > servoSweepStop/deviceId
-#define SERVO_SWEEP_STOP 37
+#define SERVO_SWEEP_STOP 38
 // > servoMoveToMicroseconds/deviceId/b16 target
-#define SERVO_MOVE_TO_MICROSECONDS 38
+#define SERVO_MOVE_TO_MICROSECONDS 39
 // > servoSetAcceleration/deviceId/b16 acceleration
-#define SERVO_SET_ACCELERATION 39
+#define SERVO_SET_ACCELERATION 40
+// > servoSyncMoveTo/bool apply/[] moves
+#define SERVO_SYNC_MOVE_TO 41
 // < publishServoEvent/deviceId/eventType/b16 currentPos/b16 targetPos
-#define PUBLISH_SERVO_EVENT 40
+#define PUBLISH_SERVO_EVENT 42
 // > serialAttach/deviceId/relayPin
-#define SERIAL_ATTACH 41
+#define SERIAL_ATTACH 43
 // > serialRelay/deviceId/[] data
-#define SERIAL_RELAY 42
+#define SERIAL_RELAY 44
 // < publishSerialData/deviceId/[] data
-#define PUBLISH_SERIAL_DATA 43
+#define PUBLISH_SERIAL_DATA 45
 // > ultrasonicSensorAttach/deviceId/triggerPin/echoPin
-#define ULTRASONIC_SENSOR_ATTACH 44
+#define ULTRASONIC_SENSOR_ATTACH 46
 // > ultrasonicSensorStartRanging/deviceId
-#define ULTRASONIC_SENSOR_START_RANGING 45
+#define ULTRASONIC_SENSOR_START_RANGING 47
 // > ultrasonicSensorStopRanging/deviceId
-#define ULTRASONIC_SENSOR_STOP_RANGING 46
+#define ULTRASONIC_SENSOR_STOP_RANGING 48
 // < publishUltrasonicSensorData/deviceId/b16 echoTime
-#define PUBLISH_ULTRASONIC_SENSOR_DATA 47
+#define PUBLISH_ULTRASONIC_SENSOR_DATA 49
 // > setAref/b16 type
-#define SET_AREF 48
+#define SET_AREF 50
 // > motorAttach/deviceId/type/[] pins
-#define MOTOR_ATTACH 49
+#define MOTOR_ATTACH 51
 // > motorMove/deviceId/pwr
-#define MOTOR_MOVE 50
+#define MOTOR_MOVE 52
 // > motorMoveTo/deviceId/pos
-#define MOTOR_MOVE_TO 51
+#define MOTOR_MOVE_TO 53
 
 
 
@@ -162,8 +162,15 @@ int MrlComm::getCustomMsgSize() {
 
 void MrlComm::processCommand() {
   
+	if (!msg->acceptSeq()) {
+		// repeat or gap in the sequence - the pc goes back to the one after
+		msg->publishSeqAck(msg->getLastSeq());
+		return;
+	}
 	msg->processCommand();
-	if (ackEnabled) {
+	if (msg->getSeq() >= 0) {
+		msg->publishSeqAck(msg->getSeq());
+	} else if (ackEnabled) {
 		msg->publishAck(msg->getMethod());
 	}
 }
@@ -232,7 +239,7 @@ void MrlComm::publishBoardInfo(){
         long now = micros();
         int load = (now - lastBoardInfoUs)/loopCount;
 	//msg->publishBoardInfo(MRLCOMM_VERSION, BOARD,  (int)((now - lastBoardInfoUs)/loopCount), getFreeRam(), pinList.size(), deviceSummary, sizeof(deviceSummary));
- msg->publishBoardInfo(MRLCOMM_VERSION, BOARD,  load, getFreeRam(), pinList.size(), deviceSummary, sizeof(deviceSummary));
+ msg->publishBoardInfo(MRLCOMM_VERSION, BOARD,  load, getFreeRam(), pinList.size(), ACK_WINDOW, deviceSummary, sizeof(deviceSummary));
         lastBoardInfoUs = now;
         loopCount = 0;
 }
@@ -420,6 +427,26 @@ void MrlComm::servoMoveToMicroseconds(byte deviceId, int target) {
 	servo->moveToMicroseconds(target);
 }
 
+// > servoSyncMoveTo/bool apply/[] moves
+void MrlComm::servoSyncMoveTo(boolean apply, byte movesSize, const byte*moves) {
+	for (int i = 0; i + 4 < movesSize; i += 5) {
+		MrlServo* servo = (MrlServo*) getDevice(moves[i]);
+		if (servo != NULL) {
+			servo->stageMove(msg->b16(moves, i + 1), msg->b16(moves, i + 3));
+		}
+	}
+	if (apply) {
+		// all staged moves start before the next update
+		ListNode<Device*>* node = deviceList.getRoot();
+		while (node != NULL) {
+			if (node->data->type == DEVICE_TYPE_SERVO) {
+				((MrlServo*) node->data)->applyMove();
+			}
+			node = node->next;
+		}
+	}
+}
+
 void MrlComm::setDebug(boolean enabled) {
 	msg->debug = enabled;
 }
@@ -130,6 +130,8 @@ public:
 	void servoMoveToMicroseconds( byte deviceId,  int target);
 	// > servoSetAcceleration/deviceId/b16 acceleration
 	void servoSetAcceleration( byte deviceId,  int acceleration);
+	// > servoSyncMoveTo/bool apply/[] moves
+	void servoSyncMoveTo( boolean apply,  byte movesSize, const byte*moves);
 	// > serialAttach/deviceId/relayPin
 	void serialAttach( byte deviceId,  byte relayPin);
 	// > serialRelay/deviceId/[] data
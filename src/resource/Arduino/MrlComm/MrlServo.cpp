@@ -14,6 +14,8 @@ MrlServo::MrlServo(int deviceId) : Device(deviceId, DEVICE_TYPE_SERVO) {
   velocity = -1;
   acceleration = -1;
   moveStart = 0;
+  syncPosUs = -1;
+  syncVelocity = -1;
 }
 
 MrlServo::~MrlServo() {
@@ -143,6 +145,20 @@ void MrlServo::setAcceleration(int acceleration) {
   this->acceleration = acceleration;
 }
 
+void MrlServo::stageMove(int posUs, int velocity) {
+  syncPosUs = posUs;
+  syncVelocity = velocity;
+}
+
+void MrlServo::applyMove() {
+  if (syncPosUs < 0) {
+    return;
+  }
+  setVelocity(syncVelocity);
+  moveToMicroseconds(syncPosUs);
+  syncPosUs = -1;
+}
+
 void MrlServo::publishServoEvent(int type) {
   msg->publishServoEvent(id, type, (int)currentPosUs, targetPosUs);
 }
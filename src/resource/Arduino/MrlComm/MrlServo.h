@@ -26,6 +26,9 @@ class MrlServo : public Device {
     int sweepStep;
     int acceleration;
     unsigned long moveStart;
+    // move staged by servoSyncMoveTo - -1 is none
+    int syncPosUs;
+    int syncVelocity;
 
   public:
     MrlServo(int deviceId);
@@ -43,6 +46,9 @@ class MrlServo : public Device {
     void setMaxVelocity(unsigned int velocity);
     void setVelocity(int velocity);
     void setAcceleration(int acceleration);
+    // sync moves - staged, then all applied on the same loop tick
+    void stageMove(int posUs, int velocity);
+    void applyMove();
     void publishServoEvent(int type);
 };
 
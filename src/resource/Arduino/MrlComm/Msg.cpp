@@ -22,6 +22,9 @@
  The binary wire format of an Arduino is:
 
  MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0|PARAM1 ...
+ or sequenced - MSG_SIZE counts the SEQ byte:
+
+ MAGIC_NUMBER_SEQ|MSG_SIZE|SEQ|METHOD_NUMBER|PARAM0|PARAM1 ...
 
  </pre>
 
@@ -114,6 +117,8 @@ Msg* Msg::getInstance() {
 	void servoMoveToMicroseconds( byte deviceId,  int target);
 	// > servoSetAcceleration/deviceId/b16 acceleration
 	void servoSetAcceleration( byte deviceId,  int acceleration);
+	// > servoSyncMoveTo/bool apply/[] moves
+	void servoSyncMoveTo( boolean apply,  byte movesSize, const byte*moves);
 	// > serialAttach/deviceId/relayPin
 	void serialAttach( byte deviceId,  byte relayPin);
 	// > serialRelay/deviceId/[] data
@@ -145,15 +150,16 @@ void Msg::publishMRLCommError(const char* errorMsg,  byte errorMsgSize) {
   reset();
 }
 
-void Msg::publishBoardInfo( byte version,  byte boardType,  int microsPerLoop,  int sram,  byte activePins, const byte* deviceSummary,  byte deviceSummarySize) {
+void Msg::publishBoardInfo( byte version,  byte boardType,  int microsPerLoop,  int sram,  byte activePins,  byte ackWindow, const byte* deviceSummary,  byte deviceSummarySize) {
   write(MAGIC_NUMBER);
-  write(1 + 1 + 1 + 2 + 2 + 1 + (1 + deviceSummarySize)); // size
+  write(1 + 1 + 1 + 2 + 2 + 1 + 1 + (1 + deviceSummarySize)); // size
   write(PUBLISH_BOARD_INFO); // msgType = 3
   write(version);
   write(boardType);
   writeb16(microsPerLoop);
   writeb16(sram);
   write(activePins);
+  write(ackWindow);
   write((byte*)deviceSummary, deviceSummarySize);
   flush();
   reset();
@@ -168,10 +174,19 @@ void Msg::publishAck( byte function) {
   reset();
 }
 
+void Msg::publishSeqAck( byte seq) {
+  write(MAGIC_NUMBER);
+  write(1 + 1); // size
+  write(PUBLISH_SEQ_ACK); // msgType = 10
+  write(seq);
+  flush();
+  reset();
+}
+
 void Msg::publishEcho( float myFloat,  byte myByte,  float secondFloat) {
   write(MAGIC_NUMBER);
   write(1 + 4 + 1 + 4); // size
-  write(PUBLISH_ECHO); // msgType = 11
+  write(PUBLISH_ECHO); // msgType = 12
   writef32(myFloat);
   write(myByte);
   writef32(secondFloat);
@@ -182,7 +197,7 @@ void Msg::publishEcho( float myFloat,  byte myByte,  float secondFloat) {
 void Msg::publishCustomMsg(const byte* msg,  byte msgSize) {
   write(MAGIC_NUMBER);
   write(1 + (1 + msgSize)); // size
-  write(PUBLISH_CUSTOM_MSG); // msgType = 13
+  write(PUBLISH_CUSTOM_MSG); // msgType = 14
   write((byte*)msg, msgSize);
   flush();
   reset();
@@ -191,7 +206,7 @@ void Msg::publishCustomMsg(const byte* msg,  byte msgSize) {
 void Msg::publishI2cData( byte deviceId, const byte* data,  byte dataSize) {
   write(MAGIC_NUMBER);
   write(1 + 1 + (1 + dataSize)); // size
-  write(PUBLISH_I2C_DATA); // msgType = 19
+  write(PUBLISH_I2C_DATA); // msgType = 20
   write(deviceId);
   write((byte*)data, dataSize);
   flush();
@@ -201,7 +216,7 @@ void Msg::publishI2cData( byte deviceId, const byte* data,  byte dataSize) {
 void Msg::publishDebug(const char* debugMsg,  byte debugMsgSize) {
   write(MAGIC_NUMBER);
   write(1 + (1 + debugMsgSize)); // size
-  write(PUBLISH_DEBUG); // msgType = 28
+  write(PUBLISH_DEBUG); // msgType = 29
   write((byte*)debugMsg, debugMsgSize);
   flush();
   reset();
@@ -210,7 +225,7 @@ void Msg::publishDebug(const char* debugMsg,  byte debugMsgSize) {
 void Msg::publishPinArray(const byte* data,  byte dataSize) {
   write(MAGIC_NUMBER);
   write(1 + (1 + dataSize)); // size
-  write(PUBLISH_PIN_ARRAY); // msgType = 29
+  write(PUBLISH_PIN_ARRAY); // msgType = 30
   write((byte*)data, dataSize);
   flush();
   reset();
@@ -219,7 +234,7 @@ void Msg::publishPinArray(const byte* data,  byte dataSize) {
 void Msg::publishServoEvent( byte deviceId,  byte eventType,  int currentPos,  int targetPos) {
   write(MAGIC_NUMBER);
   write(1 + 1 + 1 + 2 + 2); // size
-  write(PUBLISH_SERVO_EVENT); // msgType = 40
+  write(PUBLISH_SERVO_EVENT); // msgType = 42
   write(deviceId);
   write(eventType);
   writeb16(currentPos);
@@ -231,7 +246,7 @@ void Msg::publishServoEvent( byte deviceId,  byte eventType,  int currentPos,  i
 void Msg::publishSerialData( byte deviceId, const byte* data,  byte dataSize) {
   write(MAGIC_NUMBER);
   write(1 + 1 + (1 + dataSize)); // size
-  write(PUBLISH_SERIAL_DATA); // msgType = 43
+  write(PUBLISH_SERIAL_DATA); // msgType = 45
   write(deviceId);
   write((byte*)data, dataSize);
   flush();
@@ -241,7 +256,7 @@ void Msg::publishSerialData( byte deviceId, const byte* data,  byte dataSize) {
 void Msg::publishUltrasonicSensorData( byte deviceId,  int echoTime) {
   write(MAGIC_NUMBER);
   write(1 + 1 + 2); // size
-  write(PUBLISH_ULTRASONIC_SENSOR_DATA); // msgType = 47
+  write(PUBLISH_ULTRASONIC_SENSOR_DATA); // msgType = 49
   write(deviceId);
   writeb16(echoTime);
   flush();
@@ -511,6 +526,15 @@ void Msg::processCommand() {
 			mrlComm->servoSetAcceleration( deviceId,  acceleration);
 			break;
 	}
+	case SERVO_SYNC_MOVE_TO: { // servoSyncMoveTo
+			boolean apply = (ioCmd[startPos+1]);
+			startPos += 1;
+			const byte* moves = ioCmd+startPos+2;
+			byte movesSize = ioCmd[startPos+1];
+			startPos += 1 + ioCmd[startPos+1];
+			mrlComm->servoSyncMoveTo( apply,  movesSize, moves);
+			break;
+	}
 	case SERIAL_ATTACH: { // serialAttach
 			byte deviceId = ioCmd[startPos+1]; // bu8
 			startPos += 1;
@@ -664,23 +688,33 @@ bool Msg::readMsg() {
 			//publishDebug("RX:" + String(newByte));
 			++byteCount;
 			// checking first byte - beginning of message?
-			if (byteCount == 1 && newByte != MAGIC_NUMBER) {
+			if (byteCount == 1 && newByte != MAGIC_NUMBER && newByte != MAGIC_NUMBER_SEQ) {
 				publishError(F("error serial"));
 				// reset - try again
 				byteCount = 0;
 				// return false;
 			}
+			if (byteCount == 1) {
+				seqFrame = (newByte == MAGIC_NUMBER_SEQ);
+			}
 			if (byteCount == 2) {
 				// get the size of message
 				// todo check msg < 64 (MAX_MSG_SIZE)
-				if (newByte > 64) {
+				// a sequenced frame has the seq on top and can not be empty
+				if ((!seqFrame && newByte > MAX_MSG_SIZE) || (seqFrame && (newByte > MAX_MSG_SIZE + 1 || newByte == 0))) {
 					// TODO - send error back
 					byteCount = 0;
 					continue; // GroG - I guess  we continue now vs return false on error conditions?
 				}
 				msgSize = newByte;
 			}
-			if (byteCount > 2) {
+			if (byteCount > 2 && seqFrame) {
+				if (byteCount == 3) {
+					seq = newByte;
+				} else {
+					ioCmd[byteCount - 4] = newByte;
+				}
+			} else if (byteCount > 2) {
 				// fill in msg data - (2) headbytes -1 (offset)
 				ioCmd[byteCount - 3] = newByte;
 			}
@@ -688,6 +722,9 @@ bool Msg::readMsg() {
 			if (byteCount == 2 + msgSize) {
 				// we've reach the end of the command, just return true .. we've got it
 				byteCount = 0;
+				if (!seqFrame) {
+					seq = -1;
+				}
 				return true;
 			}
 		}
@@ -696,6 +733,29 @@ bool Msg::readMsg() {
 	return false;
 }
 
+// sequence check of the frame just read - plain frames restart the sequence,
+// sequenced ones are only processed in order. A repeat or a frame after a gap
+// is dropped and the pc goes back to the frame after getLastSeq()
+bool Msg::acceptSeq() {
+	if (seq < 0) {
+		expectedSeq = 0;
+		return true;
+	}
+	if (seq != expectedSeq) {
+		return false;
+	}
+	++expectedSeq;
+	return true;
+}
+
+int Msg::getSeq() {
+	return seq;
+}
+
+byte Msg::getLastSeq() {
+	return expectedSeq - 1;
+}
+
 void Msg::write(const unsigned char value) {
 	serial->write(value);
 }
@@ -22,6 +22,9 @@
 	The binary wire format of an Arduino is:
 
 	MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0|PARAM1 ...
+	or sequenced - MSG_SIZE counts the SEQ byte:
+	
+	MAGIC_NUMBER_SEQ|MSG_SIZE|SEQ|METHOD_NUMBER|PARAM0|PARAM1 ...
 
 </pre>
 */
@@ -47,6 +50,11 @@ private:
 	int byteCount = 0;
 	int msgSize = 0;
 
+	// sequenced frames
+	bool seqFrame = false;
+	int seq = -1; // of the last frame read - -1 if it was plain
+	byte expectedSeq = 0;
+
 	int sendBufferSize = 0;
 	byte sendBuffer[MAX_MSG_SIZE];
 
@@ -93,8 +101,9 @@ public:
 
 	// generated send (PC <-- MrlComm) methods
 	void publishMRLCommError(const char* errorMsg,  byte errorMsgSize);
-	void publishBoardInfo( byte version,  byte boardType,  int microsPerLoop,  int sram,  byte activePins, const byte* deviceSummary,  byte deviceSummarySize);
+	void publishBoardInfo( byte version,  byte boardType,  int microsPerLoop,  int sram,  byte activePins,  byte ackWindow, const byte* deviceSummary,  byte deviceSummarySize);
 	void publishAck( byte function);
+	void publishSeqAck( byte seq);
 	void publishEcho( float myFloat,  byte myByte,  float secondFloat);
 	void publishCustomMsg(const byte* msg,  byte msgSize);
 	void publishI2cData( byte deviceId, const byte* data,  byte dataSize);
@@ -119,6 +128,9 @@ public:
 	void write(const unsigned char* buffer, int len);
 	bool readMsg();
 	byte getMethod();
+	bool acceptSeq();
+	int getSeq();
+	byte getLastSeq();
 
 };
 
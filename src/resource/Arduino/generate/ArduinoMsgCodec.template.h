@@ -11,7 +11,11 @@
 
 #define MRLCOMM_VERSION			%MRLCOMM_VERSION%
 #define MAGIC_NUMBER            170 // 10101010
+#define MAGIC_NUMBER_SEQ        171 // 10101011
 #define MAX_MSG_SIZE			64
+// sequenced frames the pc may send before the first is acknowledged
+// a few small msgs - the serial rx buffer is only 64 bytes
+#define ACK_WINDOW				4
 
 %cppDeviceTypes%
 
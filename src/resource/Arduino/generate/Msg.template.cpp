@@ -22,6 +22,9 @@
  The binary wire format of an Arduino is:
 
  MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0|PARAM1 ...
+ or sequenced - MSG_SIZE counts the SEQ byte:
+
+ MAGIC_NUMBER_SEQ|MSG_SIZE|SEQ|METHOD_NUMBER|PARAM0|PARAM1 ...
 
  </pre>
 
@@ -150,23 +153,33 @@ bool Msg::readMsg() {
 			//publishDebug("RX:" + String(newByte));
 			++byteCount;
 			// checking first byte - beginning of message?
-			if (byteCount == 1 && newByte != MAGIC_NUMBER) {
+			if (byteCount == 1 && newByte != MAGIC_NUMBER && newByte != MAGIC_NUMBER_SEQ) {
 				publishError(F("error serial"));
 				// reset - try again
 				byteCount = 0;
 				// return false;
 			}
+			if (byteCount == 1) {
+				seqFrame = (newByte == MAGIC_NUMBER_SEQ);
+			}
 			if (byteCount == 2) {
 				// get the size of message
 				// todo check msg < 64 (MAX_MSG_SIZE)
-				if (newByte > 64) {
+				// a sequenced frame has the seq on top and can not be empty
+				if ((!seqFrame && newByte > MAX_MSG_SIZE) || (seqFrame && (newByte > MAX_MSG_SIZE + 1 || newByte == 0))) {
 					// TODO - send error back
 					byteCount = 0;
 					continue; // GroG - I guess  we continue now vs return false on error conditions?
 				}
 				msgSize = newByte;
 			}
-			if (byteCount > 2) {
+			if (byteCount > 2 && seqFrame) {
+				if (byteCount == 3) {
+					seq = newByte;
+				} else {
+					ioCmd[byteCount - 4] = newByte;
+				}
+			} else if (byteCount > 2) {
 				// fill in msg data - (2) headbytes -1 (offset)
 				ioCmd[byteCount - 3] = newByte;
 			}
@@ -174,6 +187,9 @@ bool Msg::readMsg() {
 			if (byteCount == 2 + msgSize) {
 				// we've reach the end of the command, just return true .. we've got it
 				byteCount = 0;
+				if (!seqFrame) {
+					seq = -1;
+				}
 				return true;
 			}
 		}
@@ -182,6 +198,29 @@ bool Msg::readMsg() {
 	return false;
 }
 
+// sequence check of the frame just read - plain frames restart the sequence,
+// sequenced ones are only processed in order. A repeat or a frame after a gap
+// is dropped and the pc goes back to the frame after getLastSeq()
+bool Msg::acceptSeq() {
+	if (seq < 0) {
+		expectedSeq = 0;
+		return true;
+	}
+	if (seq != expectedSeq) {
+		return false;
+	}
+	++expectedSeq;
+	return true;
+}
+
+int Msg::getSeq() {
+	return seq;
+}
+
+byte Msg::getLastSeq() {
+	return expectedSeq - 1;
+}
+
 void Msg::write(const unsigned char value) {
 	serial->write(value);
 }
@@ -22,6 +22,9 @@
 	The binary wire format of an Arduino is:
 
 	MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0|PARAM1 ...
+	or sequenced - MSG_SIZE counts the SEQ byte:
+	
+	MAGIC_NUMBER_SEQ|MSG_SIZE|SEQ|METHOD_NUMBER|PARAM0|PARAM1 ...
 
 </pre>
 */
@@ -47,6 +50,11 @@ private:
 	int byteCount = 0;
 	int msgSize = 0;
 
+	// sequenced frames
+	bool seqFrame = false;
+	int seq = -1; // of the last frame read - -1 if it was plain
+	byte expectedSeq = 0;
+
 	int sendBufferSize = 0;
 	byte sendBuffer[MAX_MSG_SIZE];
 
@@ -108,6 +116,9 @@ public:
 	void write(const unsigned char* buffer, int len);
 	bool readMsg();
 	byte getMethod();
+	bool acceptSeq();
+	int getSeq();
+	byte getLastSeq();
 
 };
 
@@ -6,7 +6,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.myrobotlab.framework.TimerWheel;
 import org.myrobotlab.logging.Level;
 
 import org.myrobotlab.arduino.virtual.MrlComm;
@@ -35,6 +38,10 @@ import org.myrobotlab.arduino.virtual.MrlComm;
  The binary wire format of an %javaArduinoClass% is:
 
  MAGIC_NUMBER|MSG_SIZE|METHOD_NUMBER|PARAM0|PARAM1 ...
+
+ and with a send window (see AckWindow) frames are sequenced - MSG_SIZE counts the SEQ byte:
+
+ MAGIC_NUMBER_SEQ|MSG_SIZE|SEQ|METHOD_NUMBER|PARAM0|PARAM1 ...
  
  </pre>
 
@@ -63,6 +70,7 @@ public class %javaClass% {
 
 	public static final int MAX_MSG_SIZE = 64;
 	public static final int MAGIC_NUMBER = 170; // 10101010
+	public static final int MAGIC_NUMBER_SEQ = 171; // 10101011
 	public static final int MRLCOMM_VERSION = %MRLCOMM_VERSION%;
 	
 	// send buffer
@@ -75,6 +83,12 @@ public class %javaClass% {
   int byteCount = 0;
   int msgSize = 0;
 
+  // sequenced frame receiving
+  boolean seqFrame = false;
+  // seq of the last frame read - -1 if it was a plain frame
+  int seq = -1;
+  int expectedSeq = 0;
+
 	// ------ device type mapping constants
 	int method = -1;
 	public boolean debug = false;
@@ -89,6 +103,33 @@ public class %javaClass% {
 	  }
 	 
 	transient AckLock ackRecievedLock = new AckLock();
+
+	// windowed acks
+	transient volatile AckWindow ackWindow = null;
+	// writes which must not run on the TimerWheel thread - a serial write can
+	// block
+	transient final ExecutorService txExecutor = AckWindow.newTxExecutor("msg_tx");
+
+	// each frame is built here and goes to the serial in one write
+	boolean framing = false;
+	int frameSize = 0;
+	byte frame[] = new byte[MAX_MSG_SIZE + 2];
+
+	// coalescing - small frames are collected and written together
+	// after coalesceMs or when the buffer is full
+	boolean coalesce = false;
+	int coalesceMs = 2;
+	final Object txLock = new Object();
+	byte coalesceBuffer[] = new byte[256];
+	int coalesceSize = 0;
+	transient TimerWheel.Timeout coalesceTimeout = null;
+	// the timeout only hands the flush to txExecutor - the wheel never writes
+	transient final Runnable flusher = new Runnable() {
+	  @Override
+	  public void run() {
+	    flush();
+	  }
+	};
 	
 	// recording related
 	transient FileOutputStream record = null;
@@ -153,6 +194,17 @@ public class %javaClass% {
 	public void processCommand(int[] ioCmd) {
 		int startPos = 0;
 		method = ioCmd[startPos];
+		// seq acks free the send window right here on the serial thread - an
+		// invoked publishSeqAck could be queued behind a sender waiting for it
+		AckWindow window = ackWindow;
+		if (method == PUBLISH_SEQ_ACK && window != null) {
+		  window.ack(ioCmd[startPos + 1]);
+		}
+		// pin reports go to the sample ring straight from the frame - the int[]
+		// and PinData path only runs if something still needs it
+		if (method == PUBLISH_PIN_ARRAY && arduino.onPinArray(ioCmd, startPos + 2, ioCmd[startPos + 1]) && record == null) {
+		  return;
+		}
 		switch (method) {
 %javaHandleCases%		
 		}
@@ -229,23 +281,33 @@ public class %javaClass% {
         //publishDebug("RX:" + String(newByte));
         ++byteCount;
         // checking first byte - beginning of message?
-        if (byteCount == 1 && newByte != VirtualMsg.MAGIC_NUMBER) {
+        if (byteCount == 1 && newByte != MAGIC_NUMBER && newByte != MAGIC_NUMBER_SEQ) {
           publishError(F("error serial"));
           // reset - try again
           byteCount = 0;
           // return false;
         }
+        if (byteCount == 1) {
+          seqFrame = (newByte == MAGIC_NUMBER_SEQ);
+        }
         if (byteCount == 2) {
           // get the size of message
           // todo check msg < 64 (MAX_MSG_SIZE)
-          if (newByte > 64) {
+          // a sequenced frame has the seq on top and can not be empty
+          if ((!seqFrame && newByte > MAX_MSG_SIZE) || (seqFrame && (newByte > MAX_MSG_SIZE + 1 || newByte == 0))) {
             // TODO - send error back
             byteCount = 0;
             continue; // GroG - I guess  we continue now vs return false on error conditions?
           }
           msgSize = newByte;
         }
-        if (byteCount > 2) {
+        if (byteCount > 2 && seqFrame) {
+          if (byteCount == 3) {
+            seq = newByte;
+          } else {
+            ioCmd[byteCount - 4] = newByte;
+          }
+        } else if (byteCount > 2) {
           // fill in msg data - (2) headbytes -1 (offset)
           ioCmd[byteCount - 3] = newByte;
         }
@@ -253,6 +315,9 @@ public class %javaClass% {
         if (byteCount == 2 + msgSize) {
           // we've reach the end of the command, just return true .. we've got it
           byteCount = 0;
+          if (!seqFrame) {
+            seq = -1;
+          }
           return true;
         }
       }
@@ -261,6 +326,38 @@ public class %javaClass% {
     return false;
   }
 
+  /**
+   * sequence check of the frame readMsg just read - true if it should be
+   * processed. Plain frames always are and restart the sequence at 0.
+   * Sequenced frames are only processed in order - a repeat or a frame after a
+   * gap is dropped, the sender goes back to the frame after getLastSeq()
+   */
+  public boolean acceptSeq() {
+    if (seq < 0) {
+      expectedSeq = 0;
+      return true;
+    }
+    if (seq != expectedSeq) {
+      return false;
+    }
+    expectedSeq = (expectedSeq + 1) & 0xFF;
+    return true;
+  }
+
+  /**
+   * @return seq of the last frame read or -1 if it was a plain frame
+   */
+  public int getSeq() {
+    return seq;
+  }
+
+  /**
+   * @return seq of the last sequenced frame which was processed
+   */
+  public int getLastSeq() {
+    return (expectedSeq - 1) & 0xFF;
+  }
+
   String F(String msg) {
     return msg;
   }
@@ -275,14 +372,19 @@ public class %javaClass% {
 			log.error("writeByte overrun - should be  0 <= value <= 255 - value = {}", b8);
 		}
 
+		if (framing) {
+		  frame[frameSize++] = (byte) b8;
+		  return;
+		}
+
 		serial.write(b8 & 0xFF);
 	}
 
 	void writebool(boolean b1) throws Exception {
 		if (b1) {
-			serial.write(1);
+			write(1);
 		} else {
-			serial.write(0);
+			write(0);
 		}
 	}
 
@@ -381,6 +483,9 @@ public class %javaClass% {
   public void enableAcks(boolean b){
     // disable local blocking
 	  ackEnabled = b;
+	  if (!b) {
+	    setAckWindow(0);
+	  }
 	  // if (!localOnly){
 	  // shutdown MrlComm from sending acks
 	  // below is a method only in Msg.java not in VirtualMsg.java
@@ -409,6 +514,131 @@ public class %javaClass% {
     }
 	}
 	
+	/**
+	 * sets how many frames can be sent before the first one is acknowledged.
+	 * 1 or less is stop and wait - the receiver must support sequenced frames
+	 */
+	public void setAckWindow(int size) {
+	  AckWindow window = ackWindow;
+	  if (window != null) {
+	    window.close();
+	  }
+	  if (size > 1) {
+	    ackWindow = new AckWindow(new AckWindow.FrameWriter() {
+	      @Override
+	      public void write(byte[] data, int len) throws Exception {
+	        send(data, len, coalesce);
+	      }
+	    }, size, txExecutor);
+	  } else {
+	    ackWindow = null;
+	  }
+	}
+
+	public AckWindow getAckWindow() {
+	  return ackWindow;
+	}
+
+	/**
+	 * start of a frame - the writes go to the frame buffer. Without a send
+	 * window wait for the ack of the last frame first
+	 */
+	void beginFrame() {
+	  framing = true;
+	  frameSize = 0;
+	  if (ackEnabled && ackWindow == null) {
+	    waitForAck();
+	  }
+	}
+
+	/**
+	 * the frame is complete - give it to the window or write it
+	 */
+	void endFrame() throws Exception {
+	  framing = false;
+	  AckWindow window = ackWindow;
+	  if (ackEnabled && window != null) {
+	    // blocks while the window is full
+	    window.send(frame, frameSize);
+	  } else if (ackEnabled) {
+	    // stop and wait - the frame must go now
+	    send(frame, frameSize, false);
+	    // we just wrote - block threads sending
+	    // until they get an ack
+	    ackRecievedLock.acknowledged = false;
+	  } else {
+	    send(frame, frameSize, coalesce);
+	  }
+	}
+
+	/**
+	 * writes a frame - or adds it to the coalescing buffer. Frames already in
+	 * the buffer always go first.
+	 */
+	void send(byte[] data, int len, boolean later) throws Exception {
+	  synchronized (txLock) {
+	    if (!later || coalesceSize + len > coalesceBuffer.length) {
+	      flushTx();
+	    }
+	    if (!later) {
+	      serial.write(data, 0, len);
+	      return;
+	    }
+	    System.arraycopy(data, 0, coalesceBuffer, coalesceSize, len);
+	    coalesceSize += len;
+	    if (coalesceTimeout == null) {
+	      coalesceTimeout = TimerWheel.getInstance().schedule(new Runnable() {
+	        @Override
+	        public void run() {
+	          txExecutor.execute(flusher);
+	        }
+	      }, coalesceMs, TimeUnit.MILLISECONDS);
+	    }
+	  }
+	}
+
+	void flushTx() throws Exception {
+	  if (coalesceTimeout != null) {
+	    coalesceTimeout.cancel();
+	    coalesceTimeout = null;
+	  }
+	  if (coalesceSize > 0) {
+	    int len = coalesceSize;
+	    coalesceSize = 0;
+	    serial.write(coalesceBuffer, 0, len);
+	  }
+	}
+
+	/**
+	 * writes the coalesced frames now
+	 */
+	public void flush() {
+	  synchronized (txLock) {
+	    try {
+	      flushTx();
+	    } catch (Exception e) {
+	      log.error("flush threw", e);
+	    }
+	  }
+	}
+
+	/**
+	 * collect small frames and write them together - fewer writes and usb
+	 * packets for bursts of msgs, at most ms later. Not used for stop and wait
+	 * acks - every frame there has to go out before its ack can come back.
+	 */
+	public void setCoalesce(boolean b, int ms) {
+	  coalesceMs = ms;
+	  coalesce = b;
+	  if (!b) {
+	    flush();
+	  }
+	}
+
+	public boolean isCoalescing() {
+	  return coalesce;
+	}
+	
 	public void ackReceived(int function){
 	   synchronized (ackRecievedLock) {
 	      ackRecievedLock.acknowledged = true;
@@ -19,6 +19,11 @@ angular.module('mrlapp.service.RuntimeGui', [])
                                 _self.updateState(inMsg.data[0]);
                             });
                             break;
+                        case 'onServiceMetrics':
+                            $timeout(function () {
+                                $scope.metrics = inMsg.data[0];
+                            });
+                            break;
                          case 'onReleased':{
                                 $log.info("runtime - onRelease" +  inMsg.data[0] );
                            break;
@@ -33,5 +38,12 @@ angular.module('mrlapp.service.RuntimeGui', [])
 
                 $scope.possibleServices = mrl.getPossibleServices();
 
+                // busiest service first - times are in microseconds
+                $scope.metrics = [];
+                $scope.refreshMetrics = function () {
+                    msg.send('getServiceMetrics');
+                };
+
+                msg.subscribe('getServiceMetrics');
                 msg.subscribe(this);
             }]);
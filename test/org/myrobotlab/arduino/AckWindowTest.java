@@ -0,0 +1,188 @@
+package org.myrobotlab.arduino;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * go-back-n window against a board which loses frames
+ */
+public class AckWindowTest {
+
+  /**
+   * receiving side of MrlComm - same sequence rules as Msg.acceptSeq, in its
+   * own thread like a real board
+   */
+  static class Board implements AckWindow.FrameWriter, Runnable {
+    final LinkedBlockingQueue<byte[]> wire = new LinkedBlockingQueue<byte[]>();
+    final List<Integer> processed = new ArrayList<Integer>();
+    final int lossEvery;
+    AckWindow window;
+    int frames = 0;
+    int expectedSeq = 0;
+    volatile boolean running = true;
+    Thread thread = new Thread(this, "board");
+
+    Board(int lossEvery) {
+      this.lossEvery = lossEvery;
+    }
+
+    @Override
+    public void write(byte[] data, int len) throws Exception {
+      wire.add(Arrays.copyOf(data, len));
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          byte[] f = wire.poll(10, TimeUnit.MILLISECONDS);
+          if (f == null) {
+            continue;
+          }
+          if (lossEvery > 0 && ++frames % lossEvery == 0) {
+            continue;
+          }
+          if ((f[0] & 0xFF) == Msg.MAGIC_NUMBER) {
+            expectedSeq = 0;
+            processed.add(f[3] & 0xFF);
+            continue;
+          }
+          int seq = f[2] & 0xFF;
+          if (seq == expectedSeq) {
+            expectedSeq = (expectedSeq + 1) & 0xFF;
+            // payload is METHOD|PARAM - the param is the msg number
+            processed.add(f[4] & 0xFF);
+            window.ack(seq);
+          } else {
+            window.ack((expectedSeq - 1) & 0xFF);
+          }
+        }
+      } catch (InterruptedException e) {
+      }
+    }
+  }
+
+  static byte[] frame(int n) {
+    return new byte[] { (byte) Msg.MAGIC_NUMBER, 2, 7, (byte) n };
+  }
+
+  void send(int count, int lossEvery) throws Exception {
+    Board board = new Board(lossEvery);
+    AckWindow window = new AckWindow(board, 4);
+    window.setTimeout(20);
+    window.setMaxRetries(50);
+    board.window = window;
+    board.thread.start();
+
+    for (int i = 0; i < count; ++i) {
+      window.send(frame(i), 4);
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (window.getOutstanding() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    board.running = false;
+    board.thread.join();
+
+    assertEquals(0, window.getOutstanding());
+    assertEquals(0, window.getDropped());
+    // every msg once and in order - wraps the 256 sequence numbers too
+    assertEquals(count, board.processed.size());
+    for (int i = 0; i < count; ++i) {
+      assertEquals(i & 0xFF, board.processed.get(i).intValue());
+    }
+    if (lossEvery > 0) {
+      assertTrue(window.getResent() > 0);
+    }
+  }
+
+  @Test
+  public void lossless() throws Exception {
+    send(600, 0);
+  }
+
+  @Test
+  public void lossy() throws Exception {
+    send(600, 7);
+  }
+
+  /**
+   * a write which blocks - e.g. a full usb buffer - must not hold up the acks
+   * from the serial reader
+   */
+  @Test
+  public void ackDuringWrite() throws Exception {
+    final CountDownLatch writing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AckWindow window = new AckWindow(new AckWindow.FrameWriter() {
+      int writes = 0;
+
+      @Override
+      public void write(byte[] data, int len) throws Exception {
+        if (++writes == 3) {
+          writing.countDown();
+          release.await();
+        }
+      }
+    }, 4);
+    window.send(frame(0), 4);
+    window.send(frame(1), 4);
+    Thread sender = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          window.send(frame(2), 4);
+        } catch (Exception e) {
+        }
+      }
+    });
+    sender.start();
+    assertTrue(writing.await(1, TimeUnit.SECONDS));
+
+    Thread acker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        window.ack(0);
+      }
+    });
+    acker.start();
+    acker.join(1000);
+    try {
+      assertTrue(!acker.isAlive());
+      assertEquals(1, window.getOutstanding());
+    } finally {
+      release.countDown();
+      sender.join();
+      window.close();
+    }
+  }
+
+  @Test
+  public void sequencedFrame() throws Exception {
+    Board board = new Board(0);
+    AckWindow window = new AckWindow(board, 4);
+    // first one is plain - restarts the sequence on the board
+    window.send(frame(1), 4);
+    window.send(frame(2), 4);
+    byte[] plain = board.wire.take();
+    byte[] seq = board.wire.take();
+    assertEquals(Msg.MAGIC_NUMBER, plain[0] & 0xFF);
+    assertEquals(Msg.MAGIC_NUMBER_SEQ, seq[0] & 0xFF);
+    // size counts the seq
+    assertEquals(3, seq[1]);
+    assertEquals(0, seq[2]);
+    assertEquals(7, seq[3]);
+    assertEquals(2, seq[4]);
+    window.close();
+  }
+
+}
@@ -0,0 +1,189 @@
+package org.myrobotlab.arduino;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.myrobotlab.framework.QueueStats;
+import org.myrobotlab.serial.ByteRing;
+import org.myrobotlab.serial.PortQueue;
+import org.myrobotlab.service.interfaces.SerialDataListener;
+
+/**
+ * MrlComm frame decoding - byte at a time and from bulk reads
+ */
+public class FrameDecoderTest {
+
+  static class Frames implements FrameDecoder.FrameListener {
+    List<int[]> frames = new ArrayList<int[]>();
+    int errors = 0;
+
+    @Override
+    public void onFrame(int[] ioCmd, int size) {
+      frames.add(Arrays.copyOf(ioCmd, size));
+    }
+
+    @Override
+    public void onFrameError(String error) {
+      ++errors;
+    }
+  }
+
+  /**
+   * a listener on a port which decodes frames - counts them down
+   */
+  static class Decoding implements SerialDataListener {
+    final FrameDecoder decoder;
+    final CountDownLatch done;
+
+    Decoding(final int frameCount) {
+      done = new CountDownLatch(frameCount);
+      decoder = new FrameDecoder(new FrameDecoder.FrameListener() {
+        @Override
+        public void onFrame(int[] ioCmd, int size) {
+          done.countDown();
+        }
+
+        @Override
+        public void onFrameError(String error) {
+        }
+      });
+    }
+
+    @Override
+    public String getName() {
+      return "decoding";
+    }
+
+    @Override
+    public QueueStats publishStats(QueueStats stats) {
+      return stats;
+    }
+
+    @Override
+    public void updateStats(QueueStats stats) {
+    }
+
+    @Override
+    public void onConnect(String portName) {
+    }
+
+    @Override
+    public void onDisconnect(String portName) {
+    }
+
+    @Override
+    public Integer onByte(Integer b) throws IOException {
+      decoder.decode(b);
+      return b;
+    }
+
+    @Override
+    public void onBytes(byte[] data, int off, int len) throws IOException {
+      decoder.decode(data, off, len);
+    }
+  }
+
+  /**
+   * count frames with 1 to 8 param bytes - and a bit of noise in front
+   */
+  static byte[] createStream(int count) {
+    List<Integer> stream = new ArrayList<Integer>();
+    stream.add(3);
+    stream.add(Msg.MAGIC_NUMBER);
+    stream.add(200);
+    for (int i = 0; i < count; ++i) {
+      int size = 1 + i % 9;
+      stream.add(Msg.MAGIC_NUMBER);
+      stream.add(size);
+      for (int j = 0; j < size; ++j) {
+        stream.add((i + j) & 0xff);
+      }
+    }
+    byte[] ret = new byte[stream.size()];
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = (byte) stream.get(i).intValue();
+    }
+    return ret;
+  }
+
+  @Test
+  public void bulkEqualsPerByte() {
+    byte[] stream = createStream(100);
+
+    Frames single = new Frames();
+    FrameDecoder decoder = new FrameDecoder(single);
+    for (int i = 0; i < stream.length; ++i) {
+      decoder.decode(stream[i] & 0xff);
+    }
+    assertEquals(100, single.frames.size());
+    // 3 is not the magic number, 200 is too big for a frame
+    assertEquals(2, single.errors);
+
+    // every way of cutting the stream in reads gives the same frames
+    for (int chunk = 1; chunk < 40; ++chunk) {
+      Frames bulk = new Frames();
+      decoder = new FrameDecoder(bulk);
+      for (int off = 0; off < stream.length; off += chunk) {
+        decoder.decode(stream, off, Math.min(chunk, stream.length - off));
+      }
+      assertEquals(single.frames.size(), bulk.frames.size());
+      assertEquals(single.errors, bulk.errors);
+      for (int i = 0; i < single.frames.size(); ++i) {
+        assertArrayEquals(single.frames.get(i), bulk.frames.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void portQueueBulkRead() throws Exception {
+    int count = 1000;
+    ByteRing loop = new ByteRing(PortQueue.RING_SIZE);
+    PortQueue port = new PortQueue("loopback", loop, loop);
+    Decoding listener = new Decoding(count);
+    HashMap<String, SerialDataListener> listeners = new HashMap<String, SerialDataListener>();
+    listeners.put(listener.getName(), listener);
+    port.listen(listeners);
+    for (byte b : createStream(count)) {
+      port.write(b & 0xff);
+    }
+    assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+    port.close();
+  }
+
+  /**
+   * throughput of the port thread - onByte per byte vs onBytes per read
+   */
+  public static void main(String[] args) throws Exception {
+    int count = 200000;
+    byte[] stream = createStream(count);
+    for (int round = 0; round < 3; ++round) {
+      for (boolean bulk : new boolean[] { false, true }) {
+        ByteRing loop = new ByteRing(stream.length);
+        loop.offer(stream, 0, stream.length);
+        PortQueue port = new PortQueue("loopback", loop, loop);
+        port.setBulkRead(bulk);
+        Decoding listener = new Decoding(count);
+        HashMap<String, SerialDataListener> listeners = new HashMap<String, SerialDataListener>();
+        listeners.put(listener.getName(), listener);
+        long start = System.nanoTime();
+        port.listen(listeners);
+        listener.done.await();
+        long ns = System.nanoTime() - start;
+        port.close();
+        System.out.println(String.format("%s %d bytes %d ms %.1f MB/s", bulk ? "onBytes" : "onByte ", stream.length, ns / 1000000,
+            stream.length * 1000.0 / ns));
+      }
+    }
+  }
+
+}
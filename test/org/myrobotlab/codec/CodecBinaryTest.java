@@ -0,0 +1,160 @@
+package org.myrobotlab.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+import org.myrobotlab.framework.Message;
+
+public class CodecBinaryTest {
+
+  static Message createMessage() {
+    Message msg = new Message();
+    msg.msgId = 1234567890123L;
+    msg.name = "servo01";
+    msg.sender = "python";
+    msg.sendingMethod = "exec";
+    msg.method = "moveTo";
+    msg.historyList.add("python");
+    msg.data = new Object[] { 90, 3.5, "fast", true, null };
+    return msg;
+  }
+
+  @Test
+  public void values() throws Exception {
+    Object[] values = new Object[] { null, true, false, 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MIN_VALUE, 1.5f, Math.PI, (short) -7,
+        (byte) 200, 'x', "", "ascii", "uni\u00e7ode \u2603" };
+    for (Object v : values) {
+      assertEquals(v, CodecBinary.fromBytes(CodecBinary.toBytes(v)));
+    }
+
+    assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) CodecBinary.fromBytes(CodecBinary.toBytes(new byte[] { 1, 2, 3 })));
+    assertArrayEquals(new int[] { -1, 0, 70000 }, (int[]) CodecBinary.fromBytes(CodecBinary.toBytes(new int[] { -1, 0, 70000 })));
+    assertArrayEquals(new double[] { 0.1, -2 }, (double[]) CodecBinary.fromBytes(CodecBinary.toBytes(new double[] { 0.1, -2 })), 0);
+    assertArrayEquals(new String[] { "a", null }, (String[]) CodecBinary.fromBytes(CodecBinary.toBytes(new String[] { "a", null })));
+
+    List<Object> list = new ArrayList<Object>();
+    list.add("one");
+    list.add(2);
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("list", list);
+    map.put("none", null);
+    assertEquals(map, CodecBinary.fromBytes(CodecBinary.toBytes(map)));
+  }
+
+  @Test
+  public void collectionTypes() throws Exception {
+    TreeMap<String, Integer> tree = new TreeMap<String, Integer>();
+    tree.put("b", 2);
+    tree.put("a", 1);
+    Object ret = CodecBinary.fromBytes(CodecBinary.toBytes(tree));
+    assertEquals(TreeMap.class, ret.getClass());
+    assertEquals(tree, ret);
+
+    CopyOnWriteArrayList<Object> list = new CopyOnWriteArrayList<Object>();
+    list.add("one");
+    list.add(tree);
+    ret = CodecBinary.fromBytes(CodecBinary.toBytes(list));
+    assertEquals(CopyOnWriteArrayList.class, ret.getClass());
+    assertEquals(TreeMap.class, ((List<?>) ret).get(1).getClass());
+
+    TreeSet<Integer> set = new TreeSet<Integer>();
+    set.add(3);
+    set.add(1);
+    ret = CodecBinary.fromBytes(CodecBinary.toBytes(set));
+    assertEquals(TreeSet.class, ret.getClass());
+    assertEquals(set, ret);
+
+    // can't be created by name - the default
+    ret = CodecBinary.fromBytes(CodecBinary.toBytes(Collections.unmodifiableList(list)));
+    assertEquals(ArrayList.class, ret.getClass());
+  }
+
+  @Test
+  public void message() throws Exception {
+    Message msg = createMessage();
+    byte[] bytes = CodecBinary.toBytes(msg);
+    Message ret = (Message) CodecBinary.fromBytes(bytes);
+    assertEquals(msg.msgId, ret.msgId);
+    assertEquals(msg.name, ret.name);
+    assertEquals(msg.sender, ret.sender);
+    assertEquals(msg.method, ret.method);
+    assertEquals(msg.status, ret.status);
+    assertNull(ret.uri);
+    assertEquals(msg.historyList, ret.historyList);
+    assertArrayEquals(msg.data, ret.data);
+
+    // smaller than the json of the same message
+    assertTrue(bytes.length < CodecJson.encode(msg).length());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void truncated() throws Exception {
+    byte[] bytes = CodecBinary.toBytes(createMessage());
+    CodecBinary.fromBytes(bytes, 0, bytes.length / 2);
+  }
+
+  /**
+   * not a collection - must not be initialized or constructed
+   */
+  static public class NotACollection {
+    static {
+      initialized = true;
+    }
+  }
+
+  static boolean initialized = false;
+
+  @Test
+  public void typedCollectionFromTheWire() throws Exception {
+    for (byte tag : new byte[] { CodecBinary.TYPED_COLLECTION, CodecBinary.TYPED_MAP }) {
+      CodecBinary.Writer w = new CodecBinary.Writer();
+      w.write(tag);
+      w.writeString(NotACollection.class.getName());
+      w.writeVarLong(0);
+      try {
+        CodecBinary.fromBytes(Arrays.copyOf(w.buf, w.pos));
+        assertTrue(false);
+      } catch (IllegalArgumentException e) {
+      }
+    }
+    assertFalse(initialized);
+  }
+
+  /**
+   * rough comparison with the json codec
+   */
+  public static void main(String[] args) throws Exception {
+    Message msg = createMessage();
+    CodecJson codec = new CodecJson();
+    int count = 200000;
+    for (int round = 0; round < 3; ++round) {
+      long start = System.nanoTime();
+      for (int i = 0; i < count; ++i) {
+        CodecBinary.fromBytes(CodecBinary.toBytes(msg));
+      }
+      long binary = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (int i = 0; i < count; ++i) {
+        codec.decode(CodecJson.encode(msg), Message.class);
+      }
+      long json = System.nanoTime() - start;
+      System.out.println(String.format("binary %d ns/msg %d bytes - json %d ns/msg %d bytes", binary / count, CodecBinary.toBytes(msg).length,
+          json / count, CodecJson.encode(msg).length()));
+    }
+  }
+
+}
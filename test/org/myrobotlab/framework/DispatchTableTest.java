@@ -0,0 +1,175 @@
+package org.myrobotlab.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.myrobotlab.logging.LoggerFactory;
+import org.myrobotlab.service.Runtime;
+import org.myrobotlab.service.TestCatcher;
+import org.slf4j.Logger;
+
+/**
+ * resolution rules of the dispatch table - main() compares messages/second
+ * through Service.invoke(Message) with and without the dispatch table
+ */
+public class DispatchTableTest {
+
+  public final static Logger log = LoggerFactory.getLogger(DispatchTableTest.class);
+
+  static public class Target {
+    public int count = 0;
+
+    public String moveTo(Integer pos) {
+      return "Integer";
+    }
+
+    public String moveTo(Double pos) {
+      return "Double";
+    }
+
+    public String attach(Object o) {
+      return "Object";
+    }
+
+    public String attach(String name) {
+      return "String";
+    }
+
+    public String attach(String name, Object o) {
+      return "String, Object";
+    }
+
+    public String attach(Object o, String name) {
+      return "Object, String";
+    }
+
+    public String handle(Object o) {
+      return "Object";
+    }
+
+    public String handle(Number n) {
+      return "Number";
+    }
+
+    public String handle(Comparable<?> c) {
+      return "Comparable";
+    }
+
+    public String publish(Object o) {
+      return "Object";
+    }
+
+    public String publish(Number n) {
+      return "Number";
+    }
+
+    public void fail() {
+      throw new IllegalStateException("fail");
+    }
+
+    public void setSpeed(double speed) {
+      ++count;
+    }
+
+    public void onPin(int address, int value) {
+      count += value;
+    }
+
+    public static String getVersion() {
+      return "static";
+    }
+  }
+
+  Object invoke(Object target, String method, Object... params) throws Throwable {
+    DispatchTable.Entry entry = DispatchTable.getInstance(target.getClass()).find(method, params);
+    assertNotNull(entry);
+    return entry.invoke(target, params);
+  }
+
+  @Test
+  public void overloads() throws Throwable {
+    Target t = new Target();
+    assertEquals("Integer", invoke(t, "moveTo", 10));
+    assertEquals("Double", invoke(t, "moveTo", 10.0));
+    assertEquals("String", invoke(t, "attach", "servo01"));
+    assertEquals("Object", invoke(t, "attach", new Object()));
+    // the most specific - whatever order getMethods returns them in
+    assertEquals("String", invoke(t, "attach", new Object[] { null }));
+    assertEquals("Number", invoke(t, "publish", 1));
+    assertEquals("Number", invoke(t, "handle", new AtomicInteger()));
+  }
+
+  @Test
+  public void ambiguous() {
+    DispatchTable table = DispatchTable.getInstance(Target.class);
+    // neither is more specific - left to the reflective path
+    assertNull(table.find("attach", new Object[] { "servo01", "pin" }));
+    assertNull(table.find("handle", new Object[] { 1 }));
+  }
+
+  @Test
+  public void exceptions() throws Exception {
+    DispatchTable.Entry entry = DispatchTable.getInstance(Target.class).find("fail", null);
+    try {
+      entry.invoke(new Target(), null);
+      fail();
+    } catch (InvocationTargetException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+  }
+
+  @Test
+  public void primitives() throws Throwable {
+    Target t = new Target();
+    assertNull(invoke(t, "onPin", 3, 7));
+    assertEquals(7, t.count);
+    assertNull(invoke(t, "setSpeed", 0.5));
+    assertEquals(8, t.count);
+    assertEquals("static", invoke(t, "getVersion"));
+  }
+
+  @Test
+  public void unresolved() {
+    DispatchTable table = DispatchTable.getInstance(Target.class);
+    // widening is left to the reflective path
+    assertNull(table.find("setSpeed", new Object[] { 1 }));
+    // null can't be a primitive
+    assertNull(table.find("setSpeed", new Object[] { null }));
+    assertNull(table.find("onPin", new Object[] { 1 }));
+    assertNull(table.find("noSuchMethod", null));
+  }
+
+  public static void main(String[] args) {
+    try {
+      TestCatcher catcher = (TestCatcher) Runtime.start("catcher", "TestCatcher");
+      Message msg = Message.createMessage(catcher, "catcher", "testDouble", new Object[] { 0.5 });
+      int count = 2000000;
+      for (int round = 0; round < 3; ++round) {
+        DispatchTable.enabled = false;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          catcher.invoke(msg);
+        }
+        long reflect = System.nanoTime() - start;
+
+        DispatchTable.enabled = true;
+        start = System.nanoTime();
+        for (int i = 0; i < count; ++i) {
+          catcher.invoke(msg);
+        }
+        long dispatch = System.nanoTime() - start;
+        log.info(String.format("invoke(Message) reflection %.0f msgs/s - dispatch table %.0f msgs/s", count * 1e9 / reflect, count * 1e9 / dispatch));
+      }
+      Runtime.releaseAll();
+    } catch (Exception e) {
+      log.error("benchmark threw", e);
+    }
+  }
+}
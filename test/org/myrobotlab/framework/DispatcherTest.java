@@ -0,0 +1,152 @@
+package org.myrobotlab.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class DispatcherTest {
+
+  /**
+   * a queue drained by the pool - records if two workers ever drain it at the
+   * same time or if values come out of order
+   */
+  static class Counter implements Dispatcher.Drainable {
+    ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<Integer>();
+    AtomicInteger concurrent = new AtomicInteger();
+    volatile boolean overlapped = false;
+    volatile boolean outOfOrder = false;
+    int last = -1;
+    CountDownLatch done;
+
+    Counter(int count) {
+      done = new CountDownLatch(count);
+    }
+
+    @Override
+    public int drain(int max) {
+      if (concurrent.incrementAndGet() > 1) {
+        overlapped = true;
+      }
+      int count = 0;
+      Integer i = null;
+      while (count < max && (i = queue.poll()) != null) {
+        if (i != last + 1) {
+          outOfOrder = true;
+        }
+        last = i;
+        ++count;
+        done.countDown();
+      }
+      concurrent.decrementAndGet();
+      return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return queue.isEmpty();
+    }
+  }
+
+  @Test
+  public void inOrderPerQueue() throws InterruptedException {
+    int services = 32;
+    int count = 10000;
+    Counter[] counters = new Counter[services];
+    Dispatcher[] dispatchers = new Dispatcher[services];
+    for (int s = 0; s < services; ++s) {
+      counters[s] = new Counter(count);
+      dispatchers[s] = new Dispatcher("service" + s, counters[s]);
+    }
+    for (int i = 0; i < count; ++i) {
+      for (int s = 0; s < services; ++s) {
+        counters[s].queue.add(i);
+        dispatchers[s].schedule();
+      }
+    }
+    for (int s = 0; s < services; ++s) {
+      assertTrue(counters[s].done.await(10, TimeUnit.SECONDS));
+      assertTrue(!counters[s].overlapped);
+      assertTrue(!counters[s].outOfOrder);
+      assertEquals(count - 1, counters[s].last);
+    }
+  }
+
+  /**
+   * flooding services which never block must not grow the pool past one
+   * worker per core
+   */
+  @Test
+  public void boundedPool() throws InterruptedException {
+    int services = 64;
+    int count = 20000;
+    ForkJoinPool pool = (ForkJoinPool) Dispatcher.getPool();
+    // workers added for an earlier test's sleepers may not have retired yet
+    int bound = Math.max(pool.getParallelism(), pool.getPoolSize());
+    Counter[] counters = new Counter[services];
+    Dispatcher[] dispatchers = new Dispatcher[services];
+    for (int s = 0; s < services; ++s) {
+      counters[s] = new Counter(count);
+      dispatchers[s] = new Dispatcher("flood" + s, counters[s]);
+    }
+    int maxPoolSize = 0;
+    for (int i = 0; i < count; ++i) {
+      for (int s = 0; s < services; ++s) {
+        counters[s].queue.add(i);
+        dispatchers[s].schedule();
+      }
+      maxPoolSize = Math.max(maxPoolSize, pool.getPoolSize());
+    }
+    for (int s = 0; s < services; ++s) {
+      assertTrue(counters[s].done.await(10, TimeUnit.SECONDS));
+    }
+    assertTrue("pool grew to " + maxPoolSize, maxPoolSize <= bound);
+  }
+
+  /**
+   * more services sleeping in a drain than there are workers - the others
+   * must still be drained
+   */
+  @Test
+  public void blockingServices() throws InterruptedException {
+    int blocked = java.lang.Runtime.getRuntime().availableProcessors() + 2;
+    final CountDownLatch release = new CountDownLatch(1);
+    for (int s = 0; s < blocked; ++s) {
+      new Dispatcher("sleeper" + s, new Dispatcher.Drainable() {
+        boolean done = false;
+
+        @Override
+        public int drain(int max) {
+          try {
+            while (release.getCount() > 0) {
+              Dispatcher.sleep(10);
+            }
+          } catch (InterruptedException e) {
+          }
+          done = true;
+          return 1;
+        }
+
+        @Override
+        public boolean isEmpty() {
+          return done;
+        }
+      }).schedule();
+    }
+    Counter counter = new Counter(1);
+    counter.queue.add(0);
+    new Dispatcher("service", counter).schedule();
+    try {
+      assertTrue(counter.done.await(5, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+    }
+  }
+
+}
@@ -0,0 +1,44 @@
+package org.myrobotlab.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void buckets() {
+    // every value lands in a bucket which contains it
+    long[] values = new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L, (1L << 39) + 5 };
+    for (long v : values) {
+      int i = LatencyHistogram.index(v);
+      assertTrue(v <= LatencyHistogram.highestValue(i));
+      assertTrue(i == 0 || v > LatencyHistogram.highestValue(i - 1));
+    }
+    // overflow
+    assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 1; i <= 1000; ++i) {
+      h.record(i * 1000L);
+    }
+    assertEquals(1000, h.getCount());
+    assertEquals(1000000, h.getMax());
+    assertEquals(500500.0, h.getMean(), 0.1);
+    // within the ~6% resolution of a bucket
+    long p50 = h.getValueAtPercentile(50);
+    assertTrue(p50 >= 500000 && p50 < 500000 * 1.07);
+    long p99 = h.getValueAtPercentile(99);
+    assertTrue(p99 >= 990000 && p99 <= 1000000);
+    assertEquals(1000000, h.getValueAtPercentile(100));
+
+    h.reset();
+    assertEquals(0, h.getCount());
+    assertEquals(0, h.getValueAtPercentile(99));
+  }
+
+}
@@ -0,0 +1,254 @@
+package org.myrobotlab.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.myrobotlab.framework.interfaces.MessageQueue;
+import org.myrobotlab.logging.LoggerFactory;
+import org.slf4j.Logger;
+
+/**
+ * checks the overflow policies of the inbox queues - main() runs a throughput
+ * comparison of the original LinkedList queue against the lock-free ring
+ */
+public class MessageQueueTest {
+
+  public final static Logger log = LoggerFactory.getLogger(MessageQueueTest.class);
+
+  static Message msg(String sender, String method, Object data) {
+    Message msg = new Message();
+    msg.sender = sender;
+    msg.sendingMethod = method;
+    msg.name = "catcher";
+    msg.method = "on" + method;
+    msg.data = new Object[] { data };
+    return msg;
+  }
+
+  @Test
+  public void ringOrder() throws InterruptedException {
+    RingMessageQueue q = new RingMessageQueue("test", 8, OverflowPolicy.DROP_NEWEST);
+    for (int i = 0; i < 8; ++i) {
+      assertTrue(q.add(msg("thrower", "pitch", i)));
+    }
+    assertEquals(8, q.size());
+    for (int i = 0; i < 8; ++i) {
+      assertEquals(i, q.take().data[0]);
+    }
+    assertNull(q.poll());
+  }
+
+  @Test
+  public void dropNewest() {
+    RingMessageQueue q = new RingMessageQueue("test", 4, OverflowPolicy.DROP_NEWEST);
+    for (int i = 0; i < 4; ++i) {
+      q.add(msg("thrower", "pitch", i));
+    }
+    assertFalse(q.add(msg("thrower", "pitch", 4)));
+    assertEquals(0, q.poll().data[0]);
+    assertEquals(1, q.getDropped());
+  }
+
+  @Test
+  public void dropOldest() {
+    RingMessageQueue q = new RingMessageQueue("test", 4, OverflowPolicy.DROP_OLDEST);
+    for (int i = 0; i < 6; ++i) {
+      q.add(msg("thrower", "pitch", i));
+    }
+    assertEquals(4, q.size());
+    assertEquals(2, q.poll().data[0]);
+  }
+
+  @Test
+  public void coalesce() {
+    RingMessageQueue q = new RingMessageQueue("test", 4, OverflowPolicy.COALESCE);
+    for (int i = 0; i < 100; ++i) {
+      q.add(msg("servo01", "publishServoEvent", i));
+      q.add(msg("servo02", "publishServoEvent", i));
+    }
+    assertEquals(2, q.size());
+    assertEquals(99, q.poll().data[0]);
+    assertEquals("servo02", q.poll().sender);
+    assertNull(q.poll());
+
+    // blocking returns are never coalesced
+    Message ret = msg("servo01", "publishServoEvent", 1);
+    ret.status = Message.RETURN;
+    q.add(ret);
+    q.add(msg("servo01", "publishServoEvent", 2));
+    assertEquals(2, q.size());
+  }
+
+  @Test
+  public void coalesceAfterOverrun() {
+    RingMessageQueue q = new RingMessageQueue("test", 2, OverflowPolicy.COALESCE);
+    for (int i = 0; i < 2; ++i) {
+      Message ret = msg("servo01", "publishServoEvent", i);
+      ret.status = Message.RETURN;
+      q.add(ret);
+    }
+    assertFalse(q.add(msg("servo01", "publishServoEvent", 2)));
+    q.poll();
+    q.poll();
+    // the key of the dropped message must not be left behind
+    assertTrue(q.add(msg("servo01", "publishServoEvent", 3)));
+    assertEquals(3, q.poll().data[0]);
+    assertNull(q.poll());
+  }
+
+  @Test
+  public void linkedCoalesce() {
+    LinkedMessageQueue q = new LinkedMessageQueue("test", 4, OverflowPolicy.COALESCE);
+    Message first = msg("servo01", "publishServoEvent", 0);
+    q.add(first);
+    for (int i = 1; i < 100; ++i) {
+      q.add(msg("servo01", "publishServoEvent", i));
+    }
+    assertEquals(1, q.size());
+    assertEquals(99, q.poll().data[0]);
+    // replaced - not changed
+    assertEquals(0, first.data[0]);
+  }
+
+  @Test
+  public void blockingProducers() throws InterruptedException {
+    final RingMessageQueue q = new RingMessageQueue("test", 16, OverflowPolicy.BLOCK);
+    long count = run(q, 4, 10000);
+    assertEquals(40000, count);
+    assertEquals(0, q.getDropped());
+  }
+
+  @Test
+  public void offerNeverWaits() {
+    MessageQueue[] queues = new MessageQueue[] { new LinkedMessageQueue("linked", 4, OverflowPolicy.BLOCK),
+        new RingMessageQueue("ring", 4, OverflowPolicy.BLOCK) };
+    for (MessageQueue q : queues) {
+      for (int i = 0; i < 4; ++i) {
+        assertTrue(q.offer(msg("thrower", "pitch", i)));
+      }
+      // full - add would wait for the consumer
+      assertFalse(q.offer(msg("thrower", "pitch", 4)));
+      assertEquals(0, q.poll().data[0]);
+      assertTrue(q.offer(msg("thrower", "pitch", 5)));
+    }
+  }
+
+  @Test
+  public void swapQueue() throws InterruptedException {
+    final Inbox inbox = new Inbox("catcher");
+    inbox.add(msg("thrower", "pitch", 1));
+    inbox.setQueue(new RingMessageQueue("catcher", 64, OverflowPolicy.DROP_NEWEST));
+    assertEquals(1, inbox.size());
+    assertEquals(1, inbox.getMsg().data[0]);
+  }
+
+  @Test
+  public void onlyReturnsCompleteRequests() throws Exception {
+    Inbox inbox = new Inbox("thrower");
+    Message request = msg("thrower", "pitch", 1);
+    CompletableFuture<Object> future = inbox.expectReturn(request.msgId, null);
+    // same msgId - but not a return, it must be invoked
+    Message other = msg("catcher", "pitch", 2);
+    other.msgId = request.msgId;
+    inbox.add(other);
+    assertEquals(2, inbox.poll().data[0]);
+    assertFalse(future.isDone());
+
+    Message ret = msg("catcher", "pitch", 3);
+    ret.msgId = request.msgId;
+    ret.status = Message.RETURN;
+    inbox.add(ret);
+    assertNull(inbox.poll());
+    assertEquals(3, future.get());
+  }
+
+  /**
+   * a callback of the caller must not run on the thread which delivered the
+   * return - it could stall or deadlock another service's outbox
+   */
+  @Test
+  public void returnsCompleteOffTheDeliveringThread() throws Exception {
+    Inbox inbox = new Inbox("thrower");
+    Message request = msg("thrower", "pitch", 1);
+    final AtomicReference<Thread> callback = new AtomicReference<Thread>();
+    CompletableFuture<Object> future = inbox.expectReturn(request.msgId, null);
+    CompletableFuture<Object> done = future.thenApply(new Function<Object, Object>() {
+      @Override
+      public Object apply(Object ret) {
+        callback.set(Thread.currentThread());
+        return ret;
+      }
+    });
+
+    Message ret = msg("catcher", "pitch", 3);
+    ret.msgId = request.msgId;
+    ret.status = Message.RETURN;
+    inbox.add(ret);
+    assertEquals(3, done.get(1, TimeUnit.SECONDS));
+    assertTrue(callback.get() != Thread.currentThread());
+  }
+
+  /**
+   * producers each add perMessages messages, one consumer takes them all
+   *
+   * @return number of messages consumed
+   */
+  static long run(final MessageQueue q, int producers, final int perProducer) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    for (int p = 0; p < producers; ++p) {
+      final String sender = "thrower" + p;
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < perProducer; ++i) {
+            q.add(msg(sender, "pitch", i));
+          }
+        }
+      }, sender);
+      t.start();
+    }
+    start.countDown();
+    long count = 0;
+    long total = (long) producers * perProducer;
+    while (count < total) {
+      if (q.take() != null) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  public static void main(String[] args) {
+    try {
+      int producers = 8;
+      int perProducer = 500000;
+      for (int round = 0; round < 3; ++round) {
+        MessageQueue[] queues = new MessageQueue[] { new LinkedMessageQueue("linked", 1024, OverflowPolicy.BLOCK),
+            new RingMessageQueue("ring", 1024, OverflowPolicy.BLOCK) };
+        for (MessageQueue q : queues) {
+          long start = System.nanoTime();
+          long count = run(q, producers, perProducer);
+          long ns = System.nanoTime() - start;
+          log.info(String.format("%s %d producers %d msgs %.0f msgs/s", q.getClass().getSimpleName(), producers, count, count * 1e9 / ns));
+        }
+      }
+    } catch (Exception e) {
+      log.error("benchmark threw", e);
+    }
+  }
+
+}
@@ -3,6 +3,7 @@ package org.myrobotlab.framework;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
@@ -48,6 +49,42 @@ public class MessageTest implements NameProvider {
     log.warn(String.format("left balls %d ", catcher.msgs.size()));
   }
 
+  @Test
+  public void rateLimitedSubscription() throws Exception {
+    log.info("rateLimitedSubscription");
+
+    catcher.clear();
+    catcher.subscribe("thrower", "pitch", false, 10);
+    Service.sleep(100);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 100; ++i) {
+      thrower.invoke("pitch", i);
+    }
+
+    // the final value of the burst is never lost - it comes when its period
+    // is up
+    Message last = null;
+    int count = 0;
+    while (last == null || !Integer.valueOf(99).equals(last.data[0])) {
+      last = catcher.getMsg(2000);
+      assertNotNull(last);
+      ++count;
+    }
+    long elapsed = System.nanoTime() - start;
+
+    // 10 Hz - the first pitch and then at most one per 100 ms period, however
+    // long this machine took to get here
+    long periods = elapsed / 100000000L;
+    log.info("rate limited to {} msgs in {} periods", count, periods);
+    assertTrue(String.format("%d msgs in %d periods", count, periods), count <= periods + 2);
+
+    // re-subscribing without a policy resets it
+    catcher.subscribe("thrower", "pitch");
+    Service.sleep(100);
+    catcher.clear();
+  }
+
   // @Test
   public void broadcastMessage() throws Exception {
     log.info("broadcastMessage");
@@ -0,0 +1,94 @@
+package org.myrobotlab.framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * timing of the shared timer wheel and the sendAsync correlation table of the
+ * inbox which uses it for timeouts
+ */
+public class TimerWheelTest {
+
+  @Test
+  public void neverEarly() throws InterruptedException {
+    TimerWheel wheel = new TimerWheel("test_wheel", 1, TimeUnit.MILLISECONDS, 64);
+    int count = 200;
+    final CountDownLatch done = new CountDownLatch(count);
+    final AtomicInteger early = new AtomicInteger();
+    for (int i = 0; i < count; ++i) {
+      // some of them go round the 64 slot wheel more than once
+      final long delay = i % 150;
+      final long start = System.nanoTime();
+      wheel.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(delay)) {
+            early.incrementAndGet();
+          }
+          done.countDown();
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, early.get());
+    assertEquals(0, wheel.size());
+    wheel.stop();
+  }
+
+  @Test
+  public void cancel() throws InterruptedException {
+    TimerWheel wheel = new TimerWheel("test_wheel", 1, TimeUnit.MILLISECONDS, 64);
+    final AtomicInteger ran = new AtomicInteger();
+    TimerWheel.Timeout t = wheel.schedule(new Runnable() {
+      @Override
+      public void run() {
+        ran.incrementAndGet();
+      }
+    }, 20, TimeUnit.MILLISECONDS);
+    assertTrue(t.cancel());
+    assertFalse(t.cancel());
+    assertEquals(0, wheel.size());
+    Thread.sleep(60);
+    assertEquals(0, ran.get());
+    wheel.stop();
+  }
+
+  @Test
+  public void inboxReturns() throws Exception {
+    Inbox inbox = new Inbox("thrower");
+    CompletableFuture<Object> answer = inbox.expectReturn(7L, 1000);
+    CompletableFuture<Object> timeout = inbox.expectReturn(8L, 20);
+
+    Message ret = new Message();
+    ret.name = "thrower";
+    ret.sender = "catcher";
+    ret.method = "pitch";
+    ret.msgId = 7L;
+    ret.status = Message.RETURN;
+    ret.data = new Object[] { 42 };
+    inbox.add(ret);
+
+    // completed without being queued
+    assertEquals(42, answer.get(1, TimeUnit.SECONDS));
+    assertEquals(0, inbox.size());
+
+    try {
+      timeout.get(1, TimeUnit.SECONDS);
+      assertTrue(false);
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    assertTrue(inbox.requests.isEmpty());
+  }
+
+}
@@ -0,0 +1,61 @@
+package org.myrobotlab.image;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+public class SerializableImageTest {
+
+  static class Source implements SerializableImage.ImageSource {
+    int calls = 0;
+
+    @Override
+    public BufferedImage getImage() {
+      ++calls;
+      return new BufferedImage(64, 48, BufferedImage.TYPE_3BYTE_BGR);
+    }
+  }
+
+  @Test
+  public void lazyOnce() {
+    Source source = new Source();
+    SerializableImage image = new SerializableImage(source, "test", 0);
+    assertEquals(0, source.calls);
+    assertEquals(64, image.getWidth());
+    assertEquals(48, image.getHeight());
+    assertSame(image.getImage(), image.getImage());
+    assertEquals(1, source.calls);
+  }
+
+  @Test
+  public void jpgOncePerQuality() {
+    SerializableImage image = new SerializableImage(new Source(), "test", 0);
+    byte[] jpg = image.getBytes();
+    assertSame(jpg, image.getBytes());
+    byte[] low = image.getBytes(0.1f);
+    assertNotSame(jpg, low);
+    assertSame(low, image.getBytes(0.1f));
+  }
+
+  @Test
+  public void serialized() throws Exception {
+    SerializableImage image = new SerializableImage(new Source(), "test", 0);
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bos);
+    out.writeObject(image);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+    SerializableImage copy = (SerializableImage) in.readObject();
+    assertEquals(64, copy.getWidth());
+    assertEquals(48, copy.getHeight());
+  }
+
+}
@@ -0,0 +1,195 @@
+package org.myrobotlab.kinematics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.myrobotlab.framework.LatencyHistogram;
+import org.myrobotlab.service.interfaces.ServoController;
+
+public class MotionPlannerTest {
+
+  static class TestAxis implements MotionPlanner.Axis {
+    final String name;
+    final CountDownLatch done;
+    volatile double pos = Double.NaN;
+    volatile double arrived = Double.NaN;
+    volatile long arrivedAt = 0;
+    int writes = 0;
+
+    TestAxis(String name, CountDownLatch done) {
+      this.name = name;
+      this.done = done;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public ServoController getController() {
+      return null;
+    }
+
+    @Override
+    public void write(double pos) {
+      this.pos = pos;
+      ++writes;
+    }
+
+    @Override
+    public void onArrived(double pos) {
+      arrived = pos;
+      arrivedAt = System.nanoTime();
+      done.countDown();
+    }
+  }
+
+  @Test
+  public void profiles() {
+    for (MotionProfile.Type type : MotionProfile.Type.values()) {
+      // 0 -> 90 at 60/s, accelerating at 120/s^2
+      MotionProfile p = new MotionProfile(0, 90, 60, 120, type);
+      assertEquals(0, p.getPosition(0), 0.0001);
+      assertEquals(90, p.getPosition(p.getDuration()), 0.0001);
+      assertEquals(45, p.getPosition(p.getDuration() / 2), 0.0001);
+      assertEquals(60, p.getVelocity(), 0.0001);
+      double last = 0;
+      for (double t = 0; t < p.getDuration(); t += 0.001) {
+        double pos = p.getPosition(t);
+        assertTrue(pos >= last - 0.0001);
+        // never faster than the limit
+        assertTrue(pos - last <= 60 * 0.001 + 0.0001);
+        last = pos;
+      }
+      // backwards and too short to reach full speed
+      p = new MotionProfile(10, 5, 60, 120, type);
+      assertTrue(p.getVelocity() < 60);
+      assertEquals(5, p.getPosition(p.getDuration()), 0.0001);
+      assertEquals(7.5, p.getPosition(p.getDuration() / 2), 0.0001);
+    }
+    MotionProfile trapezoid = new MotionProfile(0, 90, 60, 120, MotionProfile.Type.TRAPEZOID);
+    // ramps 0.5 s, cruises 1 s
+    assertEquals(2.0, trapezoid.getDuration(), 0.0001);
+    // the gentler S-curve ramps take longer
+    assertTrue(new MotionProfile(0, 90, 60, 120, MotionProfile.Type.SCURVE).getDuration() > trapezoid.getDuration());
+
+    // unlimited velocity jumps
+    assertEquals(0, new MotionProfile(0, 90, -1, -1, MotionProfile.Type.SCURVE).getDuration(), 0);
+    // stretched to arrive later
+    MotionProfile slow = new MotionProfile(0, 30, 60, 120, MotionProfile.Type.TRAPEZOID, 2.0);
+    assertEquals(2.0, slow.getDuration(), 0.0001);
+    assertEquals(30, slow.getPosition(2.0), 0.0001);
+  }
+
+  @Test
+  public void groupArrivesTogether() throws Exception {
+    MotionPlanner planner = new MotionPlanner("test_planner", 5, TimeUnit.MILLISECONDS);
+    CountDownLatch done = new CountDownLatch(3);
+    TestAxis a = new TestAxis("a", done);
+    TestAxis b = new TestAxis("b", done);
+    TestAxis c = new TestAxis("c", done);
+    planner.moveGroup(new MotionPlanner.Axis[] { a, b, c }, new double[] { 0, 90, 45 }, new double[] { 90, 80, 45 }, new double[] { 300, 300, 300 },
+        new double[] { 1000, 1000, 1000 });
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(90, a.arrived, 0.0001);
+    assertEquals(80, b.arrived, 0.0001);
+    assertEquals(45, c.arrived, 0.0001);
+    // same tick
+    assertEquals(a.arrivedAt, b.arrivedAt, TimeUnit.MILLISECONDS.toNanos(5));
+    assertTrue(a.writes > 10);
+    planner.stop();
+  }
+
+  @Test
+  public void retarget() throws Exception {
+    MotionPlanner planner = new MotionPlanner("test_planner", 5, TimeUnit.MILLISECONDS);
+    CountDownLatch done = new CountDownLatch(1);
+    TestAxis a = new TestAxis("a", done);
+    planner.move(a, 0, 180, 200, 0);
+    Thread.sleep(100);
+    // turns around from where it is now
+    planner.move(a, 0, 0, 200, 0);
+    double turnedAt = a.pos;
+    assertTrue(turnedAt > 0);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(0, a.arrived, 0.0001);
+    planner.stop();
+  }
+
+  @Test
+  public void sweep() throws Exception {
+    MotionPlanner planner = new MotionPlanner("test_planner", 5, TimeUnit.MILLISECONDS);
+    CountDownLatch done = new CountDownLatch(1);
+    TestAxis a = new TestAxis("a", done);
+    planner.sweep(a, 50, 10, 90, 1000, 0, false);
+    double min = 180;
+    double max = 0;
+    for (int i = 0; i < 100; ++i) {
+      Thread.sleep(5);
+      min = Math.min(min, a.pos);
+      max = Math.max(max, a.pos);
+    }
+    assertTrue(planner.isMoving(a));
+    assertEquals(10, min, 5);
+    assertEquals(90, max, 5);
+    assertTrue(planner.stop(a));
+    assertEquals(1, done.getCount());
+    planner.stop();
+  }
+
+  /**
+   * lateness of the updates - a thread per servo sleeping between updates
+   * like the old SpeedControl against one planner thread for all of them
+   */
+  public static void main(String[] args) throws Exception {
+    final int servos = 16;
+    final int periodMs = 20;
+    final long runMs = 10000;
+
+    final LatencyHistogram threads = new LatencyHistogram();
+    Thread[] workers = new Thread[servos];
+    final long end = System.currentTimeMillis() + runMs;
+    for (int i = 0; i < servos; ++i) {
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            long next = System.nanoTime();
+            while (System.currentTimeMillis() < end) {
+              next += TimeUnit.MILLISECONDS.toNanos(periodMs);
+              Thread.sleep(periodMs);
+              threads.record(Math.abs(System.nanoTime() - next));
+              next = System.nanoTime();
+            }
+          } catch (InterruptedException e) {
+          }
+        }
+      };
+      workers[i].start();
+    }
+    for (Thread t : workers) {
+      t.join();
+    }
+
+    MotionPlanner planner = new MotionPlanner("bench_planner", periodMs, TimeUnit.MILLISECONDS);
+    CountDownLatch never = new CountDownLatch(1);
+    for (int i = 0; i < servos; ++i) {
+      planner.sweep(new TestAxis("servo" + i, never), 90, 0, 180, 90, 180, false);
+    }
+    Thread.sleep(runMs);
+    planner.stop();
+
+    print("thread per servo", threads.getSummary());
+    print("motion planner  ", planner.getJitter().getSummary());
+  }
+
+  static void print(String name, LatencyHistogram.Summary s) {
+    System.out.println(String.format("%s updates %d lateness us mean %.1f p50 %.1f p99 %.1f max %.1f", name, s.count, s.mean, s.p50, s.p99, s.max));
+  }
+
+}
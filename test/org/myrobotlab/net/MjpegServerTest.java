@@ -0,0 +1,200 @@
+package org.myrobotlab.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MjpegServerTest {
+
+  /**
+   * a viewer - reads parts and checks each jpg is whole
+   */
+  static class Viewer extends Thread {
+    final int port;
+    volatile int frames = 0;
+    volatile int corrupt = 0;
+    volatile boolean done = false;
+    Socket socket;
+
+    Viewer(int port) {
+      this.port = port;
+    }
+
+    @Override
+    public void run() {
+      try {
+        socket = new Socket("localhost", port);
+        OutputStream out = socket.getOutputStream();
+        out.write("GET /feed HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        // response headers
+        while (readLine(in).length() > 0) {
+        }
+        while (!done) {
+          String boundary = readLine(in);
+          if (boundary.length() == 0) {
+            // the trailer of the last part
+            continue;
+          }
+          readLine(in); // content type
+          int length = Integer.parseInt(readLine(in).substring("Content-Length: ".length()));
+          readLine(in);
+          byte[] jpg = new byte[length];
+          in.readFully(jpg);
+          // first and last byte of a jpg
+          if ((jpg[0] & 0xff) != 0xff || (jpg[1] & 0xff) != 0xd8 || (jpg[length - 1] & 0xff) != 0xd9) {
+            ++corrupt;
+          }
+          ++frames;
+        }
+      } catch (IOException e) {
+      } finally {
+        close();
+      }
+    }
+
+    void close() {
+      done = true;
+      try {
+        if (socket != null) {
+          socket.close();
+        }
+      } catch (IOException e) {
+      }
+    }
+  }
+
+  static String readLine(InputStream in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    int c;
+    while ((c = in.read()) != '\n') {
+      if (c < 0) {
+        throw new IOException("closed");
+      }
+      if (c != '\r') {
+        sb.append((char) c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * a fake jpg of size bytes - SOI, filler, EOI
+   */
+  static byte[] jpg(int size) {
+    byte[] jpg = new byte[size];
+    jpg[0] = (byte) 0xff;
+    jpg[1] = (byte) 0xd8;
+    jpg[size - 2] = (byte) 0xff;
+    jpg[size - 1] = (byte) 0xd9;
+    return jpg;
+  }
+
+  static int minFrames(List<Viewer> viewers) {
+    int min = Integer.MAX_VALUE;
+    for (Viewer viewer : viewers) {
+      min = Math.min(min, viewer.frames);
+    }
+    return min;
+  }
+
+  /**
+   * 24 viewers and one which never reads - the stalled one must not hold up
+   * the others or make frames pile up
+   */
+  @Test
+  public void manyViewers() throws Exception {
+    MjpegServer server = new MjpegServer(0);
+    server.start();
+    try {
+      int port = server.getPort();
+      byte[] frame = jpg(64 * 1024);
+      server.publish("feed", 0, frame);
+
+      // never reads - its socket buffers fill up after a few frames
+      Socket stalled = new Socket("localhost", port);
+      stalled.getOutputStream().write("GET /feed HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+      List<Viewer> viewers = new ArrayList<Viewer>();
+      for (int i = 0; i < 24; ++i) {
+        Viewer viewer = new Viewer(port);
+        viewer.start();
+        viewers.add(viewer);
+      }
+
+      long deadline = System.currentTimeMillis() + 5000;
+      while (server.getClientCount() < 25 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(25, server.getClientCount());
+
+      // publish until every viewer got a number of frames - a viewer may skip
+      // frames but it keeps getting new ones while the stalled one is stuck
+      int wanted = 10;
+      int published = 0;
+      deadline = System.currentTimeMillis() + 10000;
+      while (minFrames(viewers) < wanted && System.currentTimeMillis() < deadline) {
+        server.publish("feed", ++published, frame);
+        Thread.sleep(10);
+      }
+
+      for (Viewer viewer : viewers) {
+        viewer.close();
+        viewer.join(1000);
+        assertEquals(0, viewer.corrupt);
+        assertTrue(String.format("%d frames of %d published", viewer.frames, published), viewer.frames >= wanted);
+        // each frame at most once - the first one was published before the loop
+        assertTrue(String.format("%d frames of %d published", viewer.frames, published), viewer.frames <= published + 1);
+      }
+      stalled.close();
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * viewers against a fast publisher - frames per second each of them gets
+   */
+  public static void main(String[] args) throws Exception {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+    MjpegServer server = new MjpegServer(0);
+    server.start();
+    byte[] frame = jpg(100 * 1024);
+    server.publish("feed", 0, frame);
+    List<Viewer> viewers = new ArrayList<Viewer>();
+    for (int i = 0; i < count; ++i) {
+      Viewer viewer = new Viewer(server.getPort());
+      viewer.start();
+      viewers.add(viewer);
+    }
+    long start = System.currentTimeMillis();
+    int published = 0;
+    while (System.currentTimeMillis() - start < 5000) {
+      server.publish("feed", ++published, frame);
+      Thread.sleep(10);
+    }
+    long ms = System.currentTimeMillis() - start;
+    long total = 0;
+    int min = Integer.MAX_VALUE;
+    for (Viewer viewer : viewers) {
+      viewer.close();
+      total += viewer.frames;
+      min = Math.min(min, viewer.frames);
+    }
+    server.stop();
+    System.out.println(String.format("%d viewers %d frames published %.0f fps - per viewer %.1f fps min %.1f fps - %.1f MB/s in all", count, published,
+        published * 1000.0 / ms, total * 1000.0 / ms / count, min * 1000.0 / ms, total * frame.length / 1000.0 / ms));
+  }
+
+}
@@ -0,0 +1,174 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import static org.bytedeco.javacpp.opencv_imgproc.cvResize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.junit.Test;
+import org.myrobotlab.framework.LatencyHistogram;
+
+public class IplImagePoolTest {
+
+  @Test
+  public void reuseBySize() {
+    IplImagePool pool = new IplImagePool();
+    IplImage a = pool.borrow(320, 240, IPL_DEPTH_8U, 3);
+    pool.giveBack(a);
+    // another size or type is a new image
+    IplImage b = pool.borrow(320, 240, IPL_DEPTH_8U, 1);
+    assertNotSame(a, b);
+    assertSame(a, pool.borrow(320, 240, IPL_DEPTH_8U, 3));
+    assertEquals(2, pool.getCreated());
+    assertEquals(1, pool.getReused());
+  }
+
+  @Test
+  public void maxFree() {
+    IplImagePool pool = new IplImagePool();
+    pool.setMaxFree(2);
+    for (int i = 0; i < 3; ++i) {
+      pool.giveBack(IplImage.create(16, 16, IPL_DEPTH_8U, 1));
+    }
+    assertEquals(2, pool.getFree());
+    assertEquals(1, pool.getDiscarded());
+  }
+
+  @Test
+  public void releasedWithFrame() {
+    IplImagePool pool = new IplImagePool();
+    OpenCVData data = new OpenCVData("test", 0);
+    data.setPool(pool);
+    IplImage image = data.borrow(64, 48, IPL_DEPTH_8U, 3);
+    assertTrue(data.owns(image));
+    data.retain();
+    data.release();
+    // still held once
+    assertEquals(0, pool.getFree());
+    data.release();
+    assertEquals(1, pool.getFree());
+    assertSame(image, pool.borrow(64, 48, IPL_DEPTH_8U, 3));
+  }
+
+  /**
+   * what leaves the video processor keeps its own images - the frame's go
+   * back to the pool
+   */
+  @Test
+  public void snapshot() {
+    IplImagePool pool = new IplImagePool();
+    OpenCVData data = new OpenCVData("test", 3);
+    data.setPool(pool);
+    IplImage image = data.borrow(64, 48, IPL_DEPTH_8U, 3);
+    data.put("input", image);
+    data.put("passThrough", image);
+    data.setAttribute("a", 1);
+
+    OpenCVData snapshot = data.snapshot();
+    data.release();
+    assertEquals(1, pool.getFree());
+
+    assertEquals(3, snapshot.getFrameIndex());
+    assertNotSame(image, snapshot.get("input"));
+    assertSame(snapshot.get("input"), snapshot.get("passThrough"));
+    assertEquals(1, snapshot.getAttribute("a"));
+  }
+
+  /**
+   * a lazy image of a filter's own buffer converts from a copy the frame
+   * owns - the next frame writes over the buffer
+   */
+  @Test
+  public void lazyImageCopy() {
+    IplImagePool pool = new IplImagePool();
+    OpenCVData data = new OpenCVData("test", 0);
+    data.setPool(pool);
+    data.put("filter", IplImage.create(64, 48, IPL_DEPTH_8U, 3));
+    assertSame(data.getSerializableImage("filter"), data.getSerializableImage("filter"));
+    assertEquals(1, pool.getCreated());
+    data.release();
+    assertEquals(1, pool.getFree());
+  }
+
+  @Test
+  public void deserializedFrame() throws Exception {
+    OpenCVData data = new OpenCVData("test", 7);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(data);
+    out.close();
+    OpenCVData copy = (OpenCVData) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertEquals(7, copy.getFrameIndex());
+    // the transient fields are usable again
+    copy.setAttribute("a", 1);
+    assertEquals(1, copy.getAttribute("a"));
+    assertNotNull(copy.keySet());
+    copy.retain();
+    copy.release();
+    copy.release();
+  }
+
+  /**
+   * frames of a file through a copy and a resize - a new native image per
+   * frame against the pool. Reports time per frame and the garbage collections
+   * it took.
+   */
+  public static void main(String[] args) throws Exception {
+    String file = (args.length > 0) ? args[0] : "test/resources/OpenCV/multipleFaces.jpg";
+    int frames = 2000;
+    for (int round = 0; round < 3; ++round) {
+      for (boolean pooled : new boolean[] { false, true }) {
+        ImageFileFrameGrabber grabber = new ImageFileFrameGrabber(file);
+        OpenCVFrameConverter.ToIplImage converter = new OpenCVFrameConverter.ToIplImage();
+        IplImagePool pool = new IplImagePool();
+        LatencyHistogram timing = new LatencyHistogram();
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        for (int i = 0; i < frames; ++i) {
+          long start = System.nanoTime();
+          OpenCVData data = new OpenCVData("bench", i);
+          if (pooled) {
+            data.setPool(pool);
+          }
+          IplImage image = data.copy(converter.convert(grabber.grab()));
+          IplImage resized = data.borrow(image.width() / 2, image.height() / 2, image.depth(), image.nChannels());
+          cvResize(image, resized);
+          data.release();
+          timing.record(System.nanoTime() - start);
+        }
+        LatencyHistogram.Summary s = timing.getSummary();
+        System.out.println(String.format("%s %d frames mean %.0f p99 %.0f max %.0f us - %d gc %d ms%s", pooled ? "pool   " : "no pool", frames, s.mean, s.p99,
+            s.max, gcCount() - gcCount, gcTime() - gcTime, pooled ? " - " + pool : ""));
+      }
+    }
+  }
+
+  static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += gc.getCollectionCount();
+    }
+    return count;
+  }
+
+  static long gcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += gc.getCollectionTime();
+    }
+    return time;
+  }
+
+}
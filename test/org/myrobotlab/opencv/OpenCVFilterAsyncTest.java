@@ -0,0 +1,151 @@
+package org.myrobotlab.opencv;
+
+import static org.bytedeco.javacpp.opencv_core.IPL_DEPTH_8U;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.junit.Test;
+import org.myrobotlab.service.data.Rectangle;
+
+public class OpenCVFilterAsyncTest {
+
+  /**
+   * a detector which takes 50 ms and finds a box numbered by its frame
+   */
+  static class Slow extends OpenCVFilter {
+    private static final long serialVersionUID = 1L;
+
+    // threads which ran process or display - the worker's only
+    volatile boolean otherThread = false;
+    volatile int displays = 0;
+    volatile IplImage sourceImage = null;
+
+    Slow(String name) {
+      super(name);
+    }
+
+    void checkThread() {
+      if (!Thread.currentThread().getName().endsWith("_async")) {
+        otherThread = true;
+      }
+    }
+
+    @Override
+    public IplImage display(IplImage image, OpenCVData data) {
+      checkThread();
+      ++displays;
+      return image;
+    }
+
+    @Override
+    public IplImage process(IplImage image, OpenCVData data) throws InterruptedException {
+      checkThread();
+      sourceImage = data.get(sourceKey);
+      Thread.sleep(50);
+      ArrayList<Rectangle> bb = new ArrayList<Rectangle>();
+      bb.add(new Rectangle(data.getFrameIndex(), 0, 1, 1));
+      data.put(bb);
+      return image;
+    }
+
+    @Override
+    public void imageChanged(IplImage image) {
+    }
+  }
+
+  static OpenCVData frame(IplImage image, int frameIndex, OpenCVFilter filter) {
+    OpenCVData data = new OpenCVData("test", frameIndex);
+    data.put(VideoProcessor.INPUT_KEY, image);
+    data.setFilter(filter);
+    return data;
+  }
+
+  @Test
+  public void doesNotStall() throws Exception {
+    OpenCVFilterAsync async = new OpenCVFilterAsync(new Slow("slow"));
+    IplImage image = IplImage.create(32, 24, IPL_DEPTH_8U, 3);
+    try {
+      // 100 frames at video speed - inline this would take 5 s
+      long start = System.currentTimeMillis();
+      int attached = 0;
+      for (int i = 0; i < 100; ++i) {
+        OpenCVData data = frame(image, i, async);
+        async.process(image, data);
+        ArrayList<Rectangle> bb = data.getBoundingBoxArray();
+        if (bb != null) {
+          ++attached;
+          // the latest result - an older frame than this one
+          int resultFrame = (Integer) data.getAttribute(OpenCVFilterAsync.RESULT_FRAME_INDEX);
+          assertEquals(resultFrame, (int) bb.get(0).x);
+          assertTrue(resultFrame < i);
+        }
+        Thread.sleep(5);
+      }
+      assertTrue(System.currentTimeMillis() - start < 2000);
+      assertTrue(attached > 0);
+      assertTrue(async.getProcessed() > 0);
+      // the worker always took the latest frame and skipped the rest
+      assertTrue(async.getSkipped() > 50);
+    } finally {
+      async.release();
+    }
+  }
+
+  /**
+   * the video thread only copies the overlay - the filter is the worker's
+   */
+  @Test
+  public void displayOnWorker() throws Exception {
+    Slow slow = new Slow("slow");
+    OpenCVFilterAsync async = new OpenCVFilterAsync(slow);
+    async.sourceKey = "previous";
+    IplImage image = IplImage.create(32, 24, IPL_DEPTH_8U, 3);
+    try {
+      for (int i = 0; i < 20; ++i) {
+        OpenCVData data = frame(image, i, async);
+        async.process(image, data);
+        async.display(image, data);
+        Thread.sleep(20);
+      }
+      assertTrue(async.getProcessed() > 0);
+      assertTrue(slow.displays > 0);
+      assertFalse(slow.otherThread);
+      // the filter finds its image under the wrapper's source key
+      assertEquals("previous", slow.sourceKey);
+      assertNotNull(slow.sourceImage);
+    } finally {
+      async.release();
+    }
+  }
+
+  @Test
+  public void staleResults() throws Exception {
+    OpenCVFilterAsync async = new OpenCVFilterAsync(new Slow("slow"));
+    async.maxStaleness = 100;
+    IplImage image = IplImage.create(32, 24, IPL_DEPTH_8U, 3);
+    try {
+      async.process(image, frame(image, 0, async));
+      long deadline = System.currentTimeMillis() + 2000;
+      while (async.getProcessed() == 0 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      OpenCVData fresh = frame(image, 1, async);
+      async.attach(fresh);
+      assertNotNull(fresh.getBoundingBoxArray());
+
+      Thread.sleep(200);
+      OpenCVData stale = frame(image, 2, async);
+      async.attach(stale);
+      assertNull(stale.getBoundingBoxArray());
+    } finally {
+      async.release();
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package org.myrobotlab.opencv;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+
+public class OpenCVFilterFaceDetectTest {
+
+  @Test
+  public void scanSchedule() {
+    OpenCVFilterFaceDetect filter = new OpenCVFilterFaceDetect("face");
+    filter.fullScanInterval = 3;
+
+    // nothing to look around yet
+    assertTrue(filter.nextScanFull());
+    assertTrue(filter.nextScanFull());
+
+    // a face was found - the ROI until the interval is up
+    filter.tracking = true;
+    assertFalse(filter.nextScanFull());
+    assertFalse(filter.nextScanFull());
+    assertFalse(filter.nextScanFull());
+    assertTrue(filter.nextScanFull());
+    assertFalse(filter.nextScanFull());
+
+    // lost in the ROI - the next frame is a full scan
+    filter.tracking = false;
+    assertTrue(filter.nextScanFull());
+
+    filter.tracking = true;
+    filter.useRoi = false;
+    assertTrue(filter.nextScanFull());
+    assertTrue(filter.nextScanFull());
+  }
+
+  @Test
+  public void deserializedTimings() throws Exception {
+    OpenCVFilterFaceDetect filter = new OpenCVFilterFaceDetect("face");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(filter);
+    out.close();
+    OpenCVFilterFaceDetect copy = (OpenCVFilterFaceDetect) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    assertNotNull(copy.getDetectionTimings());
+    copy.resetDetectionTimings();
+  }
+
+}
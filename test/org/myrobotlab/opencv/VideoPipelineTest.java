@@ -0,0 +1,137 @@
+package org.myrobotlab.opencv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.myrobotlab.framework.LatencyHistogram;
+import org.myrobotlab.opencv.VideoPipeline.DropPolicy;
+
+public class VideoPipelineTest {
+
+  static class Sleep implements VideoPipeline.Work {
+    final long ms;
+
+    Sleep(long ms) {
+      this.ms = ms;
+    }
+
+    @Override
+    public boolean process(OpenCVData data) throws InterruptedException {
+      Thread.sleep(ms);
+      return true;
+    }
+  }
+
+  static class Collect implements VideoPipeline.Work {
+    final List<Integer> frames = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done;
+
+    Collect(int count) {
+      done = new CountDownLatch(count);
+    }
+
+    @Override
+    public boolean process(OpenCVData data) {
+      frames.add(data.getFrameIndex());
+      done.countDown();
+      return true;
+    }
+  }
+
+  @Test
+  public void throughputOfSlowestStage() throws Exception {
+    int count = 30;
+    VideoPipeline p = new VideoPipeline("test");
+    Collect collect = new Collect(count);
+    p.add("a", new Sleep(10), DropPolicy.BLOCK, 2, new LatencyHistogram());
+    p.add("b", new Sleep(10), DropPolicy.BLOCK, 2, new LatencyHistogram());
+    p.add("c", new Sleep(10), DropPolicy.BLOCK, 2, new LatencyHistogram());
+    p.add("collect", collect, DropPolicy.BLOCK, 2, new LatencyHistogram());
+    p.start();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < count; ++i) {
+      p.submit(new OpenCVData("test", i));
+    }
+    assertTrue(collect.done.await(5, TimeUnit.SECONDS));
+    long ms = System.currentTimeMillis() - start;
+    p.stop();
+    // one after the other would be 900 ms
+    assertTrue(ms < 700);
+    for (int i = 0; i < count; ++i) {
+      assertEquals(i, (int) collect.frames.get(i));
+    }
+    assertEquals(count, p.getStages().get(0).getProcessed());
+  }
+
+  @Test
+  public void dropOldest() throws Exception {
+    VideoPipeline p = new VideoPipeline("test");
+    Collect collect = new Collect(1);
+    p.add("slow", new Sleep(50), DropPolicy.DROP_OLDEST, 1, new LatencyHistogram());
+    p.add("collect", collect, DropPolicy.BLOCK, 1, new LatencyHistogram());
+    p.start();
+    for (int i = 0; i < 20; ++i) {
+      p.submit(new OpenCVData("test", i));
+    }
+    // the last frame always gets through
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!collect.frames.contains(19) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    p.stop();
+    assertTrue(collect.frames.contains(19));
+    assertTrue(p.getStages().get(0).getDropped() > 0);
+    // still in order
+    for (int i = 1; i < collect.frames.size(); ++i) {
+      assertTrue(collect.frames.get(i) > collect.frames.get(i - 1));
+    }
+  }
+
+  @Test
+  public void dropNewest() throws Exception {
+    VideoPipeline p = new VideoPipeline("test");
+    Collect collect = new Collect(1);
+    p.add("slow", new Sleep(50), DropPolicy.DROP_NEWEST, 1, new LatencyHistogram());
+    p.add("collect", collect, DropPolicy.BLOCK, 1, new LatencyHistogram());
+    p.start();
+    for (int i = 0; i < 20; ++i) {
+      p.submit(new OpenCVData("test", i));
+    }
+    assertTrue(collect.done.await(5, TimeUnit.SECONDS));
+    p.stop();
+    // the first frame always gets through
+    assertEquals(0, (int) collect.frames.get(0));
+    assertTrue(p.getStages().get(0).getDropped() > 0);
+  }
+
+  /**
+   * frames being worked on and frames still queued are released by stop
+   */
+  @Test
+  public void stopReleasesFrames() throws Exception {
+    VideoPipeline p = new VideoPipeline("test");
+    p.add("slow", new Sleep(5000), DropPolicy.DROP_NEWEST, 2, new LatencyHistogram());
+    p.add("collect", new Collect(1), DropPolicy.BLOCK, 1, new LatencyHistogram());
+    p.start();
+    List<OpenCVData> frames = new ArrayList<OpenCVData>();
+    for (int i = 0; i < 3; ++i) {
+      OpenCVData data = new OpenCVData("test", i);
+      frames.add(data);
+      p.submit(data);
+    }
+    // the first frame is in process, the others wait
+    Thread.sleep(100);
+    p.stop();
+    for (OpenCVData data : frames) {
+      assertEquals(0, data.references.get());
+    }
+  }
+
+}
@@ -0,0 +1,187 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ByteRingTest {
+
+  static class Writer extends Thread {
+    final ByteRing ring;
+    final int count;
+    final boolean bulk;
+
+    Writer(ByteRing ring, int count, boolean bulk) {
+      this.ring = ring;
+      this.count = count;
+      this.bulk = bulk;
+    }
+
+    @Override
+    public void run() {
+      try {
+        byte[] chunk = new byte[37];
+        int i = 0;
+        while (i < count) {
+          if (bulk) {
+            int len = Math.min(chunk.length, count - i);
+            for (int j = 0; j < len; ++j) {
+              chunk[j] = (byte) (i + j);
+            }
+            ring.put(chunk, 0, len);
+            i += len;
+          } else {
+            ring.put(i++ & 0xff);
+          }
+        }
+      } catch (InterruptedException e) {
+      }
+    }
+  }
+
+  @Test
+  public void capacity() {
+    assertEquals(2, new ByteRing(0).capacity());
+    assertEquals(64, new ByteRing(64).capacity());
+    assertEquals(128, new ByteRing(65).capacity());
+  }
+
+  @Test
+  public void wrap() {
+    ByteRing ring = new ByteRing(8);
+    byte[] data = new byte[] { 1, 2, 3, 4, 5, 6 };
+    byte[] out = new byte[8];
+    for (int round = 0; round < 5; ++round) {
+      assertEquals(6, ring.offer(data, 0, 6));
+      // only 2 more fit
+      assertEquals(2, ring.offer(data, 0, 6));
+      assertTrue(!ring.offer(9));
+      assertEquals(8, ring.size());
+      assertEquals(5, ring.poll(out, 0, 5));
+      assertEquals(3, ring.poll(out, 5, 8));
+      assertEquals(2, out[7]);
+      assertEquals(-1, ring.poll());
+    }
+    assertTrue(ring.offer(0xff));
+    assertEquals(0xff, ring.poll());
+    ring.offer(data, 0, 6);
+    ring.clear();
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void timeout() throws Exception {
+    ByteRing ring = new ByteRing(8);
+    long start = System.nanoTime();
+    assertEquals(-1, ring.poll(20, TimeUnit.MILLISECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  /**
+   * a virtual cable nobody reads - writes give up and drop instead of
+   * blocking for ever
+   */
+  @Test
+  public void stalledReader() throws Exception {
+    ByteRing ring = new ByteRing(16);
+    PortQueue port = new PortQueue("stalled", new ByteRing(16), ring);
+    byte[] data = new byte[12];
+    port.write(data, 0, data.length);
+    assertFalse(port.isOverrun());
+
+    long start = System.nanoTime();
+    port.write(data, 0, data.length);
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(PortQueue.WRITE_TIMEOUT_MS));
+    assertTrue(port.isOverrun());
+    assertEquals(8, port.getDropped());
+
+    // no more waiting while the other end does not read
+    start = System.nanoTime();
+    port.write(data, 0, data.length);
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(PortQueue.WRITE_TIMEOUT_MS));
+    assertEquals(20, port.getDropped());
+
+    ring.clear();
+    port.write(data, 0, data.length);
+    assertFalse(port.isOverrun());
+    assertEquals(12, ring.size());
+  }
+
+  /**
+   * a small ring makes both sides wait on each other all the time
+   */
+  @Test
+  public void blocking() throws Exception {
+    int count = 200000;
+    for (boolean bulk : new boolean[] { false, true }) {
+      ByteRing ring = new ByteRing(16);
+      Writer writer = new Writer(ring, count, bulk);
+      writer.start();
+      byte[] data = new byte[23];
+      int i = 0;
+      while (i < count) {
+        if (bulk) {
+          int n = ring.take(data, 0, data.length);
+          for (int j = 0; j < n; ++j) {
+            assertEquals((byte) i++, data[j]);
+          }
+        } else {
+          assertEquals(i++ & 0xff, ring.take());
+        }
+      }
+      writer.join(5000);
+      assertTrue(ring.isEmpty());
+    }
+  }
+
+  /**
+   * bytes through a virtual cable - a boxed Integer queue against the ring
+   */
+  public static void main(String[] args) throws Exception {
+    final int count = 20000000;
+    for (int round = 0; round < 3; ++round) {
+      final LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<Integer>();
+      Thread writer = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < count; ++i) {
+            queue.add(i & 0xff);
+          }
+        }
+      };
+      long start = System.nanoTime();
+      writer.start();
+      for (int i = 0; i < count; ++i) {
+        queue.take();
+      }
+      print("LinkedBlockingQueue", count, System.nanoTime() - start);
+
+      for (boolean bulk : new boolean[] { false, true }) {
+        ByteRing ring = new ByteRing(PortQueue.RING_SIZE);
+        start = System.nanoTime();
+        new Writer(ring, count, bulk).start();
+        byte[] data = new byte[1024];
+        int read = 0;
+        while (read < count) {
+          if (bulk) {
+            read += ring.take(data, 0, data.length);
+          } else {
+            ring.take();
+            ++read;
+          }
+        }
+        print(bulk ? "ByteRing bulk      " : "ByteRing           ", count, System.nanoTime() - start);
+      }
+    }
+  }
+
+  static void print(String name, int count, long ns) {
+    System.out.println(String.format("%s %d bytes %d ms %.1f MB/s", name, count, ns / 1000000, count * 1000.0 / ns));
+  }
+
+}
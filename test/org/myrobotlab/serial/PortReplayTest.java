@@ -0,0 +1,198 @@
+package org.myrobotlab.serial;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.myrobotlab.arduino.FrameDecoder;
+import org.myrobotlab.arduino.Msg;
+import org.myrobotlab.framework.QueueStats;
+import org.myrobotlab.service.interfaces.SerialDataListener;
+
+/**
+ * binary capture and replay of serial traffic
+ */
+public class PortReplayTest {
+
+  static class Collector implements SerialDataListener {
+    final ByteArrayOutputStream rx = new ByteArrayOutputStream();
+    final FrameDecoder decoder;
+    final CountDownLatch done;
+
+    Collector(int frames) {
+      done = new CountDownLatch(frames);
+      decoder = new FrameDecoder(new FrameDecoder.FrameListener() {
+        @Override
+        public void onFrame(int[] ioCmd, int size) {
+          done.countDown();
+        }
+
+        @Override
+        public void onFrameError(String error) {
+        }
+      });
+    }
+
+    @Override
+    public String getName() {
+      return "collector";
+    }
+
+    @Override
+    public QueueStats publishStats(QueueStats stats) {
+      return stats;
+    }
+
+    @Override
+    public void updateStats(QueueStats stats) {
+    }
+
+    @Override
+    public void onConnect(String portName) {
+    }
+
+    @Override
+    public void onDisconnect(String portName) {
+    }
+
+    @Override
+    public Integer onByte(Integer b) throws IOException {
+      rx.write(b);
+      decoder.decode(b);
+      return b;
+    }
+
+    @Override
+    public void onBytes(byte[] data, int off, int len) throws IOException {
+      rx.write(data, off, len);
+      decoder.decode(data, off, len);
+    }
+  }
+
+  /**
+   * count frames of 3 param bytes
+   */
+  static byte[] frames(int count) {
+    byte[] stream = new byte[count * 5];
+    for (int i = 0; i < count; ++i) {
+      stream[i * 5] = (byte) Msg.MAGIC_NUMBER;
+      stream[i * 5 + 1] = 3;
+      stream[i * 5 + 2] = 30;
+      stream[i * 5 + 3] = (byte) i;
+      stream[i * 5 + 4] = (byte) (i >> 8);
+    }
+    return stream;
+  }
+
+  static File capture(byte[] stream, int chunk, long gapMs) throws Exception {
+    File file = File.createTempFile("capture", ".mrlcap");
+    file.deleteOnExit();
+    SerialCapture capture = new SerialCapture(file.getPath());
+    for (int off = 0; off < stream.length; off += chunk) {
+      capture.rx(stream, off, Math.min(chunk, stream.length - off));
+      // an ack for every chunk goes the other way
+      capture.write(SerialCapture.TX, 0x55);
+      if (gapMs > 0) {
+        Thread.sleep(gapMs);
+      }
+    }
+    capture.close();
+    return file;
+  }
+
+  @Test
+  public void readBack() throws Exception {
+    byte[] stream = frames(100);
+    File file = capture(stream, 7, 0);
+
+    SerialCapture.Reader reader = new SerialCapture.Reader(file.getPath());
+    ByteArrayOutputStream rx = new ByteArrayOutputStream();
+    int tx = 0;
+    long last = 0;
+    while (reader.next()) {
+      assertTrue(reader.getNanos() >= last);
+      last = reader.getNanos();
+      if (reader.getDirection() == SerialCapture.RX) {
+        rx.write(reader.getData(), 0, reader.getLength());
+      } else {
+        assertEquals(1, reader.getLength());
+        assertEquals(0x55, reader.getData()[0]);
+        ++tx;
+      }
+    }
+    reader.close();
+    assertArrayEquals(stream, rx.toByteArray());
+    assertEquals((stream.length + 6) / 7, tx);
+  }
+
+  @Test
+  public void replay() throws Exception {
+    byte[] stream = frames(50);
+    File file = capture(stream, 25, 10);
+
+    for (double speed : new double[] { 0, 1 }) {
+      PortReplay port = new PortReplay("replay", file.getPath(), speed);
+      Collector collector = new Collector(50);
+      HashMap<String, SerialDataListener> listeners = new HashMap<String, SerialDataListener>();
+      listeners.put(collector.getName(), collector);
+      port.open();
+      long start = System.currentTimeMillis();
+      port.listen(listeners);
+      assertTrue(collector.done.await(5, TimeUnit.SECONDS));
+      long ms = System.currentTimeMillis() - start;
+      port.close();
+      assertArrayEquals(stream, collector.rx.toByteArray());
+      if (speed > 0) {
+        // 10 chunks 10 ms apart
+        assertTrue(ms >= 80);
+      }
+      port.write(new byte[] { 1, 2, 3 }, 0, 3);
+      assertEquals(3, port.getTxBytes());
+    }
+  }
+
+  @Test
+  public void notACapture() throws Exception {
+    File file = File.createTempFile("capture", ".txt");
+    file.deleteOnExit();
+    Files.write(file.toPath(), "this is not a capture at all".getBytes());
+    boolean thrown = false;
+    try {
+      new SerialCapture.Reader(file.getPath());
+    } catch (IOException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+
+  /**
+   * decode throughput of a capture replayed as fast as possible
+   */
+  public static void main(String[] args) throws Exception {
+    int count = 1000000;
+    String filename = (args.length > 0) ? args[0] : capture(frames(count), 64, 0).getPath();
+    for (int round = 0; round < 3; ++round) {
+      PortReplay port = new PortReplay("replay", filename, 0);
+      Collector collector = new Collector(count);
+      HashMap<String, SerialDataListener> listeners = new HashMap<String, SerialDataListener>();
+      listeners.put(collector.getName(), collector);
+      port.open();
+      long start = System.nanoTime();
+      port.listen(listeners);
+      collector.done.await();
+      long ns = System.nanoTime() - start;
+      port.close();
+      System.out.println(String.format("%d bytes %d ms %.1f MB/s", port.getRxBytes(), ns / 1000000, port.getRxBytes() * 1000.0 / ns));
+    }
+  }
+
+}
@@ -10,6 +10,9 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -17,8 +20,10 @@ import org.junit.runner.Description;
 import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
+import org.myrobotlab.arduino.AckWindow;
 import org.myrobotlab.arduino.BoardInfo;
 import org.myrobotlab.arduino.Msg;
+import org.myrobotlab.arduino.virtual.MrlComm;
 import org.myrobotlab.arduino.virtual.MrlServo;
 import org.myrobotlab.logging.LoggerFactory;
 import org.myrobotlab.service.Arduino.Sketch;
@@ -26,6 +31,7 @@ import org.myrobotlab.service.data.PinData;
 import org.myrobotlab.service.interfaces.PinArrayListener;
 import org.myrobotlab.service.interfaces.PinDefinition;
 import org.myrobotlab.service.interfaces.SerialDevice;
+import org.myrobotlab.service.interfaces.ServoController;
 import org.myrobotlab.test.TestUtils;
 import org.slf4j.Logger;
 
@@ -152,6 +158,40 @@ public class ArduinoTest implements PinArrayListener {
     log.info("here");
   }
 
+  @Test
+  public final void testAckWindow() throws InterruptedException {
+    // virtual MrlComm takes a few sequenced msgs at a time
+    assertEquals(MrlComm.ACK_WINDOW, arduino.getBoardInfo().getAckWindow().intValue());
+    AckWindow window = arduino.msg.getAckWindow();
+    assertNotNull(window);
+    long sent = window.getSent();
+    for (int i = 0; i < 100; ++i) {
+      arduino.digitalWrite(10, i % 2);
+    }
+    for (int i = 0; i < 100 && window.getOutstanding() > 0; ++i) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, window.getOutstanding());
+    assertEquals(0, window.getDropped());
+    assertTrue(window.getSent() - sent >= 99);
+  }
+
+  @Test
+  public final void testCoalesce() throws InterruptedException {
+    arduino.setCoalesce(true);
+    AckWindow window = arduino.msg.getAckWindow();
+    assertNotNull(window);
+    for (int i = 0; i < 100; ++i) {
+      arduino.digitalWrite(10, i % 2);
+    }
+    for (int i = 0; i < 100 && window.getOutstanding() > 0; ++i) {
+      Thread.sleep(10);
+    }
+    arduino.setCoalesce(false);
+    assertEquals(0, window.getOutstanding());
+    assertEquals(0, window.getDropped());
+  }
+
   @Test
   public final void testDigitalWrite() {
     log.info("testDigitalWrite");
@@ -405,6 +445,98 @@ public class ArduinoTest implements PinArrayListener {
 
   }
 
+  @Test
+  public final void testServoSyncMoveTo() throws Exception {
+    log.info("testServoSyncMoveTo");
+    if (virtual == null) {
+      return;
+    }
+    arduino.connect(port);
+    Servo s1 = (Servo) Runtime.start("sync1", "Servo");
+    Servo s2 = (Servo) Runtime.start("sync2", "Servo");
+    try {
+      s1.attach(arduino, servoPin);
+      s2.attach(arduino, servoPin + 1);
+      sleep(100);
+      MrlServo m1 = (MrlServo) virtual.getDevice(arduino.getDeviceId(s1.getName()));
+      MrlServo m2 = (MrlServo) virtual.getDevice(arduino.getDeviceId(s2.getName()));
+      int before1 = m1.targetPosUs;
+      int before2 = m2.targetPosUs;
+
+      Set<ServoController> controllers = Servo.syncBegin(s1, s2);
+      s1.moveTo(30);
+      s2.moveTo(150);
+      // held back by the controller until syncEnd
+      sleep(100);
+      assertEquals(before1, m1.targetPosUs);
+      assertEquals(before2, m2.targetPosUs);
+
+      Servo.syncEnd(controllers);
+      sleep(100);
+      // one servoSyncMoveTo frame - both start in the same loop pass
+      assertEquals(arduino.degreeToMicroseconds(30).intValue(), m1.targetPosUs);
+      assertEquals(arduino.degreeToMicroseconds(150).intValue(), m2.targetPosUs);
+      assertTrue(Math.abs(m1.moveStart - m2.moveStart) <= 1);
+    } finally {
+      s1.releaseService();
+      s2.releaseService();
+    }
+  }
+
+  /**
+   * a sync opened by one thread holds back only that thread's moves
+   */
+  @Test
+  public final void testServoSyncPerThread() throws Exception {
+    log.info("testServoSyncPerThread");
+    if (virtual == null) {
+      return;
+    }
+    arduino.connect(port);
+    final Servo s1 = (Servo) Runtime.start("sync1", "Servo");
+    Servo s2 = (Servo) Runtime.start("sync2", "Servo");
+    try {
+      s1.attach(arduino, servoPin);
+      s2.attach(arduino, servoPin + 1);
+      sleep(100);
+      MrlServo m1 = (MrlServo) virtual.getDevice(arduino.getDeviceId(s1.getName()));
+      MrlServo m2 = (MrlServo) virtual.getDevice(arduino.getDeviceId(s2.getName()));
+      int before1 = m1.targetPosUs;
+
+      final CountDownLatch moved = new CountDownLatch(1);
+      final CountDownLatch end = new CountDownLatch(1);
+      Thread syncer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Set<ServoController> controllers = Servo.syncBegin(s1);
+          s1.moveTo(30);
+          moved.countDown();
+          try {
+            end.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+          }
+          Servo.syncEnd(controllers);
+        }
+      }, "syncer");
+      syncer.start();
+      assertTrue(moved.await(5, TimeUnit.SECONDS));
+
+      // not part of the other thread's batch - goes out right away
+      s2.moveTo(150);
+      sleep(100);
+      assertEquals(arduino.degreeToMicroseconds(150).intValue(), m2.targetPosUs);
+      assertEquals(before1, m1.targetPosUs);
+
+      end.countDown();
+      syncer.join(5000);
+      sleep(100);
+      assertEquals(arduino.degreeToMicroseconds(30).intValue(), m1.targetPosUs);
+    } finally {
+      s1.releaseService();
+      s2.releaseService();
+    }
+  }
+
 
   // TODO: re-enable when worky
   // @Test
@@ -0,0 +1,55 @@
+package org.myrobotlab.service.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PinSampleBufferTest {
+
+  @Test
+  public void wraps() {
+    PinSampleBuffer samples = new PinSampleBuffer(6);
+    // rounded up
+    assertEquals(8, samples.getCapacity());
+    for (int i = 0; i < 20; ++i) {
+      samples.add(i % 3, i * 10, 1000 + i);
+    }
+    assertEquals(20, samples.getHead());
+    assertEquals(12, samples.getTail());
+    assertEquals(8, samples.size());
+    for (long n = samples.getTail(); n < samples.getHead(); ++n) {
+      assertEquals(n % 3, samples.getAddress(n));
+      assertEquals(n * 10, samples.getValue(n));
+      assertEquals(1000 + n, samples.getTimestamp(n));
+    }
+  }
+
+  @Test
+  public void filters() {
+    PinSampleBuffer samples = new PinSampleBuffer(64);
+    samples.setFilter(14, 5, 0);
+    assertTrue(samples.offer(14, 100, 0));
+    assertFalse(samples.offer(14, 105, 1));
+    assertFalse(samples.offer(14, 96, 2));
+    assertTrue(samples.offer(14, 106, 3));
+    // other pins are not filtered
+    assertTrue(samples.offer(15, 100, 4));
+    assertTrue(samples.offer(15, 100, 5));
+
+    samples.setFilter(16, 0, 3);
+    int kept = 0;
+    for (int i = 0; i < 9; ++i) {
+      if (samples.offer(16, i, i)) {
+        ++kept;
+      }
+    }
+    assertEquals(3, kept);
+    assertEquals(2 + 6, samples.getDropped());
+
+    samples.clearFilter(14);
+    assertTrue(samples.offer(14, 106, 6));
+  }
+
+}